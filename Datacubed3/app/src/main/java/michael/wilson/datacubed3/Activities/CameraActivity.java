@@ -19,7 +19,19 @@ import android.widget.TextView;
 import android.widget.Toast;
 import java.io.File;
 import michael.wilson.datacubed3.Other.AutoFitTextureView;
+import michael.wilson.datacubed3.Other.BrightnessAnalyzer;
+import michael.wilson.datacubed3.Other.CameraInfoCache;
+import michael.wilson.datacubed3.Other.Clock;
 import michael.wilson.datacubed3.Other.Database;
+import michael.wilson.datacubed3.Other.EncoderBackend;
+import michael.wilson.datacubed3.Other.FacePresenceAnalyzer;
+import michael.wilson.datacubed3.Other.FrameAnalysisPipeline;
+import michael.wilson.datacubed3.Other.LabelFormatter;
+import michael.wilson.datacubed3.Other.MediaRecorderBackend;
+import michael.wilson.datacubed3.Other.MotionAnalyzer;
+import michael.wilson.datacubed3.Other.RecordingFinalizer;
+import michael.wilson.datacubed3.Other.StartupTrace;
+import michael.wilson.datacubed3.Other.VideoItem;
 import michael.wilson.datacubed3.R;
 import michael.wilson.datacubed3.Other.VideoRecorder;
 
@@ -34,9 +46,19 @@ public class CameraActivity extends AppCompatActivity
     /** Static string keys for the intent extras */
     public static final String KEY_DURATION = "KEY_DURATION", KEY_NAME = "KEY_NAME";
 
+    /** Static string key for the 'Clock.SYSTEM' time at which the record button was pressed */
+    public static final String KEY_REQUESTED_AT = "KEY_REQUESTED_AT";
+
     /** Array of permissions this activity requires **/
     private final String[] PERMISSIONS = {Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO, Manifest.permission.WRITE_EXTERNAL_STORAGE};
 
+    /** Encoder used for recordings. 'MediaCodecBackend.FACTORY' gives control over keyframes and B-frames and can preroll. **/
+    private static final EncoderBackend.Factory ENCODER = MediaRecorderBackend.FACTORY;
+
+    /** Milliseconds of preview to keep and put at the start of a recording, or 0 for none. Needs 'MediaCodecBackend.FACTORY'.
+     *  Off, as this activity starts recording as soon as the camera is ready, so there is no preview to keep yet. **/
+    private static final long PREROLL_MILLIS = 0;
+
     /** Unique request code for the permissions request */
     private final int PERMISSION_REQUESTCODE = 69;
 
@@ -52,12 +74,18 @@ public class CameraActivity extends AppCompatActivity
     /** Recording timer **/
     private CountDownTimer mTimer;
 
-    /** Timer for camera setup **/
-    private CountDownTimer mSetupTimer;
+    /** Formatter owning the buffer shown by the timer label **/
+    private final LabelFormatter mTimerFormatter = new LabelFormatter();
+
+    /** Timestamps of the phases from the record button, or creating this activity, to the first recorded frame **/
+    private StartupTrace mTrace;
 
     /** Video Recorder for handling recoding work **/
     private VideoRecorder mRecorder;
 
+    /** Scores the recorded frames for data quality: brightness, motion and whether a face is in view **/
+    private FrameAnalysisPipeline mAnalysis;
+
     /** Path of video file **/
     private String mVideoFilePath;
 
@@ -85,6 +113,13 @@ public class CameraActivity extends AppCompatActivity
     {
         super.onCreate(_savedInstanceState);
 
+        // Time the startup from the record button if it was pressed, the first frame ends it and is kept in the metrics
+        long requestedAt = getIntent().getLongExtra(KEY_REQUESTED_AT, 0);
+        mTrace = requestedAt > 0 ? new StartupTrace(Clock.SYSTEM, requestedAt) : new StartupTrace(Clock.SYSTEM);
+
+        // Look up the camera in the background while the layout is inflated and permissions are checked
+        CameraInfoCache.PREFETCH(this);
+
         // Use 'activity_camera' layout
         setContentView(R.layout.activity_camera);
 
@@ -99,20 +134,10 @@ public class CameraActivity extends AppCompatActivity
         mLayout_timer = findViewById(R.id.layout_timer);
         mLayout_timer.setVisibility(View.INVISIBLE);
 
-        // Create unique filename from recording name
-        File f;
-        String filename = name;
-        String filepath;
-        int k = 0;
-        do
-        {
-            filepath = Database.VIDEO_FOLDER(this) + "/" + filename + ".mp4";
-            f = new File(filepath);
-            filename = name + k;
-            k++;
-        }
-        while (f.exists());
-        mVideoFilePath = filepath;
+        // Reserve a unique filename from recording name, and journal it so it is recovered if the app dies while recording
+        File videoFile = Database.NEW_VIDEO_FILE(this, name);
+        Database.BEGIN_RECORDING(this, videoFile);
+        mVideoFilePath = videoFile.getPath();
 
 
         // Get the initial device orientation and store it in 'mInitialOrientationAngle'
@@ -165,6 +190,7 @@ public class CameraActivity extends AppCompatActivity
             }
         };
         mOrientationEventListener.enable();
+        mTrace.mark("activity created");
 
         // Check permissions. (Implicitly starts recording if permissions are granted)
         handlePermissions();
@@ -177,12 +203,8 @@ public class CameraActivity extends AppCompatActivity
     @Override
     protected void onDestroy()
     {
-        // Shut down video recorder (implicitly stops recording if started)
-        if (mRecorder != null)
-        {
-            mRecorder.shutdown();
-            mRecorder = null;
-        }
+        // Shut down video recorder in the background, saving what was recorded if the activity was left while recording
+        stopAndSave();
 
         // Cancel and nullify recording timer
         if (mTimer != null)
@@ -191,13 +213,6 @@ public class CameraActivity extends AppCompatActivity
             mTimer = null;
         }
 
-        // Cancel and nullify startup timer
-        if (mSetupTimer != null)
-        {
-            mSetupTimer.cancel();
-            mSetupTimer = null;
-        }
-
         // Disable and nullify orientation listener
         if (mOrientationEventListener != null)
         {
@@ -205,12 +220,21 @@ public class CameraActivity extends AppCompatActivity
             mOrientationEventListener = null;
         }
 
+        // No recorder was created, so the file no longer needs recovery.
+        // Release the reserved file. It is deleted if nothing was recorded to it.
+        if (mVideoFilePath != null)
+        {
+            Database.END_RECORDING(this, new File(mVideoFilePath));
+            Database.RELEASE_VIDEO_FILE(new File(mVideoFilePath));
+        }
+
         // nullify member objects
         mLbl_timer = null;
         mLayout_timer = null;
         mLayout_timer = null;
         mVideoFilePath = null;
         mPreviewTexture = null;
+        mAnalysis = null;
         
         super.onDestroy();
     }
@@ -291,8 +315,11 @@ public class CameraActivity extends AppCompatActivity
      */
     private void onPermissionsGranted()
     {
-        // Initialize video recorder
-        mRecorder = new VideoRecorder(this, mPreviewTexture, mVideoFilePath, mInitialOrientationAngle, recorderListener);
+        mTrace.mark("permissions granted");
+
+        // Initialize video recorder, analysing the frames as they are recorded
+        mAnalysis = new FrameAnalysisPipeline(new BrightnessAnalyzer(), new MotionAnalyzer(), new FacePresenceAnalyzer());
+        mRecorder = new VideoRecorder(this, mPreviewTexture, mVideoFilePath, mInitialOrientationAngle, mTrace, ENCODER, PREROLL_MILLIS, mAnalysis, recorderListener);
     }
 
     /** startTimer()
@@ -313,7 +340,8 @@ public class CameraActivity extends AppCompatActivity
                     // Every second, update the timer label
                     time--;
                     if (time < 0) time = 0;
-                    mLbl_timer.setText(Database.FORMAT_CLOCK(time));
+                    int length = mTimerFormatter.formatClock(time);
+                    mLbl_timer.setText(mTimerFormatter.getChars(), 0, length);
                 }
 
                 public void onFinish()
@@ -333,32 +361,35 @@ public class CameraActivity extends AppCompatActivity
 
     /** stopAndSave()
      *
-     * Stops recording, saves video file to external storage and global 'VIDEOS_LIST'
+     * Hands the recorder over to be stopped, and its video file saved to the global list of videos, in the background.
+     * Returns straight away; stopping the encoder can take a while for long recordings.
      */
     private void stopAndSave()
     {
-        // Stop recording (implicitly saves video file to external storage)
-        if (mRecorder != null)
-        {
-            if (mRecorder.isRecording()) mRecorder.stopRecordingVideo();
-        }
+        if (mRecorder == null || mVideoFilePath == null) return;
 
-        // Check if video file has been created. If so, add to global 'VIDEOS_LIST'
+        // The finalizer owns the recorder and the reserved file from now on, so 'onDestroy()' leaves them alone
+        VideoRecorder recorder = mRecorder;
         File videoFile = new File(mVideoFilePath);
-        if (mRecorder.hasStartedRecording())
+        mRecorder = null;
+        mVideoFilePath = null;
+
+        // The activity is closing, so the result is shown with the application context
+        final Context context = getApplicationContext();
+        Database.FINALIZE_RECORDING(this, recorder, videoFile, new RecordingFinalizer.Listener()
         {
-            if (mVideoFilePath != null)
+            @Override
+            public void onSaved(VideoItem _video)
             {
-                File savedFile = new File(mVideoFilePath);
-                if (savedFile.exists())
-                {
-                    Database.ADD_VIDEO(Database.VIDEO_FROM_FILE(this, videoFile));
-                    Toast.makeText(this, R.string.toast_videoSaved, Toast.LENGTH_SHORT).show();
-                }
-                else Toast.makeText(this, R.string.toast_saveFailed, Toast.LENGTH_SHORT).show();
+                Toast.makeText(context, R.string.toast_videoSaved, Toast.LENGTH_SHORT).show();
             }
-            else Toast.makeText(this, R.string.toast_saveFailed, Toast.LENGTH_SHORT).show();
-        }
+
+            @Override
+            public void onSaveFailed()
+            {
+                Toast.makeText(context, R.string.toast_saveFailed, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
 
@@ -374,27 +405,22 @@ public class CameraActivity extends AppCompatActivity
         @Override
         public void onReady()
         {
-            // Start the camera preview
-            mRecorder.startPreview();
-
-            // Delay recording so the camera has enough time to fully open.
-            mSetupTimer = new CountDownTimer(200, 100)
-            {
-                @Override
-                public void onTick(long millisUntilFinished) { }
-
-                @Override
-                public void onFinish()
-                {
-                    // When the delay is finished:
+            // The preview is running, start recording, unless the recorder was already handed over to be saved
+            if (mRecorder != null) mRecorder.startRecordingVideo();
+        }
 
-                    // Start the recording timer
-                    startTimer();
+        /** onRecordingStarted()
+         *
+         * Called when the first frame of the recording has been captured
+         */
+        @Override
+        public void onRecordingStarted()
+        {
+            // Posted before the recorder was handed over to be saved
+            if (mRecorder == null) return;
 
-                    // Start recording
-                    mRecorder.startRecordingVideo();
-                }
-            }.start();
+            // Start the recording timer
+            startTimer();
         }
 
         /** onFail()
@@ -3,6 +3,7 @@ package michael.wilson.datacubed3.Activities;
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.Toast;
 
 import com.google.android.material.tabs.TabLayout;
 import androidx.viewpager.widget.ViewPager;
@@ -35,16 +36,19 @@ public class MainActivity extends AppCompatActivity
         ViewPager viewPager = findViewById(R.id.view_pager);
         TabLayout tabs = findViewById(R.id.tabs);
 
-        // Load videos from external storage to global 'VIDEOS_LIST'
-        Thread thread = new Thread()
+        // Load videos from external storage to the global list of videos, then tell the user about files which are not
+        Database.LOAD_VIDEOS(this, new Runnable()
         {
             @Override
             public void run()
             {
-                Database.LOAD_VIDEOS(getApplicationContext());
+                int failures = Database.LOAD_FAILURES().size();
+                if (failures > 0 && !isDestroyed())
+                {
+                    Toast.makeText(MainActivity.this, getString(R.string.toast_loadFailed, failures), Toast.LENGTH_LONG).show();
+                }
             }
-        };
-        thread.start();
+        });
 
 
         // Setup tabs
@@ -60,7 +64,7 @@ public class MainActivity extends AppCompatActivity
     @Override
     protected void onDestroy()
     {
-        // Destroy global 'VIDEOS_LIST'
+        // Destroy the global list of videos
         Database.DESTROY();
         super.onDestroy();
     }
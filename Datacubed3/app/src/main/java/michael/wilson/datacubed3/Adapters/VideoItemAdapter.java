@@ -4,79 +4,264 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.engine.DiskCacheStrategy;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Locale;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.concurrent.Executor;
 import michael.wilson.datacubed3.Other.Database;
+import michael.wilson.datacubed3.Other.LabelFormatter;
+import michael.wilson.datacubed3.Other.PagedVideoSource;
+import michael.wilson.datacubed3.Other.VideoCatalog;
 import michael.wilson.datacubed3.Other.VideoItem;
 import michael.wilson.datacubed3.R;
 
 /** VideoItemAdapter
  *
- * Used to create a views which represent a list of 'VideoItem' objects
+ * Used to create a views which represent the recordings of a 'VideoCatalog'.
+ * Only a window of pages around the visible cells is resolved into 'VideoItem' objects, loaded on a background
+ * executor through a 'PagedVideoSource'. Cells whose page has not arrived yet show a placeholder, and are rebound
+ * once it does, so memory stays bounded however many recordings there are. Cells keep the stable id of their
+ * recording, so when the catalog changes they move along with it, and only the cells whose recording changed are rebound.
  */
-public class VideoItemAdapter extends ArrayAdapter<VideoItem>
+public class VideoItemAdapter extends RecyclerView.Adapter<VideoItemAdapter.ViewHolder> implements PagedVideoSource.Listener
 {
+    /** Number of cells per page, and the most pages held at once **/
+    private static final int PAGE_SIZE = 48, MAX_PAGES = 5;
+
     /** The context **/
     private Context mContext;
 
     /** ID of the layout to represent a single 'VideoItem' **/
     private int mResourceId;
 
+    /** Window of resolved recordings **/
+    private final PagedVideoSource mSource;
+
+    /** Formatter for the timestamp labels, which are cached per 'VideoItem'. Only used on the UI thread. **/
+    private final LabelFormatter mTimestampFormatter = new LabelFormatter();
+
+    /** Listener for taps on a recording **/
+    private OnItemClickListener mClickListener;
+
+    /** Runnable to run whenever the number of recordings changed, or null **/
+    private Runnable mOnCountChanged;
+
     /** VideoItemAdapter()
      *
      * @param _context The context.
      * @param _resource  ID of the layout to represent a single 'VideoItem'
-     * @param _objects The list of 'VideoItem' objects.
+     * @param _catalog Catalog of the recordings to display.
+     * @param _loader Executor which reads pages from the catalog, a background thread.
      */
-    public VideoItemAdapter(Context _context, int _resource, ArrayList<VideoItem> _objects)
+    public VideoItemAdapter(Context _context, int _resource, VideoCatalog _catalog, Executor _loader)
     {
-        super(_context, _resource, _objects);
         this.mContext = _context;
         this.mResourceId = _resource;
+        this.mSource = new PagedVideoSource(_catalog, PAGE_SIZE, MAX_PAGES, _loader, _context.getMainExecutor(), this);
+        setHasStableIds(true);
     }
 
-    /** getView()
+    /** setOrder()
+     *
+     * @param _order CatalogQuery.BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _descending Whether the largest values come first.
+     */
+    public void setOrder(int _order, boolean _descending)
+    {
+        mSource.setOrder(_order, _descending);
+    }
+
+    /** invalidate()
+     *
+     * Displays the current contents of the catalog. Must be called on the UI thread whenever the catalog changed.
+     */
+    public void invalidate()
+    {
+        mSource.invalidate();
+    }
+
+    /** setOnItemClickListener()
+     *
+     * @param _listener Listener for taps on a recording.
+     */
+    public void setOnItemClickListener(OnItemClickListener _listener)
+    {
+        this.mClickListener = _listener;
+    }
+
+    /** setOnCountChanged()
+     *
+     * @param _runnable Runnable to run whenever the number of recordings changed, or null.
+     */
+    public void setOnCountChanged(Runnable _runnable)
+    {
+        this.mOnCountChanged = _runnable;
+    }
+
+    /** getItemCount()
+     *
+     * @return Number of recordings, including those whose page is not loaded.
+     */
+    @Override
+    public int getItemCount()
+    {
+        return mSource.size();
+    }
+
+    /** getItemId()
+     *
+     * @param _position Position within the list of recordings.
+     * @return Stable ID of the recording at the given position, derived from its file path, known even while its page loads.
+     */
+    @Override
+    public long getItemId(int _position)
+    {
+        return mSource.getStableId(_position);
+    }
+
+    /** onCreateViewHolder()
      *
-     * @param _position Position within the list of 'VideoItem' objects
-     * @param _convertView Layout to represent the 'VideoItem' at the given position
      * @param _parent Parent view which contains the list of layouts
-     * @return Newly created/updated layout representing the 'VideoItem' at the given position
+     * @param _viewType Type of the view, there is only one
+     * @return Newly created view holder with a layout to represent a single 'VideoItem'
      */
     @NonNull
     @Override
-    public View getView(int _position, @Nullable View _convertView, @NonNull ViewGroup _parent)
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup _parent, int _viewType)
     {
-        // If the layout has not been created, create a new one.
-        if (_convertView == null)
+        View view = LayoutInflater.from(mContext).inflate(mResourceId, _parent, false);
+        return new ViewHolder(view);
+    }
+
+    /** onBindViewHolder()
+     *
+     * @param _holder View holder to update
+     * @param _position Position within the list of 'VideoItem' objects
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder _holder, int _position)
+    {
+        // Reference to the recording (VideoItem) this layout will represent, or null while its page is loading.
+        VideoItem tmp = mSource.get(_position);
+        _holder.video = tmp;
+        if (tmp == null)
         {
-            LayoutInflater inflater = LayoutInflater.from(mContext);
-            _convertView = inflater.inflate(mResourceId, _parent, false);
+            _holder.lbl_name.setText(null);
+            _holder.lbl_timestamp.setText(null);
+            Database.THUMBNAILS(mContext).showPlaceholder(_holder.img_thumb, R.drawable.ic_launcher_background);
+            return;
         }
 
-        // Reference to the recording (VideoItem) this layout will represent.
-        VideoItem tmp = getItem(_position);
-
         // Set the name label to display the recording name and duration
-        final TextView lbl_name = _convertView.findViewById(R.id.lbl_name);
-        lbl_name.setText(tmp.getName() + " ("+ Database.FORMAT_CLOCK(tmp.getDuration())+")");
+        // The text is written into the holder's own buffer, so rebinding does not allocate
+        int length = _holder.nameFormatter.formatName(tmp.getName(), tmp.getDuration());
+        _holder.lbl_name.setText(_holder.nameFormatter.getChars(), 0, length);
 
         // Set the timestamp label to display the date and time this recording was made
-        final TextView lbl_timestamp = _convertView.findViewById(R.id.lbl_timestamp);
-        String timeStr = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault()).format(tmp.getTimestamp());
-        lbl_timestamp.setText(timeStr);
+        _holder.lbl_timestamp.setText(mTimestampFormatter.formatTimestamp(tmp));
 
-        // Set the thumbnail image to display the thumbnail of the recording
-        final ImageView img_thumb = _convertView.findViewById(R.id.img_thumb);
-        Glide.with(getContext()).load(tmp.getFilepath()).diskCacheStrategy(DiskCacheStrategy.NONE).into(img_thumb);
+        // Set the thumbnail image to display the cached thumbnail of the recording
+        Database.THUMBNAILS(mContext).load(tmp, _holder.img_thumb, R.drawable.ic_launcher_background);
+    }
+
+    /* ~~~ LISTENERS AND CALLBACKS ~~~ */
+
+    /** onItemsChanged()
+     *
+     * Rebinds the cells whose recording changed, or whose page arrived and replaces their placeholders.
+     *
+     * @param _start First position which changed.
+     * @param _count Number of positions which changed.
+     */
+    @Override
+    public void onItemsChanged(int _start, int _count)
+    {
+        notifyItemRangeChanged(_start, _count);
+    }
 
-        return _convertView;
+    /** onItemsInserted()
+     *
+     * @param _start First position added.
+     * @param _count Number of positions added.
+     */
+    @Override
+    public void onItemsInserted(int _start, int _count)
+    {
+        notifyItemRangeInserted(_start, _count);
+        if (mOnCountChanged != null) mOnCountChanged.run();
+    }
+
+    /** onItemsRemoved()
+     *
+     * @param _start First position removed.
+     * @param _count Number of positions removed.
+     */
+    @Override
+    public void onItemsRemoved(int _start, int _count)
+    {
+        notifyItemRangeRemoved(_start, _count);
+        if (mOnCountChanged != null) mOnCountChanged.run();
+    }
+
+    /** onItemMoved()
+     *
+     * Moves the cell of a recording whose place in the order changed, without rebinding it.
+     *
+     * @param _from Position before the move.
+     * @param _to Position after the move.
+     */
+    @Override
+    public void onItemMoved(int _from, int _to)
+    {
+        notifyItemMoved(_from, _to);
+    }
+
+    /* ~~~ CLASSES AND INTERFACES ~~~ */
+
+    /** ViewHolder
+     *
+     * Holds the views of a single 'VideoItem' layout, so they are only looked up once.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener
+    {
+        final TextView lbl_name;
+        final TextView lbl_timestamp;
+        final ImageView img_thumb;
+
+        /** Formatter owning the buffer shown by the name label **/
+        final LabelFormatter nameFormatter = new LabelFormatter();
+
+        /** Recording shown by this layout, or null while it shows a placeholder **/
+        VideoItem video;
+
+        ViewHolder(View _view)
+        {
+            super(_view);
+            lbl_name = _view.findViewById(R.id.lbl_name);
+            lbl_timestamp = _view.findViewById(R.id.lbl_timestamp);
+            img_thumb = _view.findViewById(R.id.img_thumb);
+            _view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View _view)
+        {
+            // Placeholders can not be tapped
+            if (mClickListener != null && video != null) mClickListener.onItemClick(video);
+        }
+    }
+
+    /** OnItemClickListener
+     *
+     * Interface which provides a callback for taps on a recording.
+     */
+    public interface OnItemClickListener
+    {
+        /** onItemClick()
+         *
+         * @param _video The recording which was tapped.
+         */
+        void onItemClick(VideoItem _video);
     }
 }
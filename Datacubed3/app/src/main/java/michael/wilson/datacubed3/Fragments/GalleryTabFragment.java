@@ -1,17 +1,25 @@
 package michael.wilson.datacubed3.Fragments;
 
+import android.app.Activity;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.GridView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import michael.wilson.datacubed3.Other.CatalogQuery;
 import michael.wilson.datacubed3.Other.Database;
+import michael.wilson.datacubed3.Other.VideoItem;
+import michael.wilson.datacubed3.Other.VideoStore;
 import michael.wilson.datacubed3.R;
 import michael.wilson.datacubed3.Adapters.VideoItemAdapter;
 
@@ -27,6 +35,18 @@ public class GalleryTabFragment extends Fragment
     /** Toast message to appear when user taps on recording **/
     private Toast mPlaybackToast;
 
+    /** Label shown while there are no recordings **/
+    private View mLbl_empty;
+
+    /** Newest version of the list of recordings waiting to be shown, or -1 if none is waiting **/
+    private final AtomicLong mPendingVersion = new AtomicLong(-1);
+
+    /** Version of the list of recordings shown in the grid. Only used on the UI thread. **/
+    private long mShownVersion = -1;
+
+    /** Loads pages of the catalog for the grid, one at a time, while the view exists **/
+    private ExecutorService mLoader;
+
     /** onCreateView()
      *
      * Called when this fragment is crated.
@@ -41,16 +61,28 @@ public class GalleryTabFragment extends Fragment
         // Inflate 'fragment_gallery' layout
         View root = _inflater.inflate(R.layout.fragment_gallery, _container, false);
 
-        // Set the UI to display recordings (VideoItems) from the global 'VIDEOS_LIST'
-        mListAdapter = new VideoItemAdapter(getContext(), R.layout.layout_videoitem, Database.VIDEOS_LIST);
-        final GridView ui_grid = root.findViewById(R.id.ui_grid);
+        // Set the UI to display recordings (VideoItems) from the catalog of videos.
+        // The adapter only resolves the pages around the visible cells, and is refreshed whenever the list changes.
+        mLoader = Executors.newSingleThreadExecutor(LOADER_THREADS);
+        mListAdapter = new VideoItemAdapter(getContext(), R.layout.layout_videoitem, Database.CATALOG(getContext()), mLoader);
+        mListAdapter.setOnCountChanged(mUpdateEmptyLabel);
+
+        // Alphabetical, the order the recordings are loaded in
+        mListAdapter.setOrder(CatalogQuery.BY_NAME, false);
+        mLbl_empty = root.findViewById(R.id.lbl_empty);
+        final RecyclerView ui_grid = root.findViewById(R.id.ui_grid);
+        ui_grid.setHasFixedSize(true);
         ui_grid.setAdapter(mListAdapter);
+        mPendingVersion.set(-1);
+        mShownVersion = -1;
+        mVideosListener.onVideosChanged(Database.SUBSCRIBE(getContext(), mVideosListener));
+        updateEmptyLabel();
 
         // Set listener for when user taps one of the recordings
-        ui_grid.setOnItemClickListener(new AdapterView.OnItemClickListener()
+        mListAdapter.setOnItemClickListener(new VideoItemAdapter.OnItemClickListener()
         {
             @Override
-            public void onItemClick(AdapterView<?> _parent, View _view, int position, long _id)
+            public void onItemClick(VideoItem _video)
             {
                 // Inform the user that playback is not yet implemented
                 if(mPlaybackToast != null) mPlaybackToast.cancel();
@@ -65,20 +97,28 @@ public class GalleryTabFragment extends Fragment
     /** onResume()
      *
      * Called when this fragment comes back into focus.
-     * - Refreshes the list of recordings.
+     * - Refreshes the empty label.
      */
     @Override
     public void onResume()
     {
-        // Refresh the list of recordings. If there are no recordings, display the appropriate label
-        if (mListAdapter != null)
-        {
-            mListAdapter.notifyDataSetChanged();
-            if (!mListAdapter.isEmpty()) getActivity().findViewById(R.id.lbl_empty).setVisibility(View.INVISIBLE);
-        }
+        updateEmptyLabel();
         super.onResume();
     }
 
+    /** onDestroyView()
+     *
+     * Called when the view of this fragment is about to be removed.
+     */
+    @Override
+    public void onDestroyView()
+    {
+        // Stop receiving changes to the list of recordings, 'onCreateView()' subscribes again
+        Database.UNSUBSCRIBE(mVideosListener);
+        mLoader.shutdownNow();
+        super.onDestroyView();
+    }
+
     /** onDestroy()
      *
      * Called when the fragment is about to close.
@@ -87,11 +127,7 @@ public class GalleryTabFragment extends Fragment
     public void onDestroy()
     {
         // Nullify member objects
-        if (mListAdapter != null)
-        {
-            mListAdapter.clear();
-            mListAdapter = null;
-        }
+        mListAdapter = null;
 
         if (mPlaybackToast != null)
         {
@@ -99,6 +135,97 @@ public class GalleryTabFragment extends Fragment
             mPlaybackToast = null;
         }
 
+        mLbl_empty = null;
+
         super.onDestroy();
     }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** updateEmptyLabel()
+     *
+     * If there are no recordings, display the appropriate label.
+     */
+    private void updateEmptyLabel()
+    {
+        if (mListAdapter != null && mLbl_empty != null)
+        {
+            mLbl_empty.setVisibility(mListAdapter.getItemCount() == 0 ? View.VISIBLE : View.INVISIBLE);
+        }
+    }
+
+    /** runOnUiThread()
+     *
+     * Runs the given runnable on the UI thread, if this fragment is still attached to an activity.
+     *
+     * @param _runnable Runnable to run.
+     */
+    private void runOnUiThread(Runnable _runnable)
+    {
+        Activity activity = getActivity();
+        if (activity != null) activity.runOnUiThread(_runnable);
+    }
+
+    /* ~~~ LISTENERS AND CALLBACKS ~~~ */
+
+    /** Names the thread of the loader **/
+    private static final ThreadFactory LOADER_THREADS = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable _runnable)
+        {
+            Thread thread = new Thread(_runnable, "GalleryLoader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /** Shows the current contents of the catalog in the grid, unless it is shown already. Runs on the UI thread. **/
+    private final Runnable mRefreshGrid = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            long version = mPendingVersion.getAndSet(-1);
+            if (version <= mShownVersion || mListAdapter == null) return;
+            mShownVersion = version;
+            mListAdapter.invalidate();
+        }
+    };
+
+    /** Refreshes the empty label once the number of recordings may have changed. Runs on the UI thread. **/
+    private final Runnable mUpdateEmptyLabel = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            updateEmptyLabel();
+        }
+    };
+
+    /** Listener for changes to the global list of recordings **/
+    private final VideoStore.Listener mVideosListener = new VideoStore.Listener()
+    {
+        /** onVideosChanged()
+         *
+         * Called, possibly from the loader thread, when the list of recordings has changed.
+         * Versions which arrive while one is already waiting to be shown replace it, so bursts cause one refresh.
+         *
+         * @param _version Version of the list after the change.
+         */
+        @Override
+        public void onVideosChanged(long _version)
+        {
+            long previous;
+            do
+            {
+                previous = mPendingVersion.get();
+                if (previous >= _version) return;
+            }
+            while (!mPendingVersion.compareAndSet(previous, _version));
+
+            // Only the first pending version needs to schedule a refresh
+            if (previous < 0) runOnUiThread(mRefreshGrid);
+        }
+    };
 }
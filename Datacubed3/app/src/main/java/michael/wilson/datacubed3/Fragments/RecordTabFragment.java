@@ -14,7 +14,8 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import michael.wilson.datacubed3.Activities.CameraActivity;
-import michael.wilson.datacubed3.Other.Database;
+import michael.wilson.datacubed3.Other.Clock;
+import michael.wilson.datacubed3.Other.LabelFormatter;
 import michael.wilson.datacubed3.R;
 
 /** RecordTabFragment
@@ -49,13 +50,17 @@ public class RecordTabFragment extends Fragment
         final TextView lbl_duration = root.findViewById(R.id.lbl_duration);
 
         // Set the duration label to display the current slider value in clock format
-        lbl_duration.setText(Database.FORMAT_CLOCK(seek_duration.getProgress()));
+        // The label shows the formatter's buffer, which is rewritten while the slider is dragged
+        final LabelFormatter durationFormatter = new LabelFormatter();
+        int durationLength = durationFormatter.formatClock(seek_duration.getProgress());
+        lbl_duration.setText(durationFormatter.getChars(), 0, durationLength);
         seek_duration.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener()
         {
             @Override
             public void onProgressChanged(SeekBar _seekBar, int _progress, boolean _fromUser)
             {
-                lbl_duration.setText(Database.FORMAT_CLOCK(_progress));
+                int length = durationFormatter.formatClock(_progress);
+                lbl_duration.setText(durationFormatter.getChars(), 0, length);
             }
 
             @Override public void onStartTrackingTouch(SeekBar _seekBar) { }
@@ -84,6 +89,7 @@ public class RecordTabFragment extends Fragment
                     Intent openCameraIntent = new Intent(getContext(), CameraActivity.class);
                     openCameraIntent.putExtra(CameraActivity.KEY_DURATION, duration);
                     openCameraIntent.putExtra(CameraActivity.KEY_NAME, name);
+                    openCameraIntent.putExtra(CameraActivity.KEY_REQUESTED_AT, Clock.SYSTEM.uptimeMillis());
                     startActivity(openCameraIntent);
                 }
             }
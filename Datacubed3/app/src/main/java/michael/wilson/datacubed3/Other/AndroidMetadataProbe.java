@@ -0,0 +1,50 @@
+package michael.wilson.datacubed3.Other;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import java.io.File;
+
+/** AndroidMetadataProbe
+ *
+ * Reads video metadata with the platform 'MediaMetadataRetriever'.
+ * Slow to set up for each file, so it is only the fallback for files 'Mp4MetadataReader' can not read.
+ */
+public class AndroidMetadataProbe implements MetadataProbe
+{
+    /** The application context **/
+    private final Context mContext;
+
+    /** AndroidMetadataProbe()
+     *
+     * @param _context The context.
+     */
+    public AndroidMetadataProbe(Context _context)
+    {
+        this.mContext = _context.getApplicationContext();
+    }
+
+    /** getDuration()
+     *
+     * @param _file File representing a video.
+     * @return Duration of the provided video file in seconds.
+     * @throws Exception If the given file is not a valid video, exception will be thrown.
+     */
+    @Override
+    public int getDuration(File _file) throws Exception
+    {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        long duration;
+        try
+        {
+            retriever.setDataSource(mContext, Uri.fromFile(_file));
+            duration = Long.parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        }
+        finally
+        {
+            // Always release the retriever, probes run in parallel and a leak would pile up quickly
+            retriever.release();
+        }
+        return (int) (duration / 1000);
+    }
+}
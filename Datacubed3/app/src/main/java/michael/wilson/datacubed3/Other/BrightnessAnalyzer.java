@@ -0,0 +1,36 @@
+package michael.wilson.datacubed3.Other;
+
+/** BrightnessAnalyzer
+ *
+ * Scores frames by their mean luma, from 0 for black to 1 for white, sampled on a grid.
+ */
+public class BrightnessAnalyzer implements FrameAnalyzer
+{
+    /** Name of the scores, see 'FrameAnalysisPipeline.getMean()' **/
+    public static final String NAME = "brightness";
+
+    /** Pixels between samples, in both directions **/
+    private static final int STEP = 8;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public double analyze(LumaFrame _frame)
+    {
+        long sum = 0;
+        int count = 0;
+        for (int y = STEP / 2; y < _frame.getHeight(); y += STEP)
+        {
+            for (int x = STEP / 2; x < _frame.getWidth(); x += STEP)
+            {
+                sum += _frame.luma(x, y);
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / (255.0 * count);
+    }
+}
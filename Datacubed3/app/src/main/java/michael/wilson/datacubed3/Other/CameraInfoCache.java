@@ -0,0 +1,84 @@
+package michael.wilson.datacubed3.Other;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import java.util.HashMap;
+import java.util.Map;
+
+/** CameraInfoCache
+ *
+ * Caches the camera id and 'CameraCharacteristics' for the life of the process.
+ * Querying them goes through the camera service and takes tens of milliseconds, but they never change.
+ */
+public class CameraInfoCache
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Id of the camera used for recording, or null if not known yet **/
+    private static String CAMERA_ID;
+
+    /** Characteristics by camera id **/
+    private static final Map<String, CameraCharacteristics> CHARACTERISTICS = new HashMap<>();
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** CAMERA_ID()
+     *
+     * @param _manager The camera manager.
+     * @return Id of the camera used for recording, the first one listed.
+     * @throws CameraAccessException If the camera service could not be reached.
+     */
+    public static synchronized String CAMERA_ID(CameraManager _manager) throws CameraAccessException
+    {
+        if (CAMERA_ID == null) CAMERA_ID = _manager.getCameraIdList()[0];
+        return CAMERA_ID;
+    }
+
+    /** CHARACTERISTICS()
+     *
+     * @param _manager The camera manager.
+     * @param _cameraId Id of the camera.
+     * @return Characteristics of the camera.
+     * @throws CameraAccessException If the camera service could not be reached.
+     */
+    public static synchronized CameraCharacteristics CHARACTERISTICS(CameraManager _manager, String _cameraId) throws CameraAccessException
+    {
+        CameraCharacteristics characteristics = CHARACTERISTICS.get(_cameraId);
+        if (characteristics == null)
+        {
+            characteristics = _manager.getCameraCharacteristics(_cameraId);
+            CHARACTERISTICS.put(_cameraId, characteristics);
+        }
+        return characteristics;
+    }
+
+    /** PREFETCH()
+     *
+     * Loads the camera id and characteristics on the shared background thread, so they are ready when the camera is opened.
+     * Does not need the camera permission, so it can overlap with the permission request.
+     *
+     * @param _context The context.
+     */
+    public static void PREFETCH(Context _context)
+    {
+        final CameraManager manager = (CameraManager) _context.getApplicationContext().getSystemService(Context.CAMERA_SERVICE);
+        Database.BACKGROUND().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    CHARACTERISTICS(manager, CAMERA_ID(manager));
+                }
+                catch (Exception ex)
+                {
+                    // Opening the camera will query again and report the error
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+}
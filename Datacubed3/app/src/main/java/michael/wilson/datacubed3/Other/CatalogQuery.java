@@ -0,0 +1,127 @@
+package michael.wilson.datacubed3.Other;
+
+/** CatalogQuery
+ *
+ * Filters, order and page of a query over a 'VideoCatalog'. Every filter is optional, a query without any
+ * returns all recordings. The setters return the query, so it can be built in one expression:
+ *
+ *     new CatalogQuery().timestampBetween(weekAgo, now).durationBetween(60, Integer.MAX_VALUE).nameStartsWith("P017")
+ */
+public class CatalogQuery
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Orders of the results **/
+    public static final int BY_TIMESTAMP = 0, BY_DURATION = 1, BY_NAME = 2;
+
+    /** Range of timestamps in milliseconds since the epoch, both inclusive **/
+    private long mMinTimestamp = Long.MIN_VALUE, mMaxTimestamp = Long.MAX_VALUE;
+
+    /** Range of durations in seconds, both inclusive **/
+    private int mMinDuration = Integer.MIN_VALUE, mMaxDuration = Integer.MAX_VALUE;
+
+    /** Prefix of the names, case is ignored, or null for any name **/
+    private String mNamePrefix;
+
+    /** Order of the results, and whether it is reversed **/
+    private int mOrder = BY_TIMESTAMP;
+    private boolean mDescending = false;
+
+    /** Number of results to skip, and the most to return **/
+    private int mOffset = 0, mLimit = Integer.MAX_VALUE;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** timestampBetween()
+     *
+     * @param _min Earliest timestamp in milliseconds since the epoch, inclusive.
+     * @param _max Latest timestamp in milliseconds since the epoch, inclusive.
+     * @return This query.
+     */
+    public CatalogQuery timestampBetween(long _min, long _max)
+    {
+        this.mMinTimestamp = _min;
+        this.mMaxTimestamp = _max;
+        return this;
+    }
+
+    /** durationBetween()
+     *
+     * @param _min Shortest duration in seconds, inclusive.
+     * @param _max Longest duration in seconds, inclusive.
+     * @return This query.
+     */
+    public CatalogQuery durationBetween(int _min, int _max)
+    {
+        this.mMinDuration = _min;
+        this.mMaxDuration = _max;
+        return this;
+    }
+
+    /** nameStartsWith()
+     *
+     * @param _prefix Prefix of the names, case is ignored, or null for any name.
+     * @return This query.
+     */
+    public CatalogQuery nameStartsWith(String _prefix)
+    {
+        this.mNamePrefix = _prefix;
+        return this;
+    }
+
+    /** orderBy()
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _descending Whether to return the largest values first.
+     * @return This query.
+     */
+    public CatalogQuery orderBy(int _order, boolean _descending)
+    {
+        if (_order < BY_TIMESTAMP || _order > BY_NAME) throw new IllegalArgumentException("Unknown order " + _order);
+        this.mOrder = _order;
+        this.mDescending = _descending;
+        return this;
+    }
+
+    /** page()
+     *
+     * @param _offset Number of results to skip.
+     * @param _limit Number of results to return at most.
+     * @return This query.
+     */
+    public CatalogQuery page(int _offset, int _limit)
+    {
+        if (_offset < 0 || _limit < 0) throw new IllegalArgumentException("Negative page");
+        this.mOffset = _offset;
+        this.mLimit = _limit;
+        return this;
+    }
+
+    /** matches()
+     *
+     * @param _catalog The catalog.
+     * @param _row A row of the catalog holding a recording.
+     * @return Whether the recording passes every filter of this query.
+     */
+    boolean matches(VideoCatalog _catalog, int _row)
+    {
+        long timestamp = _catalog.getTimestamp(_row);
+        int duration = _catalog.getDuration(_row);
+        return timestamp >= mMinTimestamp && timestamp <= mMaxTimestamp
+                && duration >= mMinDuration && duration <= mMaxDuration
+                && (mNamePrefix == null || _catalog.nameStartsWith(_row, mNamePrefix));
+    }
+
+    /** Getter methods **/
+    public long getMinTimestamp() { return this.mMinTimestamp; }
+    public long getMaxTimestamp() { return this.mMaxTimestamp; }
+    public int getMinDuration() { return this.mMinDuration; }
+    public int getMaxDuration() { return this.mMaxDuration; }
+    public String getNamePrefix() { return this.mNamePrefix; }
+    public int getOrder() { return this.mOrder; }
+    public boolean isDescending() { return this.mDescending; }
+    public int getOffset() { return this.mOffset; }
+    public int getLimit() { return this.mLimit; }
+    public boolean hasTimestampRange() { return this.mMinTimestamp != Long.MIN_VALUE || this.mMaxTimestamp != Long.MAX_VALUE; }
+    public boolean hasDurationRange() { return this.mMinDuration != Integer.MIN_VALUE || this.mMaxDuration != Integer.MAX_VALUE; }
+}
@@ -0,0 +1,24 @@
+package michael.wilson.datacubed3.Other;
+
+/** Clock
+ *
+ * Source of monotonic time, so timing behaviour can be controlled in tests.
+ */
+public interface Clock
+{
+    /** Clock backed by 'System.nanoTime()', which is monotonic on Android and the JVM alike **/
+    Clock SYSTEM = new Clock()
+    {
+        @Override
+        public long uptimeMillis()
+        {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    /** uptimeMillis()
+     *
+     * @return Monotonic time in milliseconds. Only differences between two calls are meaningful.
+     */
+    long uptimeMillis();
+}
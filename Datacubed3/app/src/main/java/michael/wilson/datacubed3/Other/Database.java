@@ -1,40 +1,195 @@
 package michael.wilson.datacubed3.Other;
 
 import android.content.Context;
-import android.media.MediaMetadataRetriever;
-import android.net.Uri;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import michael.wilson.datacubed3.R;
 
 /** Database
  *
  * A singleton class to statically store the list of recordings to be shown in the 'Saved Recordings' tab.
  * Provides static methods to modify the list and some additional helper functions.
+ *
+ * The list itself is held by a 'VideoStore', which does not depend on Android. This class creates it with
+ * the Android implementations of its dependencies and adds what only works on a device, like watching the
+ * recordings folder and the thumbnail cache.
  */
 public class Database
 {
-    /* ~~~ PUBLIC VARIABLES ~~~ */
+    /* ~~~ PRIVATE VARIABLES ~~~ */
+
+    /** Global list of 'VideoItems' for use throughout the application, created on first use **/
+    private static VideoStore STORE;
+
+    /** Thumbnails of the recordings, created on first use **/
+    private static ThumbnailCache THUMBNAILS;
+
+    /** Watches the recordings folder, so files added or deleted outside the app are picked up **/
+    private static VideoFolderWatcher WATCHER;
+
+    /** Hands out unique file names for new recordings, created on first use **/
+    private static FilenameAllocator FILENAMES;
 
-    /** Global list of 'VideoItems' for use throughout the application **/
-    public static ArrayList<VideoItem> VIDEOS_LIST;
+    /** Journal of recordings in progress, so interrupted ones are recovered on the next load, created on first use **/
+    private static RecordingJournal JOURNAL;
+
+    /** Finishes recordings off the UI thread, created on first use **/
+    private static RecordingFinalizer FINALIZER;
+
+    /** Thread for short tasks which must not run on the UI thread, created on first use **/
+    private static ExecutorService BACKGROUND;
+
+    /** Thread which loads the global list of videos, handing the probes to the 'ProbePool', created on first use **/
+    private static ExecutorService LOADER;
 
     /* ~~~ PUBLIC METHODS ~~~ */
 
     /** LOAD_VIDEOS()
      *
-     * Loads the global 'VIDEOS_LIST' with videos from external storage.
+     * Loads the global list of videos from external storage.
+     * Recordings which were interrupted by a crash are recovered first.
+     * Videos which are already in the on-disk index are not probed again.
+     * If the index was missing, stale, or corrupt it is rebuilt in the background.
+     * Videos are published to listeners in batches while the load is still running.
+     * Afterwards the recordings folder is watched, so later changes are applied without another load.
+     * Runs on a loader thread of its own, so it neither blocks the caller nor holds up 'BACKGROUND()'.
+     * 'DESTROY()' cancels it.
+     *
+     * @param _context The context.
+     * @param _onLoaded Runnable to run on the UI thread once the load has finished, when 'LOAD_FAILURES()' is up to date, or null.
+     */
+    public static void LOAD_VIDEOS(Context _context, final Runnable _onLoaded)
+    {
+        final Context context = _context.getApplicationContext();
+        LOADER().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                VideoStore store = STORE(context);
+                RECOVER_RECORDINGS(context);
+
+                // Start watching before listing the folder, so no change in between is missed
+                START_WATCHER(store);
+                store.load();
+                if (_onLoaded != null) new Handler(Looper.getMainLooper()).post(_onLoaded);
+            }
+        });
+    }
+
+    /** SUBSCRIBE()
+     *
+     * Registers a listener for changes to the global list of videos.
+     * Notifications may arrive out of order from different threads, compare versions to drop stale ones.
+     *
+     * @param _context The context.
+     * @param _listener Listener to notify.
+     * @return The current version of the list, read after the listener was registered.
+     */
+    public static long SUBSCRIBE(Context _context, VideoStore.Listener _listener)
+    {
+        return STORE(_context).subscribe(_listener);
+    }
+
+    /** UNSUBSCRIBE()
+     *
+     * @param _listener Listener which should no longer be notified.
+     */
+    public static synchronized void UNSUBSCRIBE(VideoStore.Listener _listener)
+    {
+        if (STORE != null) STORE.unsubscribe(_listener);
+    }
+
+    /** CATALOG()
+     *
+     * Compact catalog holding the global list of videos, which the gallery pages through instead of holding every
+     * 'VideoItem'. It is the list itself rather than a copy, so it changes as videos are loaded, added and removed.
+     *
+     * @param _context The context.
+     * @return The catalog.
+     */
+    public static VideoCatalog CATALOG(Context _context)
+    {
+        return STORE(_context).getCatalog();
+    }
+
+    /** THUMBNAILS()
+     *
+     * @param _context The context.
+     * @return The thumbnail cache, created on first use.
+     */
+    public static synchronized ThumbnailCache THUMBNAILS(Context _context)
+    {
+        if (THUMBNAILS == null)
+        {
+            Context context = _context.getApplicationContext();
+            THUMBNAILS = new ThumbnailCache(context, context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+        }
+        return THUMBNAILS;
+    }
+
+    /** BACKGROUND()
+     *
+     * Runs short tasks one at a time on a shared background thread, so callers do not each start their own.
+     *
+     * @return The shared executor, created on first use.
+     */
+    public static synchronized Executor BACKGROUND()
+    {
+        if (BACKGROUND == null)
+        {
+            BACKGROUND = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable _runnable)
+                {
+                    Thread thread = new Thread(_runnable, "Background");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return BACKGROUND;
+    }
+
+    /** LOAD_FAILURES()
+     *
+     * @return Files which could not be loaded as videos by the last 'LOAD_VIDEOS()' call which finished.
+     */
+    public static synchronized List<ProbePool.Failure> LOAD_FAILURES()
+    {
+        return STORE != null ? STORE.getLoadFailures() : Collections.<ProbePool.Failure>emptyList();
+    }
+
+    /** INDEX_FILE()
      *
      * @param _context The context.
+     * @return File where the recordings index is stored, next to the recordings folder.
      */
-    public static void LOAD_VIDEOS(Context _context)
+    public static File INDEX_FILE(Context _context)
     {
-        VIDEOS_LIST = new ArrayList<>();
-        String path = VIDEO_FOLDER(_context);
-        File directory = new File(path);
-        File[] files = directory.listFiles();
-        for (File file : files) ADD_VIDEO(VIDEO_FROM_FILE(_context, file));
+        return new File(_context.getExternalFilesDir(null), "videos.idx");
+    }
+
+    /** JOURNAL_FILE()
+     *
+     * @param _context The context.
+     * @return File where the journal of recordings in progress is stored, next to the recordings folder.
+     */
+    public static File JOURNAL_FILE(Context _context)
+    {
+        return new File(_context.getExternalFilesDir(null), "recordings.journal");
     }
 
     /** VIDEO_FOLDER()
@@ -47,31 +202,141 @@ public class Database
         return _context.getExternalFilesDir(Environment.DIRECTORY_MOVIES)+"";
     }
 
-    /** VIDEO_FROM_FILE()
+    /** NEW_VIDEO_FILE()
+     *
+     * Reserves a unique file for a new recording by creating it empty. Recordings already in the global list
+     * of videos are skipped without touching the file system. Call 'RELEASE_VIDEO_FILE()' once done with it.
      *
      * @param _context The context.
-     * @param _file File pointing to a video.
-     * @return A 'VideoItem' object which represents the provided video file.
+     * @param _name Name of the recording.
+     * @return File in the recordings folder which did not exist before.
      */
-    public static VideoItem VIDEO_FROM_FILE(Context _context, File _file)
+    public static File NEW_VIDEO_FILE(Context _context, String _name)
     {
-        VideoItem output = null;
+        VideoStore store = STORE(_context);
+        FilenameAllocator allocator = FILENAMES(store);
         try
         {
-            output = new VideoItem(_file.getAbsolutePath(), stripFiletype(_file.getName()),
-                    getVideoLength(_context, _file), new Date(_file.lastModified()));
+            return allocator.allocate(_name, ".mp4");
+        }
+        catch (IOException ex)
+        {
+            // The folder could not be written to, let the recorder report the error
+            ex.printStackTrace();
+            return Filenames.uniqueFile(store.getStorage().getVideoFolder(), _name, ".mp4");
         }
-        catch (Exception ex) { System.out.println("Invalid File!"); }
-        return output;
     }
 
-    /** ADD_VIDEO()
+    /** RELEASE_VIDEO_FILE()
      *
-     * @param _video 'VideoItem' to add to the global list of videos.
+     * Releases a file reserved by 'NEW_VIDEO_FILE()'. If nothing was recorded to it, the empty file is deleted.
+     *
+     * @param _file The reserved file.
      */
-    public static void ADD_VIDEO(VideoItem _video)
+    public static synchronized void RELEASE_VIDEO_FILE(File _file)
     {
-        if (_video != null) VIDEOS_LIST.add(_video);
+        if (FILENAMES != null) FILENAMES.release(_file);
+    }
+
+    /** BEGIN_RECORDING()
+     *
+     * Adds a recording to the journal before it starts, so it is recovered if the app dies while recording.
+     * Call 'END_RECORDING()' once the recorder has finished the file.
+     * The journal is synced to disk on the shared background thread, so this returns at once.
+     *
+     * @param _context The context.
+     * @param _file File of the recording.
+     */
+    public static void BEGIN_RECORDING(Context _context, final File _file)
+    {
+        final RecordingJournal journal = JOURNAL(_context);
+        BACKGROUND().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    journal.begin(_file);
+                }
+                catch (IOException ex)
+                {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /** END_RECORDING()
+     *
+     * Marks a recording in the journal as finished. Written on the same thread as 'BEGIN_RECORDING()',
+     * so the two are always applied in the order they were called.
+     *
+     * @param _context The context.
+     * @param _file File of the recording.
+     */
+    public static void END_RECORDING(Context _context, final File _file)
+    {
+        final RecordingJournal journal = JOURNAL(_context);
+        BACKGROUND().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    journal.end(_file);
+                }
+                catch (IOException ex)
+                {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /** RECOVER_RECORDING()
+     *
+     * Recovers a recording whose file could not be finished, see 'RecordingRecovery'.
+     * A file which cannot be played is set aside, so it is not listed as an invalid video.
+     *
+     * @param _file File of the recording.
+     */
+    public static void RECOVER_RECORDING(File _file)
+    {
+        RecordingRecovery.recover(_file);
+    }
+
+    /** FINALIZE_RECORDING()
+     *
+     * Stops a recorder and saves its recording in the background, see 'RecordingFinalizer'.
+     * Takes over the recorder and the reserved file, so the caller no longer shuts down or releases them.
+     *
+     * @param _context The context.
+     * @param _recorder The recorder.
+     * @param _file File of the recording, reserved by 'NEW_VIDEO_FILE()'.
+     * @param _listener Listener to notify on the UI thread, or null.
+     * @return Future of the recording added to the global list of videos, or of null if nothing was saved.
+     */
+    public static Future<VideoItem> FINALIZE_RECORDING(Context _context, VideoRecorder _recorder, File _file, RecordingFinalizer.Listener _listener)
+    {
+        return FINALIZER(_context).finish(_recorder, _file, _listener);
+    }
+
+    /** ADD_RECORDED()
+     *
+     * Adds a recording just made by this app from what the recorder measured, without probing the file.
+     * Safe to call from any thread.
+     *
+     * @param _context The context.
+     * @param _file File of the recording.
+     * @param _duration Duration of the recording in seconds.
+     * @param _metrics Quality metrics of the recording, or null if there are none.
+     * @return The 'VideoItem' which was added.
+     */
+    public static VideoItem ADD_RECORDED(Context _context, File _file, int _duration, RecordingMetrics _metrics)
+    {
+        return STORE(_context).addRecorded(_file, _duration, _metrics);
     }
 
     /** FORMAT_CLOCK()
@@ -84,56 +349,167 @@ public class Database
      */
     public static String FORMAT_CLOCK(int _duration)
     {
-        int minutes = _duration / 60;
-        int seconds = _duration - (minutes * 60);
-        return minutes+":"+String.format("%02d", seconds);
+        // Labels which are updated repeatedly should use a 'LabelFormatter' instead
+        return LabelFormatter.appendClock(new StringBuilder(8), _duration).toString();
     }
 
     /** DESTROY()
      *
-     * Destroys all objects in global 'VIDEOS_LIST' and nullifies the list itself.
+     * Cancels any load in progress, stops watching the recordings folder,
+     * empties the global list of videos, and removes all listeners.
+     * 'VideoItems' are left intact, since snapshots handed out earlier may still be read.
      */
-    public static void DESTROY()
+    public static synchronized void DESTROY()
     {
-        for (VideoItem v : VIDEOS_LIST)
+        STOP_WATCHER();
+        if (STORE != null) STORE.destroy();
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** LOADER()
+     *
+     * @return The executor which runs 'LOAD_VIDEOS()', created on first use.
+     */
+    private static synchronized Executor LOADER()
+    {
+        if (LOADER == null)
         {
-            if (v != null) v.destroy();
+            LOADER = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable _runnable)
+                {
+                    Thread thread = new Thread(_runnable, "VideoLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
+        return LOADER;
+    }
 
-        if (VIDEOS_LIST != null)
+    /** STORE()
+     *
+     * @param _context The context.
+     * @return The global list of videos, created on first use with the Android implementations of its dependencies.
+     */
+    private static synchronized VideoStore STORE(Context _context)
+    {
+        if (STORE == null)
         {
-            VIDEOS_LIST.clear();
-            VIDEOS_LIST = null;
+            Context context = _context.getApplicationContext();
+            StorageLocation storage = new FolderStorageLocation(new File(VIDEO_FOLDER(context)), INDEX_FILE(context));
+            STORE = new VideoStore(new Mp4MetadataReader(new AndroidMetadataProbe(context)), storage, Clock.SYSTEM);
         }
+        return STORE;
     }
 
-    /* ~~~ PRIVATE METHODS ~~~ */
+    /** FILENAMES()
+     *
+     * @param _store The global list of videos.
+     * @return The file name allocator for the recordings folder, created on first use.
+     */
+    private static synchronized FilenameAllocator FILENAMES(VideoStore _store)
+    {
+        if (FILENAMES == null) FILENAMES = new FilenameAllocator(_store.getStorage().getVideoFolder(), _store.getCatalog());
+        return FILENAMES;
+    }
+
+    /** FINALIZER()
+     *
+     * @param _context The context.
+     * @return The recording finalizer, created on first use.
+     */
+    private static synchronized RecordingFinalizer FINALIZER(Context _context)
+    {
+        if (FINALIZER == null) FINALIZER = new RecordingFinalizer(_context);
+        return FINALIZER;
+    }
 
-    /** stripFiletype()
+    /** JOURNAL()
      *
-     * @param _filename Filename string.
-     * @return The given filename string without the file type. (For example '.mp4')
+     * @param _context The context.
+     * @return The journal of recordings in progress, created on first use.
      */
-    private static String stripFiletype(String _filename)
+    private static synchronized RecordingJournal JOURNAL(Context _context)
     {
-        return _filename.substring(0, _filename.lastIndexOf('.'));
+        if (JOURNAL == null) JOURNAL = new RecordingJournal(JOURNAL_FILE(_context.getApplicationContext()));
+        return JOURNAL;
     }
 
-    /** getVideoLength()
+    /** RECOVER_RECORDINGS()
+     *
+     * Recovers the recordings which the journal lists as begun but not ended, then compacts the journal.
+     * Only the headers of the top-level boxes are read, so this is cheap even for long recordings.
      *
      * @param _context The context.
-     * @param _file File representing a video.
-     * @return Duration of the provided video file in seconds.
-     * @throws Exception If the given file is not a valid video, exception will be thrown.
      */
-    private static int getVideoLength(Context _context, File _file) throws Exception
+    private static void RECOVER_RECORDINGS(Context _context)
+    {
+        RecordingJournal journal = JOURNAL(_context);
+        try
+        {
+            List<File> interrupted = journal.interrupted();
+            if (interrupted.isEmpty()) return;
+            for (File file : interrupted)
+            {
+                int repaired = RecordingRecovery.recover(file);
+                System.out.println("Recovered " + file.getName() + ", " + repaired + " file(s) repaired");
+            }
+            journal.compact();
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /** START_WATCHER()
+     *
+     * Stops the previous folder watcher, if any, and starts watching the recordings folder of the store.
+     * Changes are applied to the global list of videos.
+     *
+     * @param _store The global list of videos.
+     */
+    private static synchronized void START_WATCHER(final VideoStore _store)
     {
-        int output = 0;
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        retriever.setDataSource(_context, Uri.fromFile(_file));
-        long duration = Long.parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
-        retriever.release();
-        output = (int) (duration / 1000);
-        return output;
+        STOP_WATCHER();
+        WATCHER = new VideoFolderWatcher(_store.getStorage().getVideoFolder(), new VideoFolderWatcher.Listener()
+        {
+            @Override
+            public void onFilesChanged(List<File> _changed, List<File> _removed)
+            {
+                // Reserved files are empty or half written until released, and a finished recording is added by
+                // 'ADD_RECORDED()' before that, so they are not probed here
+                FilenameAllocator filenames = FILENAMES(_store);
+                List<File> changed = new ArrayList<>(_changed.size());
+                for (File file : _changed)
+                {
+                    if (!filenames.isReserved(file)) changed.add(file);
+                }
+                _store.applyChanges(changed, _removed);
+            }
+
+            @Override
+            public void onFolderDeleted()
+            {
+                _store.clear();
+            }
+        });
+        WATCHER.startWatching();
+    }
+
+    /** STOP_WATCHER()
+     *
+     * Stops watching the recordings folder.
+     */
+    private static synchronized void STOP_WATCHER()
+    {
+        if (WATCHER != null)
+        {
+            WATCHER.stopWatching();
+            WATCHER = null;
+        }
     }
 }
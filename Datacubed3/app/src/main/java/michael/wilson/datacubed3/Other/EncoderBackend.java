@@ -0,0 +1,93 @@
+package michael.wilson.datacubed3.Other;
+
+import android.view.Surface;
+import java.io.IOException;
+
+/** EncoderBackend
+ *
+ * Encodes the frames the camera sends to its input surface, along with audio from the microphone, into mp4 files.
+ * The input surface stays the same for the life of the backend, so it can be part of a capture session
+ * which outlives individual recordings.
+ *
+ * A recording is made by calling 'prepare()', 'start()' and 'stop()', in that order, and can be repeated.
+ * If segments are set, the recording rolls over to a new file without a gap whenever a segment is full.
+ * Backends which support it can also preroll between 'prepare()' and 'start()', encoding into a
+ * 'PrerollBuffer' which is written to the start of the file once recording starts.
+ */
+public interface EncoderBackend
+{
+    /** getInputSurface()
+     *
+     * @return Surface the camera should send frames to while recording.
+     */
+    Surface getInputSurface();
+
+    /** setSegments()
+     *
+     * Splits the next recording into segments. Must be called before 'prepare()'.
+     *
+     * @param _segments The segments to record into, or null to record into a single file.
+     */
+    void setSegments(SegmentedRecording _segments);
+
+    /** prepare()
+     *
+     * Prepares a recording to a file.
+     *
+     * @param _filePath Path of the mp4 file to write.
+     * @param _orientationHint Rotation of the video in degrees.
+     * @throws IOException If the file could not be opened for writing.
+     */
+    void prepare(String _filePath, int _orientationHint) throws IOException;
+
+    /** startPreroll()
+     *
+     * Starts encoding into a buffer, keeping the last few seconds. Call after 'prepare()'.
+     * The camera should already be sending frames to the input surface.
+     *
+     * @param _buffer Buffer to keep the encoded samples in.
+     * @return Whether the backend supports prerolling. If not, nothing is started.
+     */
+    boolean startPreroll(PrerollBuffer _buffer);
+
+    /** start()
+     *
+     * Starts encoding into the prepared file. If prerolling, the buffered samples are written first
+     * and encoding carries on without a gap.
+     */
+    void start();
+
+    /** stop()
+     *
+     * Stops encoding and finishes the file. The backend can be prepared again afterwards.
+     */
+    void stop();
+
+    /** getFirstSampleNanos()
+     *
+     * @return 'SystemClock.elapsedRealtimeNanos()' when the first video sample after 'start()' was written to the file,
+     *         or 0 if none has been yet, or the backend can not tell.
+     */
+    long getFirstSampleNanos();
+
+    /** release()
+     *
+     * Releases the encoders and the input surface. The backend can not be used afterwards.
+     */
+    void release();
+
+    /** Factory
+     *
+     * Creates a backend for the chosen settings, once the video size is known.
+     */
+    interface Factory
+    {
+        /** create()
+         *
+         * @param _settings Encoding settings.
+         * @return A new backend.
+         * @throws IOException If the encoders could not be created.
+         */
+        EncoderBackend create(EncoderSettings _settings) throws IOException;
+    }
+}
@@ -0,0 +1,49 @@
+package michael.wilson.datacubed3.Other;
+
+/** EncoderCapabilities
+ *
+ * What the device's video encoder can sustain, as read by 'EncoderProfileSelector'.
+ * On Android this comes from 'MediaCodecList' and 'CamcorderProfile', in tests it is faked.
+ */
+public interface EncoderCapabilities
+{
+    /** isSizeSupported()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @return Whether the encoder can encode this size at all.
+     */
+    boolean isSizeSupported(int _width, int _height);
+
+    /** getMeasuredFrameRate()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @return The lowest frame rate the encoder was measured to achieve at this size, or -1 if it was not measured.
+     */
+    double getMeasuredFrameRate(int _width, int _height);
+
+    /** isRateSupported()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @param _frameRate Frame rate in frames per second.
+     * @return Whether the encoder declares support for this size at this frame rate.
+     */
+    boolean isRateSupported(int _width, int _height, int _frameRate);
+
+    /** getMaxBitRate()
+     *
+     * @return Highest bitrate the encoder supports, in bits per second.
+     */
+    int getMaxBitRate();
+
+    /** getReferenceBitRate()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @param _frameRate Frame rate in frames per second.
+     * @return Bitrate the device's own camcorder profiles use for this size and frame rate, or -1 if unknown.
+     */
+    int getReferenceBitRate(int _width, int _height, int _frameRate);
+}
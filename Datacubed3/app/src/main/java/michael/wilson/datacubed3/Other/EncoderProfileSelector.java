@@ -0,0 +1,152 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/** EncoderProfileSelector
+ *
+ * Chooses the video size, frame rate and bitrate for recordings from the encoder's capabilities.
+ *
+ * Sizes the camera can record are tried from largest to smallest, keeping the 3x4 aspect ratio and the
+ * width limit of the recordings. The first size the encoder was measured to sustain at the preferred frame
+ * rate wins, falling back to lower frame rates. The bitrate follows the device's camcorder profile for that
+ * size, so small sizes on slow phones and large sizes on fast phones each get a fitting bitrate.
+ */
+public class EncoderProfileSelector
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Frame rates to try, in order of preference **/
+    private static final int[] FRAME_RATES = {30, 24};
+
+    /** Widest video which is recorded **/
+    private static final int MAX_WIDTH = 1080;
+
+    /** Upper and lower limits of the bitrate, in bits per second **/
+    private static final int MAX_BIT_RATE = 10000000, MIN_BIT_RATE = 1000000;
+
+    /** Bits per pixel per frame, used when the device has no camcorder profile to go by **/
+    private static final double BITS_PER_PIXEL = 0.15;
+
+    /** Capabilities of the encoder **/
+    private final EncoderCapabilities mCapabilities;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** EncoderProfileSelector()
+     *
+     * @param _capabilities Capabilities of the encoder.
+     */
+    public EncoderProfileSelector(EncoderCapabilities _capabilities)
+    {
+        this.mCapabilities = _capabilities;
+    }
+
+    /** select()
+     *
+     * @param _widths Widths of the sizes the camera can record.
+     * @param _heights Heights of the sizes the camera can record, in the same order.
+     * @return The chosen settings, with the reason they were chosen.
+     */
+    public Choice select(int[] _widths, int[] _heights)
+    {
+        // Collect the 3x4 sizes within the width limit, largest first
+        List<int[]> sizes = new ArrayList<>();
+        for (int i = 0; i < _widths.length; i++)
+        {
+            if (_widths[i] == _heights[i] * 4 / 3 && _widths[i] <= MAX_WIDTH) sizes.add(new int[] {_widths[i], _heights[i]});
+        }
+        Collections.sort(sizes, new Comparator<int[]>()
+        {
+            @Override
+            public int compare(int[] _lhs, int[] _rhs)
+            {
+                return Long.compare((long) _rhs[0] * _rhs[1], (long) _lhs[0] * _lhs[1]);
+            }
+        });
+
+        // Take the largest size and highest frame rate the encoder can keep up with
+        for (int frameRate : FRAME_RATES)
+        {
+            for (int[] size : sizes)
+            {
+                String reason = sustains(size[0], size[1], frameRate);
+                if (reason != null) return choose(size[0], size[1], frameRate, reason);
+            }
+        }
+
+        // Nothing is known to be sustainable, fall back to the last size the camera lists
+        int last = _widths.length - 1;
+        return choose(_widths[last], _heights[last], FRAME_RATES[0], "no size known to be sustainable");
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** sustains()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @param _frameRate Frame rate in frames per second.
+     * @return Why the encoder can sustain this size and frame rate, or null if it can not.
+     */
+    private String sustains(int _width, int _height, int _frameRate)
+    {
+        if (!mCapabilities.isSizeSupported(_width, _height)) return null;
+
+        // Prefer the measured frame rate, and only go by what the encoder declares if it was not measured
+        double measured = mCapabilities.getMeasuredFrameRate(_width, _height);
+        if (measured > 0) return measured >= _frameRate ? "measured " + Math.round(measured) + "fps" : null;
+        return mCapabilities.isRateSupported(_width, _height, _frameRate) ? "declared" : null;
+    }
+
+    /** choose()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @param _frameRate Frame rate in frames per second.
+     * @param _reason Why the size and frame rate were chosen.
+     * @return The settings, with a bitrate for the size and frame rate.
+     */
+    private Choice choose(int _width, int _height, int _frameRate, String _reason)
+    {
+        int bitRate = mCapabilities.getReferenceBitRate(_width, _height, _frameRate);
+        String source = "camcorder profile";
+        if (bitRate <= 0)
+        {
+            bitRate = (int) (BITS_PER_PIXEL * _width * _height * _frameRate);
+            source = BITS_PER_PIXEL + " bits per pixel";
+        }
+        bitRate = Math.max(MIN_BIT_RATE, Math.min(bitRate, Math.min(MAX_BIT_RATE, mCapabilities.getMaxBitRate())));
+        return new Choice(new EncoderSettings(_width, _height, _frameRate, bitRate), _reason + ", bitrate from " + source);
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Choice
+     *
+     * Settings chosen by the selector, and why.
+     */
+    public static class Choice
+    {
+        private final EncoderSettings mSettings;
+        private final String mReason;
+
+        Choice(EncoderSettings _settings, String _reason)
+        {
+            this.mSettings = _settings;
+            this.mReason = _reason;
+        }
+
+        /** Getter methods **/
+        public EncoderSettings getSettings() { return this.mSettings; }
+        public String getReason() { return this.mReason; }
+
+        @Override
+        public String toString()
+        {
+            return mSettings + " (" + mReason + ")";
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package michael.wilson.datacubed3.Other;
+
+/** EncoderSettings
+ *
+ * Video and audio encoding settings for an 'EncoderBackend'.
+ * Optional settings are left to the encoder's default unless they are set.
+ */
+public class EncoderSettings
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Value of an optional setting which is left to the encoder **/
+    public static final int DEFAULT = -1;
+
+    /** Clocks the camera may time its frames with: 'System.nanoTime()', or 'SystemClock.elapsedRealtimeNanos()' **/
+    public static final int CLOCK_MONOTONIC = 0, CLOCK_BOOTTIME = 1;
+
+    /** Video size in pixels **/
+    private final int mWidth, mHeight;
+
+    /** Video frame rate in frames per second **/
+    private final int mFrameRate;
+
+    /** Video bitrate in bits per second **/
+    private final int mBitRate;
+
+    /** Seconds between keyframes **/
+    private int mKeyFrameInterval = 1;
+
+    /** Encoder profile and level, such as 'MediaCodecInfo.CodecProfileLevel.AVCProfileHigh', or 'DEFAULT' **/
+    private int mProfile = DEFAULT, mLevel = DEFAULT;
+
+    /** Maximum number of consecutive B-frames, or 'DEFAULT' **/
+    private int mMaxBFrames = DEFAULT;
+
+    /** Audio sample rate in Hz **/
+    private int mAudioSampleRate = 44100;
+
+    /** Audio bitrate in bits per second **/
+    private int mAudioBitRate = 128000;
+
+    /** Clock of the camera's frame timestamps, which the audio timestamps are put on **/
+    private int mSensorClock = CLOCK_MONOTONIC;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** EncoderSettings()
+     *
+     * @param _width Video width in pixels.
+     * @param _height Video height in pixels.
+     * @param _frameRate Video frame rate in frames per second.
+     * @param _bitRate Video bitrate in bits per second.
+     */
+    public EncoderSettings(int _width, int _height, int _frameRate, int _bitRate)
+    {
+        this.mWidth = _width;
+        this.mHeight = _height;
+        this.mFrameRate = _frameRate;
+        this.mBitRate = _bitRate;
+    }
+
+    /** Setter methods, returning these settings so they can be chained **/
+    public EncoderSettings setKeyFrameInterval(int _seconds) { this.mKeyFrameInterval = _seconds; return this; }
+    public EncoderSettings setProfile(int _profile, int _level) { this.mProfile = _profile; this.mLevel = _level; return this; }
+    public EncoderSettings setMaxBFrames(int _maxBFrames) { this.mMaxBFrames = _maxBFrames; return this; }
+    public EncoderSettings setAudio(int _sampleRate, int _bitRate) { this.mAudioSampleRate = _sampleRate; this.mAudioBitRate = _bitRate; return this; }
+    public EncoderSettings setSensorClock(int _clock) { this.mSensorClock = _clock; return this; }
+
+    /** Getter methods **/
+    public int getWidth() { return this.mWidth; }
+    public int getHeight() { return this.mHeight; }
+    public int getFrameRate() { return this.mFrameRate; }
+    public int getBitRate() { return this.mBitRate; }
+    public int getKeyFrameInterval() { return this.mKeyFrameInterval; }
+    public int getProfile() { return this.mProfile; }
+    public int getLevel() { return this.mLevel; }
+    public int getMaxBFrames() { return this.mMaxBFrames; }
+    public int getAudioSampleRate() { return this.mAudioSampleRate; }
+    public int getAudioBitRate() { return this.mAudioBitRate; }
+    public int getSensorClock() { return this.mSensorClock; }
+
+    /** toString()
+     *
+     * @return The settings in a readable form, for logging.
+     */
+    @Override
+    public String toString()
+    {
+        return mWidth + "x" + mHeight + "@" + mFrameRate + "fps " + (mBitRate / 1000) + "kbps"
+                + ", keyframe every " + mKeyFrameInterval + "s"
+                + ", profile " + (mProfile == DEFAULT ? "default" : mProfile + "/" + mLevel)
+                + ", B-frames " + (mMaxBFrames == DEFAULT ? "default" : String.valueOf(mMaxBFrames))
+                + ", audio " + mAudioSampleRate + "Hz " + (mAudioBitRate / 1000) + "kbps";
+    }
+}
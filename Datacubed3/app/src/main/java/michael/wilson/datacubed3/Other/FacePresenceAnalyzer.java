@@ -0,0 +1,26 @@
+package michael.wilson.datacubed3.Other;
+
+/** FacePresenceAnalyzer
+ *
+ * Scores frames 1 if the camera detected a face in them and 0 if it did not, so the mean is the share of
+ * frames with a face. Detection is done by the camera itself, see 'LumaFrame.getFaceCount()'.
+ */
+public class FacePresenceAnalyzer implements FrameAnalyzer
+{
+    /** Name of the scores, see 'FrameAnalysisPipeline.getMean()' **/
+    public static final String NAME = "face";
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public double analyze(LumaFrame _frame)
+    {
+        int faces = _frame.getFaceCount();
+        if (faces < 0) return Double.NaN;
+        return faces > 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,144 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** FilenameAllocator
+ *
+ * Hands out unique file names for new recordings, following the same pattern as 'Filenames.uniqueFile()':
+ * 'name.ext', then 'name0.ext', 'name1.ext' and so on.
+ *
+ * Instead of asking the file system about every candidate, names which are known to be taken are skipped
+ * in memory, and a counter per base name remembers where the last search ended. Names are known to be taken
+ * if they were handed out before, or if they belong to a recording in the catalog of the folder. Only a candidate which is
+ * not known to be taken touches the file system, through 'File.createNewFile()', which atomically creates
+ * the empty file. That reserves the name, so two recordings started close together, even from different
+ * threads or processes, never get the same file.
+ */
+public class FilenameAllocator
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Folder the files are allocated in **/
+    private final File mFolder;
+
+    /** Names of files which are known to exist in the folder **/
+    private final Set<String> mTaken = new HashSet<>();
+
+    /** Next suffix to try per base name and extension, -1 being no suffix **/
+    private final Map<String, Integer> mNextSuffix = new HashMap<>();
+
+    /** Reservations which have not been released, by file name **/
+    private final Map<String, Reservation> mReserved = new HashMap<>();
+
+    /** Catalog of the recordings in the folder, or null if none is known **/
+    private final VideoCatalog mRecordings;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** FilenameAllocator()
+     *
+     * @param _folder Folder the files are allocated in.
+     */
+    public FilenameAllocator(File _folder)
+    {
+        this(_folder, null);
+    }
+
+    /** FilenameAllocator()
+     *
+     * @param _folder Folder the files are allocated in.
+     * @param _recordings Catalog of the recordings in the folder, whose names are skipped without touching the
+     *                    file system, or null. It is read as it changes, so it never has to be copied.
+     */
+    public FilenameAllocator(File _folder, VideoCatalog _recordings)
+    {
+        this.mFolder = _folder;
+        this.mRecordings = _recordings;
+    }
+
+    /** allocate()
+     *
+     * Reserves the first free name by creating an empty file with it.
+     *
+     * @param _name Name of the recording.
+     * @param _extension File type including the dot. (For example '.mp4')
+     * @return The newly created, empty file.
+     * @throws IOException If the file could not be created, for example because the folder does not exist.
+     */
+    public synchronized File allocate(String _name, String _extension) throws IOException
+    {
+        String key = _name + _extension;
+        Integer next = mNextSuffix.get(key);
+        int suffix = next != null ? next : -1;
+        while (true)
+        {
+            String candidate = suffix < 0 ? _name + _extension : _name + suffix + _extension;
+            suffix++;
+            if (mTaken.contains(candidate)) continue;
+            File file = new File(mFolder, candidate);
+            if (mRecordings != null && mRecordings.find(file.getAbsolutePath()) != VideoCatalog.NO_ROW) continue;
+
+            // Either this creates the file, or it already existed without us knowing. It is taken in both cases.
+            mTaken.add(candidate);
+            if (file.createNewFile())
+            {
+                mNextSuffix.put(key, suffix);
+                mReserved.put(candidate, new Reservation(key, suffix - 1));
+                return file;
+            }
+        }
+    }
+
+    /** release()
+     *
+     * Gives back a reserved name which was never recorded to, deleting its empty file.
+     * Does nothing if the file has been written to, or was not allocated by this allocator.
+     *
+     * @param _file File returned by 'allocate()'.
+     */
+    public synchronized void release(File _file)
+    {
+        String name = _file.getName();
+        Reservation reservation = mReserved.remove(name);
+        if (reservation == null || _file.length() > 0 || (_file.exists() && !_file.delete())) return;
+
+        mTaken.remove(name);
+
+        // If this was the last name handed out for its base name, hand it out again next time
+        Integer next = mNextSuffix.get(reservation.key);
+        if (next != null && next == reservation.suffix + 1) mNextSuffix.put(reservation.key, reservation.suffix);
+    }
+
+    /** isReserved()
+     *
+     * @param _file A file in the folder.
+     * @return Whether the file was allocated and has not been released yet, so it is still being recorded to.
+     */
+    public synchronized boolean isReserved(File _file)
+    {
+        return mReserved.containsKey(_file.getName()) && mFolder.equals(_file.getParentFile());
+    }
+
+    /* ~~~ PRIVATE CLASSES ~~~ */
+
+    /** Reservation
+     *
+     * Base name and suffix of an allocated file.
+     */
+    private static class Reservation
+    {
+        final String key;
+        final int suffix;
+
+        Reservation(String _key, int _suffix)
+        {
+            this.key = _key;
+            this.suffix = _suffix;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+
+/** Filenames
+ *
+ * Utility functions for the file names of recordings.
+ * Kept free of Android classes, so they can be used by the benchmarks and unit tests.
+ */
+public final class Filenames
+{
+    /** Filenames()
+     *
+     * Not instantiable.
+     */
+    private Filenames() { }
+
+    /** stripFiletype()
+     *
+     * @param _filename Filename string.
+     * @return The given filename string without the file type. (For example '.mp4')
+     */
+    public static String stripFiletype(String _filename)
+    {
+        return _filename.substring(0, _filename.lastIndexOf('.'));
+    }
+
+    /** uniqueFile()
+     *
+     * Finds a file in the folder which does not exist yet, named after the recording.
+     * The first choice is 'name.ext', followed by 'name0.ext', 'name1.ext' and so on.
+     *
+     * @param _folder Folder of the file.
+     * @param _name Name of the recording.
+     * @param _extension File type including the dot. (For example '.mp4')
+     * @return The first file which does not exist.
+     */
+    public static File uniqueFile(File _folder, String _name, String _extension)
+    {
+        File file = new File(_folder, _name + _extension);
+        for (int k = 0; file.exists(); k++)
+        {
+            file = new File(_folder, _name + k + _extension);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,128 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** FolderChanges
+ *
+ * Coalesces the events of a folder per file, for 'VideoFolderWatcher'.
+ *
+ * Only the latest change of each file is kept. Files which have been created but not yet closed are still being
+ * written, so they are held back until they are closed. The caller is told how long to wait before draining the
+ * changes: until no new event has arrived for a short while, but never much longer than that after the first one.
+ */
+public class FolderChanges
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Pending changes are drained once no new event has arrived for this many milliseconds... **/
+    public static final long QUIET_MILLIS = 300;
+
+    /** ...or at the latest this many milliseconds after the first pending event **/
+    public static final long MAX_DELAY_MILLIS = 1500;
+
+    /** Kinds of event **/
+    public static final int OPENED = 0, CHANGED = 1, REMOVED = 2;
+
+    /** Returned by 'add()' when there is nothing new to drain **/
+    public static final long NO_DRAIN = -1;
+
+    /** The folder the file names are relative to **/
+    private final File mFolder;
+
+    /** Clock measuring how long changes have waited **/
+    private final Clock mClock;
+
+    /** Latest pending change per file name, in the order the files were last touched **/
+    private final Map<String, Integer> mPending = new LinkedHashMap<>();
+
+    /** Names of files which have been created but not closed yet **/
+    private final Set<String> mOpen = new HashSet<>();
+
+    /** Uptime in milliseconds of the oldest pending event **/
+    private long mFirstPendingMillis;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** FolderChanges()
+     *
+     * @param _folder The folder the file names are relative to.
+     * @param _clock Clock measuring how long changes have waited.
+     */
+    public FolderChanges(File _folder, Clock _clock)
+    {
+        this.mFolder = _folder;
+        this.mClock = _clock;
+    }
+
+    /** add()
+     *
+     * @param _kind OPENED, CHANGED or REMOVED.
+     * @param _name Name of the file relative to the folder.
+     * @return Milliseconds to wait before calling 'drain()', replacing any earlier wait, or NO_DRAIN.
+     */
+    public synchronized long add(int _kind, String _name)
+    {
+        switch (_kind)
+        {
+            case OPENED:
+                // Still being written, wait for it to be closed
+                mOpen.add(_name);
+                mPending.remove(_name);
+                return NO_DRAIN;
+
+            case CHANGED:
+            case REMOVED:
+                mOpen.remove(_name);
+                if (mPending.isEmpty()) mFirstPendingMillis = mClock.uptimeMillis();
+                mPending.remove(_name);
+                mPending.put(_name, _kind);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown event " + _kind);
+        }
+
+        // Wait for the folder to go quiet, but do not wait forever during a steady stream of events
+        long waited = mClock.uptimeMillis() - mFirstPendingMillis;
+        return Math.max(0, Math.min(QUIET_MILLIS, MAX_DELAY_MILLIS - waited));
+    }
+
+    /** drain()
+     *
+     * Moves the pending changes into the given lists, in the order the files were last touched.
+     *
+     * @param _changed Receives the files which are new or have been rewritten, and are no longer being written.
+     * @param _removed Receives the files which have been deleted or moved out of the folder.
+     * @return Whether there was any change.
+     */
+    public synchronized boolean drain(List<File> _changed, List<File> _removed)
+    {
+        boolean any = false;
+        for (Map.Entry<String, Integer> e : mPending.entrySet())
+        {
+            // A file may have been reopened for writing since it was closed
+            if (mOpen.contains(e.getKey())) continue;
+            File file = new File(mFolder, e.getKey());
+            if (e.getValue() == CHANGED) _changed.add(file);
+            else _removed.add(file);
+            any = true;
+        }
+        mPending.clear();
+        return any;
+    }
+
+    /** clear()
+     *
+     * Forgets all pending changes and open files.
+     */
+    public synchronized void clear()
+    {
+        mPending.clear();
+        mOpen.clear();
+    }
+}
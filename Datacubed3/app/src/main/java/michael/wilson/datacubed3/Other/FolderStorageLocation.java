@@ -0,0 +1,83 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** FolderStorageLocation
+ *
+ * Stores the recordings in a folder on the file system.
+ */
+public class FolderStorageLocation implements StorageLocation
+{
+    /** Directory where all recordings are saved **/
+    private final File mFolder;
+
+    /** File where the recordings index is stored **/
+    private final File mIndexFile;
+
+    /** FolderStorageLocation()
+     *
+     * @param _folder Directory where all recordings are saved.
+     * @param _indexFile File where the recordings index is stored.
+     */
+    public FolderStorageLocation(File _folder, File _indexFile)
+    {
+        this.mFolder = _folder;
+        this.mIndexFile = _indexFile;
+    }
+
+    /* ~~~ STORAGE LOCATION ~~~ */
+
+    @Override
+    public File getVideoFolder() { return this.mFolder; }
+
+    @Override
+    public File getIndexFile() { return this.mIndexFile; }
+
+    @Override
+    public List<File> listVideos()
+    {
+        File[] files = mFolder.listFiles();
+        if (files == null) return Collections.emptyList();
+        return Arrays.asList(files);
+    }
+
+    @Override
+    public long lastModified(File _file) { return _file.lastModified(); }
+
+    @Override
+    public long length(File _file) { return _file.length(); }
+
+    @Override
+    public List<File> readSegments(File _file)
+    {
+        File manifest = SegmentedRecording.manifestFor(_file);
+        if (!manifest.exists()) return null;
+        try
+        {
+            return SegmentedRecording.readManifest(manifest);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public RecordingMetrics readMetrics(File _file)
+    {
+        try
+        {
+            return RecordingMetrics.read(_file);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package michael.wilson.datacubed3.Other;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** FrameAnalysisPipeline
+ *
+ * Runs a set of 'FrameAnalyzer's over camera frames on its own low priority thread, and keeps the count,
+ * mean, minimum and maximum of each analyzer's scores for data quality flags.
+ *
+ * Frames are offered from the camera's image callback, which copies the luma plane into a reused
+ * 'LumaFrame' and returns at once. Frames arriving while the analysis is busy replace the waiting one
+ * in a 'FrameHandoff', so under load frames are dropped instead of queued.
+ *
+ * Face counts come from the capture results, which arrive separately from the images. The counts of the latest
+ * results are kept by sensor timestamp, and each frame takes the count of the result with its own timestamp.
+ */
+public class FrameAnalysisPipeline
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Number of capture results whose face counts are kept, enough for the frames waiting in the camera's queues **/
+    private static final int FACE_HISTORY = 16;
+
+    /** The analyzers, run in order on each frame **/
+    private final FrameAnalyzer[] mAnalyzers;
+
+    /** Number of scores, and their sum, minimum and maximum, per analyzer **/
+    private final long[] mCounts;
+    private final double[] mSums, mMins, mMaxes;
+
+    /** Number of frames analysed **/
+    private long mAnalyzed = 0;
+
+    /** Hands the latest frame to the analysis thread **/
+    private final FrameHandoff mHandoff = new FrameHandoff();
+
+    /** Analysis thread, or null if not started **/
+    private Thread mThread;
+
+    /** Sensor timestamps and face counts of the latest capture results, as a ring. Guarded by 'mFaceCounts'. **/
+    private final long[] mFaceTimestamps = new long[FACE_HISTORY];
+    private final int[] mFaceCounts = new int[FACE_HISTORY];
+
+    /** Index in the ring the next face count is written to **/
+    private int mNextFace = 0;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** FrameAnalysisPipeline()
+     *
+     * @param _analyzers The analyzers to run on each frame.
+     */
+    public FrameAnalysisPipeline(FrameAnalyzer... _analyzers)
+    {
+        this.mAnalyzers = _analyzers.clone();
+        this.mCounts = new long[_analyzers.length];
+        this.mSums = new double[_analyzers.length];
+        this.mMins = new double[_analyzers.length];
+        this.mMaxes = new double[_analyzers.length];
+        Arrays.fill(mFaceCounts, -1);
+    }
+
+    /** start()
+     *
+     * Starts the analysis thread.
+     */
+    public synchronized void start()
+    {
+        if (mThread != null) return;
+        mThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                analyzeFrames();
+            }
+        }, "FrameAnalysis");
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /** stop()
+     *
+     * Stops the analysis thread, once the frame it is analysing is done. The pipeline can not be started again.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            thread = mThread;
+        }
+        mHandoff.close();
+        if (thread == null) return;
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /** offer()
+     *
+     * Copies a frame's luma plane and hands it to the analysis thread, replacing a frame which is still waiting.
+     * Safe to call from any thread, such as the camera's image callback.
+     * The frame's face count is looked up by its timestamp once it is analysed, see 'setFaceCount()'.
+     *
+     * @param _plane The luma plane, from its position.
+     * @param _width Width of the frame in pixels.
+     * @param _height Height of the frame in pixels.
+     * @param _rowStride Bytes from the start of one row to the next in the plane.
+     * @param _timestampNs Capture time of the frame in nanoseconds.
+     * @return Whether the frame was handed over.
+     */
+    public boolean offer(ByteBuffer _plane, int _width, int _height, int _rowStride, long _timestampNs)
+    {
+        LumaFrame frame = mHandoff.acquire();
+        if (frame == null) return false;
+        frame.set(_plane, _width, _height, _rowStride, _timestampNs, -1);
+        mHandoff.publish(frame);
+        return true;
+    }
+
+    /** setFaceCount()
+     *
+     * Keeps the number of faces the camera detected in a capture, for the frame offered with the same timestamp.
+     * Safe to call from any thread, such as the camera's capture callback.
+     *
+     * @param _timestampNs Sensor timestamp of the capture in nanoseconds, the same as the frame's.
+     * @param _faceCount Number of faces, or -1 if unknown.
+     */
+    public void setFaceCount(long _timestampNs, int _faceCount)
+    {
+        synchronized (mFaceCounts)
+        {
+            mFaceTimestamps[mNextFace] = _timestampNs;
+            mFaceCounts[mNextFace] = _faceCount;
+            mNextFace = (mNextFace + 1) % FACE_HISTORY;
+        }
+    }
+
+    /** getSummary()
+     *
+     * @return Mean, minimum and maximum score of each analyzer, and how many frames were analysed and dropped.
+     */
+    public synchronized String getSummary()
+    {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < mAnalyzers.length; i++)
+        {
+            summary.append(mAnalyzers[i].getName());
+            if (mCounts[i] == 0) summary.append(" n/a, ");
+            else summary.append(String.format(Locale.US, " %.2f (%.2f-%.2f), ", getMean(i), mMins[i], mMaxes[i]));
+        }
+        return summary.append(mAnalyzed).append(" frames analysed, ").append(getDropped()).append(" dropped").toString();
+    }
+
+    /** getMean()
+     *
+     * @param _analyzer Index of the analyzer.
+     * @return Mean of its scores, or NaN if it scored no frames.
+     */
+    public synchronized double getMean(int _analyzer)
+    {
+        return mCounts[_analyzer] == 0 ? Double.NaN : mSums[_analyzer] / mCounts[_analyzer];
+    }
+
+    /** getMean()
+     *
+     * @param _name Name of an analyzer, such as 'BrightnessAnalyzer.NAME'.
+     * @return Mean of its scores, or NaN if it scored no frames or there is no analyzer with that name.
+     */
+    public synchronized double getMean(String _name)
+    {
+        for (int i = 0; i < mAnalyzers.length; i++)
+        {
+            if (mAnalyzers[i].getName().equals(_name)) return getMean(i);
+        }
+        return Double.NaN;
+    }
+
+    /** reset()
+     *
+     * Forgets the scores so far, so the next recording is scored on its own frames.
+     */
+    public synchronized void reset()
+    {
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mSums, 0);
+        mAnalyzed = 0;
+    }
+
+    /** Getter methods **/
+    public int getAnalyzerCount() { return this.mAnalyzers.length; }
+    public String getName(int _analyzer) { return this.mAnalyzers[_analyzer].getName(); }
+    public synchronized long getCount(int _analyzer) { return this.mCounts[_analyzer]; }
+    public synchronized double getMin(int _analyzer) { return this.mCounts[_analyzer] == 0 ? Double.NaN : this.mMins[_analyzer]; }
+    public synchronized double getMax(int _analyzer) { return this.mCounts[_analyzer] == 0 ? Double.NaN : this.mMaxes[_analyzer]; }
+    public synchronized long getAnalyzed() { return this.mAnalyzed; }
+    public long getDropped() { return this.mHandoff.getDropped(); }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** analyzeFrames()
+     *
+     * Takes the latest frame and runs the analyzers over it until stopped. Runs on the analysis thread.
+     */
+    private void analyzeFrames()
+    {
+        try
+        {
+            LumaFrame frame;
+            while ((frame = mHandoff.take()) != null)
+            {
+                try
+                {
+                    analyzeFrame(frame);
+                }
+                finally
+                {
+                    mHandoff.release(frame);
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /** faceCountAt()
+     *
+     * @param _timestampNs Sensor timestamp of a frame in nanoseconds.
+     * @return Number of faces in the capture with that timestamp, or -1 if its result has not been kept.
+     */
+    private int faceCountAt(long _timestampNs)
+    {
+        synchronized (mFaceCounts)
+        {
+            for (int i = 0; i < FACE_HISTORY; i++)
+            {
+                if (mFaceTimestamps[i] == _timestampNs) return mFaceCounts[i];
+            }
+            return -1;
+        }
+    }
+
+    /** analyzeFrame()
+     *
+     * Scores a frame with each analyzer and adds the scores to the statistics. Runs on the analysis thread.
+     *
+     * @param _frame The frame.
+     */
+    private void analyzeFrame(LumaFrame _frame)
+    {
+        // By now the capture result of the frame has usually arrived
+        _frame.setFaceCount(faceCountAt(_frame.getTimestampNs()));
+        for (int i = 0; i < mAnalyzers.length; i++)
+        {
+            double score = mAnalyzers[i].analyze(_frame);
+            if (Double.isNaN(score)) continue;
+            synchronized (this)
+            {
+                if (mCounts[i] == 0 || score < mMins[i]) mMins[i] = score;
+                if (mCounts[i] == 0 || score > mMaxes[i]) mMaxes[i] = score;
+                mSums[i] += score;
+                mCounts[i]++;
+            }
+        }
+        synchronized (this)
+        {
+            mAnalyzed++;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package michael.wilson.datacubed3.Other;
+
+/** FrameAnalyzer
+ *
+ * One step of a 'FrameAnalysisPipeline', scoring each analysed frame.
+ * Runs on the pipeline's thread only, so it may keep state between frames without locking.
+ */
+public interface FrameAnalyzer
+{
+    /** getName()
+     *
+     * @return Name of the score, as shown in summaries.
+     */
+    String getName();
+
+    /** analyze()
+     *
+     * @param _frame The frame. Only valid until this method returns.
+     * @return Score of the frame, or NaN if it can not be scored.
+     */
+    double analyze(LumaFrame _frame);
+}
@@ -0,0 +1,98 @@
+package michael.wilson.datacubed3.Other;
+
+/** FrameHandoff
+ *
+ * Single-slot handoff of frames from the camera to the analysis thread, which only ever sees the latest frame.
+ *
+ * Three frames are allocated once and passed around: one being filled by the camera, one waiting in the slot,
+ * and one being analysed. Publishing a frame while another one is still waiting drops the waiting one,
+ * so the camera never waits for the analysis, however slow it is.
+ */
+public class FrameHandoff
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Frames which are neither in the slot nor in use **/
+    private final LumaFrame[] mFree = {new LumaFrame(), new LumaFrame(), new LumaFrame()};
+
+    /** Number of frames in 'mFree' **/
+    private int mFreeCount = mFree.length;
+
+    /** The latest frame, waiting to be taken, or null **/
+    private LumaFrame mSlot;
+
+    /** Number of frames which were replaced before they were taken **/
+    private long mDropped = 0;
+
+    /** Set once no more frames are taken **/
+    private boolean mClosed = false;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** acquire()
+     *
+     * @return A frame to fill and then 'publish()', or null if all frames are in use.
+     */
+    public synchronized LumaFrame acquire()
+    {
+        if (mFreeCount == 0) return null;
+        return mFree[--mFreeCount];
+    }
+
+    /** publish()
+     *
+     * Puts a filled frame in the slot, dropping the frame which was waiting there, if any.
+     *
+     * @param _frame A frame from 'acquire()'.
+     */
+    public synchronized void publish(LumaFrame _frame)
+    {
+        if (mSlot != null)
+        {
+            mFree[mFreeCount++] = mSlot;
+            mDropped++;
+        }
+        mSlot = _frame;
+        notifyAll();
+    }
+
+    /** take()
+     *
+     * Waits for a frame in the slot and takes it out. Call 'release()' with it once done.
+     *
+     * @return The latest frame, or null once the handoff is closed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized LumaFrame take() throws InterruptedException
+    {
+        while (mSlot == null && !mClosed) wait();
+        if (mClosed) return null;
+        LumaFrame frame = mSlot;
+        mSlot = null;
+        return frame;
+    }
+
+    /** release()
+     *
+     * Returns a frame which is no longer used, from 'acquire()' or 'take()'.
+     *
+     * @param _frame The frame.
+     */
+    public synchronized void release(LumaFrame _frame)
+    {
+        mFree[mFreeCount++] = _frame;
+    }
+
+    /** close()
+     *
+     * Wakes up 'take()', which returns null from now on. A frame still waiting in the slot is dropped.
+     */
+    public synchronized void close()
+    {
+        mClosed = true;
+        notifyAll();
+    }
+
+    /** Getter methods **/
+    public synchronized long getDropped() { return this.mDropped; }
+}
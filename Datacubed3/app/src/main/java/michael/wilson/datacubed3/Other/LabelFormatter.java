@@ -0,0 +1,188 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.Calendar;
+
+/** LabelFormatter
+ *
+ * Formats the clock, name and timestamp labels of the application without allocating once warmed up.
+ *
+ * Clock and name labels are written into a char buffer owned by this formatter, which is reused by every call.
+ * The buffer can be shown with 'TextView.setText(char[], int, int)', which keeps a reference to it rather
+ * than copying it, so every label needs its own formatter and the buffer must only be rewritten right before
+ * the label is set again. Timestamp labels are formatted once per recording and cached on the 'VideoItem'.
+ *
+ * Not thread safe, each formatter is meant to be used from the UI thread only.
+ */
+public class LabelFormatter
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Buffer holding the most recently formatted clock or name label **/
+    private char[] mChars = new char[16];
+
+    /** Scratch builder for timestamp labels **/
+    private final StringBuilder mBuilder = new StringBuilder(16);
+
+    /** Calendar for splitting timestamps into fields, created on first use **/
+    private Calendar mCalendar;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** formatClock()
+     *
+     * Formats a duration the same way as 'Database.FORMAT_CLOCK()' into the buffer.
+     *
+     * @param _duration A duration of time in seconds.
+     * @return Number of chars written to the start of 'getChars()'.
+     */
+    public int formatClock(int _duration)
+    {
+        ensureCapacity(clockLength(_duration));
+        return writeClock(mChars, 0, _duration);
+    }
+
+    /** formatName()
+     *
+     * Formats the name label of a recording, "name (m:ss)", into the buffer.
+     *
+     * @param _name Name of the recording.
+     * @param _duration Duration of the recording in seconds.
+     * @return Number of chars written to the start of 'getChars()'.
+     */
+    public int formatName(String _name, int _duration)
+    {
+        int nameLength = _name.length();
+        ensureCapacity(nameLength + 3 + clockLength(_duration));
+        _name.getChars(0, nameLength, mChars, 0);
+        int length = nameLength;
+        mChars[length++] = ' ';
+        mChars[length++] = '(';
+        length = writeClock(mChars, length, _duration);
+        mChars[length++] = ')';
+        return length;
+    }
+
+    /** formatTimestamp()
+     *
+     * @param _video The recording.
+     * @return The date and time the recording was made (dd/MM/yyyy HH:mm), formatted on the first call
+     *         for each recording and cached on it afterwards.
+     */
+    public String formatTimestamp(VideoItem _video)
+    {
+        String label = _video.mTimestampLabel;
+        if (label != null) return label;
+
+        if (mCalendar == null) mCalendar = Calendar.getInstance();
+        mCalendar.setTime(_video.getTimestamp());
+        mBuilder.setLength(0);
+        appendTwoDigits(mBuilder, mCalendar.get(Calendar.DAY_OF_MONTH)).append('/');
+        appendTwoDigits(mBuilder, mCalendar.get(Calendar.MONTH) + 1).append('/');
+        mBuilder.append(mCalendar.get(Calendar.YEAR)).append(' ');
+        appendTwoDigits(mBuilder, mCalendar.get(Calendar.HOUR_OF_DAY)).append(':');
+        appendTwoDigits(mBuilder, mCalendar.get(Calendar.MINUTE));
+
+        label = mBuilder.toString();
+        _video.mTimestampLabel = label;
+        return label;
+    }
+
+    /** getChars()
+     *
+     * @return The buffer holding the most recently formatted clock or name label.
+     *         Only valid until the next call to this formatter.
+     */
+    public char[] getChars()
+    {
+        return mChars;
+    }
+
+    /** appendClock()
+     *
+     * @param _builder Builder to append to.
+     * @param _duration A duration of time in seconds.
+     * @return The given builder, with the duration appended in minutes and seconds (m:ss).
+     */
+    public static StringBuilder appendClock(StringBuilder _builder, int _duration)
+    {
+        int minutes = _duration / 60;
+        int seconds = _duration - (minutes * 60);
+        _builder.append(minutes).append(':');
+        return appendTwoDigits(_builder, seconds);
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** ensureCapacity()
+     *
+     * @param _length Number of chars the buffer must be able to hold. The buffer only grows, never shrinks.
+     */
+    private void ensureCapacity(int _length)
+    {
+        if (mChars.length < _length) mChars = new char[Math.max(_length, mChars.length * 2)];
+    }
+
+    /** clockLength()
+     *
+     * @param _duration A duration of time in seconds.
+     * @return Number of chars needed to write the duration in minutes and seconds.
+     */
+    private static int clockLength(int _duration)
+    {
+        return digits(_duration / 60) + 3;
+    }
+
+    /** writeClock()
+     *
+     * @param _chars Buffer to write to, large enough for 'clockLength()' more chars.
+     * @param _offset Position to start writing at.
+     * @param _duration A duration of time in seconds.
+     * @return Position after the last char written.
+     */
+    private static int writeClock(char[] _chars, int _offset, int _duration)
+    {
+        int minutes = _duration / 60;
+        int seconds = _duration - (minutes * 60);
+
+        // Minutes, written backwards from the last digit
+        int end = _offset + digits(minutes);
+        int pos = end;
+        int value = Math.abs(minutes);
+        do
+        {
+            _chars[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value > 0);
+        if (minutes < 0) _chars[--pos] = '-';
+
+        _chars[end] = ':';
+        _chars[end + 1] = (char) ('0' + Math.abs(seconds) / 10);
+        _chars[end + 2] = (char) ('0' + Math.abs(seconds) % 10);
+        return end + 3;
+    }
+
+    /** digits()
+     *
+     * @param _value An integer.
+     * @return Number of chars needed to write the integer, including a minus sign.
+     */
+    private static int digits(int _value)
+    {
+        int count = _value < 0 ? 2 : 1;
+        for (long value = Math.abs((long) _value); value >= 10; value /= 10) count++;
+        return count;
+    }
+
+    /** appendTwoDigits()
+     *
+     * @param _builder Builder to append to.
+     * @param _value A value from 0 to 99.
+     * @return The given builder, with the value appended zero-padded to two digits.
+     */
+    private static StringBuilder appendTwoDigits(StringBuilder _builder, int _value)
+    {
+        if (_value < 10) _builder.append('0');
+        return _builder.append(_value);
+    }
+}
@@ -0,0 +1,90 @@
+package michael.wilson.datacubed3.Other;
+
+import java.nio.ByteBuffer;
+
+/** LumaFrame
+ *
+ * The luma (Y) plane of a camera frame, copied out of the camera's image so the image can be returned straight away.
+ * Frames are reused: the plane is only reallocated when a larger frame arrives.
+ */
+public class LumaFrame
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Luma values, one byte per pixel, 'mWidth' pixels per row without padding **/
+    private byte[] mData = new byte[0];
+
+    /** Size of the frame in pixels **/
+    private int mWidth, mHeight;
+
+    /** Capture time of the frame in nanoseconds **/
+    private long mTimestampNs;
+
+    /** Number of faces the camera detected in the frame, or -1 if unknown **/
+    private int mFaceCount = -1;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** set()
+     *
+     * Copies a luma plane into this frame, dropping the padding at the end of each row.
+     *
+     * @param _plane The plane, from its position. The position is left unchanged.
+     * @param _width Width of the frame in pixels.
+     * @param _height Height of the frame in pixels.
+     * @param _rowStride Bytes from the start of one row to the next in the plane.
+     * @param _timestampNs Capture time of the frame in nanoseconds.
+     * @param _faceCount Number of faces detected in the frame, or -1 if unknown.
+     */
+    public void set(ByteBuffer _plane, int _width, int _height, int _rowStride, long _timestampNs, int _faceCount)
+    {
+        int size = _width * _height;
+        if (mData.length < size) mData = new byte[size];
+
+        int start = _plane.position();
+        if (_rowStride == _width)
+        {
+            _plane.get(mData, 0, size);
+        }
+        else
+        {
+            for (int row = 0; row < _height; row++)
+            {
+                _plane.position(start + row * _rowStride);
+                _plane.get(mData, row * _width, _width);
+            }
+        }
+        _plane.position(start);
+
+        this.mWidth = _width;
+        this.mHeight = _height;
+        this.mTimestampNs = _timestampNs;
+        this.mFaceCount = _faceCount;
+    }
+
+    /** luma()
+     *
+     * @param _x Column of the pixel.
+     * @param _y Row of the pixel.
+     * @return Luma of the pixel, 0 to 255.
+     */
+    public int luma(int _x, int _y)
+    {
+        return mData[_y * mWidth + _x] & 0xff;
+    }
+
+    /** setFaceCount()
+     *
+     * @param _faceCount Number of faces detected in the frame, or -1 if unknown.
+     */
+    public void setFaceCount(int _faceCount)
+    {
+        this.mFaceCount = _faceCount;
+    }
+
+    /** Getter methods **/
+    public int getWidth() { return this.mWidth; }
+    public int getHeight() { return this.mHeight; }
+    public long getTimestampNs() { return this.mTimestampNs; }
+    public int getFaceCount() { return this.mFaceCount; }
+}
@@ -0,0 +1,569 @@
+package michael.wilson.datacubed3.Other;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.Surface;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** MediaCodecBackend
+ *
+ * 'EncoderBackend' using 'MediaCodec' encoders and a 'MediaMuxer'.
+ *
+ * The H.264 video encoder reads from a persistent input surface and the AAC audio encoder reads from an
+ * 'AudioRecord'. Both are configured once and kept running between recordings, so preparing a recording
+ * only opens a muxer. Encoded samples are drained on a dedicated thread and handed to the muxer in the
+ * codec's own output buffers, without copying. Microphone audio is read straight into the codec's input buffers.
+ *
+ * Audio is timed by the microphone's own timestamps, converted to the clock the camera times its frames with.
+ * Both tracks are then timed from the first video frame of the file, so they stay in sync; audio from before
+ * that frame is dropped.
+ *
+ * When recording into segments, the drain thread switches to a new muxer at the first video keyframe after a
+ * segment is full. That keyframe is the first sample of the new segment, so no frames are lost between segments.
+ *
+ * When prerolling, the same threads run before the recording starts, but the drain thread copies the samples
+ * into a 'PrerollBuffer' instead. Once started, it writes the buffer to the muxer before the next sample,
+ * so the recording begins with the buffered seconds and carries on without a gap.
+ */
+public class MediaCodecBackend implements EncoderBackend
+{
+    /** Factory creating this backend **/
+    public static final Factory FACTORY = new Factory()
+    {
+        @Override
+        public EncoderBackend create(EncoderSettings _settings) throws IOException
+        {
+            return new MediaCodecBackend(_settings);
+        }
+    };
+
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** How long to wait for a codec buffer before checking the other codec, in microseconds **/
+    private static final long TIMEOUT_US = 10000;
+
+    /** Bytes of one frame of mono 16 bit audio **/
+    private static final int BYTES_PER_FRAME = 2;
+
+    /** Encoding settings **/
+    private final EncoderSettings mSettings;
+
+    /** Formats the encoders are configured with, kept to configure them again after each recording **/
+    private final MediaFormat mVideoConfig, mAudioConfig;
+
+    /** Persistent surface the video encoder reads from **/
+    private final Surface mInputSurface;
+
+    /** Video and audio encoders, running for the life of this backend **/
+    private final MediaCodec mVideoCodec, mAudioCodec;
+
+    /** Output formats of the encoders. They are reported once, so they are kept for later recordings. **/
+    private MediaFormat mVideoFormat, mAudioFormat;
+
+    /** Muxer writing the current recording, and the path of its first file **/
+    private MediaMuxer mMuxer;
+    private String mFilePath;
+
+    /** Rotation of the current recording in degrees **/
+    private int mOrientationHint;
+
+    /** Segments of the current recording, or null to record into a single file **/
+    private SegmentedRecording mSegments;
+
+    /** Bytes written to the current segment **/
+    private long mSegmentBytes = 0;
+
+    /** Muxer tracks of the current recording, or -1 if not added yet **/
+    private int mVideoTrack = -1, mAudioTrack = -1;
+
+    /** Whether the muxer has been started, and whether any sample has been written to the current recording **/
+    private boolean mMuxerStarted = false, mWroteSample = false;
+
+    /** 'SystemClock.elapsedRealtimeNanos()' when the first video sample after 'start()' was written, or 0 before it **/
+    private volatile long mFirstSampleNanos = 0;
+
+    /** Time of the first video frame of the current segment, which both tracks are timed from, or -1 before it **/
+    private long mStartUs = -1;
+
+    /** Time of the microphone's first frame, if it had no timestamp when it was read, or -1 **/
+    private long mAudioAnchorUs = -1;
+
+    /** Microphone input of the current recording **/
+    private AudioRecord mAudioRecord;
+
+    /** Threads feeding the audio encoder and draining both encoders **/
+    private Thread mAudioThread, mDrainThread;
+
+    /** Set when the current recording should end **/
+    private volatile boolean mStopping = false;
+
+    /** Buffer the drain thread writes samples to while prerolling, or null once they go to the muxer **/
+    private PrerollBuffer mPreroll;
+
+    /** Set when recording starts after prerolling, so the drain thread writes the buffer to the muxer **/
+    private volatile boolean mPrerollEnding = false;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** MediaCodecBackend()
+     *
+     * Configures and starts the encoders.
+     *
+     * @param _settings Encoding settings.
+     * @throws IOException If an encoder could not be created.
+     */
+    public MediaCodecBackend(EncoderSettings _settings) throws IOException
+    {
+        this.mSettings = _settings;
+        this.mInputSurface = MediaCodec.createPersistentInputSurface();
+
+        // Video encoder settings
+        MediaFormat video = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, _settings.getWidth(), _settings.getHeight());
+        video.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        video.setInteger(MediaFormat.KEY_BIT_RATE, _settings.getBitRate());
+        video.setInteger(MediaFormat.KEY_FRAME_RATE, _settings.getFrameRate());
+        video.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, _settings.getKeyFrameInterval());
+        if (_settings.getProfile() != EncoderSettings.DEFAULT)
+        {
+            video.setInteger(MediaFormat.KEY_PROFILE, _settings.getProfile());
+            if (_settings.getLevel() != EncoderSettings.DEFAULT) video.setInteger(MediaFormat.KEY_LEVEL, _settings.getLevel());
+        }
+        if (_settings.getMaxBFrames() != EncoderSettings.DEFAULT && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        {
+            video.setInteger(MediaFormat.KEY_MAX_B_FRAMES, _settings.getMaxBFrames());
+        }
+        mVideoConfig = video;
+
+        // Audio encoder settings
+        MediaFormat audio = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, _settings.getAudioSampleRate(), 1);
+        audio.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        audio.setInteger(MediaFormat.KEY_BIT_RATE, _settings.getAudioBitRate());
+        mAudioConfig = audio;
+
+        mVideoCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        mAudioCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        startEncoders();
+    }
+
+    @Override
+    public Surface getInputSurface()
+    {
+        return mInputSurface;
+    }
+
+    @Override
+    public void setSegments(SegmentedRecording _segments)
+    {
+        this.mSegments = _segments;
+    }
+
+    /** prepare()
+     *
+     * Opens a muxer for the file and the microphone. If the encoders have already reported their formats,
+     * the tracks are added and the muxer is started straight away.
+     *
+     * @param _filePath Path of the mp4 file to write.
+     * @param _orientationHint Rotation of the video in degrees.
+     * @throws IOException If the file could not be opened for writing.
+     */
+    @Override
+    public void prepare(String _filePath, int _orientationHint) throws IOException
+    {
+        mOrientationHint = _orientationHint;
+        mFilePath = _filePath;
+        mMuxer = new MediaMuxer(_filePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(_orientationHint);
+        mVideoTrack = -1;
+        mAudioTrack = -1;
+        mMuxerStarted = false;
+        mWroteSample = false;
+        mFirstSampleNanos = 0;
+        mStartUs = -1;
+        mSegmentBytes = 0;
+        startMuxerIfReady();
+
+        int sampleRate = mSettings.getAudioSampleRate();
+        int bufferSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize * 4);
+    }
+
+    /** startPreroll()
+     *
+     * Starts the microphone and the threads feeding and draining the encoders, keeping the samples in the buffer.
+     */
+    @Override
+    public boolean startPreroll(PrerollBuffer _buffer)
+    {
+        _buffer.clear();
+        mPreroll = _buffer;
+        mPrerollEnding = false;
+        startThreads();
+        return true;
+    }
+
+    /** start()
+     *
+     * Starts the microphone and the threads feeding and draining the encoders.
+     * If they are already running for a preroll, the drain thread switches from the buffer to the muxer.
+     */
+    @Override
+    public void start()
+    {
+        if (mDrainThread != null)
+        {
+            mPrerollEnding = true;
+            return;
+        }
+        startThreads();
+    }
+
+    @Override
+    public long getFirstSampleNanos()
+    {
+        return mFirstSampleNanos;
+    }
+
+    /** stop()
+     *
+     * Ends both streams, waits until the encoders have been drained and finishes the file.
+     * The encoders are configured again for the next recording. If the recording was prepared but never
+     * started, only the muxer and the microphone are closed. A file which got no samples is deleted.
+     */
+    @Override
+    public void stop()
+    {
+        if (mMuxer == null) return;
+        boolean started = mDrainThread != null;
+        if (started)
+        {
+            mStopping = true;
+            mVideoCodec.signalEndOfInputStream();
+            try
+            {
+                mAudioThread.join();
+                mDrainThread.join();
+            }
+            catch (InterruptedException ex)
+            {
+                ex.printStackTrace();
+            }
+            mAudioThread = null;
+            mDrainThread = null;
+        }
+
+        // Samples still buffered were never meant to be recorded
+        if (mPreroll != null)
+        {
+            mPreroll.clear();
+            mPreroll = null;
+        }
+
+        if (started) mAudioRecord.stop();
+        mAudioRecord.release();
+        mAudioRecord = null;
+
+        try
+        {
+            if (mMuxerStarted) mMuxer.stop();
+        }
+        catch (IllegalStateException ex)
+        {
+            // Nothing was written
+            ex.printStackTrace();
+        }
+        finally
+        {
+            mMuxer.release();
+            mMuxer = null;
+        }
+        if (!mWroteSample) new File(mFilePath).delete();
+
+        // An encoder which has reached the end of its stream can only be used again once configured again.
+        // Flushing does not reset a surface input, so both are stopped and configured from scratch.
+        if (started)
+        {
+            mVideoCodec.stop();
+            mAudioCodec.stop();
+            startEncoders();
+        }
+    }
+
+    @Override
+    public void release()
+    {
+        stop();
+        mVideoCodec.stop();
+        mVideoCodec.release();
+        mAudioCodec.stop();
+        mAudioCodec.release();
+        mInputSurface.release();
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** startEncoders()
+     *
+     * Configures and starts both encoders, the video encoder reading from the persistent input surface.
+     */
+    private void startEncoders()
+    {
+        mVideoCodec.configure(mVideoConfig, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mVideoCodec.setInputSurface(mInputSurface);
+        mAudioCodec.configure(mAudioConfig, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mVideoCodec.start();
+        mAudioCodec.start();
+    }
+
+    /** startThreads()
+     *
+     * Starts the microphone and the threads feeding and draining the encoders.
+     */
+    private void startThreads()
+    {
+        mStopping = false;
+        mAudioAnchorUs = -1;
+        mAudioRecord.startRecording();
+
+        mAudioThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                feedAudio();
+            }
+        }, "EncoderAudio");
+        mDrainThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drainEncoders();
+            }
+        }, "EncoderDrain");
+        mAudioThread.start();
+        mDrainThread.start();
+    }
+
+    /** feedAudio()
+     *
+     * Reads the microphone into the audio encoder's input buffers until the recording is stopped,
+     * then queues the end of the stream. Runs on the audio thread.
+     */
+    private void feedAudio()
+    {
+        AudioTimestamp stamp = new AudioTimestamp();
+        long frames = 0, lastUs = 0;
+        while (true)
+        {
+            boolean stopping = mStopping;
+            int index = mAudioCodec.dequeueInputBuffer(TIMEOUT_US);
+            if (index < 0) continue;
+
+            if (stopping)
+            {
+                mAudioCodec.queueInputBuffer(index, 0, 0, lastUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return;
+            }
+            ByteBuffer buffer = mAudioCodec.getInputBuffer(index);
+            int read = Math.max(mAudioRecord.read(buffer, buffer.remaining()), 0);
+
+            // A buffer is timed by its first frame. The timestamps may be corrected slightly, but must never go back.
+            lastUs = Math.max(audioTimeUs(stamp, frames), lastUs + 1);
+            frames += read / BYTES_PER_FRAME;
+            mAudioCodec.queueInputBuffer(index, 0, read, lastUs, 0);
+        }
+    }
+
+    /** audioTimeUs()
+     *
+     * Works out when a frame of the microphone was captured, from the latest timestamp the microphone reported.
+     * Until it reports one, the frames are counted from the time the first one was read. Runs on the audio thread.
+     *
+     * @param _stamp Timestamp to reuse.
+     * @param _frame Number of the frame since the microphone was started.
+     * @return Capture time of the frame in microseconds, on the clock the camera times its frames with.
+     */
+    private long audioTimeUs(AudioTimestamp _stamp, long _frame)
+    {
+        int sampleRate = mSettings.getAudioSampleRate();
+        boolean bootTime = mSettings.getSensorClock() == EncoderSettings.CLOCK_BOOTTIME;
+        if (mAudioRecord.getTimestamp(_stamp, bootTime ? AudioTimestamp.TIMEBASE_BOOTTIME : AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS)
+        {
+            return (_stamp.nanoTime + (_frame - _stamp.framePosition) * 1000000000L / sampleRate) / 1000;
+        }
+        if (mAudioAnchorUs < 0)
+        {
+            long nowUs = (bootTime ? SystemClock.elapsedRealtimeNanos() : System.nanoTime()) / 1000;
+            mAudioAnchorUs = nowUs - _frame * 1000000L / sampleRate;
+        }
+        return mAudioAnchorUs + _frame * 1000000L / sampleRate;
+    }
+
+    /** drainEncoders()
+     *
+     * Moves encoded samples from both encoders to the muxer until both have reached the end of the stream.
+     * Runs on the drain thread.
+     */
+    private void drainEncoders()
+    {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean videoDone = false, audioDone = false;
+        while (!videoDone || !audioDone)
+        {
+            // Samples are left in an encoder whose track is ready, until the other track is ready and the muxer has started.
+            // If the other stream has ended without a format, the muxer will never start, so everything is drained.
+            if (!videoDone && (mMuxerStarted || mVideoFormat == null || audioDone)) videoDone = drain(mVideoCodec, info, true);
+            if (!audioDone && (mMuxerStarted || mAudioFormat == null || videoDone)) audioDone = drain(mAudioCodec, info, false);
+        }
+    }
+
+    /** drain()
+     *
+     * Takes one output buffer from an encoder and writes it to the muxer, if it has started.
+     *
+     * @param _codec The encoder.
+     * @param _info Buffer info to use.
+     * @param _video Whether this is the video encoder.
+     * @return Whether the encoder has reached the end of the stream.
+     */
+    private boolean drain(MediaCodec _codec, MediaCodec.BufferInfo _info, boolean _video)
+    {
+        int index = _codec.dequeueOutputBuffer(_info, TIMEOUT_US);
+        if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED)
+        {
+            if (_video) mVideoFormat = _codec.getOutputFormat();
+            else mAudioFormat = _codec.getOutputFormat();
+            startMuxerIfReady();
+            return false;
+        }
+        if (index < 0) return false;
+
+        // Recording has started after a preroll, write the buffered samples first
+        if (mPreroll != null && mPrerollEnding && mMuxerStarted) flushPreroll();
+
+        // Codec config is part of the output format, which the muxer already has
+        if ((_info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) _info.size = 0;
+
+        if (_info.size > 0)
+        {
+            // The codec's buffer is copied into the preroll buffer, or passed to the muxer as is
+            ByteBuffer buffer = _codec.getOutputBuffer(index);
+            buffer.position(_info.offset);
+            buffer.limit(_info.offset + _info.size);
+            if (mPreroll != null) mPreroll.add(buffer, _info.presentationTimeUs, _info.flags, _video);
+            else if (mMuxerStarted)
+            {
+                writeSample(buffer, _info, _video);
+
+                // Buffered samples were written by 'flushPreroll()', so this is the first one encoded since 'start()'
+                if (_video && mFirstSampleNanos == 0) mFirstSampleNanos = SystemClock.elapsedRealtimeNanos();
+            }
+        }
+        _codec.releaseOutputBuffer(index, false);
+        return (_info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+    }
+
+    /** writeSample()
+     *
+     * Writes a sample to the muxer, starting a new segment first if the current one is full. Runs on the drain thread.
+     *
+     * @param _buffer Buffer holding the sample at the offset and size given by the buffer info.
+     * @param _info Buffer info of the sample. Its time is shifted so the segment starts at zero.
+     * @param _video Whether this is a video sample.
+     */
+    private void writeSample(ByteBuffer _buffer, MediaCodec.BufferInfo _info, boolean _video)
+    {
+        // Start a new segment at a keyframe once the current one is full
+        if (_video && mSegments != null && mStartUs >= 0 && (_info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0
+                && (_info.presentationTimeUs - mStartUs >= mSegments.getMaxDurationMillis() * 1000 || mSegmentBytes >= mSegments.getMaxBytes()))
+        {
+            nextSegment();
+        }
+
+        // Both tracks are timed from the first video frame, which is a keyframe. Audio from before it is dropped.
+        if (mStartUs < 0)
+        {
+            if (!_video) return;
+            mStartUs = _info.presentationTimeUs;
+        }
+        if (_info.presentationTimeUs < mStartUs) return;
+        _info.presentationTimeUs -= mStartUs;
+
+        mMuxer.writeSampleData(_video ? mVideoTrack : mAudioTrack, _buffer, _info);
+        mSegmentBytes += _info.size;
+        mWroteSample = true;
+    }
+
+    /** flushPreroll()
+     *
+     * Writes the buffered samples to the muxer and stops buffering. Runs on the drain thread.
+     */
+    private void flushPreroll()
+    {
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        mPreroll.flush(new PrerollBuffer.Sink()
+        {
+            @Override
+            public void write(ByteBuffer _data, int _offset, int _size, long _timeUs, int _flags, boolean _video)
+            {
+                info.set(_offset, _size, _timeUs, _flags);
+                writeSample(_data, info, _video);
+            }
+        });
+        mPreroll = null;
+    }
+
+    /** nextSegment()
+     *
+     * Finishes the current segment and continues in a new muxer writing the next one. Runs on the drain thread.
+     * If the next segment can not be created, recording continues in the current one.
+     */
+    private void nextSegment()
+    {
+        MediaMuxer next;
+        try
+        {
+            File file = mSegments.nextSegment();
+            next = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+            mSegments = null;
+            return;
+        }
+        next.setOrientationHint(mOrientationHint);
+        mVideoTrack = next.addTrack(mVideoFormat);
+        mAudioTrack = next.addTrack(mAudioFormat);
+        next.start();
+
+        mMuxer.stop();
+        mMuxer.release();
+        mMuxer = next;
+        mStartUs = -1;
+        mSegmentBytes = 0;
+    }
+
+    /** startMuxerIfReady()
+     *
+     * Adds the tracks and starts the muxer once both encoders have reported their output format.
+     */
+    private void startMuxerIfReady()
+    {
+        if (mMuxerStarted || mMuxer == null || mVideoFormat == null || mAudioFormat == null) return;
+        mVideoTrack = mMuxer.addTrack(mVideoFormat);
+        mAudioTrack = mMuxer.addTrack(mAudioFormat);
+        mMuxer.start();
+        mMuxerStarted = true;
+    }
+}
@@ -0,0 +1,150 @@
+package michael.wilson.datacubed3.Other;
+
+import android.media.CamcorderProfile;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Range;
+import java.util.List;
+
+/** MediaCodecCapabilities
+ *
+ * 'EncoderCapabilities' of the device's H.264 encoder, read from 'MediaCodecList',
+ * with reference bitrates from the camera's 'CamcorderProfile's.
+ */
+public class MediaCodecCapabilities implements EncoderCapabilities
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Camcorder profile qualities to take reference bitrates from **/
+    private static final int[] QUALITIES = {CamcorderProfile.QUALITY_2160P, CamcorderProfile.QUALITY_1080P,
+            CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P, CamcorderProfile.QUALITY_CIF, CamcorderProfile.QUALITY_QVGA};
+
+    /** Video capabilities of the encoder **/
+    private final MediaCodecInfo.VideoCapabilities mVideo;
+
+    /** Id of the camera, as used by 'CamcorderProfile', or -1 if it is not numeric **/
+    private final int mCameraId;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** MediaCodecCapabilities()
+     *
+     * Finds the H.264 encoder, preferring a hardware one.
+     *
+     * @param _cameraId Id of the camera which records.
+     */
+    public MediaCodecCapabilities(String _cameraId)
+    {
+        MediaCodecInfo.VideoCapabilities video = null;
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos())
+        {
+            if (!info.isEncoder() || !supportsAvc(info)) continue;
+            MediaCodecInfo.VideoCapabilities capabilities = info.getCapabilitiesForType(MediaFormat.MIMETYPE_VIDEO_AVC).getVideoCapabilities();
+            if (video == null) video = capabilities;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && info.isHardwareAccelerated())
+            {
+                video = capabilities;
+                break;
+            }
+        }
+        if (video == null) throw new IllegalStateException("No H.264 encoder");
+        this.mVideo = video;
+
+        int cameraId;
+        try { cameraId = Integer.parseInt(_cameraId); }
+        catch (NumberFormatException ex) { cameraId = -1; }
+        this.mCameraId = cameraId;
+    }
+
+    @Override
+    public boolean isSizeSupported(int _width, int _height)
+    {
+        return mVideo.isSizeSupported(_width, _height);
+    }
+
+    @Override
+    public double getMeasuredFrameRate(int _width, int _height)
+    {
+        try
+        {
+            Range<Double> rates = mVideo.getAchievableFrameRatesFor(_width, _height);
+            return rates == null ? -1 : rates.getLower();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean isRateSupported(int _width, int _height, int _frameRate)
+    {
+        // Performance points are what the encoder guarantees under load, so use them where they are published
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        {
+            List<MediaCodecInfo.VideoCapabilities.PerformancePoint> points = mVideo.getSupportedPerformancePoints();
+            if (points != null && !points.isEmpty())
+            {
+                MediaCodecInfo.VideoCapabilities.PerformancePoint wanted = new MediaCodecInfo.VideoCapabilities.PerformancePoint(_width, _height, _frameRate);
+                for (MediaCodecInfo.VideoCapabilities.PerformancePoint point : points)
+                {
+                    if (point.covers(wanted)) return true;
+                }
+                return false;
+            }
+        }
+        return mVideo.areSizeAndRateSupported(_width, _height, _frameRate);
+    }
+
+    @Override
+    public int getMaxBitRate()
+    {
+        return mVideo.getBitrateRange().getUpper();
+    }
+
+    /** getReferenceBitRate()
+     *
+     * Scales the bitrate of the camcorder profile closest in size by the number of pixels per second.
+     */
+    @Override
+    public int getReferenceBitRate(int _width, int _height, int _frameRate)
+    {
+        if (mCameraId < 0) return -1;
+
+        // Find the profile closest in pixel count
+        long pixels = (long) _width * _height;
+        CamcorderProfile closest = null;
+        for (int quality : QUALITIES)
+        {
+            if (!CamcorderProfile.hasProfile(mCameraId, quality)) continue;
+            CamcorderProfile profile = CamcorderProfile.get(mCameraId, quality);
+            long profilePixels = (long) profile.videoFrameWidth * profile.videoFrameHeight;
+            if (closest == null || Math.abs(profilePixels - pixels) < Math.abs((long) closest.videoFrameWidth * closest.videoFrameHeight - pixels))
+            {
+                closest = profile;
+            }
+        }
+        if (closest == null) return -1;
+
+        double scale = (double) pixels * _frameRate / ((double) closest.videoFrameWidth * closest.videoFrameHeight * closest.videoFrameRate);
+        return (int) (closest.videoBitRate * scale);
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** supportsAvc()
+     *
+     * @param _info A codec.
+     * @return Whether the codec handles H.264.
+     */
+    private static boolean supportsAvc(MediaCodecInfo _info)
+    {
+        for (String type : _info.getSupportedTypes())
+        {
+            if (type.equalsIgnoreCase(MediaFormat.MIMETYPE_VIDEO_AVC)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,205 @@
+package michael.wilson.datacubed3.Other;
+
+import android.media.MediaCodec;
+import android.media.MediaRecorder;
+import android.view.Surface;
+import java.io.IOException;
+
+/** MediaRecorderBackend
+ *
+ * 'EncoderBackend' using 'MediaRecorder', which encodes and writes the file in the media server.
+ * The recorder has to be configured and prepared again for every recording, and does not support
+ * keyframe interval or B-frame settings.
+ *
+ * 'MediaRecorder' can only roll over to the next output file when the current one is nearly full,
+ * so segments are limited by size. The segment length is turned into a size using the bitrate.
+ */
+public class MediaRecorderBackend implements EncoderBackend
+{
+    /** Factory creating this backend **/
+    public static final Factory FACTORY = new Factory()
+    {
+        @Override
+        public EncoderBackend create(EncoderSettings _settings)
+        {
+            return new MediaRecorderBackend(_settings);
+        }
+    };
+
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Encoding settings **/
+    private final EncoderSettings mSettings;
+
+    /** Persistent surface the recorder encodes from **/
+    private final Surface mInputSurface;
+
+    /** Media recorder object for recording audio and video **/
+    private final MediaRecorder mMediaRecorder = new MediaRecorder();
+
+    /** Segments of the next recording, or null to record into a single file **/
+    private SegmentedRecording mSegments;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** MediaRecorderBackend()
+     *
+     * @param _settings Encoding settings.
+     */
+    public MediaRecorderBackend(EncoderSettings _settings)
+    {
+        this.mSettings = _settings;
+        this.mInputSurface = MediaCodec.createPersistentInputSurface();
+    }
+
+    @Override
+    public Surface getInputSurface()
+    {
+        return mInputSurface;
+    }
+
+    @Override
+    public void setSegments(SegmentedRecording _segments)
+    {
+        this.mSegments = _segments;
+    }
+
+    /** prepare()
+     *
+     * Configures the media recorder. CALLS MUST HAPPEN IN THIS ORDER!
+     *
+     * @param _filePath Path of the mp4 file to write.
+     * @param _orientationHint Rotation of the video in degrees.
+     * @throws IOException Throws and IO exception if the media recorder is configured incorrectly.
+     */
+    @Override
+    public void prepare(String _filePath, int _orientationHint) throws IOException
+    {
+        // Set audio and video sources.
+        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+
+        // Encode from the persistent surface, which is part of the capture session
+        mMediaRecorder.setInputSurface(mInputSurface);
+
+        // Set the output format as mp4
+        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+
+        // Set the output file path
+        mMediaRecorder.setOutputFile(_filePath);
+
+        // Set the encoding bitrate
+        mMediaRecorder.setVideoEncodingBitRate(mSettings.getBitRate());
+
+        // Set the frame rate
+        mMediaRecorder.setVideoFrameRate(mSettings.getFrameRate());
+
+        // Set the video size
+        mMediaRecorder.setVideoSize(mSettings.getWidth(), mSettings.getHeight());
+
+        // Set audio and video encoders
+        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        // The profile can only be set together with a level
+        if (mSettings.getProfile() != EncoderSettings.DEFAULT && mSettings.getLevel() != EncoderSettings.DEFAULT)
+        {
+            mMediaRecorder.setVideoEncodingProfileLevel(mSettings.getProfile(), mSettings.getLevel());
+        }
+
+        // Set video orientation
+        mMediaRecorder.setOrientationHint(_orientationHint);
+
+        // Roll over to the next segment when the current one is nearly full
+        if (mSegments != null)
+        {
+            long bytesPerSegment = (long) mSettings.getBitRate() / 8 * mSegments.getMaxDurationMillis() / 1000;
+            mMediaRecorder.setMaxFileSize(Math.min(bytesPerSegment, mSegments.getMaxBytes()));
+            mMediaRecorder.setOnInfoListener(mInfoListener);
+        }
+        else mMediaRecorder.setOnInfoListener(null);
+
+        // Prepare media recorder
+        mMediaRecorder.prepare();
+    }
+
+    /** startPreroll()
+     *
+     * 'MediaRecorder' only encodes straight into its file, so it can not preroll.
+     */
+    @Override
+    public boolean startPreroll(PrerollBuffer _buffer)
+    {
+        return false;
+    }
+
+    @Override
+    public void start()
+    {
+        mMediaRecorder.start();
+    }
+
+    /** getFirstSampleNanos()
+     *
+     * 'MediaRecorder' does not report when it writes samples.
+     *
+     * @return 0.
+     */
+    @Override
+    public long getFirstSampleNanos()
+    {
+        return 0;
+    }
+
+    /** stop()
+     *
+     * Stop and reset the media recorder.
+     */
+    @Override
+    public void stop()
+    {
+        try
+        {
+            mMediaRecorder.stop();
+        }
+        finally
+        {
+            mMediaRecorder.reset();
+        }
+    }
+
+    @Override
+    public void release()
+    {
+        mMediaRecorder.release();
+        mInputSurface.release();
+    }
+
+    /* ~~~ LISTENERS AND CALLBACKS ~~~ */
+
+    /** Listener which hands the recorder the next segment **/
+    private final MediaRecorder.OnInfoListener mInfoListener = new MediaRecorder.OnInfoListener()
+    {
+        /** onInfo()
+         *
+         * Called when the recorder reports an event, such as the output file nearly being full.
+         *
+         * @param _recorder The recorder.
+         * @param _what Kind of event.
+         * @param _extra Extra information about the event.
+         */
+        @Override
+        public void onInfo(MediaRecorder _recorder, int _what, int _extra)
+        {
+            if (_what != MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING || mSegments == null) return;
+            try
+            {
+                mMediaRecorder.setNextOutputFile(mSegments.nextSegment());
+            }
+            catch (IOException ex)
+            {
+                // Without a next file, the recorder stops when the current one is full
+                ex.printStackTrace();
+            }
+        }
+    };
+}
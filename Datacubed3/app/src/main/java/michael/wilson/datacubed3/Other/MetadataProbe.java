@@ -0,0 +1,18 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+
+/** MetadataProbe
+ *
+ * Reads the metadata of a video file which can not be learned from the file system alone.
+ */
+public interface MetadataProbe
+{
+    /** getDuration()
+     *
+     * @param _file File representing a video.
+     * @return Duration of the video in seconds.
+     * @throws Exception If the given file is not a valid video, exception will be thrown.
+     */
+    int getDuration(File _file) throws Exception;
+}
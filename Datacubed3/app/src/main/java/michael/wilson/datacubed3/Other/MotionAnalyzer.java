@@ -0,0 +1,60 @@
+package michael.wilson.datacubed3.Other;
+
+/** MotionAnalyzer
+ *
+ * Scores frames by how much they differ from the previous frame: the mean absolute luma difference over
+ * a coarse grid, from 0 for a still scene to 1. The first frame scores NaN, as there is nothing to compare to.
+ */
+public class MotionAnalyzer implements FrameAnalyzer
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Name of the scores, see 'FrameAnalysisPipeline.getMean()' **/
+    public static final String NAME = "motion";
+
+    /** Number of grid points across and down **/
+    private static final int COLUMNS = 32, ROWS = 24;
+
+    /** Luma at the grid points of the previous and the current frame, swapped after each frame **/
+    private int[] mPrevious = new int[COLUMNS * ROWS], mCurrent = new int[COLUMNS * ROWS];
+
+    /** Whether 'mPrevious' holds a frame **/
+    private boolean mHasPrevious = false;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public double analyze(LumaFrame _frame)
+    {
+        if (_frame.getWidth() < COLUMNS || _frame.getHeight() < ROWS) return Double.NaN;
+
+        long difference = 0;
+        for (int row = 0; row < ROWS; row++)
+        {
+            int y = (2 * row + 1) * _frame.getHeight() / (2 * ROWS);
+            for (int column = 0; column < COLUMNS; column++)
+            {
+                int x = (2 * column + 1) * _frame.getWidth() / (2 * COLUMNS);
+                int i = row * COLUMNS + column;
+                mCurrent[i] = _frame.luma(x, y);
+                difference += Math.abs(mCurrent[i] - mPrevious[i]);
+            }
+        }
+
+        int[] swap = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = swap;
+        if (!mHasPrevious)
+        {
+            mHasPrevious = true;
+            return Double.NaN;
+        }
+        return difference / (255.0 * COLUMNS * ROWS);
+    }
+}
@@ -0,0 +1,236 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Mp4Boxes
+ *
+ * Streaming parser for the boxes of an mp4 file. Only box headers are read, at most 16 bytes
+ * at a time, and the payload of each box is skipped, so files of any size are scanned in constant memory.
+ * The boxes inside a container box are scanned the same way, from the start of its payload.
+ */
+public final class Mp4Boxes
+{
+    /** Mp4Boxes()
+     *
+     * Not instantiable.
+     */
+    private Mp4Boxes() { }
+
+    /** scan()
+     *
+     * Walks the top-level boxes from the start of the file, until the end of the file or the first box
+     * which is cut off or not a valid box.
+     *
+     * @param _channel Channel of the mp4 file.
+     * @return The complete boxes at the start of the file.
+     * @throws IOException If the file could not be read.
+     */
+    public static Scan scan(FileChannel _channel) throws IOException
+    {
+        return scan(_channel, 0, _channel.size());
+    }
+
+    /** scanChildren()
+     *
+     * Walks the boxes inside a container box, such as 'moov' or 'trak'.
+     *
+     * @param _channel Channel of the mp4 file.
+     * @param _parent The container box.
+     * @return The complete boxes at the start of the container's payload.
+     * @throws IOException If the file could not be read.
+     */
+    public static Scan scanChildren(FileChannel _channel, Box _parent) throws IOException
+    {
+        return scan(_channel, _parent.getPayloadOffset(), _parent.getOffset() + _parent.getSize());
+    }
+
+    /** readPayload()
+     *
+     * @param _channel Channel of the mp4 file.
+     * @param _box The box.
+     * @param _maxBytes Number of bytes to read at most.
+     * @return Buffer holding the start of the box's payload, from position 0 up to its limit.
+     * @throws IOException If the file could not be read.
+     */
+    public static ByteBuffer readPayload(FileChannel _channel, Box _box, int _maxBytes) throws IOException
+    {
+        ByteBuffer payload = ByteBuffer.allocate((int) Math.min(_maxBytes, _box.getPayloadSize()));
+        readFully(_channel, payload, _box.getPayloadOffset());
+        payload.flip();
+        return payload;
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** scan()
+     *
+     * Walks the boxes in a range of the file, until the end of the range or the first box which is cut off or not a valid box.
+     *
+     * @param _channel Channel of the mp4 file.
+     * @param _start Offset of the first box.
+     * @param _end Offset where the range ends.
+     * @return The complete boxes at the start of the range.
+     * @throws IOException If the file could not be read.
+     */
+    private static Scan scan(FileChannel _channel, long _start, long _end) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = _start;
+        List<Box> boxes = new ArrayList<>();
+        while (position + 8 <= _end)
+        {
+            // 32-bit size and four character type
+            header.clear();
+            header.limit(8);
+            readFully(_channel, header, position);
+            long size = header.getInt(0) & 0xffffffffL;
+            String type = type(header);
+            if (type == null) break;
+
+            // A size of 1 means a 64-bit size follows, and a size of 0 means the box extends to the end of the file
+            int headerSize = 8;
+            if (size == 1)
+            {
+                if (position + 16 > _end) break;
+                header.limit(16);
+                readFully(_channel, header, position);
+                size = header.getLong(8);
+                headerSize = 16;
+            }
+            else if (size == 0)
+            {
+                size = _end - position;
+            }
+            if (size < headerSize || position + size > _end) break;
+
+            boxes.add(new Box(type, position, size, headerSize));
+            position += size;
+        }
+        return new Scan(boxes, position, _end);
+    }
+
+    /** readFully()
+     *
+     * @param _channel Channel to read from.
+     * @param _buffer Buffer to fill from its position up to its limit.
+     * @param _position Position in the channel of the start of the buffer.
+     * @throws IOException If the file could not be read, or ended early.
+     */
+    private static void readFully(FileChannel _channel, ByteBuffer _buffer, long _position) throws IOException
+    {
+        long position = _position + _buffer.position();
+        while (_buffer.hasRemaining())
+        {
+            int read = _channel.read(_buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    /** type()
+     *
+     * @param _header Buffer holding a box header.
+     * @return The four character type of the box, or null if it is not printable, which means this is not a box.
+     */
+    private static String type(ByteBuffer _header)
+    {
+        char[] type = new char[4];
+        for (int i = 0; i < 4; i++)
+        {
+            int c = _header.get(4 + i) & 0xff;
+            if (c < 0x20 || c > 0x7e) return null;
+            type[i] = (char) c;
+        }
+        return new String(type);
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Box
+     *
+     * A box: its type, and where it is in the file.
+     */
+    public static class Box
+    {
+        private final String mType;
+        private final long mOffset, mSize;
+        private final int mHeaderSize;
+
+        Box(String _type, long _offset, long _size, int _headerSize)
+        {
+            this.mType = _type;
+            this.mOffset = _offset;
+            this.mSize = _size;
+            this.mHeaderSize = _headerSize;
+        }
+
+        /** Getter methods **/
+        public String getType() { return this.mType; }
+        public long getOffset() { return this.mOffset; }
+        public long getSize() { return this.mSize; }
+        public long getPayloadOffset() { return this.mOffset + this.mHeaderSize; }
+        public long getPayloadSize() { return this.mSize - this.mHeaderSize; }
+    }
+
+    /** Scan
+     *
+     * Result of scanning a file or a container box: its complete boxes, and where they end.
+     * For a container box, the file size is where the container ends.
+     */
+    public static class Scan
+    {
+        private final List<Box> mBoxes;
+        private final long mCompleteEnd, mFileSize;
+
+        Scan(List<Box> _boxes, long _completeEnd, long _fileSize)
+        {
+            this.mBoxes = Collections.unmodifiableList(_boxes);
+            this.mCompleteEnd = _completeEnd;
+            this.mFileSize = _fileSize;
+        }
+
+        /** Getter methods **/
+        public List<Box> getBoxes() { return this.mBoxes; }
+        public long getCompleteEnd() { return this.mCompleteEnd; }
+        public long getFileSize() { return this.mFileSize; }
+
+        /** hasBox()
+         *
+         * @param _type Four character type.
+         * @return Whether there is a complete top-level box of this type.
+         */
+        public boolean hasBox(String _type)
+        {
+            return find(_type) != null;
+        }
+
+        /** find()
+         *
+         * @param _type Four character type.
+         * @return The first complete box of this type, or null if there is none.
+         */
+        public Box find(String _type)
+        {
+            for (Box box : mBoxes)
+            {
+                if (box.getType().equals(_type)) return box;
+            }
+            return null;
+        }
+
+        /** hasTrailingData()
+         *
+         * @return Whether the file continues after its last complete box, with a box which was cut off.
+         */
+        public boolean hasTrailingData()
+        {
+            return mCompleteEnd < mFileSize;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Mp4MetadataReader
+ *
+ * Reads the metadata of an mp4 file straight from its boxes, without the platform media framework.
+ *
+ * Only the headers of the boxes on the way to 'moov/mvhd' and to the 'tkhd', 'mdhd', 'hdlr' and 'stsd' boxes
+ * of each track are read, each with a positional read of a few bytes. The payload of 'mdat' and of the sample
+ * tables is never read, so a probe costs a few KB wherever the 'moov' box is in the file.
+ *
+ * Files which are not mp4 files, or whose 'moov' box is missing, are handed to a fallback probe if there is one.
+ */
+public class Mp4MetadataReader implements MetadataProbe
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Seconds from the mp4 epoch, 1904-01-01, to the Unix epoch **/
+    private static final long MP4_EPOCH_OFFSET_SECONDS = 2082844800L;
+
+    /** Probe for files which can not be read as mp4, or null to fail on them **/
+    private final MetadataProbe mFallback;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** Mp4MetadataReader()
+     *
+     * @param _fallback Probe for files which can not be read as mp4, or null to fail on them.
+     */
+    public Mp4MetadataReader(MetadataProbe _fallback)
+    {
+        this.mFallback = _fallback;
+    }
+
+    /** getDuration()
+     *
+     * @param _file File representing a video.
+     * @return Duration of the provided video file in seconds.
+     * @throws Exception If the given file is not a valid video, exception will be thrown.
+     */
+    @Override
+    public int getDuration(File _file) throws Exception
+    {
+        try
+        {
+            return (int) (read(_file).getDurationUs() / 1000000);
+        }
+        catch (IOException ex)
+        {
+            if (mFallback == null) throw ex;
+            return mFallback.getDuration(_file);
+        }
+    }
+
+    /** read()
+     *
+     * @param _file An mp4 file.
+     * @return The metadata of the file.
+     * @throws IOException If the file could not be read, or has no complete 'moov' box.
+     */
+    public static Metadata read(File _file) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(_file, "r");
+        try
+        {
+            return read(file.getChannel());
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /** read()
+     *
+     * @param _channel Channel of an mp4 file.
+     * @return The metadata of the file.
+     * @throws IOException If the file could not be read, or has no complete 'moov' box.
+     */
+    public static Metadata read(FileChannel _channel) throws IOException
+    {
+        Mp4Boxes.Box moov = Mp4Boxes.scan(_channel).find("moov");
+        if (moov == null) throw new IOException("No moov box");
+        Mp4Boxes.Scan children = Mp4Boxes.scanChildren(_channel, moov);
+        Mp4Boxes.Box mvhd = children.find("mvhd");
+        if (mvhd == null) throw new IOException("No mvhd box");
+
+        // Movie header: creation time, time scale and duration
+        Metadata metadata = new Metadata();
+        ByteBuffer header = Mp4Boxes.readPayload(_channel, mvhd, 32);
+        boolean wide = header.limit() > 0 && header.get(0) == 1;
+        if (header.limit() < (wide ? 32 : 20)) throw new IOException("Short mvhd box");
+        long creation = wide ? header.getLong(4) : header.getInt(4) & 0xffffffffL;
+        long timescale = header.getInt(wide ? 20 : 12) & 0xffffffffL;
+        long duration = wide ? header.getLong(24) : header.getInt(16) & 0xffffffffL;
+        if (creation > 0) metadata.mCreationTimeUs = (creation - MP4_EPOCH_OFFSET_SECONDS) * 1000000;
+        metadata.mDurationUs = toMicros(duration, timescale, wide);
+
+        for (Mp4Boxes.Box box : children.getBoxes())
+        {
+            if (box.getType().equals("trak")) readTrack(_channel, box, metadata);
+        }
+        return metadata;
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** readTrack()
+     *
+     * Reads the handler, codec and size of a track, and its duration if the movie header has none.
+     *
+     * @param _channel Channel of the mp4 file.
+     * @param _trak The 'trak' box.
+     * @param _metadata Metadata to fill in.
+     * @throws IOException If the file could not be read.
+     */
+    private static void readTrack(FileChannel _channel, Mp4Boxes.Box _trak, Metadata _metadata) throws IOException
+    {
+        Mp4Boxes.Scan trak = Mp4Boxes.scanChildren(_channel, _trak);
+        Mp4Boxes.Box mdia = trak.find("mdia");
+        if (mdia == null) return;
+        Mp4Boxes.Scan media = Mp4Boxes.scanChildren(_channel, mdia);
+
+        // Handler type at offset 8: 'vide' or 'soun'
+        Mp4Boxes.Box hdlr = media.find("hdlr");
+        if (hdlr == null) return;
+        ByteBuffer handler = Mp4Boxes.readPayload(_channel, hdlr, 12);
+        if (handler.limit() < 12) return;
+        String type = fourCC(handler, 8);
+        boolean video = type.equals("vide");
+        if (!video && !type.equals("soun")) return;
+
+        // Media header: time scale and duration of the track
+        Mp4Boxes.Box mdhd = media.find("mdhd");
+        if (mdhd != null && _metadata.mDurationUs == 0)
+        {
+            ByteBuffer header = Mp4Boxes.readPayload(_channel, mdhd, 32);
+            boolean wide = header.limit() > 0 && header.get(0) == 1;
+            if (header.limit() >= (wide ? 32 : 20))
+            {
+                long timescale = header.getInt(wide ? 20 : 12) & 0xffffffffL;
+                long duration = wide ? header.getLong(24) : header.getInt(16) & 0xffffffffL;
+                _metadata.mTrackDurationUs = Math.max(_metadata.mTrackDurationUs, toMicros(duration, timescale, wide));
+            }
+        }
+
+        // The first sample entry of 'minf/stbl/stsd' names the codec
+        String codec = null;
+        Mp4Boxes.Box minf = media.find("minf");
+        Mp4Boxes.Box stbl = minf == null ? null : Mp4Boxes.scanChildren(_channel, minf).find("stbl");
+        Mp4Boxes.Box stsd = stbl == null ? null : Mp4Boxes.scanChildren(_channel, stbl).find("stsd");
+        if (stsd != null)
+        {
+            ByteBuffer entries = Mp4Boxes.readPayload(_channel, stsd, 16);
+            if (entries.limit() == 16 && entries.getInt(4) > 0) codec = fourCC(entries, 12);
+        }
+
+        if (video && _metadata.mVideoCodec == null)
+        {
+            _metadata.mVideoCodec = codec;
+
+            // Track header: the width and height, in 16.16 fixed point, are its last 8 bytes
+            Mp4Boxes.Box tkhd = trak.find("tkhd");
+            if (tkhd != null)
+            {
+                ByteBuffer header = Mp4Boxes.readPayload(_channel, tkhd, 96);
+                int end = header.limit() > 0 && header.get(0) == 1 ? 96 : 84;
+                if (header.limit() >= end)
+                {
+                    _metadata.mWidth = header.getInt(end - 8) >>> 16;
+                    _metadata.mHeight = header.getInt(end - 4) >>> 16;
+                }
+            }
+        }
+        else if (!video && _metadata.mAudioCodec == null)
+        {
+            _metadata.mAudioCodec = codec;
+        }
+    }
+
+    /** toMicros()
+     *
+     * @param _duration Duration in units of the time scale.
+     * @param _timescale Units per second.
+     * @param _wide Whether the duration was stored in 64 bits rather than 32.
+     * @return The duration in microseconds, or 0 if it is unknown.
+     */
+    private static long toMicros(long _duration, long _timescale, boolean _wide)
+    {
+        // All bits set means the duration is unknown
+        if (_timescale == 0 || _duration < 0 || (!_wide && _duration == 0xffffffffL)) return 0;
+        return _duration / _timescale * 1000000 + _duration % _timescale * 1000000 / _timescale;
+    }
+
+    /** fourCC()
+     *
+     * @param _buffer Buffer to read from.
+     * @param _offset Offset of the four character code.
+     * @return The four character code.
+     */
+    private static String fourCC(ByteBuffer _buffer, int _offset)
+    {
+        char[] code = new char[4];
+        for (int i = 0; i < 4; i++) code[i] = (char) (_buffer.get(_offset + i) & 0xff);
+        return new String(code);
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Metadata
+     *
+     * What the boxes of an mp4 file tell about it.
+     */
+    public static class Metadata
+    {
+        /** Duration from the movie header, and the longest track duration if it has none **/
+        private long mDurationUs = 0, mTrackDurationUs = 0;
+
+        /** Size of the first video track, or 0 if there is none **/
+        private int mWidth = 0, mHeight = 0;
+
+        /** Sample entry types of the first video and audio tracks, such as 'avc1' or 'mp4a', or null if there are none **/
+        private String mVideoCodec, mAudioCodec;
+
+        /** Creation time in microseconds since the Unix epoch, or 0 if it is not set **/
+        private long mCreationTimeUs = 0;
+
+        Metadata() { }
+
+        /** Getter methods **/
+        public long getDurationUs() { return this.mDurationUs > 0 ? this.mDurationUs : this.mTrackDurationUs; }
+        public int getWidth() { return this.mWidth; }
+        public int getHeight() { return this.mHeight; }
+        public String getVideoCodec() { return this.mVideoCodec; }
+        public String getAudioCodec() { return this.mAudioCodec; }
+        public long getCreationTimeUs() { return this.mCreationTimeUs; }
+    }
+}
@@ -0,0 +1,607 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/** PagedVideoSource
+ *
+ * A windowed view of a 'VideoCatalog' for a scrolling list. Only the pages of 'VideoItem' objects around the
+ * position last asked for are resolved and kept; pages are loaded from the catalog on a background executor,
+ * and positions whose page has not arrived yet read as null, to be shown as placeholders. Pages outside the
+ * window around that position are evicted, so at most 'maxPages * pageSize' items are held however many
+ * recordings the catalog has. Pages which were scrolled past before the loader got to them are not read at all.
+ * Pages are read from the catalog's sorted index by rank, so a page deep into the list loads as quickly as the first.
+ *
+ * Every position has the stable id of its recording, read from the catalog by 'invalidate()' on the loader. The ids
+ * read are compared with those shown, and the listener hears of the positions removed, inserted and moved, at the
+ * positions they have at each step, so adding one recording in the middle of the list only adds one cell. The ids,
+ * and with them the number of positions, stay fixed until the next change is delivered, so the list and the source
+ * always agree on them. Call 'invalidate()' whenever the catalog changes; the source is empty until the first call.
+ * The pages held are moved along with their items and keep being shown while they are read again, and each is
+ * compared with what it replaces, so the listener only hears of the positions whose item changed.
+ *
+ * Apart from the loading itself, everything happens on the thread the results are delivered to, normally the UI thread.
+ */
+public class PagedVideoSource
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Catalog the pages are read from **/
+    private final VideoCatalog mCatalog;
+
+    /** Number of items per page, and the most pages held at once **/
+    private final int mPageSize, mMaxPages;
+
+    /** Executor which reads the pages from the catalog, and executor which delivers them **/
+    private final Executor mLoader, mDelivery;
+
+    /** Listener for loaded pages and new contents **/
+    private final Listener mListener;
+
+    /** Order of the items, and whether it is reversed **/
+    private int mOrder = CatalogQuery.BY_TIMESTAMP;
+    private boolean mDescending = true;
+
+    /** Stable id of the recording at each position, read from the catalog by the last 'invalidate()' delivered **/
+    private long[] mIds = new long[0];
+
+    /** Counts calls to 'invalidate()', so only the ids read by the latest are shown **/
+    private int mInvalidations = 0;
+
+    /** Whether the order changed since the ids were last read, so every position is replaced **/
+    private boolean mReordered = false;
+
+    /** Counts changes to the ids, so pages loaded for older contents can be told apart **/
+    private int mGeneration = 0;
+
+    /** Resolved pages by page number, the pages being loaded, and the held pages read for older contents **/
+    private final Map<Integer, VideoItem[]> mPages = new HashMap<>();
+    private final Set<Integer> mLoading = new HashSet<>();
+    private final Set<Integer> mStale = new HashSet<>();
+
+    /** Page of the position last asked for, the centre of the window. Read by the loader to skip pages scrolled past. **/
+    private volatile int mFocusPage = 0;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** PagedVideoSource()
+     *
+     * @param _catalog Catalog the pages are read from.
+     * @param _pageSize Number of items per page.
+     * @param _maxPages Most pages held at once, at least 3 so the pages either side of the visible one fit.
+     * @param _loader Executor which reads the pages from the catalog, normally a background thread.
+     * @param _delivery Executor which delivers the pages, the thread every other method is called on.
+     * @param _listener Listener for loaded pages and new contents.
+     */
+    public PagedVideoSource(VideoCatalog _catalog, int _pageSize, int _maxPages, Executor _loader, Executor _delivery, Listener _listener)
+    {
+        if (_pageSize < 1 || _maxPages < 3) throw new IllegalArgumentException("Window too small");
+        this.mCatalog = _catalog;
+        this.mPageSize = _pageSize;
+        this.mMaxPages = _maxPages;
+        this.mLoader = _loader;
+        this.mDelivery = _delivery;
+        this.mListener = _listener;
+    }
+
+    /** setOrder()
+     *
+     * @param _order CatalogQuery.BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _descending Whether the largest values come first.
+     */
+    public void setOrder(int _order, boolean _descending)
+    {
+        if (_order < CatalogQuery.BY_TIMESTAMP || _order > CatalogQuery.BY_NAME) throw new IllegalArgumentException("Unknown order " + _order);
+        this.mOrder = _order;
+        this.mDescending = _descending;
+        this.mReordered = true;
+        invalidate();
+    }
+
+    /** invalidate()
+     *
+     * Reads the stable ids of the recordings again on the loader. Call whenever the catalog changes.
+     * Once they arrive, the positions removed, inserted and moved are reported, and the held pages are read again.
+     * The held items are still returned at their new positions until then, then only the positions whose item differs are reported.
+     */
+    public void invalidate()
+    {
+        final int invalidation = ++mInvalidations;
+        final long[] shown = mIds;
+        final boolean reordered = mReordered;
+        final CatalogQuery query = new CatalogQuery().orderBy(mOrder, mDescending);
+        mLoader.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long[] ids;
+                synchronized (mCatalog)
+                {
+                    VideoCatalog.Page page = mCatalog.query(query.page(0, mCatalog.size()));
+                    ids = new long[page.size()];
+                    for (int i = 0; i < ids.length; i++) ids[i] = mCatalog.getStableId(page.getRow(i));
+                }
+
+                // Worked out here rather than on the delivery thread, since it looks at every position
+                final Changes changes = new Changes(shown, ids, reordered);
+                mDelivery.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        apply(invalidation, changes);
+                    }
+                });
+            }
+        });
+    }
+
+    /** get()
+     *
+     * Moves the window to the given position, loading its page and, near the edge of the page, the neighbouring one.
+     *
+     * @param _position Position within the list.
+     * @return The item at the position, or null if its page has not been loaded yet.
+     */
+    public VideoItem get(int _position)
+    {
+        if (_position < 0 || _position >= mIds.length) throw new IndexOutOfBoundsException("Position " + _position + " of " + mIds.length);
+        int page = _position / mPageSize, offset = _position % mPageSize;
+        if (page != mFocusPage)
+        {
+            mFocusPage = page;
+            evictFarPages();
+        }
+
+        // Start on the next page before the list scrolls into it
+        load(page);
+        if (offset < mPageSize / 4) load(page - 1);
+        else if (offset >= mPageSize - mPageSize / 4) load(page + 1);
+
+        VideoItem[] items = mPages.get(page);
+        return items != null && offset < items.length ? items[offset] : null;
+    }
+
+    /** Getter methods **/
+    public int size() { return this.mIds.length; }
+    public long getStableId(int _position) { return this.mIds[_position]; }
+    public int getPageSize() { return this.mPageSize; }
+    public int getMaxPages() { return this.mMaxPages; }
+    public int getOrder() { return this.mOrder; }
+    public boolean isDescending() { return this.mDescending; }
+
+    /** Number of pages held, for tests **/
+    int getLoadedPageCount() { return this.mPages.size(); }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** apply()
+     *
+     * Shows the ids read by 'invalidate()', unless a later call is reading them again, and reports how the positions moved.
+     * The held items are moved to the pages of their new positions, and those pages, and the pages which were loading
+     * while their cells showed placeholders, are read again.
+     *
+     * @param _invalidation Call of 'invalidate()' the ids were read for.
+     * @param _changes The ids read, and the changes from those shown.
+     */
+    private void apply(int _invalidation, Changes _changes)
+    {
+        if (_invalidation != mInvalidations) return;
+        if (_changes.isReset()) mReordered = false;
+
+        // The held items by id, unless every position is replaced
+        Map<Long, VideoItem> held = new HashMap<>();
+        if (!_changes.isReset())
+        {
+            for (VideoItem[] items : mPages.values())
+            {
+                for (VideoItem item : items) if (item != null) held.put(item.getStableId(), item);
+            }
+        }
+
+        // The placeholders of the pages being loaded move too, and have to be loaded where they end up
+        Set<Integer> wanted = new HashSet<>();
+        if (!_changes.isReset())
+        {
+            for (int page : mLoading)
+            {
+                for (int i = page * mPageSize; i < Math.min((page + 1) * mPageSize, mIds.length); i++)
+                {
+                    int position = _changes.getNewPosition(mIds[i]);
+                    if (position >= 0) wanted.add(position / mPageSize);
+                }
+            }
+        }
+
+        mGeneration++;
+        mLoading.clear();
+        mIds = _changes.getIds();
+
+        // Refill the held pages with the items now at their positions, the rest are read again
+        Iterator<Map.Entry<Integer, VideoItem[]>> pages = mPages.entrySet().iterator();
+        while (pages.hasNext())
+        {
+            Map.Entry<Integer, VideoItem[]> page = pages.next();
+            int start = page.getKey() * mPageSize, count = Math.min(mPageSize, mIds.length - start);
+            if (_changes.isReset() || count <= 0)
+            {
+                pages.remove();
+                continue;
+            }
+            VideoItem[] items = new VideoItem[count];
+            for (int i = 0; i < count; i++) items[i] = held.get(mIds[start + i]);
+            page.setValue(items);
+        }
+        mStale.clear();
+        mStale.addAll(mPages.keySet());
+        wanted.addAll(mStale);
+
+        _changes.report(mListener);
+        for (Integer page : wanted) load(page);
+    }
+
+
+    /** load()
+     *
+     * Reads a page from the catalog on the loader, unless it is held, already loading, or out of range.
+     *
+     * @param _page Page number.
+     */
+    private void load(final int _page)
+    {
+        if (_page < 0 || _page * mPageSize >= mIds.length || (mPages.containsKey(_page) && !mStale.contains(_page)) || !mLoading.add(_page)) return;
+
+        final int generation = mGeneration;
+        final CatalogQuery query = new CatalogQuery().orderBy(mOrder, mDescending).page(_page * mPageSize, mPageSize);
+        mLoader.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Resolve the rows while holding the catalog, so none of them is removed halfway
+                VideoItem[] resolved = null;
+                if (isInWindow(_page))
+                {
+                    synchronized (mCatalog)
+                    {
+                        VideoCatalog.Page page = mCatalog.query(query);
+                        resolved = new VideoItem[page.size()];
+                        for (int i = 0; i < resolved.length; i++) resolved[i] = mCatalog.toVideoItem(page.getRow(i));
+                    }
+                }
+
+                final VideoItem[] items = resolved;
+                mDelivery.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        deliver(generation, _page, items);
+                    }
+                });
+            }
+        });
+    }
+
+    /** deliver()
+     *
+     * Keeps a loaded page if it is still wanted and tells the listener which of its positions changed.
+     *
+     * @param _generation Generation the page was loaded for.
+     * @param _page Page number.
+     * @param _items The items of the page, or null if the loader skipped it.
+     */
+    private void deliver(int _generation, int _page, VideoItem[] _items)
+    {
+        if (_generation != mGeneration || !mLoading.remove(_page)) return;
+
+        // The window may have moved on while the page was loading
+        if (_items == null || !isInWindow(_page))
+        {
+            if (mStale.remove(_page)) mPages.remove(_page);
+            return;
+        }
+
+        // An item read after the catalog changed again is not shown before its id, the next 'invalidate()' brings it in
+        VideoItem[] old = mPages.get(_page);
+        int start = _page * mPageSize, count = Math.min(mPageSize, mIds.length - start);
+        VideoItem[] items = new VideoItem[count];
+        for (int i = 0; i < count; i++)
+        {
+            VideoItem item = i < _items.length ? _items[i] : null;
+            items[i] = item != null && item.getStableId() == mIds[start + i] ? item : old != null ? old[i] : null;
+        }
+        mPages.put(_page, items);
+        mStale.remove(_page);
+        if (old == null)
+        {
+            mListener.onItemsChanged(start, count);
+            return;
+        }
+
+        // Cells still showing the same recording are left alone, so they neither flash nor animate
+        int first = -1;
+        for (int i = 0; i <= count; i++)
+        {
+            boolean changed = i < count && !sameItem(old[i], items[i]);
+            if (changed && first < 0) first = i;
+            else if (!changed && first >= 0)
+            {
+                mListener.onItemsChanged(start + first, i - first);
+                first = -1;
+            }
+        }
+    }
+
+    /** sameItem()
+     *
+     * @param _old Item previously at a position, or null for a placeholder.
+     * @param _new Item now at the position, or null for a placeholder.
+     * @return Whether both are placeholders, or the same recording displayed identically.
+     */
+    private static boolean sameItem(VideoItem _old, VideoItem _new)
+    {
+        if (_old == null || _new == null) return _old == _new;
+        return _old.getFilepath().equals(_new.getFilepath()) && _old.sameContents(_new);
+    }
+
+    /** evictFarPages()
+     *
+     * Drops the pages outside the window around the focus page.
+     */
+    private void evictFarPages()
+    {
+        Iterator<Integer> pages = mPages.keySet().iterator();
+        while (pages.hasNext())
+        {
+            Integer page = pages.next();
+            if (!isInWindow(page))
+            {
+                pages.remove();
+                mStale.remove(page);
+            }
+        }
+    }
+
+    /** isInWindow()
+     *
+     * @param _page Page number.
+     * @return Whether the page is close enough to the focus page to be held, with at most 'maxPages' pages in the window.
+     */
+    private boolean isInWindow(int _page)
+    {
+        return Math.abs(_page - mFocusPage) <= (mMaxPages - 1) / 2;
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Listener
+     *
+     * Interface which provides callbacks for changes to the items of the source, on the delivery thread.
+     */
+    public interface Listener
+    {
+        /** onItemsChanged()
+         *
+         * Called when a page arrived, or when the items at some positions may have changed.
+         *
+         * @param _start First position whose item changed.
+         * @param _count Number of positions whose item changed.
+         */
+        void onItemsChanged(int _start, int _count);
+
+        /** onItemsInserted()
+         *
+         * @param _start First position added.
+         * @param _count Number of positions added.
+         */
+        void onItemsInserted(int _start, int _count);
+
+        /** onItemsRemoved()
+         *
+         * @param _start First position removed.
+         * @param _count Number of positions removed.
+         */
+        void onItemsRemoved(int _start, int _count);
+
+        /** onItemMoved()
+         *
+         * @param _from Position of the item before it moved.
+         * @param _to Position of the item after it moved.
+         */
+        void onItemMoved(int _from, int _to);
+    }
+
+    /* ~~~ PRIVATE CLASSES ~~~ */
+
+    /** Changes
+     *
+     * The steps which turn one list of stable ids into another, in the order 'RecyclerView' expects them:
+     * removals from the end, then moves into the order of the new list, then insertions from the start. Each step
+     * gives the positions of the list as it is at that step. Only the items out of order are moved, the longest
+     * run of items which already are in order stays put. When the order changed every position is replaced instead.
+     */
+    private static class Changes
+    {
+        private static final int REMOVED = 0, INSERTED = 1, MOVED = 2;
+
+        /** The new ids, and the new position of each id **/
+        private final long[] mIds;
+        private final Map<Long, Integer> mPositions = new HashMap<>();
+
+        /** Whether every position is replaced **/
+        private final boolean mReset;
+
+        /** The steps, as { kind, first, second } **/
+        private int[] mSteps = new int[3 * 4];
+        private int mStepCount = 0;
+
+        /** Changes()
+         *
+         * @param _old Ids shown.
+         * @param _new Ids read from the catalog.
+         * @param _reset Whether every position is replaced, rather than kept where the id is in both.
+         */
+        Changes(long[] _old, long[] _new, boolean _reset)
+        {
+            this.mIds = _new;
+            this.mReset = _reset;
+            if (_reset)
+            {
+                if (_old.length > 0) add(REMOVED, 0, _old.length);
+                if (_new.length > 0) add(INSERTED, 0, _new.length);
+                return;
+            }
+            for (int i = 0; i < _new.length; i++) mPositions.put(_new[i], i);
+
+            // Removals, from the end so the positions of the runs before stay put
+            int end = _old.length;
+            for (int i = _old.length - 1; i >= -1; i--)
+            {
+                if (i >= 0 && !mPositions.containsKey(_old[i])) continue;
+                if (end > i + 1) add(REMOVED, i + 1, end - i - 1);
+                end = i;
+            }
+
+            // The new positions of the items left, in the order they are shown
+            int[] targets = new int[_old.length];
+            boolean[] kept = new boolean[_new.length];
+            int size = 0;
+            for (long id : _old)
+            {
+                Integer position = mPositions.get(id);
+                if (position == null) continue;
+                targets[size++] = position;
+                kept[position] = true;
+            }
+            move(targets, size, _new.length);
+
+            // Insertions, in order so each run lands at its final position
+            int first = -1;
+            for (int i = 0; i <= _new.length; i++)
+            {
+                boolean inserted = i < _new.length && !kept[i];
+                if (inserted && first < 0) first = i;
+                else if (!inserted && first >= 0)
+                {
+                    add(INSERTED, first, i - first);
+                    first = -1;
+                }
+            }
+        }
+
+        /** report()
+         *
+         * @param _listener Listener to tell of every step, in order.
+         */
+        void report(Listener _listener)
+        {
+            for (int i = 0; i < mStepCount; i += 3)
+            {
+                int first = mSteps[i + 1], second = mSteps[i + 2];
+                if (mSteps[i] == REMOVED) _listener.onItemsRemoved(first, second);
+                else if (mSteps[i] == INSERTED) _listener.onItemsInserted(first, second);
+                else _listener.onItemMoved(first, second);
+            }
+        }
+
+        /** getNewPosition()
+         *
+         * @param _id Stable id of a recording.
+         * @return Position of the recording in the new list, or -1 if it is not in it or every position is replaced.
+         */
+        int getNewPosition(long _id)
+        {
+            Integer position = mPositions.get(_id);
+            return position == null ? -1 : position;
+        }
+
+        /** Getter methods **/
+        long[] getIds() { return this.mIds; }
+        boolean isReset() { return this.mReset; }
+
+        /** move()
+         *
+         * Moves the items out of order into place, one at a time in the order of their new positions.
+         * Each goes right after the item placed before it, so the items placed are always in order.
+         *
+         * @param _targets New positions of the items, in the order they are shown. Rearranged by the moves.
+         * @param _size Number of items.
+         * @param _count Number of positions in the new list.
+         */
+        private void move(int[] _targets, int _size, int _count)
+        {
+            boolean[] placed = new boolean[_count];
+            for (int k : longestRun(_targets, _size)) placed[_targets[k]] = true;
+
+            int[] moving = new int[_size];
+            int moves = 0;
+            for (int k = 0; k < _size; k++) if (!placed[_targets[k]]) moving[moves++] = _targets[k];
+            Arrays.sort(moving, 0, moves);
+
+            for (int m = 0; m < moves; m++)
+            {
+                int target = moving[m], from = 0;
+                while (_targets[from] != target) from++;
+                System.arraycopy(_targets, from + 1, _targets, from, _size - from - 1);
+
+                int to = 0;
+                for (int k = 0; k < _size - 1; k++) if (placed[_targets[k]] && _targets[k] < target) to = k + 1;
+                System.arraycopy(_targets, to, _targets, to + 1, _size - 1 - to);
+                _targets[to] = target;
+                placed[target] = true;
+                if (from != to) add(MOVED, from, to);
+            }
+        }
+
+        /** longestRun()
+         *
+         * @param _targets New positions of the items, in the order they are shown.
+         * @param _size Number of items.
+         * @return Indexes of the longest increasing subsequence of the new positions, the items which need not move.
+         */
+        private static int[] longestRun(int[] _targets, int _size)
+        {
+            int[] ends = new int[_size], previous = new int[_size];
+            int length = 0;
+            for (int k = 0; k < _size; k++)
+            {
+                // Longest run so far which the item can extend, the new positions are all different
+                int low = 0, high = length;
+                while (low < high)
+                {
+                    int middle = (low + high) >>> 1;
+                    if (_targets[ends[middle]] < _targets[k]) low = middle + 1;
+                    else high = middle;
+                }
+                previous[k] = low > 0 ? ends[low - 1] : -1;
+                ends[low] = k;
+                if (low == length) length++;
+            }
+
+            int[] run = new int[length];
+            for (int i = length - 1, k = length > 0 ? ends[length - 1] : -1; i >= 0; i--, k = previous[k]) run[i] = k;
+            return run;
+        }
+
+        /** add()
+         *
+         * @param _kind REMOVED, INSERTED or MOVED.
+         * @param _first First position, or the position moved from.
+         * @param _second Number of positions, or the position moved to.
+         */
+        private void add(int _kind, int _first, int _second)
+        {
+            if (mStepCount == mSteps.length) mSteps = Arrays.copyOf(mSteps, mSteps.length * 2);
+            mSteps[mStepCount++] = _kind;
+            mSteps[mStepCount++] = _first;
+            mSteps[mStepCount++] = _second;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package michael.wilson.datacubed3.Other;
+
+import java.nio.ByteBuffer;
+
+/** PrerollBuffer
+ *
+ * Fixed-size ring buffer of encoded audio and video samples, holding the last few seconds before a recording starts.
+ *
+ * Sample data is copied into one byte array, and the size, time and flags of each sample into arrays of
+ * a fixed length, all allocated up front. So memory stays the same however long the buffer runs.
+ *
+ * The buffer always starts with a video keyframe, since the frames after a keyframe can not be decoded
+ * without it. When a new sample does not fit, whole groups of pictures are dropped from the start, up to
+ * the next keyframe. Samples which arrive while the buffer is empty are dropped until a video keyframe arrives.
+ */
+public class PrerollBuffer
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Flags of a sample, the same values as 'MediaCodec.BUFFER_FLAG_KEY_FRAME' **/
+    public static final int FLAG_KEY_FRAME = 1;
+
+    /** Sample data, each sample stored in one piece **/
+    private final byte[] mData;
+
+    /** View of the sample data handed to 'Sink.write()' **/
+    private final ByteBuffer mView;
+
+    /** Offset, size, time and flags of each sample, and whether it is video **/
+    private final int[] mOffsets, mSizes, mFlags;
+    private final long[] mTimesUs;
+    private final boolean[] mVideo;
+
+    /** Slot of the oldest sample, and the number of samples **/
+    private int mFirst = 0, mCount = 0;
+
+    /** Offset in the sample data where the next sample is written **/
+    private int mWriteOffset = 0;
+
+    /** Bytes of sample data held **/
+    private long mBytes = 0;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** PrerollBuffer()
+     *
+     * @param _capacityBytes Bytes of sample data to hold.
+     * @param _maxSamples Number of samples to hold.
+     */
+    public PrerollBuffer(int _capacityBytes, int _maxSamples)
+    {
+        if (_capacityBytes <= 0 || _maxSamples <= 0) throw new IllegalArgumentException("Empty preroll buffer");
+        this.mData = new byte[_capacityBytes];
+        this.mView = ByteBuffer.wrap(mData);
+        this.mOffsets = new int[_maxSamples];
+        this.mSizes = new int[_maxSamples];
+        this.mFlags = new int[_maxSamples];
+        this.mTimesUs = new long[_maxSamples];
+        this.mVideo = new boolean[_maxSamples];
+    }
+
+    /** add()
+     *
+     * Copies a sample to the end of the buffer, dropping the oldest groups of pictures to make room.
+     *
+     * @param _data Sample data, between its position and limit. The position is left unchanged.
+     * @param _timeUs Presentation time of the sample in microseconds.
+     * @param _flags Flags of the sample, 'FLAG_KEY_FRAME' for a keyframe.
+     * @param _video Whether this is a video sample.
+     * @return Whether the sample was added. It is dropped if it is empty, larger than the buffer, or there is no keyframe to start from.
+     */
+    public synchronized boolean add(ByteBuffer _data, long _timeUs, int _flags, boolean _video)
+    {
+        int size = _data.remaining();
+        if (size == 0 || size > mData.length) return false;
+
+        // Make room, dropping whole groups of pictures
+        int offset = placement(size);
+        while (mCount > 0 && (offset < 0 || mCount == mSizes.length))
+        {
+            dropFirstGroup();
+            offset = placement(size);
+        }
+        if (mCount == 0 && !(_video && (_flags & FLAG_KEY_FRAME) != 0)) return false;
+
+        int slot = (mFirst + mCount) % mSizes.length;
+        int position = _data.position();
+        _data.get(mData, offset, size);
+        _data.position(position);
+        mOffsets[slot] = offset;
+        mSizes[slot] = size;
+        mFlags[slot] = _flags;
+        mTimesUs[slot] = _timeUs;
+        mVideo[slot] = _video;
+        mCount++;
+        mWriteOffset = offset + size;
+        mBytes += size;
+        return true;
+    }
+
+    /** flush()
+     *
+     * Hands all samples to the sink, oldest first, and empties the buffer.
+     *
+     * @param _sink Receives the samples.
+     */
+    public synchronized void flush(Sink _sink)
+    {
+        for (int i = 0; i < mCount; i++)
+        {
+            int slot = (mFirst + i) % mSizes.length;
+            mView.clear();
+            _sink.write(mView, mOffsets[slot], mSizes[slot], mTimesUs[slot], mFlags[slot], mVideo[slot]);
+        }
+        clear();
+    }
+
+    /** clear()
+     *
+     * Empties the buffer.
+     */
+    public synchronized void clear()
+    {
+        mFirst = 0;
+        mCount = 0;
+        mWriteOffset = 0;
+        mBytes = 0;
+    }
+
+    /** getDurationUs()
+     *
+     * @return Microseconds from the first to the last video sample held, or 0 if there are less than two.
+     */
+    public synchronized long getDurationUs()
+    {
+        for (int i = mCount - 1; i > 0; i--)
+        {
+            int slot = (mFirst + i) % mSizes.length;
+            if (mVideo[slot]) return mTimesUs[slot] - mTimesUs[mFirst];
+        }
+        return 0;
+    }
+
+    /** Getter methods **/
+    public synchronized int getSampleCount() { return this.mCount; }
+    public synchronized long getBytes() { return this.mBytes; }
+    public int getCapacityBytes() { return this.mData.length; }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** placement()
+     *
+     * Finds room for a sample in one piece, after the newest sample and before the oldest, wrapping around
+     * to the start of the array if it does not fit at the end.
+     *
+     * @param _size Size of the sample.
+     * @return Offset where the sample fits, or -1 if it does not.
+     */
+    private int placement(int _size)
+    {
+        if (mCount == 0) return 0;
+        int first = mOffsets[mFirst];
+        if (mWriteOffset > first)
+        {
+            if (mWriteOffset + _size <= mData.length) return mWriteOffset;
+            return _size <= first ? 0 : -1;
+        }
+        return mWriteOffset + _size <= first ? mWriteOffset : -1;
+    }
+
+    /** dropFirstGroup()
+     *
+     * Drops the oldest sample, and all samples after it up to the next video keyframe.
+     */
+    private void dropFirstGroup()
+    {
+        do
+        {
+            mBytes -= mSizes[mFirst];
+            mFirst = (mFirst + 1) % mSizes.length;
+            mCount--;
+        }
+        while (mCount > 0 && !(mVideo[mFirst] && (mFlags[mFirst] & FLAG_KEY_FRAME) != 0));
+        if (mCount == 0) clear();
+    }
+
+    /* ~~~ PUBLIC INTERFACES ~~~ */
+
+    /** Sink
+     *
+     * Receives the samples of a buffer when it is flushed.
+     */
+    public interface Sink
+    {
+        /** write()
+         *
+         * @param _data Buffer holding the sample. Only valid until this method returns.
+         * @param _offset Offset of the sample in the buffer.
+         * @param _size Size of the sample.
+         * @param _timeUs Presentation time of the sample in microseconds.
+         * @param _flags Flags of the sample.
+         * @param _video Whether this is a video sample.
+         */
+        void write(ByteBuffer _data, int _offset, int _size, long _timeUs, int _flags, boolean _video);
+    }
+}
@@ -0,0 +1,308 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** ProbePool
+ *
+ * A bounded pool of worker threads which probes video files for their metadata in parallel.
+ * Results are always returned in the same order as the files that were given,
+ * no matter which probe finishes first. Failed probes are collected instead of dropped.
+ */
+public class ProbePool
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Number of tasks allowed in flight per worker, limits memory use on huge folders **/
+    private static final int TASKS_PER_WORKER = 4;
+
+    /** Idle workers are stopped after this many seconds **/
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    /** Executor which runs the probes **/
+    private final ThreadPoolExecutor mExecutor;
+
+    /** Maximum number of tasks in flight at once **/
+    private final int mWindow;
+
+    /** Tasks which have been submitted and not yet collected **/
+    private final List<Future<VideoItem>> mInFlight = new ArrayList<>();
+
+    /** Set once 'cancel()' has been called **/
+    private volatile boolean mCancelled = false;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** ProbePool()
+     *
+     * Instantiates this pool with one worker per available processor core.
+     */
+    public ProbePool()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** ProbePool()
+     *
+     * Instantiates this pool.
+     *
+     * @param _workers Number of worker threads.
+     */
+    public ProbePool(int _workers)
+    {
+        int workers = Math.max(1, _workers);
+        mWindow = workers * TASKS_PER_WORKER;
+        mExecutor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** probeAll()
+     *
+     * Probes all the given files and blocks until they are finished or the pool is cancelled.
+     *
+     * @param _files Files to probe.
+     * @param _probe Probe which creates a 'VideoItem' from a file.
+     * @return Probed videos in the same order as '_files', and the files which failed.
+     */
+    public Result probeAll(List<File> _files, final Probe _probe)
+    {
+        return probeAll(_files, _probe, null);
+    }
+
+    /** probeAll()
+     *
+     * Probes all the given files and blocks until they are finished or the pool is cancelled.
+     * Probed videos are also streamed to the given batcher, in file order, while the probe runs.
+     *
+     * @param _files Files to probe.
+     * @param _probe Probe which creates a 'VideoItem' from a file.
+     * @param _batcher Batcher which receives videos as soon as they are probed. May be null.
+     * @return Probed videos in the same order as '_files', and the files which failed.
+     */
+    public Result probeAll(List<File> _files, final Probe _probe, VideoBatcher _batcher)
+    {
+        Result result = new Result();
+        ArrayDeque<Future<VideoItem>> window = new ArrayDeque<>();
+        int next = 0;
+
+        try
+        {
+            for (int i = 0; i < _files.size(); i++)
+            {
+                // Keep the window of in-flight tasks full
+                while (next < _files.size() && window.size() < mWindow && !mCancelled)
+                {
+                    window.add(submit(_files.get(next), _probe));
+                    next++;
+                }
+                if (mCancelled) break;
+
+                // Collect the oldest task so results stay in file order
+                Future<VideoItem> task = window.poll();
+                try
+                {
+                    VideoItem video = await(task, _batcher);
+                    if (video != null)
+                    {
+                        result.mVideos.add(video);
+                        if (_batcher != null) _batcher.add(video);
+                    }
+                    else result.mFailures.add(new Failure(_files.get(i), null));
+                }
+                catch (ExecutionException ex)
+                {
+                    result.mFailures.add(new Failure(_files.get(i), ex.getCause()));
+                }
+                finally
+                {
+                    forget(task);
+                }
+            }
+        }
+        catch (CancellationException | RejectedExecutionException | InterruptedException ex)
+        {
+            if (ex instanceof InterruptedException) Thread.currentThread().interrupt();
+            mCancelled = true;
+        }
+
+        // Anything still in the window will never be collected
+        for (Future<VideoItem> task : window)
+        {
+            task.cancel(true);
+            forget(task);
+        }
+
+        // Hand out the last partial batch, unless nobody wants it anymore
+        if (_batcher != null && !mCancelled) _batcher.flush();
+
+        result.mCancelled = mCancelled;
+        return result;
+    }
+
+    /** cancel()
+     *
+     * Cancels all outstanding probes and stops the worker threads.
+     * Any 'probeAll()' call in progress returns as soon as possible with a cancelled result.
+     */
+    public void cancel()
+    {
+        mCancelled = true;
+        synchronized (mInFlight)
+        {
+            for (Future<VideoItem> task : mInFlight) task.cancel(true);
+            mInFlight.clear();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /** Getter methods **/
+    public boolean isCancelled() { return this.mCancelled; }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** submit()
+     *
+     * @param _file File to probe.
+     * @param _probe Probe to run on the file.
+     * @return Future result of the probe.
+     */
+    private Future<VideoItem> submit(final File _file, final Probe _probe)
+    {
+        Future<VideoItem> task = mExecutor.submit(new Callable<VideoItem>()
+        {
+            @Override
+            public VideoItem call() throws Exception
+            {
+                return _probe.probe(_file);
+            }
+        });
+        synchronized (mInFlight) { mInFlight.add(task); }
+        return task;
+    }
+
+    /** await()
+     *
+     * Waits for a task to finish. While waiting, hands out the pending batch once it is due,
+     * so one slow probe does not hold back videos which have already been probed.
+     *
+     * @param _task Task to wait for.
+     * @param _batcher Batcher holding already probed videos. May be null.
+     * @return Result of the task.
+     */
+    private static VideoItem await(Future<VideoItem> _task, VideoBatcher _batcher) throws InterruptedException, ExecutionException
+    {
+        if (_batcher == null) return _task.get();
+        while (true)
+        {
+            try
+            {
+                return _task.get(_batcher.millisUntilDue(), TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException ex)
+            {
+                _batcher.flush();
+            }
+        }
+    }
+
+    /** forget()
+     *
+     * @param _task Task which no longer needs to be cancelled by 'cancel()'.
+     */
+    private void forget(Future<VideoItem> _task)
+    {
+        synchronized (mInFlight) { mInFlight.remove(_task); }
+    }
+
+    /* ~~~ INTERFACES AND CLASSES ~~~ */
+
+    /** Probe
+     *
+     * Creates a 'VideoItem' from a video file. Called concurrently from the worker threads.
+     */
+    public interface Probe
+    {
+        /** probe()
+         *
+         * @param _file File representing a video.
+         * @return A 'VideoItem' object which represents the file.
+         * @throws Exception If the given file is not a valid video.
+         */
+        VideoItem probe(File _file) throws Exception;
+    }
+
+    /** Result
+     *
+     * Outcome of a 'probeAll()' call.
+     */
+    public static class Result
+    {
+        private final List<VideoItem> mVideos = new ArrayList<>();
+        private final List<Failure> mFailures = new ArrayList<>();
+        private boolean mCancelled = false;
+
+        /** Getter methods **/
+        public List<VideoItem> getVideos() { return Collections.unmodifiableList(this.mVideos); }
+        public List<Failure> getFailures() { return Collections.unmodifiableList(this.mFailures); }
+        public boolean isCancelled() { return this.mCancelled; }
+    }
+
+    /** Failure
+     *
+     * A file which could not be probed, and why.
+     */
+    public static class Failure
+    {
+        private final File mFile;
+        private final Throwable mError;
+
+        Failure(File _file, Throwable _error)
+        {
+            this.mFile = _file;
+            this.mError = _error;
+        }
+
+        /** Getter methods **/
+        public File getFile() { return this.mFile; }
+        public Throwable getError() { return this.mError; }
+
+        @Override
+        public String toString()
+        {
+            return mFile.getName() + (mError != null ? " (" + mError + ")" : "");
+        }
+    }
+
+    /** WorkerFactory
+     *
+     * Creates named, low priority daemon threads so probing never holds up the UI or process exit.
+     */
+    private static class WorkerFactory implements ThreadFactory
+    {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable _runnable)
+        {
+            Thread thread = new Thread(_runnable, "VideoProbe-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package michael.wilson.datacubed3.Other;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/** RecordingFinalizer
+ *
+ * Finishes recordings on a background thread, so the UI thread never waits for the encoder.
+ *
+ * Stopping the encoder blocks until the file has been written out, which takes longer the longer the recording.
+ * The finalizer takes over the 'VideoRecorder' when recording ends: it stops it, shuts it down, closes the recording
+ * in the journal and adds it to the global list of videos. The 'VideoItem' is built from the duration and metrics
+ * the recorder measured, so the file is not probed. Only the result is posted to the UI thread.
+ *
+ * Recordings are finished one at a time, in the order they were handed over.
+ */
+public class RecordingFinalizer
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** The application context **/
+    private final Context mContext;
+
+    /** Thread finishing the recordings **/
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable _runnable)
+        {
+            return new Thread(_runnable, "RecordingFinalizer");
+        }
+    });
+
+    /** Handler for delivering results on the UI thread **/
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** RecordingFinalizer()
+     *
+     * @param _context The context.
+     */
+    public RecordingFinalizer(Context _context)
+    {
+        this.mContext = _context.getApplicationContext();
+    }
+
+    /** finish()
+     *
+     * Stops and shuts down a recorder in the background, and adds its recording to the global list of videos.
+     * The recorder belongs to the finalizer from now on and must not be used by the caller.
+     *
+     * @param _recorder The recorder, recording or not.
+     * @param _file File of the recording, reserved by 'Database.NEW_VIDEO_FILE()'. Released once finished.
+     * @param _listener Listener to notify on the UI thread, or null.
+     * @return Future of the recording added, or of null if nothing was saved.
+     */
+    public Future<VideoItem> finish(final VideoRecorder _recorder, final File _file, final Listener _listener)
+    {
+        return mExecutor.submit(new Callable<VideoItem>()
+        {
+            @Override
+            public VideoItem call()
+            {
+                // Stop the encoder, which finishes the file, then release the camera
+                boolean finished = _recorder.stopRecordingVideo();
+                boolean started = _recorder.hasStartedRecording();
+                int duration = (int) (_recorder.getRecordedMillis() / 1000);
+                RecordingMetrics metrics = _recorder.getMetrics();
+                _recorder.shutdown();
+                Database.END_RECORDING(mContext, _file);
+
+                // The file is reserved empty before recording, so check that something was written to it
+                VideoItem video = null;
+                if (started && finished && _file.length() > 0)
+                {
+                    video = Database.ADD_RECORDED(mContext, _file, duration, metrics);
+
+                    // Create the thumbnail now, so the gallery does not have to decode the video
+                    Database.THUMBNAILS(mContext).prefetch(video);
+                }
+                else if (started && _file.length() > 0)
+                {
+                    // The encoder did not finish the file, keep what can be played and set aside the rest
+                    Database.RECOVER_RECORDING(_file);
+                }
+                Database.RELEASE_VIDEO_FILE(_file);
+
+                if (started) notifyListener(_listener, video);
+                return video;
+            }
+        });
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** notifyListener()
+     *
+     * @param _listener Listener to notify on the UI thread, or null.
+     * @param _video The recording which was saved, or null if it could not be.
+     */
+    private void notifyListener(final Listener _listener, final VideoItem _video)
+    {
+        if (_listener == null) return;
+        mMainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (_video != null) _listener.onSaved(_video);
+                else _listener.onSaveFailed();
+            }
+        });
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Listener
+     *
+     * Interface which provides callbacks for the result of finishing a recording, on the UI thread.
+     * Neither is called if the recorder never started recording.
+     */
+    public interface Listener
+    {
+        /** onSaved()
+         *
+         * @param _video The recording, which has been added to the global list of videos.
+         */
+        void onSaved(VideoItem _video);
+
+        /** onSaveFailed()
+         *
+         * Called when the recording was started but could not be saved.
+         */
+        void onSaveFailed();
+    }
+}
@@ -0,0 +1,156 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** RecordingJournal
+ *
+ * Write-ahead journal of recordings in progress. A line 'begin <path>' is written and synced to disk before
+ * a recording starts, and 'end <path>' once its file has been finished. A recording which has begun but not
+ * ended was interrupted, for example because the app crashed or was killed, and its files need recovery.
+ *
+ * Recordings begun by this process are still in progress, so they are never reported as interrupted.
+ */
+public class RecordingJournal
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Prefixes of the journal lines **/
+    private static final String BEGIN = "begin ", END = "end ";
+
+    /** The journal file **/
+    private final File mFile;
+
+    /** Paths of recordings begun by this process which have not ended **/
+    private final Set<String> mActive = new LinkedHashSet<>();
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** RecordingJournal()
+     *
+     * @param _file The journal file. Created when the first recording begins.
+     */
+    public RecordingJournal(File _file)
+    {
+        this.mFile = _file;
+    }
+
+    /** begin()
+     *
+     * Records that a recording is about to start. Returns once the entry is on disk.
+     *
+     * @param _recording File of the recording.
+     * @throws IOException If the journal could not be written.
+     */
+    public synchronized void begin(File _recording) throws IOException
+    {
+        append(BEGIN + _recording.getAbsolutePath());
+        mActive.add(_recording.getAbsolutePath());
+    }
+
+    /** end()
+     *
+     * Records that a recording's file has been finished, or that it no longer needs recovery.
+     *
+     * @param _recording File of the recording.
+     * @throws IOException If the journal could not be written.
+     */
+    public synchronized void end(File _recording) throws IOException
+    {
+        mActive.remove(_recording.getAbsolutePath());
+        append(END + _recording.getAbsolutePath());
+    }
+
+    /** interrupted()
+     *
+     * @return Recordings which have begun but not ended, other than the ones in progress in this process.
+     * @throws IOException If the journal could not be read.
+     */
+    public synchronized List<File> interrupted() throws IOException
+    {
+        Set<String> open = new LinkedHashSet<>();
+        BufferedReader reader;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+        }
+        catch (FileNotFoundException ex)
+        {
+            return new ArrayList<>();
+        }
+        try
+        {
+            // A line cut off by a crash has no newline and is ignored by its prefix check, or names a file which does not exist
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.startsWith(BEGIN)) open.add(line.substring(BEGIN.length()));
+                else if (line.startsWith(END)) open.remove(line.substring(END.length()));
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        open.removeAll(mActive);
+        List<File> files = new ArrayList<>(open.size());
+        for (String path : open) files.add(new File(path));
+        return files;
+    }
+
+    /** compact()
+     *
+     * Rewrites the journal with only the recordings in progress in this process, so it does not grow forever.
+     * Call after the interrupted recordings have been recovered.
+     *
+     * @throws IOException If the journal could not be written.
+     */
+    public synchronized void compact() throws IOException
+    {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            for (String path : mActive) out.write((BEGIN + path + "\n").getBytes("UTF-8"));
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) throw new IOException("Unable to replace " + mFile);
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** append()
+     *
+     * Appends a line to the journal and syncs it to disk.
+     *
+     * @param _line The line, without newline.
+     * @throws IOException If the journal could not be written.
+     */
+    private void append(String _line) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try
+        {
+            out.write((_line + "\n").getBytes("UTF-8"));
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/** RecordingMetrics
+ *
+ * Quality metrics of a recording, measured from the capture timestamps of its frames: the frame rate achieved,
+ * how much the interval between frames varied, how many frames were dropped, and how long after the recording
+ * was requested its first frame was captured. That delay is the camera switching requests, not the encoder's
+ * latency, which is not measured. Also how long it took from the record button to the first frame, the whole
+ * startup of the camera as the user waited for it. If the frames were analysed, also their mean brightness, motion and share of frames
+ * with a face, from which the data quality flags are derived.
+ *
+ * Stored in a small binary sidecar named 'name.mp4.metrics' next to the recording.
+ * File layout: magic, version, metrics, CRC32 of everything before it.
+ */
+public final class RecordingMetrics
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Extension appended to the recording's file name to name its sidecar **/
+    public static final String SIDECAR_EXTENSION = ".metrics";
+
+    /** Identifies a metrics file ('DC3M') **/
+    private static final int MAGIC = 0x4443334d;
+
+    /** Version of the file layout. Bump this whenever the layout of 'writeTo()' changes. **/
+    private static final int VERSION = 3;
+
+    /** Data quality flags, see 'getQualityFlags()' **/
+    public static final int FLAG_DARK = 1, FLAG_SHAKY = 2, FLAG_NO_FACE = 4;
+
+    /** Mean brightness below which a recording is flagged as dark **/
+    public static final float DARK_BRIGHTNESS = 0.15f;
+
+    /** Mean motion above which a recording is flagged as shaky **/
+    public static final float SHAKY_MOTION = 0.1f;
+
+    /** Share of frames with a face below which a recording is flagged as having no face **/
+    public static final float MIN_FACE_PRESENCE = 0.5f;
+
+    /** Number of frames captured for the recording **/
+    private final int mFrameCount;
+
+    /** Number of frames missing from the expected frame sequence **/
+    private final int mDroppedFrames;
+
+    /** Frame rate the encoder was set to, and the rate achieved **/
+    private final int mTargetFrameRate;
+    private final float mFrameRate;
+
+    /** Standard deviation and maximum of the interval between frames, in milliseconds **/
+    private final float mJitterMillis, mMaxIntervalMillis;
+
+    /** Milliseconds from requesting the recording to its first frame, or -1 if unknown **/
+    private final int mFirstFrameDelayMillis;
+
+    /** Mean scores of the frame analysis, see 'FrameAnalysisPipeline', or NaN if not analysed **/
+    private final float mBrightness, mMotion, mFacePresence;
+
+    /** Milliseconds from the record button to the first frame, see 'StartupTrace', or -1 if unknown **/
+    private final int mStartupMillis;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** RecordingMetrics()
+     *
+     * @param _frameCount Number of frames captured.
+     * @param _droppedFrames Number of frames dropped.
+     * @param _targetFrameRate Frame rate the encoder was set to.
+     * @param _frameRate Frame rate achieved.
+     * @param _jitterMillis Standard deviation of the interval between frames in milliseconds.
+     * @param _maxIntervalMillis Longest interval between frames in milliseconds.
+     * @param _firstFrameDelayMillis Milliseconds from requesting the recording to its first frame, or -1 if unknown.
+     */
+    public RecordingMetrics(int _frameCount, int _droppedFrames, int _targetFrameRate, float _frameRate,
+                            float _jitterMillis, float _maxIntervalMillis, int _firstFrameDelayMillis)
+    {
+        this(_frameCount, _droppedFrames, _targetFrameRate, _frameRate, _jitterMillis, _maxIntervalMillis, _firstFrameDelayMillis,
+                Float.NaN, Float.NaN, Float.NaN);
+    }
+
+    /** RecordingMetrics()
+     *
+     * @param _frameCount Number of frames captured.
+     * @param _droppedFrames Number of frames dropped.
+     * @param _targetFrameRate Frame rate the encoder was set to.
+     * @param _frameRate Frame rate achieved.
+     * @param _jitterMillis Standard deviation of the interval between frames in milliseconds.
+     * @param _maxIntervalMillis Longest interval between frames in milliseconds.
+     * @param _firstFrameDelayMillis Milliseconds from requesting the recording to its first frame, or -1 if unknown.
+     * @param _brightness Mean brightness of the frames, 0 to 1, or NaN if not analysed.
+     * @param _motion Mean motion between frames, 0 to 1, or NaN if not analysed.
+     * @param _facePresence Share of frames with a face, 0 to 1, or NaN if not analysed.
+     */
+    public RecordingMetrics(int _frameCount, int _droppedFrames, int _targetFrameRate, float _frameRate,
+                            float _jitterMillis, float _maxIntervalMillis, int _firstFrameDelayMillis,
+                            float _brightness, float _motion, float _facePresence)
+    {
+        this(_frameCount, _droppedFrames, _targetFrameRate, _frameRate, _jitterMillis, _maxIntervalMillis, _firstFrameDelayMillis,
+                _brightness, _motion, _facePresence, -1);
+    }
+
+    /** RecordingMetrics()
+     *
+     * @param _frameCount Number of frames captured.
+     * @param _droppedFrames Number of frames dropped.
+     * @param _targetFrameRate Frame rate the encoder was set to.
+     * @param _frameRate Frame rate achieved.
+     * @param _jitterMillis Standard deviation of the interval between frames in milliseconds.
+     * @param _maxIntervalMillis Longest interval between frames in milliseconds.
+     * @param _firstFrameDelayMillis Milliseconds from requesting the recording to its first frame, or -1 if unknown.
+     * @param _brightness Mean brightness of the frames, 0 to 1, or NaN if not analysed.
+     * @param _motion Mean motion between frames, 0 to 1, or NaN if not analysed.
+     * @param _facePresence Share of frames with a face, 0 to 1, or NaN if not analysed.
+     * @param _startupMillis Milliseconds from the record button to the first frame, or -1 if unknown.
+     */
+    public RecordingMetrics(int _frameCount, int _droppedFrames, int _targetFrameRate, float _frameRate,
+                            float _jitterMillis, float _maxIntervalMillis, int _firstFrameDelayMillis,
+                            float _brightness, float _motion, float _facePresence, int _startupMillis)
+    {
+        this.mFrameCount = _frameCount;
+        this.mDroppedFrames = _droppedFrames;
+        this.mTargetFrameRate = _targetFrameRate;
+        this.mFrameRate = _frameRate;
+        this.mJitterMillis = _jitterMillis;
+        this.mMaxIntervalMillis = _maxIntervalMillis;
+        this.mFirstFrameDelayMillis = _firstFrameDelayMillis;
+        this.mBrightness = _brightness;
+        this.mMotion = _motion;
+        this.mFacePresence = _facePresence;
+        this.mStartupMillis = _startupMillis;
+    }
+
+    /** withAnalysis()
+     *
+     * @param _brightness Mean brightness of the frames, 0 to 1, or NaN if not analysed.
+     * @param _motion Mean motion between frames, 0 to 1, or NaN if not analysed.
+     * @param _facePresence Share of frames with a face, 0 to 1, or NaN if not analysed.
+     * @return These metrics with the given scores of the frame analysis.
+     */
+    public RecordingMetrics withAnalysis(double _brightness, double _motion, double _facePresence)
+    {
+        return new RecordingMetrics(mFrameCount, mDroppedFrames, mTargetFrameRate, mFrameRate, mJitterMillis, mMaxIntervalMillis,
+                mFirstFrameDelayMillis, (float) _brightness, (float) _motion, (float) _facePresence, mStartupMillis);
+    }
+
+    /** withStartup()
+     *
+     * @param _startupMillis Milliseconds from the record button to the first frame, or -1 if unknown.
+     * @return These metrics with the given startup time.
+     */
+    public RecordingMetrics withStartup(int _startupMillis)
+    {
+        return new RecordingMetrics(mFrameCount, mDroppedFrames, mTargetFrameRate, mFrameRate, mJitterMillis, mMaxIntervalMillis,
+                mFirstFrameDelayMillis, mBrightness, mMotion, mFacePresence, _startupMillis);
+    }
+
+    /** getQualityFlags()
+     *
+     * Flags are only raised for the analyses which were run.
+     *
+     * @return FLAG_DARK, FLAG_SHAKY and FLAG_NO_FACE combined, or 0 if the recording has no quality issues.
+     */
+    public int getQualityFlags()
+    {
+        int flags = 0;
+        if (mBrightness < DARK_BRIGHTNESS) flags |= FLAG_DARK;
+        if (mMotion > SHAKY_MOTION) flags |= FLAG_SHAKY;
+        if (mFacePresence < MIN_FACE_PRESENCE) flags |= FLAG_NO_FACE;
+        return flags;
+    }
+
+    /** Getter methods **/
+    public int getFrameCount() { return this.mFrameCount; }
+    public int getDroppedFrames() { return this.mDroppedFrames; }
+    public int getTargetFrameRate() { return this.mTargetFrameRate; }
+    public float getFrameRate() { return this.mFrameRate; }
+    public float getJitterMillis() { return this.mJitterMillis; }
+    public float getMaxIntervalMillis() { return this.mMaxIntervalMillis; }
+    public int getFirstFrameDelayMillis() { return this.mFirstFrameDelayMillis; }
+    public float getBrightness() { return this.mBrightness; }
+    public float getMotion() { return this.mMotion; }
+    public float getFacePresence() { return this.mFacePresence; }
+    public int getStartupMillis() { return this.mStartupMillis; }
+
+    /** writeTo()
+     *
+     * @param _out Stream to write the metrics to, without magic or version.
+     * @throws IOException If the stream could not be written.
+     */
+    public void writeTo(DataOutputStream _out) throws IOException
+    {
+        _out.writeInt(mFrameCount);
+        _out.writeInt(mDroppedFrames);
+        _out.writeInt(mTargetFrameRate);
+        _out.writeFloat(mFrameRate);
+        _out.writeFloat(mJitterMillis);
+        _out.writeFloat(mMaxIntervalMillis);
+        _out.writeInt(mFirstFrameDelayMillis);
+        _out.writeFloat(mBrightness);
+        _out.writeFloat(mMotion);
+        _out.writeFloat(mFacePresence);
+        _out.writeInt(mStartupMillis);
+    }
+
+    /** readFrom()
+     *
+     * @param _in Stream positioned at metrics written by 'writeTo()'.
+     * @return The metrics.
+     * @throws IOException If the stream could not be read.
+     */
+    public static RecordingMetrics readFrom(DataInputStream _in) throws IOException
+    {
+        return new RecordingMetrics(_in.readInt(), _in.readInt(), _in.readInt(), _in.readFloat(), _in.readFloat(), _in.readFloat(), _in.readInt(),
+                _in.readFloat(), _in.readFloat(), _in.readFloat(), _in.readInt());
+    }
+
+    /** write()
+     *
+     * Writes the sidecar of a recording to a temporary file and renames it, so it is never seen half written.
+     *
+     * @param _recording File of the recording.
+     * @throws IOException If the sidecar could not be written.
+     */
+    public void write(File _recording) throws IOException
+    {
+        File sidecar = sidecarFor(_recording);
+        File tmp = new File(sidecar.getParentFile(), sidecar.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), crc)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeTo(out);
+            out.writeLong(crc.getValue());
+        }
+        if (!tmp.renameTo(sidecar))
+        {
+            tmp.delete();
+            throw new IOException("Unable to replace " + sidecar);
+        }
+    }
+
+    /** read()
+     *
+     * @param _recording File of a recording.
+     * @return The metrics from the recording's sidecar, or null if it has none.
+     * @throws IOException If the sidecar exists but could not be read, or is corrupt.
+     */
+    public static RecordingMetrics read(File _recording) throws IOException
+    {
+        File sidecar = sidecarFor(_recording);
+        if (!sidecar.exists()) return null;
+
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(sidecar)), crc)))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Unknown metrics format");
+            RecordingMetrics metrics = readFrom(in);
+
+            // The checksum covers everything read up to this point
+            long expected = crc.getValue();
+            if (in.readLong() != expected) throw new IOException("Metrics checksum mismatch");
+            return metrics;
+        }
+    }
+
+    /** sidecarFor()
+     *
+     * @param _recording File of a recording.
+     * @return File of the recording's metrics sidecar.
+     */
+    public static File sidecarFor(File _recording)
+    {
+        return new File(_recording.getParentFile(), _recording.getName() + SIDECAR_EXTENSION);
+    }
+
+    /** isSidecar()
+     *
+     * @param _file Any file in the recordings folder.
+     * @return Whether the file is a metrics sidecar, or one which is being written.
+     */
+    public static boolean isSidecar(File _file)
+    {
+        String name = _file.getName();
+        return name.endsWith(SIDECAR_EXTENSION) || name.endsWith(SIDECAR_EXTENSION + ".tmp");
+    }
+
+    /** recordingFor()
+     *
+     * @param _sidecar File of a sidecar, not a temporary one.
+     * @return File of the recording the sidecar belongs to.
+     */
+    public static File recordingFor(File _sidecar)
+    {
+        String name = _sidecar.getName();
+        return new File(_sidecar.getParentFile(), name.substring(0, name.length() - SIDECAR_EXTENSION.length()));
+    }
+
+    @Override
+    public boolean equals(Object _other)
+    {
+        if (!(_other instanceof RecordingMetrics)) return false;
+        RecordingMetrics m = (RecordingMetrics) _other;
+        return mFrameCount == m.mFrameCount && mDroppedFrames == m.mDroppedFrames && mTargetFrameRate == m.mTargetFrameRate
+                && mFrameRate == m.mFrameRate && mJitterMillis == m.mJitterMillis && mMaxIntervalMillis == m.mMaxIntervalMillis
+                && mFirstFrameDelayMillis == m.mFirstFrameDelayMillis && Float.compare(mBrightness, m.mBrightness) == 0
+                && Float.compare(mMotion, m.mMotion) == 0 && Float.compare(mFacePresence, m.mFacePresence) == 0
+                && mStartupMillis == m.mStartupMillis;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return mFrameCount * 31 + mDroppedFrames;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US, "%d frames, %.1f of %dfps, %d dropped, jitter %.1fms, longest gap %.1fms, first frame after %dms, "
+                + "startup %dms, brightness %.2f, motion %.2f, face %.2f, flags %d", mFrameCount, mFrameRate, mTargetFrameRate, mDroppedFrames,
+                mJitterMillis, mMaxIntervalMillis, mFirstFrameDelayMillis, mStartupMillis, mBrightness, mMotion, mFacePresence, getQualityFlags());
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Collector
+     *
+     * Measures the metrics of a recording from the capture timestamp of each frame, as they arrive.
+     * Only running totals are kept, so memory does not grow with the length of the recording.
+     */
+    public static class Collector
+    {
+        /** Frame rate the encoder was set to **/
+        private final int mTargetFrameRate;
+
+        /** Number of frames, and the timestamps of the first and the latest one in nanoseconds **/
+        private int mCount = 0;
+        private long mFirstNs, mLastNs;
+
+        /** Running mean and sum of squared deviations of the intervals, in nanoseconds (Welford's method) **/
+        private double mMeanNs = 0, mSquaresNs = 0;
+
+        /** Longest interval in nanoseconds **/
+        private long mMaxIntervalNs = 0;
+
+        /** Frames missing between the captured ones **/
+        private int mDropped = 0;
+
+        /** Collector()
+         *
+         * @param _targetFrameRate Frame rate the encoder was set to.
+         */
+        public Collector(int _targetFrameRate)
+        {
+            this.mTargetFrameRate = _targetFrameRate;
+        }
+
+        /** onFrame()
+         *
+         * An interval of more than one and a half times the expected one counts the frames which fit in it as dropped.
+         *
+         * @param _timestampNs Capture timestamp of a frame in nanoseconds. Frames must arrive in order.
+         */
+        public synchronized void onFrame(long _timestampNs)
+        {
+            if (mCount > 0)
+            {
+                long interval = _timestampNs - mLastNs;
+                if (interval <= 0) return;
+                double expected = 1e9 / mTargetFrameRate;
+                if (interval > expected * 1.5) mDropped += (int) Math.round(interval / expected) - 1;
+                mMaxIntervalNs = Math.max(mMaxIntervalNs, interval);
+
+                int intervals = mCount;
+                double delta = interval - mMeanNs;
+                mMeanNs += delta / intervals;
+                mSquaresNs += delta * (interval - mMeanNs);
+            }
+            else mFirstNs = _timestampNs;
+            mLastNs = _timestampNs;
+            mCount++;
+        }
+
+        /** toMetrics()
+         *
+         * @param _firstFrameDelayMillis Milliseconds from requesting the recording to its first frame, or -1 if unknown.
+         * @return The metrics of the frames so far.
+         */
+        public synchronized RecordingMetrics toMetrics(int _firstFrameDelayMillis)
+        {
+            float frameRate = mCount > 1 ? (float) ((mCount - 1) * 1e9 / (mLastNs - mFirstNs)) : 0;
+            float jitter = mCount > 2 ? (float) (Math.sqrt(mSquaresNs / (mCount - 1)) / 1e6) : 0;
+            return new RecordingMetrics(mCount, mDropped, mTargetFrameRate, frameRate, jitter, (float) (mMaxIntervalNs / 1e6), _firstFrameDelayMillis);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/** RecordingRecovery
+ *
+ * Recovers the files of a recording which was interrupted before its encoder finished them.
+ *
+ * An mp4 file can only be played if it has a complete 'moov' box, which holds the codec configuration and
+ * the size and offset of every sample, and which the encoder only writes once it stops. A lost 'moov' box is not
+ * rebuilt: the 'mdat' box does not say where one sample ends and the next begins, or which track it belongs to,
+ * so rebuilding it would mean parsing the raw H.264 and AAC data. Such a file is set aside, not repaired.
+ * What bounds the loss is that 'VideoRecorder' writes recordings in segments, each finished with its own 'moov'
+ * box, so only the segment being written when the recording was interrupted is set aside.
+ *
+ * Which case applies is decided by scanning the top-level boxes:
+ *  - The file is empty: nothing was recorded, so it is deleted.
+ *  - The file has complete 'moov' and 'mdat' boxes, followed by a box which was cut off: the file is truncated
+ *    after its last complete box. If the 'mdat' box is the one cut off, truncating would lose the samples,
+ *    so the file is set aside instead.
+ *  - The file has no complete 'moov' box: the samples cannot be located without it, so the file is renamed with the
+ *    extension '.partial', which hides it from the list of recordings but keeps the data on the device for
+ *    a tool which can rebuild it.
+ *
+ * The segments of a segmented recording are recovered one by one, and its manifest is rewritten without
+ * the segments which were deleted or set aside.
+ */
+public final class RecordingRecovery
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Extension appended to the name of a file which could not be recovered **/
+    public static final String PARTIAL_EXTENSION = ".partial";
+
+    /** What happened to a file **/
+    public static final int INTACT = 0, TRUNCATED = 1, DELETED = 2, SET_ASIDE = 3, MISSING = 4;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** RecordingRecovery()
+     *
+     * Not instantiable.
+     */
+    private RecordingRecovery() { }
+
+    /** recover()
+     *
+     * Recovers a recording, and all of its segments if it has more than one.
+     *
+     * @param _recording File of the recording.
+     * @return Number of files which were truncated, deleted or set aside.
+     */
+    public static int recover(File _recording)
+    {
+        File manifest = SegmentedRecording.manifestFor(_recording);
+        List<File> segments = null;
+        if (manifest.exists())
+        {
+            try
+            {
+                segments = SegmentedRecording.readManifest(manifest);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+        if (segments == null || segments.isEmpty())
+        {
+            int outcome = recoverFile(_recording);
+            return outcome == INTACT || outcome == MISSING ? 0 : 1;
+        }
+
+        int repaired = 0;
+        List<File> kept = new ArrayList<>(segments.size());
+        for (File segment : segments)
+        {
+            int outcome = recoverFile(segment);
+            if (outcome == INTACT || outcome == TRUNCATED) kept.add(segment);
+            if (outcome != INTACT && outcome != MISSING) repaired++;
+        }
+        if (kept.size() == segments.size()) return repaired;
+
+        // Without its first segment the recording has no file of its own, so the other segments are listed on their own
+        try
+        {
+            if (kept.size() > 1 && kept.get(0).equals(segments.get(0))) SegmentedRecording.writeManifest(kept);
+            else if (!manifest.delete()) System.out.println("Unable to delete " + manifest);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+        return repaired;
+    }
+
+    /** recoverFile()
+     *
+     * Recovers a single mp4 file.
+     *
+     * @param _file The file.
+     * @return INTACT, TRUNCATED, DELETED, SET_ASIDE, or MISSING if the file does not exist.
+     */
+    public static int recoverFile(File _file)
+    {
+        if (!_file.exists()) return MISSING;
+        if (_file.length() == 0)
+        {
+            return _file.delete() ? DELETED : INTACT;
+        }
+
+        try
+        {
+            RandomAccessFile file = new RandomAccessFile(_file, "rw");
+            try
+            {
+                FileChannel channel = file.getChannel();
+                Mp4Boxes.Scan scan = Mp4Boxes.scan(channel);
+                if (scan.hasBox("moov") && scan.hasBox("mdat"))
+                {
+                    if (!scan.hasTrailingData()) return INTACT;
+                    channel.truncate(scan.getCompleteEnd());
+                    channel.force(true);
+                    System.out.println("Truncated " + _file.getName() + " from " + scan.getFileSize() + " to " + scan.getCompleteEnd() + " bytes");
+                    return TRUNCATED;
+                }
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+
+        File partial = new File(_file.getParentFile(), _file.getName() + PARTIAL_EXTENSION);
+        if (!_file.renameTo(partial))
+        {
+            System.out.println("Unable to set aside " + _file);
+            return INTACT;
+        }
+        System.out.println("Set aside " + _file.getName() + ", it has no index");
+        return SET_ASIDE;
+    }
+
+    /** isPartial()
+     *
+     * @param _file Any file in the recordings folder.
+     * @return Whether the file was set aside because it could not be recovered.
+     */
+    public static boolean isPartial(File _file)
+    {
+        return _file.getName().endsWith(PARTIAL_EXTENSION);
+    }
+}
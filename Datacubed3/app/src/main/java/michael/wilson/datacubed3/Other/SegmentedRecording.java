@@ -0,0 +1,203 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** SegmentedRecording
+ *
+ * A recording which is split into several files, so an interrupted session only loses its last segment
+ * and no single file grows very long.
+ *
+ * The first segment is the recording's own file, named after the recording. The following segments are
+ * named 'name.part1.mp4', 'name.part2.mp4' and so on. Once there is more than one segment, a manifest
+ * named 'name.mp4.segments' lists the file names of all segments in order, one per line, so the list of
+ * recordings can show them as one recording. The manifest is rewritten as soon as a segment is added.
+ */
+public class SegmentedRecording
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Extension appended to the recording's file name to name its manifest **/
+    public static final String MANIFEST_EXTENSION = ".segments";
+
+
+    /** A new segment is started after this many milliseconds... **/
+    private final long mMaxDurationMillis;
+
+    /** ...or this many bytes, whichever comes first **/
+    private final long mMaxBytes;
+
+    /** Files of the segments, the first being the recording's own file **/
+    private final List<File> mSegments = new ArrayList<>();
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** SegmentedRecording()
+     *
+     * @param _file File of the recording, which is its first segment.
+     * @param _maxDurationMillis Length of a segment in milliseconds.
+     * @param _maxBytes Size of a segment in bytes.
+     */
+    public SegmentedRecording(File _file, long _maxDurationMillis, long _maxBytes)
+    {
+        this.mSegments.add(_file);
+        this.mMaxDurationMillis = _maxDurationMillis;
+        this.mMaxBytes = _maxBytes;
+    }
+
+    /** nextSegment()
+     *
+     * Creates the file for the next segment and adds it to the manifest.
+     *
+     * @return The newly created, empty file.
+     * @throws IOException If the file or the manifest could not be written.
+     */
+    public synchronized File nextSegment() throws IOException
+    {
+        File first = mSegments.get(0);
+        String name = first.getName();
+        String base = Filenames.stripFiletype(name);
+        String extension = name.substring(base.length());
+
+        // Skip names which are taken, in case a recording happens to be named like a segment
+        for (int k = mSegments.size(); ; k++)
+        {
+            File file = new File(first.getParentFile(), base + ".part" + k + extension);
+            if (file.createNewFile())
+            {
+                mSegments.add(file);
+                writeManifest(mSegments);
+                return file;
+            }
+        }
+    }
+
+    /** finish()
+     *
+     * Deletes segments which were created but never written to, which happens if the recording stops
+     * before the encoder has switched to them. The manifest is rewritten, or deleted if only one segment is left.
+     */
+    public synchronized void finish()
+    {
+        boolean removed = false;
+        while (mSegments.size() > 1 && mSegments.get(mSegments.size() - 1).length() == 0)
+        {
+            mSegments.remove(mSegments.size() - 1).delete();
+            removed = true;
+        }
+        if (!removed) return;
+
+        try
+        {
+            if (mSegments.size() > 1) writeManifest(mSegments);
+            else manifestFor(mSegments.get(0)).delete();
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /** Getter methods **/
+    public synchronized List<File> getSegments() { return new ArrayList<>(this.mSegments); }
+    public long getMaxDurationMillis() { return this.mMaxDurationMillis; }
+    public long getMaxBytes() { return this.mMaxBytes; }
+
+    /** manifestFor()
+     *
+     * @param _file File of a recording.
+     * @return File of the recording's manifest, which only exists if the recording has more than one segment.
+     */
+    public static File manifestFor(File _file)
+    {
+        return new File(_file.getParentFile(), _file.getName() + MANIFEST_EXTENSION);
+    }
+
+    /** isManifest()
+     *
+     * @param _file Any file in the recordings folder.
+     * @return Whether the file is the manifest of a segmented recording.
+     */
+    public static boolean isManifest(File _file)
+    {
+        return _file.getName().endsWith(MANIFEST_EXTENSION);
+    }
+
+    /** isTemporaryManifest()
+     *
+     * @param _file Any file in the recordings folder.
+     * @return Whether the file is a manifest which is being written, or was left behind by a crash.
+     */
+    public static boolean isTemporaryManifest(File _file)
+    {
+        return _file.getName().endsWith(MANIFEST_EXTENSION + ".tmp");
+    }
+
+    /** recordingFor()
+     *
+     * @param _manifest File of a manifest.
+     * @return File of the recording the manifest belongs to.
+     */
+    public static File recordingFor(File _manifest)
+    {
+        String name = _manifest.getName();
+        return new File(_manifest.getParentFile(), name.substring(0, name.length() - MANIFEST_EXTENSION.length()));
+    }
+
+    /** readManifest()
+     *
+     * @param _manifest File of a manifest.
+     * @return Files of the segments in order, the first being the recording's own file.
+     * @throws IOException If the manifest could not be read.
+     */
+    public static List<File> readManifest(File _manifest) throws IOException
+    {
+        List<File> segments = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(_manifest), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() > 0) segments.add(new File(_manifest.getParentFile(), line));
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return Collections.unmodifiableList(segments);
+    }
+
+    /** writeManifest()
+     *
+     * Writes the manifest to a temporary file and renames it, so a crash never leaves a half written manifest.
+     *
+     * @param _segments Files of the segments in order, the first being the recording's own file.
+     * @throws IOException If the manifest could not be written.
+     */
+    public static void writeManifest(List<File> _segments) throws IOException
+    {
+        File manifest = manifestFor(_segments.get(0));
+        File tmp = new File(manifest.getParentFile(), manifest.getName() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try
+        {
+            for (File segment : _segments) writer.write(segment.getName() + "\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+        if (!tmp.renameTo(manifest)) throw new IOException("Unable to replace " + manifest);
+    }
+}
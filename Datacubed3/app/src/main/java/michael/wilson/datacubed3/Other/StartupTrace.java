@@ -0,0 +1,92 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** StartupTrace
+ *
+ * Timestamps the phases of a startup sequence, such as opening the camera, so it can be seen where the time goes.
+ * Phases may be marked from any thread.
+ */
+public class StartupTrace
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Clock the phases are timed with **/
+    private final Clock mClock;
+
+    /** Time the trace was started **/
+    private final long mStart;
+
+    /** Names of the marked phases, in order **/
+    private final List<String> mPhases = new ArrayList<>();
+
+    /** Times the phases were marked at **/
+    private final List<Long> mTimes = new ArrayList<>();
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** StartupTrace()
+     *
+     * Starts the trace.
+     *
+     * @param _clock Clock the phases are timed with.
+     */
+    public StartupTrace(Clock _clock)
+    {
+        this(_clock, _clock.uptimeMillis());
+    }
+
+    /** StartupTrace()
+     *
+     * Starts the trace at an earlier time, such as when a button was pressed on another screen.
+     *
+     * @param _clock Clock the phases are timed with.
+     * @param _startMillis Time of the clock the trace started at.
+     */
+    public StartupTrace(Clock _clock, long _startMillis)
+    {
+        this.mClock = _clock;
+        this.mStart = _startMillis;
+    }
+
+    /** mark()
+     *
+     * Marks the end of a phase.
+     *
+     * @param _phase Name of the phase.
+     */
+    public synchronized void mark(String _phase)
+    {
+        mPhases.add(_phase);
+        mTimes.add(mClock.uptimeMillis());
+    }
+
+    /** elapsed()
+     *
+     * @param _phase Name of the phase.
+     * @return Milliseconds from the start of the trace to the first time the phase was marked, or -1 if it was not.
+     */
+    public synchronized long elapsed(String _phase)
+    {
+        int index = mPhases.indexOf(_phase);
+        return index < 0 ? -1 : mTimes.get(index) - mStart;
+    }
+
+    /** toString()
+     *
+     * @return Every phase with the time it took, followed by the total. (For example 'a 5ms, b 12ms, total 17ms')
+     */
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        long previous = mStart;
+        for (int i = 0; i < mPhases.size(); i++)
+        {
+            builder.append(mPhases.get(i)).append(' ').append(mTimes.get(i) - previous).append("ms, ");
+            previous = mTimes.get(i);
+        }
+        return builder.append("total ").append(previous - mStart).append("ms").toString();
+    }
+}
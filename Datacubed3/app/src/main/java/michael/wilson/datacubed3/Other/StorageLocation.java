@@ -0,0 +1,58 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.util.List;
+
+/** StorageLocation
+ *
+ * Where the recordings and their index are stored, and access to the file attributes of the recordings.
+ */
+public interface StorageLocation
+{
+    /** getVideoFolder()
+     *
+     * @return Directory where all recordings are saved.
+     */
+    File getVideoFolder();
+
+    /** getIndexFile()
+     *
+     * @return File where the recordings index is stored.
+     */
+    File getIndexFile();
+
+    /** listVideos()
+     *
+     * @return All files in the recordings folder, in no particular order. Empty if the folder does not exist.
+     */
+    List<File> listVideos();
+
+    /** lastModified()
+     *
+     * @param _file A file in the recordings folder.
+     * @return Last modified time of the file in milliseconds, or 0 if it does not exist.
+     */
+    long lastModified(File _file);
+
+    /** length()
+     *
+     * @param _file A file in the recordings folder.
+     * @return Size of the file in bytes, or 0 if it does not exist.
+     */
+    long length(File _file);
+
+    /** readSegments()
+     *
+     * @param _file File of a recording.
+     * @return Files of the recording's segments in order, the first being the recording's own file,
+     *         or null if the recording is not segmented or its manifest can not be read.
+     */
+    List<File> readSegments(File _file);
+
+    /** readMetrics()
+     *
+     * @param _file File of a recording.
+     * @return The quality metrics from the recording's sidecar, or null if it has none or it can not be read.
+     */
+    RecordingMetrics readMetrics(File _file);
+}
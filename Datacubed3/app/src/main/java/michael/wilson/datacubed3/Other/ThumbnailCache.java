@@ -0,0 +1,343 @@
+package michael.wilson.datacubed3.Other;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** ThumbnailCache
+ *
+ * Creates, stores and loads the thumbnails shown in the 'Saved Recordings' tab.
+ *
+ * A thumbnail is a single keyframe of a recording, scaled down to the size of the thumbnail view and
+ * stored as a JPEG in a bounded disk cache. The disk cache is keyed by file path and last modified time,
+ * so a rewritten recording gets a new thumbnail, and the least recently used thumbnails are evicted first.
+ * Recently shown thumbnails are also kept in a bounded in-memory cache.
+ */
+public class ThumbnailCache
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Maximum total size of the thumbnails on disk, in bytes **/
+    private static final long MAX_DISK_BYTES = 32L * 1024 * 1024;
+
+    /** Fraction of the heap the in-memory cache may use **/
+    private static final int MEMORY_FRACTION = 16;
+
+    /** Thumbnails are taken from the keyframe closest to this time, in microseconds **/
+    private static final long FRAME_TIME_US = 1000000;
+
+    /** JPEG quality of the stored thumbnails **/
+    private static final int JPEG_QUALITY = 85;
+
+    /** Directory holding the thumbnail files **/
+    private final File mDirectory;
+
+    /** Width and height of a thumbnail in pixels **/
+    private final int mSize;
+
+    /** Thumbnail files on disk and their sizes, least recently used first **/
+    private final LinkedHashMap<String, Long> mDiskEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total size of the thumbnail files on disk **/
+    private long mDiskBytes = 0;
+
+    /** Recently used thumbnails, bounded by their size in bytes **/
+    private final LruCache<String, Bitmap> mMemory;
+
+    /** Background threads for generating and decoding thumbnails **/
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2);
+
+    /** Handler for delivering thumbnails to views on the UI thread **/
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Key of the thumbnail each view is waiting for, written on the UI thread and read by the background threads **/
+    private final Map<ImageView, String> mWanted = Collections.synchronizedMap(new WeakHashMap<ImageView, String>());
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** ThumbnailCache()
+     *
+     * Instantiates this cache and indexes the thumbnails already on disk.
+     *
+     * @param _context The context.
+     * @param _size Width and height of a thumbnail in pixels.
+     */
+    public ThumbnailCache(Context _context, int _size)
+    {
+        this.mSize = _size;
+        this.mDirectory = new File(_context.getCacheDir(), "thumbnails");
+        if (!mDirectory.exists()) mDirectory.mkdirs();
+
+        int memoryBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        mMemory = new LruCache<String, Bitmap>(memoryBytes)
+        {
+            @Override
+            protected int sizeOf(String _key, Bitmap _bitmap)
+            {
+                return _bitmap.getAllocationByteCount();
+            }
+        };
+
+        // Index existing files, oldest first, so they are the first to be evicted
+        File[] files = mDirectory.listFiles();
+        if (files != null)
+        {
+            Arrays.sort(files, new Comparator<File>()
+            {
+                @Override
+                public int compare(File _lhs, File _rhs)
+                {
+                    return Long.compare(_lhs.lastModified(), _rhs.lastModified());
+                }
+            });
+            synchronized (mDiskEntries)
+            {
+                for (File file : files)
+                {
+                    // Left over from an interrupted write
+                    if (file.getName().endsWith(".tmp"))
+                    {
+                        file.delete();
+                        continue;
+                    }
+                    mDiskEntries.put(file.getName(), file.length());
+                    mDiskBytes += file.length();
+                }
+            }
+        }
+    }
+
+    /** load()
+     *
+     * Shows the thumbnail of a recording in an image view. If the thumbnail is not in memory,
+     * the placeholder is shown while it is read from disk, or generated, in the background.
+     *
+     * @param _video The recording.
+     * @param _view Image view to show the thumbnail in. Must be called on the UI thread.
+     * @param _placeholder Resource ID of the image to show until the thumbnail is ready.
+     */
+    public void load(final VideoItem _video, final ImageView _view, int _placeholder)
+    {
+        final String key = key(_video);
+        _view.setTag(key);
+        mWanted.put(_view, key);
+
+        Bitmap bitmap = mMemory.get(key);
+        if (bitmap != null)
+        {
+            _view.setImageBitmap(bitmap);
+            return;
+        }
+
+        _view.setImageResource(_placeholder);
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // The view may have been recycled for another recording by now. Its tag is only read on the UI thread.
+                if (!key.equals(mWanted.get(_view))) return;
+
+                final Bitmap thumbnail = get(_video, key);
+                if (thumbnail == null) return;
+                mMainHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (key.equals(_view.getTag())) _view.setImageBitmap(thumbnail);
+                    }
+                });
+            }
+        });
+    }
+
+    /** showPlaceholder()
+     *
+     * Shows the placeholder in an image view which has no recording yet, so a thumbnail still loading for the
+     * recording it showed before does not appear in it.
+     *
+     * @param _view Image view. Must be called on the UI thread.
+     * @param _placeholder Resource ID of the image to show.
+     */
+    public void showPlaceholder(ImageView _view, int _placeholder)
+    {
+        _view.setTag(null);
+        mWanted.remove(_view);
+        _view.setImageResource(_placeholder);
+    }
+
+    /** prefetch()
+     *
+     * Generates the thumbnail of a recording in the background, if it is not cached yet,
+     * so the gallery never has to decode the video itself.
+     *
+     * @param _video The recording.
+     */
+    public void prefetch(final VideoItem _video)
+    {
+        if (_video == null) return;
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                get(_video, key(_video));
+            }
+        });
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** get()
+     *
+     * Reads a thumbnail from memory or disk, generating it if necessary. Runs on a background thread.
+     *
+     * @param _video The recording.
+     * @param _key Cache key of the recording.
+     * @return The thumbnail, or null if it could not be generated.
+     */
+    private Bitmap get(VideoItem _video, String _key)
+    {
+        Bitmap bitmap = mMemory.get(_key);
+        if (bitmap != null) return bitmap;
+
+        File file = new File(mDirectory, _key);
+        boolean onDisk;
+        synchronized (mDiskEntries) { onDisk = mDiskEntries.get(_key) != null; }
+        if (onDisk) bitmap = BitmapFactory.decodeFile(file.getPath());
+
+        if (bitmap == null)
+        {
+            bitmap = generate(_video);
+            if (bitmap == null) return null;
+            store(file, bitmap);
+        }
+        else
+        {
+            // Remember that this thumbnail was used recently across restarts
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        mMemory.put(_key, bitmap);
+        return bitmap;
+    }
+
+    /** generate()
+     *
+     * @param _video The recording.
+     * @return A keyframe of the recording, scaled down to the thumbnail size, or null if it could not be read.
+     */
+    private Bitmap generate(VideoItem _video)
+    {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try
+        {
+            retriever.setDataSource(_video.getFilepath());
+            long timeUs = Math.min(FRAME_TIME_US, _video.getDuration() * 1000000L / 2);
+            return retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, mSize, mSize);
+        }
+        catch (RuntimeException ex)
+        {
+            ex.printStackTrace();
+            return null;
+        }
+        finally
+        {
+            retriever.release();
+        }
+    }
+
+    /** store()
+     *
+     * Writes a thumbnail to disk and evicts the least recently used thumbnails if the cache is too big.
+     * Each write goes to its own temporary file, so two threads generating the same thumbnail do not interleave.
+     *
+     * @param _file File to write the thumbnail to.
+     * @param _bitmap The thumbnail.
+     */
+    private void store(File _file, Bitmap _bitmap)
+    {
+        File tmp = null;
+        try
+        {
+            tmp = File.createTempFile(_file.getName(), ".tmp", mDirectory);
+            try (OutputStream out = new FileOutputStream(tmp))
+            {
+                _bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+            if (tmp != null) tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(_file))
+        {
+            tmp.delete();
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (mDiskEntries)
+        {
+            Long previous = mDiskEntries.put(_file.getName(), _file.length());
+            mDiskBytes += _file.length() - (previous != null ? previous : 0);
+
+            Iterator<Map.Entry<String, Long>> it = mDiskEntries.entrySet().iterator();
+            while (mDiskBytes > MAX_DISK_BYTES && it.hasNext())
+            {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(_file.getName())) continue;
+                mDiskBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String name : evicted) new File(mDirectory, name).delete();
+    }
+
+    /** key()
+     *
+     * @param _video The recording.
+     * @return Cache key (and file name) of the recording's thumbnail, derived from its path and timestamp.
+     *         The timestamp is the file's last modified time, so no file system access is needed here.
+     */
+    private static String key(VideoItem _video)
+    {
+        StringBuilder key = new StringBuilder();
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(_video.getFilepath().getBytes("UTF-8"));
+            for (int i = 0; i < 10; i++) key.append(String.format("%02x", digest[i]));
+        }
+        catch (NoSuchAlgorithmException | IOException ex)
+        {
+            key.append(Integer.toHexString(_video.getFilepath().hashCode()));
+        }
+        return key.append('_').append(_video.getTimestamp().getTime()).append(".jpg").toString();
+    }
+}
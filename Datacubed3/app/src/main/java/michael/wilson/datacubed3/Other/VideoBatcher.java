@@ -0,0 +1,115 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** VideoBatcher
+ *
+ * Groups 'VideoItems' produced one at a time into batches, so listeners are not notified for every single item.
+ * A batch is handed to the listener once it holds enough items, or once its oldest item has waited long enough.
+ */
+public class VideoBatcher
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** Maximum number of items per batch **/
+    private final int mMaxSize;
+
+    /** Maximum time in milliseconds an item may wait before its batch is handed out **/
+    private final long mMaxDelayMillis;
+
+    /** Listener which receives the batches **/
+    private final Listener mListener;
+
+    /** Items waiting for the next batch **/
+    private final List<VideoItem> mPending = new ArrayList<>();
+
+    /** Clock measuring how long items have waited **/
+    private final Clock mClock;
+
+    /** Time in milliseconds when the oldest pending item was added **/
+    private long mFirstPendingMillis;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** VideoBatcher()
+     *
+     * Instantiates this batcher.
+     *
+     * @param _maxSize Maximum number of items per batch.
+     * @param _maxDelayMillis Maximum time in milliseconds an item may wait before its batch is handed out.
+     * @param _listener Listener which receives the batches.
+     */
+    public VideoBatcher(int _maxSize, long _maxDelayMillis, Listener _listener)
+    {
+        this(_maxSize, _maxDelayMillis, Clock.SYSTEM, _listener);
+    }
+
+    /** VideoBatcher()
+     *
+     * Instantiates this batcher.
+     *
+     * @param _maxSize Maximum number of items per batch.
+     * @param _maxDelayMillis Maximum time in milliseconds an item may wait before its batch is handed out.
+     * @param _clock Clock measuring how long items have waited.
+     * @param _listener Listener which receives the batches.
+     */
+    public VideoBatcher(int _maxSize, long _maxDelayMillis, Clock _clock, Listener _listener)
+    {
+        this.mClock = _clock;
+        this.mMaxSize = Math.max(1, _maxSize);
+        this.mMaxDelayMillis = _maxDelayMillis;
+        this.mListener = _listener;
+    }
+
+    /** add()
+     *
+     * Adds an item to the next batch. Hands the batch out immediately if it is full or overdue.
+     *
+     * @param _video 'VideoItem' to add.
+     */
+    public synchronized void add(VideoItem _video)
+    {
+        if (mPending.isEmpty()) mFirstPendingMillis = mClock.uptimeMillis();
+        mPending.add(_video);
+        if (mPending.size() >= mMaxSize || millisUntilDue() <= 0) flush();
+    }
+
+    /** millisUntilDue()
+     *
+     * @return Time in milliseconds until the pending batch should be handed out, or Long.MAX_VALUE if nothing is pending.
+     */
+    public synchronized long millisUntilDue()
+    {
+        if (mPending.isEmpty()) return Long.MAX_VALUE;
+        return Math.max(0, mFirstPendingMillis + mMaxDelayMillis - mClock.uptimeMillis());
+    }
+
+    /** flush()
+     *
+     * Hands all pending items to the listener as one batch.
+     */
+    public synchronized void flush()
+    {
+        if (mPending.isEmpty()) return;
+        List<VideoItem> batch = Collections.unmodifiableList(new ArrayList<>(mPending));
+        mPending.clear();
+        mListener.onBatch(batch);
+    }
+
+    /* ~~~ INTERFACES ~~~ */
+
+    /** Listener
+     *
+     * Receives batches of 'VideoItems'.
+     */
+    public interface Listener
+    {
+        /** onBatch()
+         *
+         * @param _batch Items in the order they were added.
+         */
+        void onBatch(List<VideoItem> _batch);
+    }
+}
@@ -0,0 +1,1198 @@
+package michael.wilson.datacubed3.Other;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+/** VideoCatalog
+ *
+ * Compact, column oriented store of recordings for catalogs of tens of thousands of entries.
+ *
+ * Each recording is a row. Timestamps are kept in a 'long[]', durations in an 'int[]', and the path and name
+ * of every row as offset and length into one shared buffer of UTF-8 bytes. The name of a recording is usually
+ * the file name in its path without the extension, in which case it points into the path's bytes and costs nothing.
+ * Rows are looked up by path through an open addressing hash table of row numbers, so no 'String', 'Date' or
+ * boxed key is kept per recording.
+ *
+ * Recordings are read through a 'View', a flyweight which is moved from row to row, or through the getters
+ * taking a row. A row number stays the same until its recording is removed, after which the row is reused.
+ * Bytes of removed recordings are reclaimed once they make up half of the buffer.
+ *
+ * Sorted indexes by timestamp, duration and name are built by the first 'query()' and kept up to date from then on.
+ * Each index is a treap whose nodes are the rows themselves: the children of a row and the size of its subtree are
+ * kept in 'int[]' columns, and its priority is a hash of the row number, so an index costs 12 bytes per recording and
+ * no node object. Putting or removing a recording updates every index in O(log n). A query finds the range of one
+ * of its filters by searching down the tree and walks it, so it does not scan the whole catalog. A query which filters
+ * on nothing but the value it is ordered by starts its page at its rank, so deep pages cost no more than the first.
+ * Catalogs which are never queried do not pay for the indexes.
+ *
+ * All methods are synchronized, so the catalog can be read from any thread while it is being updated.
+ * A row number read on one thread may be removed by another; 'isLive()' tells whether it still holds a recording.
+ */
+public class VideoCatalog
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Row number meaning 'no row' **/
+    public static final int NO_ROW = -1;
+
+    /** Path length marking a row which holds no recording **/
+    private static final int DEAD = -1;
+
+    /** Number of reclaimable bytes below which the buffer is never compacted **/
+    private static final int MIN_COMPACT_BYTES = 4096;
+
+    /** Columns, one entry per row **/
+    private long[] mTimestamps;
+    private int[] mDurations;
+    private int[] mPathStarts, mPathLengths;
+    private int[] mNameStarts, mNameLengths;
+    private RecordingMetrics[] mMetrics;
+
+    /** Number of rows in use or freed, and the number holding a recording **/
+    private int mRows = 0, mSize = 0;
+
+    /** Rows which were freed and can be reused **/
+    private int[] mFree = new int[0];
+    private int mFreeCount = 0;
+
+    /** UTF-8 bytes of all paths and names, the number used, and how many of those belong to removed rows **/
+    private byte[] mBytes;
+    private int mByteCount = 0, mGarbageBytes = 0;
+
+    /** Hash table from path to row, holding 'row + 1' or 0 for an empty slot. Its length is a power of two. **/
+    private int[] mTable;
+
+    /** Indexes by timestamp, duration and name, ties broken by row, at BY_TIMESTAMP, BY_DURATION and BY_NAME.
+     *  For each, the left and right child of every row, 'NO_ROW' for none, and the number of rows in its subtree.
+     *  Null until the first query. **/
+    private int[][] mLeft, mRight, mSubtreeSizes;
+
+    /** Root row of each index, 'NO_ROW' if it is empty **/
+    private int[] mRoots;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** VideoCatalog()
+     *
+     * Instantiates an empty catalog.
+     */
+    public VideoCatalog()
+    {
+        this(16);
+    }
+
+    /** VideoCatalog()
+     *
+     * @param _capacity Number of recordings to make room for up front.
+     */
+    public VideoCatalog(int _capacity)
+    {
+        int capacity = Math.max(_capacity, 1);
+        mTimestamps = new long[capacity];
+        mDurations = new int[capacity];
+        mPathStarts = new int[capacity];
+        mPathLengths = new int[capacity];
+        mNameStarts = new int[capacity];
+        mNameLengths = new int[capacity];
+        mMetrics = new RecordingMetrics[capacity];
+        mBytes = new byte[capacity * 48];
+        mTable = new int[tableSizeFor(capacity)];
+    }
+
+    /** of()
+     *
+     * @param _videos Recordings.
+     * @return A catalog of the recordings.
+     */
+    public static VideoCatalog of(Collection<VideoItem> _videos)
+    {
+        VideoCatalog catalog = new VideoCatalog(_videos.size());
+        for (VideoItem video : _videos) catalog.put(video);
+        return catalog;
+    }
+
+    /** put()
+     *
+     * @param _video Recording to add, or to replace if a recording with the same path is in the catalog.
+     * @return Row of the recording.
+     */
+    public int put(VideoItem _video)
+    {
+        return put(_video.getFilepath(), _video.getName(), _video.getDuration(), _video.getTimestamp().getTime(), _video.getMetrics());
+    }
+
+    /** put()
+     *
+     * Adds a recording, or replaces the recording with the same path in its row.
+     *
+     * @param _filepath Path to the video file.
+     * @param _name Name of the recording.
+     * @param _duration Duration in seconds.
+     * @param _timestamp Date and time the recording was made, in milliseconds since the epoch.
+     * @param _metrics Quality metrics of the recording, or null if there are none.
+     * @return Row of the recording.
+     */
+    public synchronized int put(String _filepath, String _name, int _duration, long _timestamp, RecordingMetrics _metrics)
+    {
+        byte[] path = _filepath.getBytes(StandardCharsets.UTF_8);
+        int row = find(path);
+        if (row == NO_ROW)
+        {
+            row = allocateRow();
+            mSize++;
+            insertIntoTable(row, hash(path, 0, path.length));
+        }
+        else
+        {
+            // The indexes find a row by its values, so it is taken out before they change
+            removeFromIndexes(row);
+            mGarbageBytes += blockLength(row);
+        }
+        storeBytes(row, path, _filepath, _name);
+        mTimestamps[row] = _timestamp;
+        mDurations[row] = _duration;
+        mMetrics[row] = _metrics;
+        addToIndexes(row);
+        compactIfWasteful();
+        return row;
+    }
+
+    /** remove()
+     *
+     * @param _filepath Path of the recording to remove.
+     * @return Row the recording was in, or 'NO_ROW' if it was not in the catalog.
+     */
+    public synchronized int remove(String _filepath)
+    {
+        int row = find(_filepath);
+        if (row == NO_ROW) return NO_ROW;
+
+        removeFromTable(row);
+        removeFromIndexes(row);
+        mGarbageBytes += blockLength(row);
+        mPathLengths[row] = DEAD;
+        mMetrics[row] = null;
+        if (mFreeCount == mFree.length) mFree = Arrays.copyOf(mFree, Math.max(16, mFree.length * 2));
+        mFree[mFreeCount++] = row;
+        mSize--;
+        compactIfWasteful();
+        return row;
+    }
+
+    /** find()
+     *
+     * @param _filepath Path of a recording.
+     * @return Row of the recording, or 'NO_ROW' if it is not in the catalog.
+     */
+    public synchronized int find(String _filepath)
+    {
+        return find(_filepath.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** nextRow()
+     *
+     * Iterates over the rows holding a recording, in row order: start with 'nextRow(NO_ROW)'.
+     *
+     * @param _row The previous row, or 'NO_ROW' for the first.
+     * @return The next row holding a recording, or 'NO_ROW' if there are no more.
+     */
+    public synchronized int nextRow(int _row)
+    {
+        for (int row = _row + 1; row < mRows; row++)
+        {
+            if (mPathLengths[row] != DEAD) return row;
+        }
+        return NO_ROW;
+    }
+
+    /** clear()
+     *
+     * Removes all recordings. The memory is kept for new ones.
+     */
+    public synchronized void clear()
+    {
+        Arrays.fill(mTable, 0);
+        Arrays.fill(mMetrics, null);
+        mLeft = null;
+        mRight = null;
+        mSubtreeSizes = null;
+        mRoots = null;
+        mRows = 0;
+        mSize = 0;
+        mFreeCount = 0;
+        mByteCount = 0;
+        mGarbageBytes = 0;
+    }
+
+    /** query()
+     *
+     * Finds a page of the recordings which pass the filters of a query, in the order of the query.
+     *
+     * The range of the query's order is read from its index if the query filters on it, or when it filters on
+     * nothing else. Otherwise the range of the name prefix, the timestamps or the durations is read, in that order
+     * of preference, and sorted. A range which already comes in order is walked only until the page is full, and
+     * read by rank if every row in it passes the filters.
+     *
+     * @param _query The query.
+     * @return The rows of the page.
+     */
+    public synchronized Page query(CatalogQuery _query)
+    {
+        updateIndexes();
+
+        // Pick the index to read the candidates from
+        int driving;
+        if (isConstrained(_query, _query.getOrder()) || !hasFilters(_query)) driving = _query.getOrder();
+        else if (_query.getNamePrefix() != null) driving = CatalogQuery.BY_NAME;
+        else driving = _query.hasTimestampRange() ? CatalogQuery.BY_TIMESTAMP : CatalogQuery.BY_DURATION;
+
+        int[] range = range(_query, driving);
+        int from = range[0], count = range[1] - range[0];
+        boolean streamed = driving == _query.getOrder();
+        boolean descending = _query.isDescending();
+
+        // Every row of the range passes the filters, so the page is read by its position in the index
+        if (streamed && !hasOtherFilters(_query, driving))
+        {
+            int start = Math.min(_query.getOffset(), count);
+            int end = (int) Math.min((long) start + _query.getLimit(), count);
+            int[] rows = new int[end - start];
+            Cursor cursor = new Cursor(driving, descending ? from + count - 1 - start : from + start, descending);
+            for (int i = 0; i < rows.length; i++) rows[i] = cursor.next();
+            return new Page(rows, _query.getOffset(), end < count);
+        }
+
+        // Collect the matches, only as many as the page needs if they already come in order
+        long wanted = streamed ? (long) _query.getOffset() + _query.getLimit() + 1 : Long.MAX_VALUE;
+        int[] matches = new int[Math.min(count, 64)];
+        int matched = 0;
+        Cursor cursor = new Cursor(driving, streamed && descending ? from + count - 1 : from, streamed && descending);
+        for (int i = 0; i < count && matched < wanted; i++)
+        {
+            int row = cursor.next();
+            if (!_query.matches(this, row)) continue;
+            if (matched == matches.length) matches = Arrays.copyOf(matches, Math.min(count, matches.length * 2));
+            matches[matched++] = row;
+        }
+        if (!streamed)
+        {
+            sortRows(matches, matched, _query.getOrder());
+            if (descending) reverse(matches, matched);
+        }
+
+        int start = Math.min(_query.getOffset(), matched);
+        int end = (int) Math.min((long) start + _query.getLimit(), matched);
+        return new Page(Arrays.copyOfRange(matches, start, end), _query.getOffset(), end < matched);
+    }
+
+    /** view()
+     *
+     * @return A new flyweight view, not yet on any row.
+     */
+    public View view()
+    {
+        return new View(this);
+    }
+
+    /** isLive()
+     *
+     * @param _row A row number.
+     * @return Whether the row holds a recording.
+     */
+    public synchronized boolean isLive(int _row)
+    {
+        return _row >= 0 && _row < mRows && mPathLengths[_row] != DEAD;
+    }
+
+    /** getFilepath()
+     *
+     * @param _row A row holding a recording.
+     * @return Path of the recording, as a new string.
+     */
+    public synchronized String getFilepath(int _row)
+    {
+        return new String(mBytes, mPathStarts[_row], mPathLengths[_row], StandardCharsets.UTF_8);
+    }
+
+    /** getName()
+     *
+     * @param _row A row holding a recording.
+     * @return Name of the recording, as a new string.
+     */
+    public synchronized String getName(int _row)
+    {
+        return new String(mBytes, mNameStarts[_row], mNameLengths[_row], StandardCharsets.UTF_8);
+    }
+
+    /** getStableId()
+     *
+     * @param _row A row holding a recording.
+     * @return The same stable identifier as 'VideoItem.getStableId()' for the recording, without creating its path.
+     */
+    public synchronized long getStableId(int _row)
+    {
+        // Hash the UTF-16 chars of the path, as 'VideoItem' does
+        long hash = 0xcbf29ce484222325L;
+        int end = mPathStarts[_row] + mPathLengths[_row];
+        for (int i = mPathStarts[_row]; i < end; i += encodedLength(mBytes[i]))
+        {
+            int codePoint = codePointAt(mBytes, i);
+            if (Character.isBmpCodePoint(codePoint))
+            {
+                hash ^= codePoint;
+                hash *= 0x100000001b3L;
+            }
+            else
+            {
+                hash ^= Character.highSurrogate(codePoint);
+                hash *= 0x100000001b3L;
+                hash ^= Character.lowSurrogate(codePoint);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /** compareNames()
+     *
+     * Compares the names of two rows like 'String.CASE_INSENSITIVE_ORDER', without creating the names.
+     * Characters outside the Basic Multilingual Plane are compared as one code point rather than two chars.
+     *
+     * @param _lhs A row holding a recording.
+     * @param _rhs Another row holding a recording.
+     * @return Negative, zero or positive as the first name sorts before, the same as, or after the second.
+     */
+    public synchronized int compareNames(int _lhs, int _rhs)
+    {
+        int lhs = mNameStarts[_lhs], lhsEnd = lhs + mNameLengths[_lhs];
+        int rhs = mNameStarts[_rhs], rhsEnd = rhs + mNameLengths[_rhs];
+        while (lhs < lhsEnd && rhs < rhsEnd)
+        {
+            int result = compareIgnoringCase(codePointAt(mBytes, lhs), codePointAt(mBytes, rhs));
+            if (result != 0) return result;
+            lhs += encodedLength(mBytes[lhs]);
+            rhs += encodedLength(mBytes[rhs]);
+        }
+        return (lhsEnd - lhs) - (rhsEnd - rhs);
+    }
+
+    /** compareName()
+     *
+     * @param _row A row holding a recording.
+     * @param _name A name.
+     * @return Negative, zero or positive as the row's name sorts before, the same as, or after the given name.
+     */
+    public synchronized int compareName(int _row, String _name)
+    {
+        int position = mNameStarts[_row], end = position + mNameLengths[_row];
+        int i = 0;
+        while (position < end && i < _name.length())
+        {
+            int codePoint = _name.codePointAt(i);
+            int result = compareIgnoringCase(codePointAt(mBytes, position), codePoint);
+            if (result != 0) return result;
+            position += encodedLength(mBytes[position]);
+            i += Character.charCount(codePoint);
+        }
+        return (end - position) - (_name.length() - i);
+    }
+
+    /** nameStartsWith()
+     *
+     * @param _row A row holding a recording.
+     * @param _prefix Prefix to look for, case is ignored.
+     * @return Whether the name of the recording starts with the prefix.
+     */
+    public synchronized boolean nameStartsWith(int _row, String _prefix)
+    {
+        int position = mNameStarts[_row], end = position + mNameLengths[_row];
+        for (int i = 0; i < _prefix.length(); i += Character.charCount(_prefix.codePointAt(i)))
+        {
+            if (position >= end || compareIgnoringCase(codePointAt(mBytes, position), _prefix.codePointAt(i)) != 0) return false;
+            position += encodedLength(mBytes[position]);
+        }
+        return true;
+    }
+
+    /** toVideoItem()
+     *
+     * @param _row A row holding a recording.
+     * @return A new 'VideoItem' for the recording, for code which needs one.
+     */
+    public synchronized VideoItem toVideoItem(int _row)
+    {
+        return new VideoItem(getFilepath(_row), getName(_row), mDurations[_row], new Date(mTimestamps[_row]), mMetrics[_row]);
+    }
+
+    /** Getter methods **/
+    public synchronized long getTimestamp(int _row) { return this.mTimestamps[_row]; }
+    public synchronized int getDuration(int _row) { return this.mDurations[_row]; }
+    public synchronized RecordingMetrics getMetrics(int _row) { return this.mMetrics[_row]; }
+    public synchronized int size() { return this.mSize; }
+    public synchronized boolean isEmpty() { return this.mSize == 0; }
+    public synchronized int getByteCount() { return this.mByteCount; }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** updateIndexes()
+     *
+     * Builds the indexes from the rows on the first call. They are kept up to date by 'put()' and 'remove()' from then on.
+     */
+    private void updateIndexes()
+    {
+        if (mRoots != null) return;
+        mLeft = new int[3][mDurations.length];
+        mRight = new int[3][mDurations.length];
+        mSubtreeSizes = new int[3][mDurations.length];
+        mRoots = new int[] {NO_ROW, NO_ROW, NO_ROW};
+        for (int row = nextRow(NO_ROW); row != NO_ROW; row = nextRow(row)) addToIndexes(row);
+    }
+
+    /** addToIndexes()
+     *
+     * @param _row A row holding a recording, which is not in the indexes.
+     */
+    private void addToIndexes(int _row)
+    {
+        if (mRoots == null) return;
+        for (int order = CatalogQuery.BY_TIMESTAMP; order <= CatalogQuery.BY_NAME; order++) mRoots[order] = insert(order, mRoots[order], _row);
+    }
+
+    /** removeFromIndexes()
+     *
+     * @param _row A row holding a recording, with the values it was added to the indexes with.
+     */
+    private void removeFromIndexes(int _row)
+    {
+        if (mRoots == null) return;
+        for (int order = CatalogQuery.BY_TIMESTAMP; order <= CatalogQuery.BY_NAME; order++) mRoots[order] = delete(order, mRoots[order], _row);
+    }
+
+    /** insert()
+     *
+     * Adds a row as a leaf, then rotates it up while its priority is higher than its parent's.
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _node Root of the subtree to add the row to, or 'NO_ROW'.
+     * @param _row The row to add.
+     * @return New root of the subtree.
+     */
+    private int insert(int _order, int _node, int _row)
+    {
+        if (_node == NO_ROW)
+        {
+            mLeft[_order][_row] = NO_ROW;
+            mRight[_order][_row] = NO_ROW;
+            mSubtreeSizes[_order][_row] = 1;
+            return _row;
+        }
+
+        mSubtreeSizes[_order][_node]++;
+        if (compareRows(_row, _node, _order) < 0)
+        {
+            int left = insert(_order, mLeft[_order][_node], _row);
+            mLeft[_order][_node] = left;
+            if (priority(left) > priority(_node)) return rotateRight(_order, _node);
+        }
+        else
+        {
+            int right = insert(_order, mRight[_order][_node], _row);
+            mRight[_order][_node] = right;
+            if (priority(right) > priority(_node)) return rotateLeft(_order, _node);
+        }
+        return _node;
+    }
+
+    /** delete()
+     *
+     * Removes a row, replacing it with its two subtrees joined.
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _node Root of the subtree holding the row.
+     * @param _row The row to remove.
+     * @return New root of the subtree.
+     */
+    private int delete(int _order, int _node, int _row)
+    {
+        if (_node == _row) return join(_order, mLeft[_order][_row], mRight[_order][_row]);
+
+        mSubtreeSizes[_order][_node]--;
+        if (compareRows(_row, _node, _order) < 0) mLeft[_order][_node] = delete(_order, mLeft[_order][_node], _row);
+        else mRight[_order][_node] = delete(_order, mRight[_order][_node], _row);
+        return _node;
+    }
+
+    /** join()
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _lhs Root of a subtree, or 'NO_ROW'.
+     * @param _rhs Root of a subtree whose rows all sort after those of the first, or 'NO_ROW'.
+     * @return Root of the subtree holding the rows of both.
+     */
+    private int join(int _order, int _lhs, int _rhs)
+    {
+        if (_lhs == NO_ROW) return _rhs;
+        if (_rhs == NO_ROW) return _lhs;
+        // Both sizes are read first, the join below changes the size of whichever root it keeps
+        int size = mSubtreeSizes[_order][_lhs] + mSubtreeSizes[_order][_rhs];
+        if (priority(_lhs) > priority(_rhs))
+        {
+            mRight[_order][_lhs] = join(_order, mRight[_order][_lhs], _rhs);
+            mSubtreeSizes[_order][_lhs] = size;
+            return _lhs;
+        }
+        mLeft[_order][_rhs] = join(_order, _lhs, mLeft[_order][_rhs]);
+        mSubtreeSizes[_order][_rhs] = size;
+        return _rhs;
+    }
+
+    /** rotateRight()
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _node A row with a left child.
+     * @return The left child, which took the place of the row.
+     */
+    private int rotateRight(int _order, int _node)
+    {
+        int left = mLeft[_order][_node];
+        mLeft[_order][_node] = mRight[_order][left];
+        mRight[_order][left] = _node;
+        mSubtreeSizes[_order][left] = mSubtreeSizes[_order][_node];
+        mSubtreeSizes[_order][_node] = 1 + subtreeSize(_order, mLeft[_order][_node]) + subtreeSize(_order, mRight[_order][_node]);
+        return left;
+    }
+
+    /** rotateLeft()
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _node A row with a right child.
+     * @return The right child, which took the place of the row.
+     */
+    private int rotateLeft(int _order, int _node)
+    {
+        int right = mRight[_order][_node];
+        mRight[_order][_node] = mLeft[_order][right];
+        mLeft[_order][right] = _node;
+        mSubtreeSizes[_order][right] = mSubtreeSizes[_order][_node];
+        mSubtreeSizes[_order][_node] = 1 + subtreeSize(_order, mLeft[_order][_node]) + subtreeSize(_order, mRight[_order][_node]);
+        return right;
+    }
+
+    /** subtreeSize()
+     *
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @param _node Root of a subtree, or 'NO_ROW'.
+     * @return Number of rows in the subtree.
+     */
+    private int subtreeSize(int _order, int _node)
+    {
+        return _node == NO_ROW ? 0 : mSubtreeSizes[_order][_node];
+    }
+
+    /** priority()
+     *
+     * @param _row A row.
+     * @return Priority of the row in the treaps, a hash which spreads consecutive rows, different for every row.
+     */
+    private static int priority(int _row)
+    {
+        int hash = _row * 0x9e3779b9;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
+
+    /** range()
+     *
+     * @param _query A query.
+     * @param _index BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @return First and last rank, exclusive, of the rows of the index which pass the query's filter on its value.
+     */
+    private int[] range(CatalogQuery _query, int _index)
+    {
+        if (!isConstrained(_query, _index)) return new int[] {0, mSize};
+        switch (_index)
+        {
+            case CatalogQuery.BY_TIMESTAMP:
+                if (_query.getMinTimestamp() > _query.getMaxTimestamp()) return new int[] {0, 0};
+                return new int[] {searchValue(_index, _query.getMinTimestamp(), false), searchValue(_index, _query.getMaxTimestamp(), true)};
+            case CatalogQuery.BY_DURATION:
+                if (_query.getMinDuration() > _query.getMaxDuration()) return new int[] {0, 0};
+                return new int[] {searchValue(_index, _query.getMinDuration(), false), searchValue(_index, _query.getMaxDuration(), true)};
+            default:
+                // Names with a prefix come right after the prefix itself
+                return new int[] {searchPrefix(_query.getNamePrefix(), false), searchPrefix(_query.getNamePrefix(), true)};
+        }
+    }
+
+    /** searchValue()
+     *
+     * @param _index BY_TIMESTAMP or BY_DURATION.
+     * @param _value A timestamp or duration.
+     * @param _after Whether to skip the rows with exactly this value.
+     * @return Rank of the first row in the index whose value is not below, or above if '_after', the given value.
+     */
+    private int searchValue(int _index, long _value, boolean _after)
+    {
+        int rank = 0;
+        for (int node = mRoots[_index]; node != NO_ROW; )
+        {
+            long value = value(node, _index);
+            if (value < _value || (_after && value == _value))
+            {
+                rank += subtreeSize(_index, mLeft[_index][node]) + 1;
+                node = mRight[_index][node];
+            }
+            else node = mLeft[_index][node];
+        }
+        return rank;
+    }
+
+    /** searchPrefix()
+     *
+     * @param _prefix A name prefix.
+     * @param _after Whether to skip the rows whose name starts with the prefix.
+     * @return Rank of the first row in the name index whose name does not sort before, or after if '_after', the prefix.
+     */
+    private int searchPrefix(String _prefix, boolean _after)
+    {
+        int order = CatalogQuery.BY_NAME, rank = 0;
+        for (int node = mRoots[order]; node != NO_ROW; )
+        {
+            int result = comparePrefix(node, _prefix);
+            if (result < 0 || (_after && result == 0))
+            {
+                rank += subtreeSize(order, mLeft[order][node]) + 1;
+                node = mRight[order][node];
+            }
+            else node = mLeft[order][node];
+        }
+        return rank;
+    }
+
+    /** comparePrefix()
+     *
+     * @param _row A row holding a recording.
+     * @param _prefix A name prefix.
+     * @return Negative, zero or positive as the row's name sorts before, starts with, or sorts after the prefix.
+     */
+    private int comparePrefix(int _row, String _prefix)
+    {
+        int position = mNameStarts[_row], end = position + mNameLengths[_row];
+        for (int i = 0; i < _prefix.length(); i += Character.charCount(_prefix.codePointAt(i)))
+        {
+            if (position >= end) return -1;
+            int result = compareIgnoringCase(codePointAt(mBytes, position), _prefix.codePointAt(i));
+            if (result != 0) return result;
+            position += encodedLength(mBytes[position]);
+        }
+        return 0;
+    }
+
+    /** isConstrained()
+     *
+     * @param _query A query.
+     * @param _index BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @return Whether the query limits the values of this index.
+     */
+    private static boolean isConstrained(CatalogQuery _query, int _index)
+    {
+        if (_index == CatalogQuery.BY_TIMESTAMP) return _query.hasTimestampRange();
+        if (_index == CatalogQuery.BY_DURATION) return _query.hasDurationRange();
+        return _query.getNamePrefix() != null;
+    }
+
+    /** hasFilters()
+     *
+     * @param _query A query.
+     * @return Whether the query filters on any value.
+     */
+    private static boolean hasFilters(CatalogQuery _query)
+    {
+        return _query.hasTimestampRange() || _query.hasDurationRange() || _query.getNamePrefix() != null;
+    }
+
+    /** hasOtherFilters()
+     *
+     * @param _query A query.
+     * @param _index BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @return Whether the query filters on any value other than the one of this index.
+     */
+    private static boolean hasOtherFilters(CatalogQuery _query, int _index)
+    {
+        return (_index != CatalogQuery.BY_TIMESTAMP && _query.hasTimestampRange())
+                || (_index != CatalogQuery.BY_DURATION && _query.hasDurationRange())
+                || (_index != CatalogQuery.BY_NAME && _query.getNamePrefix() != null);
+    }
+
+    /** compareRows()
+     *
+     * @param _lhs A row holding a recording.
+     * @param _rhs Another row holding a recording.
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     * @return The order of the rows by the value, ties broken by row.
+     */
+    private int compareRows(int _lhs, int _rhs, int _order)
+    {
+        int result = _order == CatalogQuery.BY_NAME ? compareNames(_lhs, _rhs) : Long.compare(value(_lhs, _order), value(_rhs, _order));
+        return result != 0 ? result : Integer.compare(_lhs, _rhs);
+    }
+
+    /** value()
+     *
+     * @param _row A row holding a recording.
+     * @param _order BY_TIMESTAMP or BY_DURATION.
+     * @return The timestamp or duration of the row.
+     */
+    private long value(int _row, int _order)
+    {
+        return _order == CatalogQuery.BY_TIMESTAMP ? mTimestamps[_row] : mDurations[_row];
+    }
+
+    /** sortRows()
+     *
+     * Sorts rows with a merge sort, so no boxed row is created.
+     *
+     * @param _rows Array holding the rows.
+     * @param _count Number of rows at the start of the array.
+     * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+     */
+    private void sortRows(int[] _rows, int _count, int _order)
+    {
+        if (_count < 2) return;
+        int[] from = _rows, to = new int[_count];
+        for (int width = 1; width < _count; width *= 2)
+        {
+            for (int low = 0; low < _count; low += 2 * width)
+            {
+                int middle = Math.min(low + width, _count), high = Math.min(low + 2 * width, _count);
+                int i = low, j = middle;
+                for (int k = low; k < high; k++)
+                {
+                    if (i < middle && (j >= high || compareRows(from[i], from[j], _order) <= 0)) to[k] = from[i++];
+                    else to[k] = from[j++];
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != _rows) System.arraycopy(from, 0, _rows, 0, _count);
+    }
+
+    /** reverse()
+     *
+     * @param _rows Array holding rows.
+     * @param _count Number of rows at the start of the array to reverse.
+     */
+    private static void reverse(int[] _rows, int _count)
+    {
+        for (int i = 0, j = _count - 1; i < j; i++, j--)
+        {
+            int row = _rows[i];
+            _rows[i] = _rows[j];
+            _rows[j] = row;
+        }
+    }
+
+    /** allocateRow()
+     *
+     * @return A freed row, or a new one at the end, growing the columns if they are full.
+     */
+    private int allocateRow()
+    {
+        if (mFreeCount > 0) return mFree[--mFreeCount];
+        if (mRows == mDurations.length)
+        {
+            int capacity = mRows * 2;
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+            mDurations = Arrays.copyOf(mDurations, capacity);
+            mPathStarts = Arrays.copyOf(mPathStarts, capacity);
+            mPathLengths = Arrays.copyOf(mPathLengths, capacity);
+            mNameStarts = Arrays.copyOf(mNameStarts, capacity);
+            mNameLengths = Arrays.copyOf(mNameLengths, capacity);
+            mMetrics = Arrays.copyOf(mMetrics, capacity);
+            if (mRoots != null)
+            {
+                for (int order = CatalogQuery.BY_TIMESTAMP; order <= CatalogQuery.BY_NAME; order++)
+                {
+                    mLeft[order] = Arrays.copyOf(mLeft[order], capacity);
+                    mRight[order] = Arrays.copyOf(mRight[order], capacity);
+                    mSubtreeSizes[order] = Arrays.copyOf(mSubtreeSizes[order], capacity);
+                }
+            }
+            if (mTable.length < tableSizeFor(capacity)) rehash(tableSizeFor(capacity));
+        }
+        return mRows++;
+    }
+
+    /** storeBytes()
+     *
+     * Appends the path of a row, and its name unless the name is part of the path, to the byte buffer.
+     *
+     * @param _row The row.
+     * @param _path UTF-8 bytes of the path.
+     * @param _filepath Path of the recording.
+     * @param _name Name of the recording.
+     */
+    private void storeBytes(int _row, byte[] _path, String _filepath, String _name)
+    {
+        int nameInPath = _filepath.lastIndexOf(_name);
+        byte[] name = nameInPath < 0 ? _name.getBytes(StandardCharsets.UTF_8) : null;
+        int needed = _path.length + (name != null ? name.length : 0);
+        if (mByteCount + needed > mBytes.length)
+        {
+            mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mByteCount + needed));
+        }
+
+        int start = mByteCount;
+        System.arraycopy(_path, 0, mBytes, start, _path.length);
+        mPathStarts[_row] = start;
+        mPathLengths[_row] = _path.length;
+        if (name == null)
+        {
+            int offset = _filepath.substring(0, nameInPath).getBytes(StandardCharsets.UTF_8).length;
+            mNameStarts[_row] = start + offset;
+            mNameLengths[_row] = _filepath.substring(nameInPath, nameInPath + _name.length()).getBytes(StandardCharsets.UTF_8).length;
+        }
+        else
+        {
+            System.arraycopy(name, 0, mBytes, start + _path.length, name.length);
+            mNameStarts[_row] = start + _path.length;
+            mNameLengths[_row] = name.length;
+        }
+        mByteCount += needed;
+    }
+
+    /** blockLength()
+     *
+     * @param _row A row holding a recording.
+     * @return Number of bytes the row uses: its path, followed by its name if the name is not part of the path.
+     */
+    private int blockLength(int _row)
+    {
+        int end = Math.max(mPathStarts[_row] + mPathLengths[_row], mNameStarts[_row] + mNameLengths[_row]);
+        return end - mPathStarts[_row];
+    }
+
+    /** compactIfWasteful()
+     *
+     * Copies the bytes of the live rows into a new buffer once removed rows make up half of the old one.
+     */
+    private void compactIfWasteful()
+    {
+        if (mGarbageBytes < MIN_COMPACT_BYTES || mGarbageBytes * 2 < mByteCount) return;
+
+        byte[] bytes = new byte[Math.max(16, (mByteCount - mGarbageBytes) * 3 / 2)];
+        int count = 0;
+        for (int row = 0; row < mRows; row++)
+        {
+            if (mPathLengths[row] == DEAD) continue;
+            int length = blockLength(row);
+            System.arraycopy(mBytes, mPathStarts[row], bytes, count, length);
+            mNameStarts[row] += count - mPathStarts[row];
+            mPathStarts[row] = count;
+            count += length;
+        }
+        mBytes = bytes;
+        mByteCount = count;
+        mGarbageBytes = 0;
+    }
+
+    /** find()
+     *
+     * @param _path UTF-8 bytes of a path.
+     * @return Row of the recording, or 'NO_ROW' if it is not in the catalog.
+     */
+    private int find(byte[] _path)
+    {
+        int mask = mTable.length - 1;
+        for (int slot = hash(_path, 0, _path.length) & mask; mTable[slot] != 0; slot = (slot + 1) & mask)
+        {
+            int row = mTable[slot] - 1;
+            if (pathEquals(row, _path)) return row;
+        }
+        return NO_ROW;
+    }
+
+    /** pathEquals()
+     *
+     * @param _row A row holding a recording.
+     * @param _path UTF-8 bytes of a path.
+     * @return Whether the row holds the recording with this path.
+     */
+    private boolean pathEquals(int _row, byte[] _path)
+    {
+        if (mPathLengths[_row] != _path.length) return false;
+        int start = mPathStarts[_row];
+        for (int i = _path.length - 1; i >= 0; i--)
+        {
+            if (mBytes[start + i] != _path[i]) return false;
+        }
+        return true;
+    }
+
+    /** insertIntoTable()
+     *
+     * @param _row A row which is not in the hash table.
+     * @param _hash Hash of the row's path.
+     */
+    private void insertIntoTable(int _row, int _hash)
+    {
+        int mask = mTable.length - 1;
+        int slot = _hash & mask;
+        while (mTable[slot] != 0) slot = (slot + 1) & mask;
+        mTable[slot] = _row + 1;
+    }
+
+    /** removeFromTable()
+     *
+     * Empties the slot of a row, and moves the rows after it in the same probe run back so they can still be found.
+     *
+     * @param _row A row which is in the hash table.
+     */
+    private void removeFromTable(int _row)
+    {
+        int mask = mTable.length - 1;
+        int slot = rowHash(_row) & mask;
+        while (mTable[slot] != _row + 1) slot = (slot + 1) & mask;
+
+        int empty = slot;
+        for (slot = (slot + 1) & mask; mTable[slot] != 0; slot = (slot + 1) & mask)
+        {
+            // A row may move to the empty slot if that lies between its home slot and its current slot
+            int home = rowHash(mTable[slot] - 1) & mask;
+            boolean between = empty <= slot ? (home <= empty || home > slot) : (home <= empty && home > slot);
+            if (between)
+            {
+                mTable[empty] = mTable[slot];
+                empty = slot;
+            }
+        }
+        mTable[empty] = 0;
+    }
+
+    /** rehash()
+     *
+     * @param _size New size of the hash table, a power of two.
+     */
+    private void rehash(int _size)
+    {
+        int[] old = mTable;
+        mTable = new int[_size];
+        for (int entry : old)
+        {
+            if (entry != 0) insertIntoTable(entry - 1, rowHash(entry - 1));
+        }
+    }
+
+    /** hash()
+     *
+     * @param _bytes Buffer holding the UTF-8 bytes of a path.
+     * @param _start Offset of the path.
+     * @param _length Length of the path.
+     * @return Hash of the path.
+     */
+    private static int hash(byte[] _bytes, int _start, int _length)
+    {
+        int hash = 0;
+        for (int i = _start; i < _start + _length; i++) hash = 31 * hash + _bytes[i];
+        return hash ^ (hash >>> 16);
+    }
+
+    /** rowHash()
+     *
+     * @param _row A row holding a recording.
+     * @return Hash of the row's path.
+     */
+    private int rowHash(int _row)
+    {
+        return hash(mBytes, mPathStarts[_row], mPathLengths[_row]);
+    }
+
+    /** tableSizeFor()
+     *
+     * @param _rows Number of rows.
+     * @return Size of a hash table which is at most half full with this many rows.
+     */
+    private static int tableSizeFor(int _rows)
+    {
+        return Integer.highestOneBit(Math.max(_rows, 8) * 2 - 1) << 1;
+    }
+
+    /** compareIgnoringCase()
+     *
+     * @param _lhs A code point.
+     * @param _rhs Another code point.
+     * @return The order of the code points, ignoring case the same way as 'String.CASE_INSENSITIVE_ORDER'.
+     */
+    private static int compareIgnoringCase(int _lhs, int _rhs)
+    {
+        if (_lhs == _rhs) return 0;
+        return Character.toLowerCase(Character.toUpperCase(_lhs)) - Character.toLowerCase(Character.toUpperCase(_rhs));
+    }
+
+    /** codePointAt()
+     *
+     * @param _bytes Buffer of UTF-8 bytes.
+     * @param _position Offset of the first byte of a character.
+     * @return The code point of the character.
+     */
+    private static int codePointAt(byte[] _bytes, int _position)
+    {
+        int lead = _bytes[_position] & 0xff;
+        if (lead < 0x80) return lead;
+        if (lead < 0xe0) return (lead & 0x1f) << 6 | (_bytes[_position + 1] & 0x3f);
+        if (lead < 0xf0) return (lead & 0x0f) << 12 | (_bytes[_position + 1] & 0x3f) << 6 | (_bytes[_position + 2] & 0x3f);
+        return (lead & 0x07) << 18 | (_bytes[_position + 1] & 0x3f) << 12 | (_bytes[_position + 2] & 0x3f) << 6 | (_bytes[_position + 3] & 0x3f);
+    }
+
+    /** encodedLength()
+     *
+     * @param _lead First byte of a UTF-8 character.
+     * @return Number of bytes of the character.
+     */
+    private static int encodedLength(byte _lead)
+    {
+        int lead = _lead & 0xff;
+        return lead < 0x80 ? 1 : lead < 0xe0 ? 2 : lead < 0xf0 ? 3 : 4;
+    }
+
+    /* ~~~ PUBLIC CLASSES ~~~ */
+
+    /** Page
+     *
+     * One page of the results of a query: the rows, and whether more results follow.
+     * The rows are only valid until the catalog changes.
+     */
+    public static class Page
+    {
+        private final int[] mRows;
+        private final int mOffset;
+        private final boolean mHasMore;
+
+        Page(int[] _rows, int _offset, boolean _hasMore)
+        {
+            this.mRows = _rows;
+            this.mOffset = _offset;
+            this.mHasMore = _hasMore;
+        }
+
+        /** Getter methods **/
+        public int getRow(int _index) { return this.mRows[_index]; }
+        public int size() { return this.mRows.length; }
+        public int getOffset() { return this.mOffset; }
+        public boolean hasMore() { return this.mHasMore; }
+    }
+
+    /** View
+     *
+     * Flyweight over one row of a catalog. Moving it to another row costs nothing, so one view can be
+     * used to read any number of recordings without creating an object for each.
+     */
+    public static class View
+    {
+        private final VideoCatalog mCatalog;
+        private int mRow = NO_ROW;
+
+        View(VideoCatalog _catalog)
+        {
+            this.mCatalog = _catalog;
+        }
+
+        /** moveTo()
+         *
+         * @param _row A row holding a recording.
+         * @return This view.
+         */
+        public View moveTo(int _row)
+        {
+            this.mRow = _row;
+            return this;
+        }
+
+        /** Getter methods **/
+        public int getRow() { return this.mRow; }
+        public String getFilepath() { return mCatalog.getFilepath(mRow); }
+        public String getName() { return mCatalog.getName(mRow); }
+        public int getDuration() { return mCatalog.getDuration(mRow); }
+        public long getTimestamp() { return mCatalog.getTimestamp(mRow); }
+        public long getStableId() { return mCatalog.getStableId(mRow); }
+        public RecordingMetrics getMetrics() { return mCatalog.getMetrics(mRow); }
+        public boolean nameStartsWith(String _prefix) { return mCatalog.nameStartsWith(mRow, _prefix); }
+        public VideoItem toVideoItem() { return mCatalog.toVideoItem(mRow); }
+    }
+
+    /* ~~~ PRIVATE CLASSES ~~~ */
+
+    /** Cursor
+     *
+     * Walks the rows of an index from a rank, in order or in reverse, keeping the rows still to visit above it on a stack.
+     */
+    private class Cursor
+    {
+        private final int mOrder;
+        private final boolean mReverse;
+        private int[] mStack = new int[32];
+        private int mDepth = 0;
+
+        /** Cursor()
+         *
+         * @param _order BY_TIMESTAMP, BY_DURATION or BY_NAME.
+         * @param _rank Rank of the first row to visit, within the index.
+         * @param _reverse Whether to visit the rows of lower rank next.
+         */
+        Cursor(int _order, int _rank, boolean _reverse)
+        {
+            this.mOrder = _order;
+            this.mReverse = _reverse;
+            int rank = _rank;
+            for (int node = mRoots[_order]; node != NO_ROW; )
+            {
+                int before = subtreeSize(_order, mLeft[_order][node]);
+                if (rank == before)
+                {
+                    push(node);
+                    break;
+                }
+                // Rows on the way which come after the first are visited later
+                if (rank < before)
+                {
+                    if (!_reverse) push(node);
+                    node = mLeft[_order][node];
+                }
+                else
+                {
+                    if (_reverse) push(node);
+                    rank -= before + 1;
+                    node = mRight[_order][node];
+                }
+            }
+        }
+
+        /** next()
+         *
+         * @return The next row, or 'NO_ROW' past the end of the index.
+         */
+        int next()
+        {
+            if (mDepth == 0) return NO_ROW;
+            int row = mStack[--mDepth];
+            int child = mReverse ? mLeft[mOrder][row] : mRight[mOrder][row];
+            while (child != NO_ROW)
+            {
+                push(child);
+                child = mReverse ? mRight[mOrder][child] : mLeft[mOrder][child];
+            }
+            return row;
+        }
+
+        private void push(int _row)
+        {
+            if (mDepth == mStack.length) mStack = Arrays.copyOf(mStack, mStack.length * 2);
+            mStack[mDepth++] = _row;
+        }
+    }
+}
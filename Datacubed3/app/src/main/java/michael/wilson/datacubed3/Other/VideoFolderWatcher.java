@@ -0,0 +1,181 @@
+package michael.wilson.datacubed3.Other;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/** VideoFolderWatcher
+ *
+ * Watches the recordings folder for files being created, written, moved and deleted,
+ * so the list of recordings stays up to date without rescanning the folder.
+ *
+ * Events are coalesced per file by 'FolderChanges' and handed to the listener in one go once the folder
+ * has been quiet for a short while. Files which have been created but not yet closed
+ * are still being written, so they are not reported until they are closed.
+ */
+public class VideoFolderWatcher extends FileObserver
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Events this watcher listens for **/
+    private static final int EVENTS = CREATE | CLOSE_WRITE | DELETE | MOVED_FROM | MOVED_TO | DELETE_SELF;
+
+    /** Listener which receives the coalesced changes **/
+    private final Listener mListener;
+
+    /** Thread on which the changes are applied **/
+    private HandlerThread mThread;
+
+    /** Handler to be executed on the watcher thread **/
+    private Handler mHandler;
+
+    /** Pending changes, coalesced per file **/
+    private final FolderChanges mChanges;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** VideoFolderWatcher()
+     *
+     * Instantiates this watcher. Nothing is watched until 'startWatching()' is called.
+     *
+     * @param _folder The folder to watch.
+     * @param _listener Listener which receives the changes.
+     */
+    @SuppressWarnings("deprecation")
+    public VideoFolderWatcher(File _folder, Listener _listener)
+    {
+        super(_folder.getAbsolutePath(), EVENTS);
+        this.mChanges = new FolderChanges(_folder, Clock.SYSTEM);
+        this.mListener = _listener;
+    }
+
+    /** startWatching()
+     *
+     * Starts the watcher thread and begins watching the folder.
+     */
+    @Override
+    public synchronized void startWatching()
+    {
+        if (mThread == null)
+        {
+            mThread = new HandlerThread("VideoFolderWatcher");
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        super.startWatching();
+    }
+
+    /** stopWatching()
+     *
+     * Stops watching the folder, drops any pending changes and stops the watcher thread.
+     */
+    @Override
+    public synchronized void stopWatching()
+    {
+        super.stopWatching();
+        if (mThread != null)
+        {
+            mHandler.removeCallbacks(mFlush);
+            mThread.quitSafely();
+            mThread = null;
+            mHandler = null;
+        }
+        mChanges.clear();
+    }
+
+    /** onEvent()
+     *
+     * Called on the FileObserver thread for every event in the folder.
+     *
+     * @param _event The event type.
+     * @param _path Name of the file relative to the folder, may be null.
+     */
+    @Override
+    public synchronized void onEvent(int _event, String _path)
+    {
+        if (mHandler == null) return;
+        int event = _event & ALL_EVENTS;
+
+        // The folder itself is gone, everything in it is gone too
+        if (event == DELETE_SELF)
+        {
+            mChanges.clear();
+            mHandler.removeCallbacks(mFlush);
+            mHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mListener.onFolderDeleted();
+                }
+            });
+            return;
+        }
+
+        if (_path == null) return;
+        int kind;
+        switch (event)
+        {
+            case CREATE:
+                kind = FolderChanges.OPENED;
+                break;
+
+            case CLOSE_WRITE:
+            case MOVED_TO:
+                kind = FolderChanges.CHANGED;
+                break;
+
+            case DELETE:
+            case MOVED_FROM:
+                kind = FolderChanges.REMOVED;
+                break;
+
+            default:
+                return;
+        }
+
+        long delay = mChanges.add(kind, _path);
+        if (delay == FolderChanges.NO_DRAIN) return;
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, delay);
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** Hands all pending changes to the listener. Runs on the watcher thread. **/
+    private final Runnable mFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            List<File> changed = new ArrayList<>();
+            List<File> removed = new ArrayList<>();
+            if (mChanges.drain(changed, removed)) mListener.onFilesChanged(changed, removed);
+        }
+    };
+
+    /* ~~~ INTERFACES ~~~ */
+
+    /** Listener
+     *
+     * Receives coalesced changes to the watched folder, on the watcher thread.
+     */
+    public interface Listener
+    {
+        /** onFilesChanged()
+         *
+         * @param _changed Files which are new or have been rewritten, and are no longer being written.
+         * @param _removed Files which have been deleted or moved out of the folder.
+         */
+        void onFilesChanged(List<File> _changed, List<File> _removed);
+
+        /** onFolderDeleted()
+         *
+         * Called when the watched folder itself has been deleted.
+         */
+        void onFolderDeleted();
+    }
+}
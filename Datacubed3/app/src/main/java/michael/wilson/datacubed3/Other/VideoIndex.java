@@ -0,0 +1,375 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/** VideoIndex
+ *
+ * A compact binary index of recording metadata stored next to the movies folder.
+ * Entries are keyed by file path and are only trusted while the file's size and
+ * last modified time still match, so only new or changed files need to be probed.
+ *
+ * Files which failed to probe are indexed as well, so an unchanged invalid file is not probed again on every launch.
+ *
+ * File layout: magic, version, entry count, entries, CRC32 of everything before it.
+ * An entry holds the recording's metadata and, if it has a sidecar, its 'RecordingMetrics', or only its key if it failed.
+ */
+public class VideoIndex
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** Identifies an index file ('DC3I') **/
+    private static final int MAGIC = 0x44433349;
+
+    /** Version of the file layout. Bump this whenever the entry layout changes. **/
+    private static final int VERSION = 5;
+
+    /** Location of the index file **/
+    private final File mFile;
+
+    /** Indexed entries keyed by absolute file path **/
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /** Keep track if the entries differ from what is stored on disk **/
+    private boolean mDirty = false;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** VideoIndex()
+     *
+     * Instantiates this index. Nothing is read until 'load()' is called.
+     *
+     * @param _file Location of the index file.
+     */
+    public VideoIndex(File _file)
+    {
+        this.mFile = _file;
+    }
+
+    /** load()
+     *
+     * Replaces the in-memory entries with the contents of the index file.
+     * If the file is missing, from an older version, or corrupt, the index is left empty
+     * and marked dirty so the next 'save()' rebuilds it.
+     *
+     * @return Whether or not a valid index file was read.
+     */
+    public synchronized boolean load()
+    {
+        mEntries.clear();
+        mDirty = false;
+        if (!mFile.exists())
+        {
+            mDirty = true;
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(mFile)), crc)))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Unknown index format");
+            int count = in.readInt();
+            if (count < 0) throw new IOException("Invalid entry count");
+
+            Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++)
+            {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                long size = in.readLong();
+                Entry entry = in.readBoolean() ? new Entry(lastModified, size)
+                        : new Entry(lastModified, size, in.readUTF(), in.readInt(), in.readLong(),
+                                in.readBoolean() ? RecordingMetrics.readFrom(in) : null);
+                entries.put(path, entry);
+            }
+
+            // The checksum covers everything read up to this point
+            long expected = crc.getValue();
+            if (in.readLong() != expected) throw new IOException("Index checksum mismatch");
+            if (in.read() != -1) throw new IOException("Trailing data in index");
+
+            mEntries.putAll(entries);
+            return true;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            System.out.println("Rebuilding video index: " + ex.getMessage());
+            mEntries.clear();
+            mDirty = true;
+            return false;
+        }
+    }
+
+    /** lookup()
+     *
+     * @param _video File representing a video.
+     * @return The indexed 'VideoItem' for the file, or null if the file is not indexed or has changed since.
+     */
+    public VideoItem lookup(File _video)
+    {
+        return lookup(_video, _video.lastModified(), _video.length());
+    }
+
+    /** lookup()
+     *
+     * @param _video File representing a video.
+     * @param _lastModified Current last modified time of the file.
+     * @param _size Current size of the file in bytes.
+     * @return The indexed 'VideoItem' for the file, or null if the file is not indexed or has changed since.
+     */
+    public synchronized VideoItem lookup(File _video, long _lastModified, long _size)
+    {
+        Entry entry = current(_video, _lastModified, _size);
+        if (entry == null || entry.failed) return null;
+        return new VideoItem(_video.getAbsolutePath(), entry.name, entry.duration, new Date(entry.timestamp), entry.metrics);
+    }
+
+    /** isFailed()
+     *
+     * @param _video File representing a video.
+     * @param _lastModified Current last modified time of the file.
+     * @param _size Current size of the file in bytes.
+     * @return Whether the file failed to probe and has not changed since.
+     */
+    public synchronized boolean isFailed(File _video, long _lastModified, long _size)
+    {
+        Entry entry = current(_video, _lastModified, _size);
+        return entry != null && entry.failed;
+    }
+
+    /** put()
+     *
+     * Adds or replaces the index entry for a video file.
+     *
+     * @param _video File representing a video.
+     * @param _item 'VideoItem' which was probed from the file.
+     */
+    public void put(File _video, VideoItem _item)
+    {
+        put(_video, _video.lastModified(), _video.length(), _item);
+    }
+
+    /** put()
+     *
+     * Adds or replaces the index entry for a video file.
+     *
+     * @param _video File representing a video.
+     * @param _lastModified Last modified time of the file when it was probed.
+     * @param _size Size of the file in bytes when it was probed.
+     * @param _item 'VideoItem' which was probed from the file.
+     */
+    public synchronized void put(File _video, long _lastModified, long _size, VideoItem _item)
+    {
+        if (_item == null) return;
+        Entry entry = new Entry(_lastModified, _size, _item.getName(), _item.getDuration(), _item.getTimestamp().getTime(), _item.getMetrics());
+        Entry previous = mEntries.put(_video.getAbsolutePath(), entry);
+        if (!entry.equals(previous)) mDirty = true;
+    }
+
+    /** putFailed()
+     *
+     * Indexes a file which is not a valid video, so it is not probed again until it changes.
+     *
+     * @param _video File which failed to probe.
+     * @param _lastModified Last modified time of the file when it was probed.
+     * @param _size Size of the file in bytes when it was probed.
+     */
+    public synchronized void putFailed(File _video, long _lastModified, long _size)
+    {
+        Entry entry = new Entry(_lastModified, _size);
+        Entry previous = mEntries.put(_video.getAbsolutePath(), entry);
+        if (!entry.equals(previous)) mDirty = true;
+    }
+
+    /** setMetrics()
+     *
+     * Replaces the metrics of an indexed video, keeping the rest of its entry, for a sidecar written after the video was indexed.
+     *
+     * @param _path Absolute path of the video file.
+     * @param _metrics The video's new metrics, or null if its sidecar was removed.
+     * @return Whether the video is indexed as a valid video, so its entry was updated.
+     */
+    public synchronized boolean setMetrics(String _path, RecordingMetrics _metrics)
+    {
+        Entry entry = mEntries.get(_path);
+        if (entry == null || entry.failed) return false;
+        Entry updated = new Entry(entry.lastModified, entry.size, entry.name, entry.duration, entry.timestamp, _metrics);
+        if (!updated.equals(entry))
+        {
+            mEntries.put(_path, updated);
+            mDirty = true;
+        }
+        return true;
+    }
+
+    /** remove()
+     *
+     * @param _path Absolute path of a file which no longer exists.
+     */
+    public synchronized void remove(String _path)
+    {
+        if (mEntries.remove(_path) != null) mDirty = true;
+    }
+
+    /** retain()
+     *
+     * Removes entries for all files which are not in the given collection of paths.
+     *
+     * @param _paths Absolute paths of the files which still exist.
+     */
+    public synchronized void retain(Collection<String> _paths)
+    {
+        Set<String> keep = new HashSet<>(_paths);
+        Iterator<String> it = mEntries.keySet().iterator();
+        while (it.hasNext())
+        {
+            if (!keep.contains(it.next()))
+            {
+                it.remove();
+                mDirty = true;
+            }
+        }
+    }
+
+    /** save()
+     *
+     * Writes the index to disk if it has changed. The file is written to a temporary
+     * file first and then renamed, so a crash never leaves a half written index behind.
+     *
+     * @throws IOException If the index could not be written.
+     */
+    public synchronized void save() throws IOException
+    {
+        if (!mDirty) return;
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), crc)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> e : mEntries.entrySet())
+            {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.size);
+                out.writeBoolean(entry.failed);
+                if (entry.failed) continue;
+                out.writeUTF(entry.name);
+                out.writeInt(entry.duration);
+                out.writeLong(entry.timestamp);
+                out.writeBoolean(entry.metrics != null);
+                if (entry.metrics != null) entry.metrics.writeTo(out);
+            }
+            out.writeLong(crc.getValue());
+        }
+
+        if (!tmp.renameTo(mFile))
+        {
+            tmp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mDirty = false;
+    }
+
+    /** Getter methods **/
+    public synchronized boolean isDirty() { return this.mDirty; }
+    public synchronized int size() { return this.mEntries.size(); }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** current()
+     *
+     * @param _video File representing a video.
+     * @param _lastModified Current last modified time of the file.
+     * @param _size Current size of the file in bytes.
+     * @return The entry of the file, or null if the file is not indexed. A stale entry is removed and null is returned.
+     */
+    private Entry current(File _video, long _lastModified, long _size)
+    {
+        String path = _video.getAbsolutePath();
+        Entry entry = mEntries.get(path);
+        if (entry == null) return null;
+        if (entry.lastModified != _lastModified || entry.size != _size)
+        {
+            // Stale entry, the file must be probed again
+            mEntries.remove(path);
+            mDirty = true;
+            return null;
+        }
+        return entry;
+    }
+
+    /* ~~~ PRIVATE CLASSES ~~~ */
+
+    /** Entry
+     *
+     * The indexed fields of a single video file, or only its key if it failed to probe.
+     */
+    private static class Entry
+    {
+        final long lastModified;
+        final long size;
+        final boolean failed;
+        final String name;
+        final int duration;
+        final long timestamp;
+        final RecordingMetrics metrics;
+
+        Entry(long _lastModified, long _size, String _name, int _duration, long _timestamp, RecordingMetrics _metrics)
+        {
+            this.lastModified = _lastModified;
+            this.size = _size;
+            this.failed = false;
+            this.name = _name;
+            this.duration = _duration;
+            this.timestamp = _timestamp;
+            this.metrics = _metrics;
+        }
+
+        Entry(long _lastModified, long _size)
+        {
+            this.lastModified = _lastModified;
+            this.size = _size;
+            this.failed = true;
+            this.name = null;
+            this.duration = 0;
+            this.timestamp = 0;
+            this.metrics = null;
+        }
+
+        @Override
+        public boolean equals(Object _other)
+        {
+            if (!(_other instanceof Entry)) return false;
+            Entry e = (Entry) _other;
+            return lastModified == e.lastModified && size == e.size && failed == e.failed && duration == e.duration
+                    && timestamp == e.timestamp && (name == null ? e.name == null : name.equals(e.name))
+                    && (metrics == null ? e.metrics == null : metrics.equals(e.metrics));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (name == null ? 0 : name.hashCode()) * 31 + (int) (lastModified ^ (lastModified >>> 32));
+        }
+    }
+}
@@ -9,16 +9,25 @@ import java.util.Date;
 public class VideoItem
 {
     /** String path to the video file */
-    private String mFilepath;
+    private final String mFilepath;
 
     /** Name of the recording */
-    private String mName;
+    private final String mName;
 
     /** Date and time this recording was made **/
-    private Date mTimestamp;
+    private final Date mTimestamp;
 
     /** Duration of this recording in seconds **/
-    private int mDuration;
+    private final int mDuration;
+
+    /** Quality metrics measured while recording, or null if there are none **/
+    private final RecordingMetrics mMetrics;
+
+    /** Stable identifier of this recording, derived from the file path **/
+    private final long mStableId;
+
+    /** Timestamp label of this recording, cached by 'LabelFormatter' **/
+    String mTimestampLabel;
 
     /** VideoItem()
      *
@@ -30,23 +39,40 @@ public class VideoItem
      * @param _timestamp Date and time the recording was made.
      */
     public VideoItem(String _filepath, String _name, int _duration, Date _timestamp)
+    {
+        this(_filepath, _name, _duration, _timestamp, null);
+    }
+
+    /** VideoItem()
+     *
+     * Instantiates this 'VideoItem' object with the metrics from its sidecar.
+     *
+     * @param _filepath Path to the video file this recording will represent.
+     * @param _name Name of the recording.
+     * @param _duration Duration of the recording in seconds.
+     * @param _timestamp Date and time the recording was made.
+     * @param _metrics Quality metrics measured while recording, or null if there are none.
+     */
+    public VideoItem(String _filepath, String _name, int _duration, Date _timestamp, RecordingMetrics _metrics)
     {
         this.mFilepath = _filepath;
         this.mName = _name;
         this.mDuration = _duration;
         this.mTimestamp = _timestamp;
+        this.mMetrics = _metrics;
+        this.mStableId = stableId(_filepath);
     }
 
-    /** destroy()
+    /** sameContents()
      *
-     * Destroys this VideoItem but nullifying all member objects.
+     * @param _other Another 'VideoItem', usually for the same file.
+     * @return Whether or not both items would be displayed identically.
      */
-    public void destroy()
+    public boolean sameContents(VideoItem _other)
     {
-        mDuration = -1;
-        mTimestamp = null;
-        mName = null;
-        mFilepath = null;
+        return _other != null && mDuration == _other.mDuration
+                && (mName == null ? _other.mName == null : mName.equals(_other.mName))
+                && (mTimestamp == null ? _other.mTimestamp == null : mTimestamp.equals(_other.mTimestamp));
     }
 
     /** Getter methods **/
@@ -54,4 +80,23 @@ public class VideoItem
     public int getDuration() { return this.mDuration; }
     public Date getTimestamp() { return this.mTimestamp; }
     public String getFilepath() { return this.mFilepath; }
+    public long getStableId() { return this.mStableId; }
+    public RecordingMetrics getMetrics() { return this.mMetrics; }
+    public int getQualityFlags() { return this.mMetrics == null ? 0 : this.mMetrics.getQualityFlags(); }
+
+    /** stableId()
+     *
+     * @param _filepath Path to a video file.
+     * @return 64-bit FNV-1a hash of the path, used as a stable identifier in lists.
+     */
+    private static long stableId(String _filepath)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < _filepath.length(); i++)
+        {
+            hash ^= _filepath.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
 }
@@ -4,6 +4,7 @@ import android.Manifest;
 import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -12,17 +13,25 @@ import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.Face;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
 import android.media.MediaRecorder;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Size;
 import android.view.Surface;
 import android.view.TextureView;
-import android.widget.Toast;
 import androidx.annotation.NonNull;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -32,28 +41,108 @@ import java.util.concurrent.TimeUnit;
 /** VideoRecorder
  *
  * Helper class to handle camera management and recording logic.
+ *
+ * A single capture session is created when the camera opens, with two outputs: the preview texture and
+ * the persistent input surface of an 'EncoderBackend'. The encoder is prepared up front, so starting a
+ * recording only switches the repeating request to also target the encoder surface.
+ * The encoder is started as soon as the first frame of that request has been captured.
+ *
+ * Recordings are split into segments of 'SEGMENT_MILLIS' or 'SEGMENT_BYTES', whichever is reached first,
+ * so a crash or a killed app only loses the last segment.
+ *
+ * Optionally the recorder prerolls: the encoder runs from the moment the session is configured, keeping the
+ * last few seconds in a 'PrerollBuffer' of fixed size, which becomes the start of the recording once
+ * 'startRecordingVideo()' is called. This needs a backend which supports it, like 'MediaCodecBackend'.
+ *
+ * Optionally the recorded frames are also analysed: a small YUV 'ImageReader' is added to the session as a
+ * third output, and its luma planes are handed to a 'FrameAnalysisPipeline' on the 'FrameReader' thread.
+ * Images are returned as soon as they are copied, and the pipeline drops frames it has no time for,
+ * so the analysis never holds up the camera or the encoder. If the camera can not stream to all three
+ * outputs, the session is created again without the analysis.
+ *
+ * Opening the camera, choosing sizes and preparing the encoder all run on the 'CameraBackground' thread,
+ * which also receives the camera callbacks. Each phase is marked in a 'StartupTrace'.
+ *
+ * The recorder may be shut down on another thread than the UI thread, such as by 'RecordingFinalizer' after the
+ * activity is gone. Listener callbacks and view updates are therefore posted to the main looper and dropped once
+ * 'shutdown()' has been called, and the activity, view and listener are volatile and only read into locals.
  */
 public class VideoRecorder
 {
     /* ~~~MEMBER VARIABLES~~~ */
 
-    /** Listener object for callback methods **/
-    private VideoRecorderListener mListener;
+    /** Length of a recording segment in milliseconds... **/
+    private static final long SEGMENT_MILLIS = 30000;
+
+    /** ...and its size limit in bytes **/
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    /** Phase of the startup trace marked when the first frame of the recording is captured **/
+    private static final String FIRST_FRAME = "first frame";
+
+    /** Listener object for callback methods. Only called on the UI thread. **/
+    private volatile VideoRecorderListener mListener;
 
     /** Activity where this 'VideoRecorder' is being used **/
-    private Activity mActivity;
+    private volatile Activity mActivity;
 
     /** Texture view for displaying camera feed **/
-    private AutoFitTextureView mTextureView;
+    private volatile AutoFitTextureView mTextureView;
+
+    /** Handler posting listener callbacks and view updates to the UI thread **/
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     /** The camera **/
     private CameraDevice mCameraDevice;
 
-    /** Preview capture session **/
-    private CameraCaptureSession mPreviewSession;
+    /** Capture session feeding both the preview and the encoder **/
+    private CameraCaptureSession mCaptureSession;
+
+    /** Creates the encoder once the video size is known **/
+    private EncoderBackend.Factory mEncoderFactory;
+
+    /** Encoder for recording audio and video **/
+    private EncoderBackend mEncoder;
+
+    /** Segments of the recording **/
+    private SegmentedRecording mSegments;
+
+    /** Milliseconds of preview to keep before recording starts, or 0 for no preroll **/
+    private long mPrerollMillis;
+
+    /** Buffer of the last seconds of preview, allocated once the encoder settings are known **/
+    private PrerollBuffer mPreroll;
 
-    /** Media recorder object for recording audio and video **/
-    private MediaRecorder mMediaRecorder;
+    /** Whether the encoder is running into the preroll buffer **/
+    private volatile boolean mPrerolling = false;
+
+    /** Analyses the recorded frames, or null for no analysis **/
+    private FrameAnalysisPipeline mAnalysis;
+
+    /** Small YUV output of the capture session feeding the analysis, or null **/
+    private ImageReader mImageReader;
+
+    /** Face detection mode for the recording request, or 'STATISTICS_FACE_DETECT_MODE_OFF' if not supported **/
+    private int mFaceDetectMode = CameraMetadata.STATISTICS_FACE_DETECT_MODE_OFF;
+
+    /** Thread receiving the analysis images, and its handler **/
+    private HandlerThread mReaderThread;
+    private Handler mReaderHandler;
+
+    /** Encoder settings chosen for this device, and why **/
+    private EncoderProfileSelector.Choice mEncoderChoice;
+
+    /** Measures the frames of the recording while it runs **/
+    private volatile RecordingMetrics.Collector mMetricsCollector;
+
+    /** Quality metrics of the last recording, or null until it has been stopped **/
+    private RecordingMetrics mMetrics;
+
+    /** Surface the encoder reads from. Persistent, so it exists before the encoder is started. **/
+    private Surface mRecorderSurface;
+
+    /** Surface of the preview texture view **/
+    private Surface mPreviewSurface;
 
     /** Thread to handle background processes **/
     private HandlerThread mBackgroundThread;
@@ -61,20 +150,50 @@ public class VideoRecorder
     /** Handler to be executed on the background thread **/
     private Handler mBackgroundHandler;
 
+    /** Timestamps of the phases from creating the activity to the first recorded frame **/
+    private StartupTrace mTrace;
+
+    /** Set once 'shutdown()' has been called, so an open which is still queued does not go ahead, and no more callbacks are made **/
+    private volatile boolean mShuttingDown = false;
+
     /** Semaphore to ensure threadsafe camera usage **/
     private Semaphore mCameraOpenCloseLock = new Semaphore(1);
 
     /** Capture request builder for the camera preview **/
     private CaptureRequest.Builder mPreviewBuilder;
 
+    /** Capture request builder for recording, targeting both the preview and the recorder **/
+    private CaptureRequest.Builder mRecordBuilder;
+
+    /** Lock guarding the encoder between the camera thread, which starts it, and the caller, which stops it **/
+    private final Object mRecorderLock = new Object();
+
     /** Path to the video file to be saved **/
     private String mFilePath;
 
     /** Keep track if we are recording or not **/
-    private boolean mIsRecording = false;
+    private volatile boolean mIsRecording = false;
 
     /** Keep track if this video recorder has started recording at all **/
-    private boolean hasStartedRecording = false;
+    private volatile boolean hasStartedRecording = false;
+
+    /** Whether recording has been requested, but its first frame has not been captured yet **/
+    private volatile boolean mWaitingForFirstFrame = false;
+
+    /** 'SystemClock.elapsedRealtimeNanos()' when 'startRecordingVideo()' was called **/
+    private long mRecordRequestedAt;
+
+    /** 'SystemClock.elapsedRealtimeNanos()' when the first recorded frame was captured, or 0 if none has been **/
+    private volatile long mFirstFrameAt;
+
+    /** Milliseconds from the start of the startup trace to the first recorded frame, or -1 if none has been **/
+    private int mStartupMillis = -1;
+
+    /** Microseconds of preview put at the start of the recording from the preroll buffer **/
+    private volatile long mPrerollUs = 0;
+
+    /** Milliseconds recorded, including the preroll, read from the finished file once the recording has been stopped **/
+    private volatile long mRecordedMillis = 0;
 
     /** Orientation  for the video to be saved in **/
     private int mInitialOrientationAngle;
@@ -92,21 +211,31 @@ public class VideoRecorder
      * @param _textureView Texture view for the camera feed to be shown.
      * @param _filePath Path to where the video file will be saved.
      * @param _orientation Orientation angle of the video.
+     * @param _trace Trace to mark the phases of opening the camera and starting to record in.
+     * @param _encoderFactory Creates the encoder, such as 'MediaRecorderBackend.FACTORY' or 'MediaCodecBackend.FACTORY'.
+     * @param _prerollMillis Milliseconds of preview to put at the start of the recording, or 0 for none.
+     * @param _analysis Pipeline to analyse the recorded frames with, or null for none. Started and stopped by this recorder.
      * @param _listener Listener object for callback methods.
      */
-    public VideoRecorder(Activity _activity, AutoFitTextureView _textureView, String _filePath, int _orientation, VideoRecorderListener _listener)
+    public VideoRecorder(Activity _activity, AutoFitTextureView _textureView, String _filePath, int _orientation, StartupTrace _trace,
+                         EncoderBackend.Factory _encoderFactory, long _prerollMillis, FrameAnalysisPipeline _analysis, VideoRecorderListener _listener)
     {
         this.mActivity = _activity;
         this.mTextureView = _textureView;
         this.mListener = _listener;
         this.mFilePath = _filePath;
         this.mInitialOrientationAngle = _orientation;
+        this.mTrace = _trace;
+        this.mEncoderFactory = _encoderFactory;
+        this.mPrerollMillis = _prerollMillis;
+        this.mAnalysis = _analysis;
 
         // Start the background thread
         startBackgroundThread();
+        mTrace.mark("camera thread started");
 
         // If the preview texture is available, open the camera. Otherwise start a listener.
-        if (mTextureView.isAvailable()) openCamera();
+        if (mTextureView.isAvailable()) postOpenCamera(mTextureView.getWidth(), mTextureView.getHeight());
         else mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
     }
 
@@ -116,23 +245,26 @@ public class VideoRecorder
      * - If recording, stop.
      * - Close the camera.
      * - Stop the background thread.
+     * May be called from any thread. The listener is not called anymore once this has been called.
      */
     public void shutdown()
     {
-        // If currently recording, stop recording.
-        if (mIsRecording) stopRecordingVideo();
+        mShuttingDown = true;
+
+        // If currently recording, or about to, stop recording.
+        if (mIsRecording || mWaitingForFirstFrame) stopRecordingVideo();
 
         try
         {
             // acquire lock on camera semaphore
             mCameraOpenCloseLock.acquire();
 
-            // cancel and nullify preview session
-            if (mPreviewSession != null)
+            // cancel and nullify capture session
+            if (mCaptureSession != null)
             {
-                mPreviewSession.stopRepeating();
-                mPreviewSession.abortCaptures();
-                mPreviewSession = null;
+                mCaptureSession.stopRepeating();
+                mCaptureSession.abortCaptures();
+                mCaptureSession = null;
             }
 
             // Close and nullify camera device
@@ -142,22 +274,30 @@ public class VideoRecorder
                 mCameraDevice = null;
             }
 
-            // Release and nullify media recorder
-            if (null != mMediaRecorder)
+            // Release and nullify the encoder and its surface
+            if (null != mEncoder)
+            {
+                mEncoder.release();
+                mEncoder = null;
+                mRecorderSurface = null;
+            }
+
+            // Close the analysis output
+            if (null != mImageReader)
             {
-                mMediaRecorder.release();
-                mMediaRecorder = null;
+                mImageReader.close();
+                mImageReader = null;
             }
         }
         catch (InterruptedException e)
         {
             e.printStackTrace();
-            mListener.onFail();
+            notifyFail();
         }
         catch (CameraAccessException e)
         {
             e.printStackTrace();
-            mListener.onFail();
+            notifyFail();
         }
         finally
         {
@@ -166,19 +306,29 @@ public class VideoRecorder
         }
 
 
-        // Stop the background thread
+        // Stop the background threads, then the analysis, which no longer receives frames
         stopBackgroundThread();
+        if (mAnalysis != null) mAnalysis.stop();
 
         // nullify remaining member objects
-        recordingCaptureSessionCallback = null;
-        previewCaptureSessionCallback = null;
+        mRecordingCaptureCallback = null;
+        mCaptureSessionCallback = null;
         mStateCallback = null;
         mSurfaceTextureListener = null;
         mListener = null;
         mActivity = null;
         mTextureView = null;
         mPreviewBuilder = null;
+        mRecordBuilder = null;
+        mPreviewSurface = null;
         mFilePath = null;
+        mTrace = null;
+        mEncoderFactory = null;
+        mEncoderChoice = null;
+        mSegments = null;
+        mPreroll = null;
+        mAnalysis = null;
+        mImageAvailableListener = null;
         mPreviewSize = null;
         mVideoSize = null;
     }
@@ -186,94 +336,97 @@ public class VideoRecorder
 
     /** startRecordingVideo()
      *
-     * Starts recording a video.
+     * Starts recording a video. The capture session already feeds the recorder surface, so this only
+     * switches the repeating request. The encoder is started once the first frame has been captured,
+     * after which 'VideoRecorderListener.onRecordingStarted()' is called.
+     * If prerolling, the recording request is already repeating, so the next frame starts the encoder with the buffered ones.
+     * Either way the encoder is started on the camera thread.
      */
     public void startRecordingVideo()
     {
-        if (mCameraDevice != null && mTextureView.isAvailable())
+        if (mPrerolling && !mIsRecording && !mWaitingForFirstFrame)
+        {
+            mRecordRequestedAt = SystemClock.elapsedRealtimeNanos();
+            mWaitingForFirstFrame = true;
+        }
+        else if (mCaptureSession != null && !mIsRecording && !mWaitingForFirstFrame)
         {
             try
             {
-                closePreviewSession();
-                setUpMediaRecorder();
-                mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-                List<Surface> surfaces = new ArrayList<>();
-
-                // Set up surface for the camera preview
-                SurfaceTexture texture = mTextureView.getSurfaceTexture();
-                texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-                Surface previewSurface = new Surface(texture);
-                surfaces.add(previewSurface);
-                mPreviewBuilder.addTarget(previewSurface);
-
-                // Set up surface for the media recorder
-                Surface recorderSurface = mMediaRecorder.getSurface();
-                surfaces.add(recorderSurface);
-                mPreviewBuilder.addTarget(recorderSurface);
-
-                // Start a capture session
-                mCameraDevice.createCaptureSession(surfaces, recordingCaptureSessionCallback, mBackgroundHandler);
+                mRecordRequestedAt = SystemClock.elapsedRealtimeNanos();
+                mWaitingForFirstFrame = true;
+                mCaptureSession.setRepeatingRequest(mRecordBuilder.build(), mRecordingCaptureCallback, mBackgroundHandler);
             }
-            catch (CameraAccessException | IOException e)
+            catch (CameraAccessException e)
             {
                 e.printStackTrace();
-                mListener.onFail();
+                mWaitingForFirstFrame = false;
+                notifyFail();
             }
         }
     }
 
-
-    /** startPreview()
+    /** stopRecordingVideo()
+     *
+     * Stop the encoder, which finishes the file, and return the capture session to preview only.
+     * Blocks until the encoder has finished the file, which can take a while for long recordings,
+     * so call it off the UI thread.
      *
-     * Start the camera preview feed.
+     * @return Whether a recording was stopped and the encoder finished its file without an error.
      */
-    public void startPreview()
+    public boolean stopRecordingVideo()
     {
-        if (mCameraDevice != null && mTextureView.isAvailable())
+        synchronized (mRecorderLock)
         {
-            try
-            {
-                // Get surface from preview textureView
-                SurfaceTexture texture = mTextureView.getSurfaceTexture();
-                texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-                Surface previewSurface = new Surface(texture);
+            mWaitingForFirstFrame = false;
 
-                // Apply surface to builder
-                mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-                mPreviewBuilder.addTarget(previewSurface);
+            // Stop sending frames to the recorder before stopping it
+            startPreviewRequest();
 
-                // Start preview capture session
-                mCameraDevice.createCaptureSession(Collections.singletonList(previewSurface), previewCaptureSessionCallback, mBackgroundHandler);
+            if (!mIsRecording) return false;
+            long clockMillis = (SystemClock.elapsedRealtimeNanos() - mFirstFrameAt) / 1000000 + mPrerollUs / 1000;
+            boolean finished = true;
+            try
+            {
+                mEncoder.stop();
             }
-            catch (CameraAccessException e)
+            catch (Exception ex)
             {
-                e.printStackTrace();
-                mListener.onFail();
+                ex.printStackTrace();
+                finished = false;
             }
+            mIsRecording = false;
+
+            // Delete a segment which was created but never switched to
+            mSegments.finish();
+            mRecordedMillis = finished ? readRecordedMillis(clockMillis) : clockMillis;
+            saveMetrics();
+            return finished;
         }
     }
 
-    /** stopRecordingVideo()
+    /** getFirstFrameDelayMillis()
      *
-     * Stop and reset the media recorder
+     * Measured to the first sample the encoder wrote after it was started, if it can tell, and otherwise to the frame
+     * which started it. After a preroll, the buffered samples written before it do not count.
+     *
+     * @return Milliseconds from 'startRecordingVideo()' to the first recorded frame, or -1 if nothing has been recorded.
      */
-    public void stopRecordingVideo()
+    public long getFirstFrameDelayMillis()
     {
-        try
-        {
-            mMediaRecorder.stop();
-            mMediaRecorder.reset();
-            mIsRecording = false;
-        }
-        catch (Exception ex)
-        {
-            ex.printStackTrace();
-        }
+        EncoderBackend encoder = mEncoder;
+        long firstSampleAt = encoder == null ? 0 : encoder.getFirstSampleNanos();
+        long firstFrameAt = firstSampleAt > 0 ? firstSampleAt : mFirstFrameAt;
+        if (firstFrameAt == 0) return -1;
+        return (firstFrameAt - mRecordRequestedAt) / 1000000;
     }
 
     /** Getter methods **/
     public boolean hasStartedRecording() { return this.hasStartedRecording; }
     public boolean isRecording() { return this.mIsRecording; }
+    public EncoderSettings getEncoderSettings() { return this.mEncoderChoice == null ? null : this.mEncoderChoice.getSettings(); }
+    public RecordingMetrics getMetrics() { return this.mMetrics; }
+    public long getRecordedMillis() { return this.mRecordedMillis; }
 
 
 
@@ -281,54 +434,42 @@ public class VideoRecorder
 
     /* ~~~PRIVATE METHODS~~~ */
 
-    /** setUpMediaRecorder()
+    /** postOpenCamera()
      *
-     * Configures the media recorder. CALLS MUST HAPPEN IN THIS ORDER!
+     * Opens the camera on the background thread.
      *
-     * @throws IOException Throws and IO exception if the media recorder is configured incorrectly.
+     * @param _width Width of the preview texture view.
+     * @param _height Height of the preview texture view.
      */
-    private void setUpMediaRecorder() throws IOException
+    private void postOpenCamera(final int _width, final int _height)
     {
-        // Set audio and video sources.
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-
-        // Set the output format as mp4
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-
-        // Set the output file path
-        mMediaRecorder.setOutputFile(mFilePath);
-
-        // Set the encoding bitrate
-        mMediaRecorder.setVideoEncodingBitRate(10000000);
-
-        // Set the frame rate to 30FPS
-        mMediaRecorder.setVideoFrameRate(30);
-
-        // Set the video size
-        mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
-
-        // Set audio and video encoders
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-
-        // Set video orientation
-        mMediaRecorder.setOrientationHint(mInitialOrientationAngle);
-
-        // Prepare media recorder
-        mMediaRecorder.prepare();
+        // The texture may become available after this recorder has been shut down
+        Handler handler = mBackgroundHandler;
+        if (mShuttingDown || handler == null) return;
+        handler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                openCamera(_width, _height);
+            }
+        });
     }
 
     /** openCamera()
      *
-     *  Gets the front facing camera and prepares it for recording.
+     *  Gets the front facing camera and prepares it for recording. Runs on the background thread.
+     *
+     * @param _width Width of the preview texture view.
+     * @param _height Height of the preview texture view.
      */
-    private void openCamera()
+    private void openCamera(int _width, int _height)
     {
-        if (mActivity != null && !mActivity.isFinishing())
+        final Activity activity = mActivity;
+        if (!mShuttingDown && activity != null && !activity.isFinishing())
         {
             // Get camera manager from activity
-            CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE);
+            CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
             try
             {
                 // Acquire lock on camera semaphore. If unable, throw exception.
@@ -337,32 +478,105 @@ public class VideoRecorder
                     throw new RuntimeException("Time out waiting to lock camera opening.");
                 }
 
-                // Get ID of primary front facing camera
-                String cameraId = manager.getCameraIdList()[0];
+                // Get ID of primary front facing camera and its characteristics. Both are cached for the life of the process.
+                String cameraId = CameraInfoCache.CAMERA_ID(manager);
+                CameraCharacteristics characteristics = CameraInfoCache.CHARACTERISTICS(manager, cameraId);
+                mTrace.mark("characteristics");
 
                 // Choose the sizes for camera preview and video recording
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
                 StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
                 if (map == null) throw new RuntimeException("Cannot get available preview/video sizes");
-                mVideoSize = chooseVideoSize(map.getOutputSizes(MediaRecorder.class));
-                mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), mTextureView.getWidth(), mTextureView.getHeight(), mVideoSize);
-                mTextureView.setAspectRatio(mPreviewSize.getHeight(), mPreviewSize.getWidth());
-
-                // Instantiate media recorder
-                mMediaRecorder = new MediaRecorder();
+                mEncoderChoice = chooseEncoderSettings(cameraId, map.getOutputSizes(MediaRecorder.class));
+                EncoderSettings settings = mEncoderChoice.getSettings();
+                Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                boolean realtime = timestampSource != null && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+                settings.setSensorClock(realtime ? EncoderSettings.CLOCK_BOOTTIME : EncoderSettings.CLOCK_MONOTONIC);
+                mVideoSize = new Size(settings.getWidth(), settings.getHeight());
+                mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), _width, _height, mVideoSize);
+                final Size previewSize = mPreviewSize;
+                postToUiThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        AutoFitTextureView textureView = mTextureView;
+                        if (textureView != null) textureView.setAspectRatio(previewSize.getHeight(), previewSize.getWidth());
+                    }
+                });
+                mTrace.mark("sizes chosen");
+
+                // Instantiate and prepare the encoder, so its surface can be added to the capture session
+                mEncoder = mEncoderFactory.create(settings);
+                mSegments = new SegmentedRecording(new File(mFilePath), SEGMENT_MILLIS, SEGMENT_BYTES);
+                mEncoder.setSegments(mSegments);
+                mEncoder.prepare(mFilePath, mInitialOrientationAngle);
+                mRecorderSurface = mEncoder.getInputSurface();
+                if (mPrerollMillis > 0) mPreroll = createPrerollBuffer(settings);
+                mTrace.mark("encoder prepared");
+
+                // Create the analysis output at a small size, and have the camera detect faces if it can
+                if (mAnalysis != null)
+                {
+                    Size analysisSize = chooseAnalysisSize(map.getOutputSizes(ImageFormat.YUV_420_888), mVideoSize);
+                    mImageReader = ImageReader.newInstance(analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
+                    mImageReader.setOnImageAvailableListener(mImageAvailableListener, mReaderHandler);
+                    mFaceDetectMode = chooseFaceDetectMode(characteristics.get(CameraCharacteristics.STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES));
+                    mAnalysis.start();
+                }
 
-                // Open camera if granted permission
-                if (mActivity.checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) return;
-                manager.openCamera(cameraId, mStateCallback, null);
+                // Open camera if granted permission. Callbacks are received on this thread.
+                if (activity.checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED)
+                {
+                    mCameraOpenCloseLock.release();
+                    return;
+                }
+                manager.openCamera(cameraId, mStateCallback, mBackgroundHandler);
             }
             catch (Exception ex)
             {
                 ex.printStackTrace();
-                mListener.onFail();
+                notifyFail();
             }
         }
     }
 
+    /** notifyFail()
+     *
+     * Calls the 'onFail()' callback on the UI thread, unless this recorder has been shut down.
+     */
+    private void notifyFail()
+    {
+        postToUiThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                VideoRecorderListener listener = mListener;
+                if (listener != null) listener.onFail();
+            }
+        });
+    }
+
+    /** postToUiThread()
+     *
+     * Runs listener callbacks and view updates on the UI thread. They are dropped if this recorder
+     * is shut down before they run, as the activity may be gone by then.
+     *
+     * @param _runnable Runnable to run on the UI thread.
+     */
+    private void postToUiThread(final Runnable _runnable)
+    {
+        if (mShuttingDown) return;
+        mMainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!mShuttingDown) _runnable.run();
+            }
+        });
+    }
+
 
     /** startBackgroundThread()
      *
@@ -373,6 +587,14 @@ public class VideoRecorder
         mBackgroundThread = new HandlerThread("CameraBackground");
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+
+        // Analysis images get their own thread, so copying them never delays the camera callbacks
+        if (mAnalysis != null)
+        {
+            mReaderThread = new HandlerThread("FrameReader");
+            mReaderThread.start();
+            mReaderHandler = new Handler(mReaderThread.getLooper());
+        }
     }
 
     /** stopBackgroundThread()
@@ -384,70 +606,307 @@ public class VideoRecorder
         // Stop and nullify background thread.
         // If an exception occurs, call the 'onFail()' callback
         mBackgroundThread.quitSafely();
+        if (mReaderThread != null) mReaderThread.quitSafely();
         try
         {
 
             mBackgroundThread.join();
             mBackgroundThread = null;
             mBackgroundHandler = null;
+            if (mReaderThread != null)
+            {
+                mReaderThread.join();
+                mReaderThread = null;
+                mReaderHandler = null;
+            }
         }
         catch (InterruptedException e)
         {
             e.printStackTrace();
-            mListener.onFail();
+            notifyFail();
         }
     }
 
 
-    /** updatePreview()
+    /** createCaptureSession()
+     *
+     * Creates the capture session with both the preview and the recorder surface,
+     * along with the capture requests for previewing and for recording.
+     */
+    private void createCaptureSession()
+    {
+        try
+        {
+            // Get surface from preview textureView, unless it is gone because this recorder is shutting down
+            AutoFitTextureView textureView = mTextureView;
+            if (textureView == null) return;
+            SurfaceTexture texture = textureView.getSurfaceTexture();
+            texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            mPreviewSurface = new Surface(texture);
+
+            // The preview request only targets the preview
+            mPreviewBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            mPreviewBuilder.addTarget(mPreviewSurface);
+
+            // The recording request targets both, and the analysis output if there is one
+            mRecordBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            mRecordBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            mRecordBuilder.addTarget(mPreviewSurface);
+            mRecordBuilder.addTarget(mRecorderSurface);
+            List<Surface> outputs = new ArrayList<>(Arrays.asList(mPreviewSurface, mRecorderSurface));
+            if (mImageReader != null)
+            {
+                mRecordBuilder.addTarget(mImageReader.getSurface());
+                mRecordBuilder.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, mFaceDetectMode);
+                outputs.add(mImageReader.getSurface());
+            }
+
+            // Start a capture session with all outputs
+            mCameraDevice.createCaptureSession(outputs, mCaptureSessionCallback, mBackgroundHandler);
+        }
+        catch (CameraAccessException | IllegalStateException e)
+        {
+            e.printStackTrace();
+            notifyFail();
+        }
+    }
+
+    /** startPreviewRequest()
      *
-     * Updates the current preview session.
+     * Sets the repeating request of the capture session to preview only.
      */
-    private void updatePreview()
+    private void startPreviewRequest()
     {
-        if (mCameraDevice != null)
+        if (mCaptureSession != null)
         {
             try
             {
-                mPreviewBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-                mPreviewSession.setRepeatingRequest(mPreviewBuilder.build(), null, mBackgroundHandler);
+                mCaptureSession.setRepeatingRequest(mPreviewBuilder.build(), null, mBackgroundHandler);
             }
-            catch (CameraAccessException e)
+            catch (CameraAccessException | IllegalStateException e)
             {
                 e.printStackTrace();
-                mListener.onFail();
             }
         }
     }
 
-    /** closePreviewSession()
+    /** startPreroll()
+     *
+     * Starts the encoder into the preroll buffer and sends frames to it from now on. Runs on the background thread.
+     *
+     * @return Whether the recorder is prerolling. If not, the preview should be started instead.
+     */
+    private boolean startPreroll()
+    {
+        if (mPreroll == null) return false;
+        if (!mEncoder.startPreroll(mPreroll))
+        {
+            System.out.println("The encoder can not preroll, recording starts when requested");
+            mPreroll = null;
+            return false;
+        }
+        mPrerolling = true;
+        try
+        {
+            mCaptureSession.setRepeatingRequest(mRecordBuilder.build(), mRecordingCaptureCallback, mBackgroundHandler);
+        }
+        catch (CameraAccessException | IllegalStateException e)
+        {
+            e.printStackTrace();
+            notifyFail();
+        }
+        return true;
+    }
+
+    /** createPrerollBuffer()
+     *
+     * Sizes the preroll buffer for the preroll time plus one keyframe interval, since whole groups of pictures are
+     * dropped at a time, with room for keyframes and scenes which compress worse than the average bitrate.
+     *
+     * @param _settings The encoder settings.
+     * @return A new preroll buffer.
+     */
+    private PrerollBuffer createPrerollBuffer(EncoderSettings _settings)
+    {
+        double seconds = mPrerollMillis / 1000.0 + _settings.getKeyFrameInterval();
+        long bytes = (long) ((_settings.getBitRate() + _settings.getAudioBitRate()) / 8.0 * seconds * 1.5);
+        int samples = (int) Math.ceil(seconds * (_settings.getFrameRate() + _settings.getAudioSampleRate() / 1024.0) * 1.5);
+        return new PrerollBuffer((int) Math.min(bytes, Integer.MAX_VALUE), samples);
+    }
+
+    /** onFirstFrame()
+     *
+     * Called on the camera thread when the first frame for the recorder has been captured. Starts the encoder,
+     * which writes the preroll first if there is one.
+     */
+    private void onFirstFrame()
+    {
+        synchronized (mRecorderLock)
+        {
+            // Recording may have been stopped while the frame was being captured
+            if (!mWaitingForFirstFrame) return;
+            mWaitingForFirstFrame = false;
+            if (mPrerolling)
+            {
+                mPrerolling = false;
+                mPrerollUs = mPreroll.getDurationUs();
+            }
+            startEncoder();
+            mTrace.mark(FIRST_FRAME);
+            mStartupMillis = (int) mTrace.elapsed(FIRST_FRAME);
+        }
+        notifyRecordingStarted();
+    }
+
+    /** startEncoder()
+     *
+     * Starts the encoder. Called with the recorder lock held.
+     */
+    private void startEncoder()
+    {
+        /// START RECORDING!
+        mMetricsCollector = new RecordingMetrics.Collector(mEncoderChoice.getSettings().getFrameRate());
+        mEncoder.start();
+        mFirstFrameAt = SystemClock.elapsedRealtimeNanos();
+        mIsRecording = true;
+        hasStartedRecording = true;
+    }
+
+    /** readRecordedMillis()
+     *
+     * Reads the duration of the finished recording from the mp4 headers of its segments, which the encoder
+     * wrote from the presentation times of the samples. Called with the recorder lock held, once the encoder has stopped.
+     *
+     * @param _clockMillis Duration measured with the clock, used if a segment can not be read.
+     * @return Milliseconds recorded, including the preroll.
+     */
+    private long readRecordedMillis(long _clockMillis)
+    {
+        long durationUs = 0;
+        try
+        {
+            for (File segment : mSegments.getSegments()) durationUs += Mp4MetadataReader.read(segment).getDurationUs();
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Unable to read the recorded duration, using the clock: " + ex.getMessage());
+            return _clockMillis;
+        }
+        return durationUs / 1000;
+    }
+
+    /** saveMetrics()
+     *
+     * Writes the metrics of the recording, with the scores of the frame analysis, to its sidecar.
+     * Called with the recorder lock held, once the encoder has stopped.
+     */
+    private void saveMetrics()
+    {
+        RecordingMetrics.Collector collector = mMetricsCollector;
+        mMetricsCollector = null;
+        if (collector == null) return;
+
+        mMetrics = collector.toMetrics((int) getFirstFrameDelayMillis()).withStartup(mStartupMillis);
+        FrameAnalysisPipeline analysis = mAnalysis;
+        if (analysis != null)
+        {
+            mMetrics = mMetrics.withAnalysis(analysis.getMean(BrightnessAnalyzer.NAME), analysis.getMean(MotionAnalyzer.NAME),
+                    analysis.getMean(FacePresenceAnalyzer.NAME));
+            analysis.reset();
+        }
+        try
+        {
+            mMetrics.write(new File(mFilePath));
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /** notifyRecordingStarted()
      *
-     *  Safely close and nullify the preview session.
+     * Calls the 'onRecordingStarted()' callback on the UI thread.
      */
-    private void closePreviewSession()
+    private void notifyRecordingStarted()
     {
-        if (mPreviewSession != null)
+        // Notify the listener on the UI thread
+        postToUiThread(new Runnable()
         {
-            mPreviewSession.close();
-            mPreviewSession = null;
+            @Override
+            public void run()
+            {
+                VideoRecorderListener listener = mListener;
+                if (listener != null) listener.onRecordingStarted();
+            }
+        });
+    }
+
+    /** chooseEncoderSettings()
+     *
+     * Chooses the video size, frame rate and bitrate the device's encoder can sustain.
+     *
+     * @param _cameraId Id of the camera.
+     * @param _choices Array of available sizes
+     * @return Chosen encoder settings
+     */
+    private EncoderProfileSelector.Choice chooseEncoderSettings(String _cameraId, Size[] _choices)
+    {
+        int[] widths = new int[_choices.length];
+        int[] heights = new int[_choices.length];
+        for (int i = 0; i < _choices.length; i++)
+        {
+            widths[i] = _choices[i].getWidth();
+            heights[i] = _choices[i].getHeight();
         }
+        return new EncoderProfileSelector(new MediaCodecCapabilities(_cameraId)).select(widths, heights);
     }
 
-    /** chooseVideoSize()
+    /** chooseAnalysisSize()
      *
-     * From an array of sizes, choose one which has 3x4 aspect ratio and
-     * is less than or equal to 1080p
+     * The analysis only needs a coarse image, so choose the smallest YUV size of at least 320 pixels across
+     * with the aspect ratio of the video.
+     *
+     * @param _choices Available YUV sizes.
+     * @param _videoSize Size of the video.
+     * @return Size of the analysis images.
+     */
+    private Size chooseAnalysisSize(Size[] _choices, Size _videoSize)
+    {
+        Size best = null;
+        for (Size option : _choices)
+        {
+            boolean matches = (long) option.getWidth() * _videoSize.getHeight() == (long) option.getHeight() * _videoSize.getWidth();
+            if (!matches || option.getWidth() < 320) continue;
+            if (best == null || option.getWidth() < best.getWidth()) best = option;
+        }
+        if (best != null) return best;
+
+        // No size with the same aspect ratio, take the smallest
+        best = _choices[0];
+        for (Size option : _choices)
+        {
+            if ((long) option.getWidth() * option.getHeight() < (long) best.getWidth() * best.getHeight()) best = option;
+        }
+        return best;
+    }
+
+    /** chooseFaceDetectMode()
      *
-     * @param choices Array of available sizes
-     * @return Chosen video size
+     * @param _modes Face detection modes the camera supports, or null.
+     * @return The simplest mode which detects faces, or 'STATISTICS_FACE_DETECT_MODE_OFF' if there is none.
      */
-    private Size chooseVideoSize(Size[] choices)
+    private int chooseFaceDetectMode(int[] _modes)
     {
-        for (Size size : choices)
+        int chosen = CameraMetadata.STATISTICS_FACE_DETECT_MODE_OFF;
+        if (_modes == null) return chosen;
+        for (int mode : _modes)
         {
-            if (size.getWidth() == size.getHeight() * 4 / 3 && size.getWidth() <= 1080) return size;
+            if (mode == CameraMetadata.STATISTICS_FACE_DETECT_MODE_SIMPLE) return mode;
+            if (mode == CameraMetadata.STATISTICS_FACE_DETECT_MODE_FULL) chosen = mode;
         }
-        return choices[choices.length - 1];
+        return chosen;
     }
 
     /** chooseOptimalSize()
@@ -493,8 +952,8 @@ public class VideoRecorder
 
     /* ~~~LISTENERS AND CALLBACKS~~~ */
 
-    /** Listener for preview capture session state callbacks **/
-    private CameraCaptureSession.StateCallback previewCaptureSessionCallback = new CameraCaptureSession.StateCallback()
+    /** Listener for capture session state callbacks **/
+    private CameraCaptureSession.StateCallback mCaptureSessionCallback = new CameraCaptureSession.StateCallback()
     {
         /** onConfigured()
          *
@@ -506,10 +965,26 @@ public class VideoRecorder
         public void onConfigured(@NonNull CameraCaptureSession _session)
         {
             // Store the CameraCaptureSession in a member variable
-            mPreviewSession = _session;
+            mCaptureSession = _session;
+
+            // Start the preview, or the preroll, which also shows the preview
+            if (startPreroll()) mTrace.mark("session configured, prerolling");
+            else
+            {
+                startPreviewRequest();
+                mTrace.mark("session configured");
+            }
 
-            // Update the preview session
-            updatePreview();
+            // THIS IS WHERE THE VIDEO RECORDER IS READY TO START RECORDING!
+            postToUiThread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    VideoRecorderListener listener = mListener;
+                    if (listener != null) listener.onReady();
+                }
+            });
         }
 
         /** onConfigureFailed()
@@ -521,54 +996,79 @@ public class VideoRecorder
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession _session)
         {
+            // The camera may not stream to three outputs at once, so try again without the analysis
+            if (mImageReader != null)
+            {
+                System.out.println("Unable to add the frame analysis output, recording without it");
+                mImageReader.close();
+                mImageReader = null;
+                createCaptureSession();
+                return;
+            }
+
             // Call 'onFail()' callback
-            mListener.onFail();
+            notifyFail();
         }
     };
 
-    /** Listener for recording capture session state callbacks **/
-    private CameraCaptureSession.StateCallback recordingCaptureSessionCallback = new CameraCaptureSession.StateCallback()
+    /** Listener for captures of the recording request **/
+    private CameraCaptureSession.CaptureCallback mRecordingCaptureCallback = new CameraCaptureSession.CaptureCallback()
     {
-        /** onConfigured()
+        /** onCaptureCompleted()
          *
-         * Called when a CameraCaptureSession has configured successfully.
+         * Called when a frame has been captured. The first one starts the encoder.
          *
          * @param _session The CameraCaptureSession which called this.
+         * @param _request The request which was captured.
+         * @param _result The result of the capture.
          */
         @Override
-        public void onConfigured(@NonNull CameraCaptureSession _session)
+        public void onCaptureCompleted(@NonNull CameraCaptureSession _session, @NonNull CaptureRequest _request, @NonNull TotalCaptureResult _result)
         {
-            // Store the CameraCaptureSession in a member variable
-            mPreviewSession = _session;
+            if (mWaitingForFirstFrame) onFirstFrame();
+
+            Long timestamp = _result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (timestamp == null) return;
 
-            // Update the preview session
-            updatePreview();
+            // Measure the timing of the recorded frames
+            RecordingMetrics.Collector collector = mMetricsCollector;
+            if (collector != null && mIsRecording) collector.onFrame(timestamp);
 
-            // Start a new UI thread
-            mActivity.runOnUiThread(new Runnable()
+            // Pass the faces the camera found on to the analysis, for the frame with the same timestamp
+            FrameAnalysisPipeline analysis = mAnalysis;
+            if (analysis != null && mFaceDetectMode != CameraMetadata.STATISTICS_FACE_DETECT_MODE_OFF)
             {
-                @Override
-                public void run()
-                {
-                    /// START RECORDING!
-                    mMediaRecorder.start();
-                    mIsRecording = true;
-                    hasStartedRecording = true;
-                }
-            });
+                Face[] faces = _result.get(CaptureResult.STATISTICS_FACES);
+                analysis.setFaceCount(timestamp, faces == null ? -1 : faces.length);
+            }
         }
+    };
 
-        /** onConfigureFailed()
+    /** Listener for the analysis images, called on the 'FrameReader' thread **/
+    private ImageReader.OnImageAvailableListener mImageAvailableListener = new ImageReader.OnImageAvailableListener()
+    {
+        /** onImageAvailable()
          *
-         * Called when a CameraCaptureSession fails to configure properly.
+         * Copies the luma plane of the latest image to the analysis and returns the image straight away.
+         * Older images which were not read yet are skipped.
          *
-         * @param _session The CameraCaptureSession which called this.
+         * @param _reader The ImageReader which called this.
          */
         @Override
-        public void onConfigureFailed(@NonNull CameraCaptureSession _session)
+        public void onImageAvailable(ImageReader _reader)
         {
-            // Call 'onFail()' callback
-            mListener.onFail();
+            Image image = _reader.acquireLatestImage();
+            if (image == null) return;
+            try
+            {
+                FrameAnalysisPipeline analysis = mAnalysis;
+                Image.Plane luma = image.getPlanes()[0];
+                if (analysis != null) analysis.offer(luma.getBuffer(), image.getWidth(), image.getHeight(), luma.getRowStride(), image.getTimestamp());
+            }
+            finally
+            {
+                image.close();
+            }
         }
     };
 
@@ -588,7 +1088,7 @@ public class VideoRecorder
         public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height)
         {
             // Open the camera
-            openCamera();
+            postOpenCamera(width, height);
         }
 
         @Override
@@ -615,11 +1115,13 @@ public class VideoRecorder
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice)
         {
-            // Save camera device to member variable, release camera semaphore, and call 'onReady()' callback.
+            // Save camera device to member variable, release camera semaphore, and create the capture session.
+            // 'onReady()' is called once the session is configured.
             mCameraDevice = cameraDevice;
             mCameraOpenCloseLock.release();
-            mListener.onReady();
-            // THIS IS WHERE THE VIDEO RECORDER IS READY TO START RECORDING!
+            if (mShuttingDown) return;
+            mTrace.mark("camera opened");
+            createCaptureSession();
         }
 
         /** onDisconnected((
@@ -653,7 +1155,7 @@ public class VideoRecorder
                 cameraDevice.close();
                 mCameraDevice = null;
             }
-            mListener.onFail();
+            notifyFail();
         }
 
     };
@@ -670,6 +1172,12 @@ public class VideoRecorder
          */
         void onReady();
 
+        /** onRecordingStarted()
+         *
+         * Abstract method to be called when the first frame of a recording has been captured
+         */
+        void onRecordingStarted();
+
         /** onFail()
          *
          * Abstract method to be called when a VideoRecorder has encountered an error.
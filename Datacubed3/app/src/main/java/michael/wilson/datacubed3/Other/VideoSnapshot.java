@@ -0,0 +1,48 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** VideoSnapshot
+ *
+ * An immutable, versioned list of recordings. A snapshot never changes after it is created,
+ * so it can be read from any thread without locking. It is taken from the 'VideoSnapshotStore' on demand,
+ * and carries the version of the list it was taken from.
+ */
+public final class VideoSnapshot
+{
+    /** The recordings. Never modified after construction. **/
+    private final VideoItem[] mItems;
+
+    /** Version of this snapshot, higher versions are newer **/
+    private final long mVersion;
+
+    /** VideoSnapshot()
+     *
+     * Instantiates this snapshot. The array is owned by this snapshot from now on and must not be modified.
+     *
+     * @param _items The recordings.
+     * @param _version Version of this snapshot.
+     */
+    VideoSnapshot(VideoItem[] _items, long _version)
+    {
+        this.mItems = _items;
+        this.mVersion = _version;
+    }
+
+    /** asList()
+     *
+     * @return Read only list view of the recordings in this snapshot.
+     */
+    public List<VideoItem> asList()
+    {
+        return Collections.unmodifiableList(Arrays.asList(mItems));
+    }
+
+    /** Getter methods **/
+    public VideoItem get(int _index) { return this.mItems[_index]; }
+    public int size() { return this.mItems.length; }
+    public boolean isEmpty() { return this.mItems.length == 0; }
+    public long getVersion() { return this.mVersion; }
+}
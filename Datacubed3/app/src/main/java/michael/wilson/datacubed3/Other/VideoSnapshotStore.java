@@ -0,0 +1,137 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/** VideoSnapshotStore
+ *
+ * Holds the list of recordings in a 'VideoCatalog', and versions every change to it.
+ *
+ * The catalog is the only copy of the recordings kept in memory, so it stays compact however many there are.
+ * Readers page through 'getCatalog()' and compare versions to find out whether it changed since they last read it.
+ * Every write is applied while holding the catalog's lock, so a reader holding the lock sees all of a write or none.
+ * 'get()' creates an immutable 'VideoSnapshot' of the whole list on demand, for code which needs all of it at once.
+ *
+ * Recordings are unique by file path, adding a recording which is already in the store replaces it in place.
+ * A new recording takes the place of one removed earlier, or goes at the end of the list.
+ */
+public class VideoSnapshotStore
+{
+    /* ~~~ MEMBER VARIABLES ~~~ */
+
+    /** The recordings **/
+    private final VideoCatalog mCatalog = new VideoCatalog();
+
+    /** Version of the contents of the catalog, guarded by the catalog's lock **/
+    private long mVersion = 0;
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** get()
+     *
+     * Creates a snapshot of all recordings, with a 'VideoItem' for each, in the order of the list.
+     *
+     * @return The current snapshot. Never null.
+     */
+    public VideoSnapshot get()
+    {
+        synchronized (mCatalog)
+        {
+            VideoItem[] items = new VideoItem[mCatalog.size()];
+            int size = 0;
+            for (int row = mCatalog.nextRow(VideoCatalog.NO_ROW); row != VideoCatalog.NO_ROW; row = mCatalog.nextRow(row))
+            {
+                items[size++] = mCatalog.toVideoItem(row);
+            }
+            return new VideoSnapshot(items, mVersion);
+        }
+    }
+
+    /** addAll()
+     *
+     * Adds recordings, or replaces recordings with the same file path in place.
+     *
+     * @param _videos Recordings to add.
+     * @return The new version, or the current one if nothing changed.
+     */
+    public long addAll(List<VideoItem> _videos)
+    {
+        return update(_videos, Collections.<String>emptyList());
+    }
+
+    /** remove()
+     *
+     * @param _filepath Path of the recording to remove.
+     * @return The new version, or the current one if the recording was not in the store.
+     */
+    public long remove(String _filepath)
+    {
+        return update(Collections.<VideoItem>emptyList(), Collections.singletonList(_filepath));
+    }
+
+    /** update()
+     *
+     * Adds and removes recordings as a single change with one new version.
+     * The recordings are added first, so they do not take the place of the ones removed.
+     *
+     * @param _added Recordings to add, or to replace if a recording with the same file path exists.
+     * @param _removed Paths of the recordings to remove.
+     * @return The new version, or the current one if nothing changed.
+     */
+    public long update(List<VideoItem> _added, Collection<String> _removed)
+    {
+        synchronized (mCatalog)
+        {
+            boolean changed = false;
+            for (VideoItem video : _added)
+            {
+                if (video == null) continue;
+                mCatalog.put(video);
+                changed = true;
+            }
+            for (String path : _removed)
+            {
+                if (mCatalog.remove(path) != VideoCatalog.NO_ROW) changed = true;
+            }
+            if (changed) mVersion++;
+            return mVersion;
+        }
+    }
+
+    /** clear()
+     *
+     * Removes all recordings.
+     *
+     * @return The new version.
+     */
+    public long clear()
+    {
+        synchronized (mCatalog)
+        {
+            mCatalog.clear();
+            return ++mVersion;
+        }
+    }
+
+    /** getVersion()
+     *
+     * @return Version of the current contents, higher versions are newer.
+     */
+    public long getVersion()
+    {
+        synchronized (mCatalog)
+        {
+            return mVersion;
+        }
+    }
+
+    /** getCatalog()
+     *
+     * @return The catalog holding the recordings. Lock it to read several values which must belong together.
+     */
+    public VideoCatalog getCatalog()
+    {
+        return mCatalog;
+    }
+}
@@ -0,0 +1,663 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** VideoStore
+ *
+ * Loads, indexes and holds the list of recordings.
+ *
+ * The recordings are held in a 'VideoCatalog', the only copy in memory, which readers page through.
+ * Every change gets a new version number, which listeners are notified of.
+ *
+ * The store does not depend on Android. Metadata is read through a 'MetadataProbe', files are
+ * found through a 'StorageLocation' and batching is timed with a 'Clock', so the Android app and
+ * the JVM unit tests each plug in their own implementations.
+ *
+ * A 'SegmentedRecording' is listed as one recording, under the file of its first segment, with the
+ * duration of all its segments. Its other segments and its manifest are not listed.
+ *
+ * All methods are safe to call from any thread. 'load()' blocks, so it must not run on the UI thread.
+ */
+public class VideoStore
+{
+    /* ~~~ MEMBER VARIABLES AND CONSTANTS ~~~ */
+
+    /** While loading, videos are published in batches of this many items... **/
+    private static final int BATCH_SIZE = 16;
+
+    /** ...or after this many milliseconds, whichever comes first **/
+    private static final long BATCH_MILLIS = 50;
+
+    /** Reads the duration of new or changed recordings **/
+    private final MetadataProbe mProbe;
+
+    /** Where the recordings and their index are stored **/
+    private final StorageLocation mStorage;
+
+    /** Clock for timing batches **/
+    private final Clock mClock;
+
+    /** The list of recordings and its version **/
+    private final VideoSnapshotStore mVideos = new VideoSnapshotStore();
+
+    /** On-disk index of previously probed recordings, so only new or changed files are probed **/
+    private final VideoIndex mIndex;
+
+    /** Writes the index in the background, one write at a time **/
+    private final ExecutorService mIndexWriter = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable _runnable)
+        {
+            Thread thread = new Thread(_runnable, "VideoIndexWriter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Segments of the segmented recordings, keyed by the path of the recording's file **/
+    private final Map<String, List<File>> mSegments = new ConcurrentHashMap<>();
+
+    /** Path of the recording each segment belongs to, keyed by the path of the segment, except for first segments **/
+    private final Map<String, String> mSegmentOwners = new ConcurrentHashMap<>();
+
+    /** Worker pool probing video files for the load in progress **/
+    private ProbePool mPool;
+
+    /** Files which failed to load during the last 'load()' **/
+    private volatile List<ProbePool.Failure> mLoadFailures = Collections.emptyList();
+
+    /** Listeners which are notified whenever the list of recordings changes **/
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /* ~~~ PUBLIC METHODS ~~~ */
+
+    /** VideoStore()
+     *
+     * Instantiates this store. Nothing is loaded until 'load()' is called.
+     *
+     * @param _probe Reads the duration of new or changed recordings.
+     * @param _storage Where the recordings and their index are stored.
+     * @param _clock Clock for timing batches.
+     */
+    public VideoStore(MetadataProbe _probe, StorageLocation _storage, Clock _clock)
+    {
+        this.mProbe = _probe;
+        this.mStorage = _storage;
+        this.mClock = _clock;
+        this.mIndex = new VideoIndex(_storage.getIndexFile());
+    }
+
+    /** load()
+     *
+     * Loads the list of recordings from the storage location, replacing the current list.
+     * Videos which are already in the on-disk index are not probed again.
+     * If the index was missing, stale, or corrupt it is rebuilt in the background.
+     * Videos are published to listeners in batches while the load is still running.
+     * Blocks until the load is finished or cancelled by 'cancel()'.
+     */
+    public void load()
+    {
+        notifyListeners(mVideos.clear());
+        mIndex.load();
+
+        // Sort the files so the list order does not depend on the file system.
+        // Segmented recordings are listed once, under their first segment.
+        List<File> files = groupSegments(mStorage.listVideos());
+        Collections.sort(files);
+
+        // Probed videos are published in batches as soon as they are ready, unless the load has been cancelled
+        final ProbePool pool = startPool();
+        VideoBatcher batcher = new VideoBatcher(BATCH_SIZE, BATCH_MILLIS, mClock, new VideoBatcher.Listener()
+        {
+            @Override
+            public void onBatch(List<VideoItem> _batch)
+            {
+                if (!pool.isCancelled()) notifyListeners(mVideos.addAll(_batch));
+            }
+        });
+
+        // Probe files in parallel. Only probe a file if it is not indexed or has changed since it was indexed.
+        ProbePool.Result result = pool.probeAll(files, new ProbePool.Probe()
+        {
+            @Override
+            public VideoItem probe(File _file) throws Exception
+            {
+                return lookupOrProbe(_file);
+            }
+        }, batcher);
+
+        // If the load was cancelled, the list is no longer wanted
+        if (result.isCancelled()) return;
+
+        mLoadFailures = result.getFailures();
+        for (ProbePool.Failure failure : mLoadFailures) System.out.println("Invalid File! " + failure);
+
+        // Forget about deleted files and write the index if anything changed
+        ArrayList<String> paths = new ArrayList<>(files.size());
+        for (File file : files) paths.add(file.getAbsolutePath());
+        mIndex.retain(paths);
+        saveIndex();
+    }
+
+    /** getSnapshot()
+     *
+     * Creates a 'VideoItem' for every recording, so it is meant for code which needs the whole list at once.
+     * Views of the list page through 'getCatalog()' instead.
+     *
+     * @return Snapshot of the list of recordings. It never changes, so it can be held and read from any thread.
+     */
+    public VideoSnapshot getSnapshot()
+    {
+        return mVideos.get();
+    }
+
+    /** getCatalog()
+     *
+     * @return Catalog holding the list of recordings. It changes as recordings are loaded, added and removed.
+     */
+    public VideoCatalog getCatalog()
+    {
+        return mVideos.getCatalog();
+    }
+
+    /** subscribe()
+     *
+     * Registers a listener for changes to the list of recordings.
+     * Notifications may arrive out of order from different threads, compare versions to drop stale ones.
+     *
+     * @param _listener Listener to notify.
+     * @return The current version, read after the listener was registered.
+     */
+    public long subscribe(Listener _listener)
+    {
+        if (!mListeners.contains(_listener)) mListeners.add(_listener);
+        return mVideos.getVersion();
+    }
+
+    /** unsubscribe()
+     *
+     * @param _listener Listener which should no longer be notified.
+     */
+    public void unsubscribe(Listener _listener)
+    {
+        mListeners.remove(_listener);
+    }
+
+    /** probe()
+     *
+     * @param _file File pointing to a video.
+     * @return A 'VideoItem' object which represents the provided video file, or null if it is not a valid video.
+     */
+    public VideoItem probe(File _file)
+    {
+        try
+        {
+            List<File> segments = mStorage.readSegments(_file);
+            if (segments != null) putSegments(_file, segments);
+            return probeFile(_file, mStorage.lastModified(_file));
+        }
+        catch (Exception ex)
+        {
+            System.out.println("Invalid File! " + _file);
+            return null;
+        }
+    }
+
+    /** add()
+     *
+     * Adds a recording, or replaces the recording with the same file path, and indexes it.
+     *
+     * @param _video 'VideoItem' to add. Ignored if null.
+     */
+    public void add(VideoItem _video)
+    {
+        if (_video == null) return;
+        notifyListeners(mVideos.addAll(Collections.singletonList(_video)));
+
+        // Index the new recording so it is not probed on the next load
+        File file = new File(_video.getFilepath());
+        long[] key = indexKey(file);
+        mIndex.put(file, key[0], key[1], _video);
+        saveIndex();
+    }
+
+    /** addRecorded()
+     *
+     * Adds a recording which was just finished by this app, from what the recorder measured, without probing the file.
+     * The recording gets the same name and timestamp a probe would give it, so a later probe of the file agrees.
+     *
+     * @param _file File of the recording.
+     * @param _duration Duration in seconds, of all segments together.
+     * @param _metrics Quality metrics of the recording, or null if there are none.
+     * @return The 'VideoItem' which was added.
+     */
+    public VideoItem addRecorded(File _file, int _duration, RecordingMetrics _metrics)
+    {
+        List<File> segments = mStorage.readSegments(_file);
+        if (segments != null) putSegments(_file, segments);
+        VideoItem video = new VideoItem(_file.getAbsolutePath(), Filenames.stripFiletype(_file.getName()), _duration,
+                new Date(mStorage.lastModified(_file)), _metrics);
+        add(video);
+        return video;
+    }
+
+    /** remove()
+     *
+     * @param _filepath Path of the recording to remove.
+     */
+    public void remove(String _filepath)
+    {
+        notifyListeners(mVideos.remove(_filepath));
+        mIndex.remove(_filepath);
+        saveIndex();
+    }
+
+    /** applyChanges()
+     *
+     * Applies changes to the recordings folder, as reported by a folder watcher, in a single update.
+     * Changed files are looked up in the index, or probed if they are new or have changed.
+     * A change to a segment, a manifest or a metrics sidecar counts as a change to its recording.
+     *
+     * @param _changed Files which are new or have been rewritten.
+     * @param _removed Files which have been deleted.
+     */
+    public void applyChanges(List<File> _changed, List<File> _removed)
+    {
+        // Read changed manifests first, so segments reported in the same batch are known.
+        // Segments which were listed on their own before their manifest was seen are removed from the list.
+        Set<File> changed = new HashSet<>();
+        Set<File> removedFiles = new HashSet<>();
+        for (File file : _changed)
+        {
+            if (SegmentedRecording.isManifest(file)) changed.add(readManifest(file, true, removedFiles));
+            else if (isMetrics(file)) addMetricsOwner(file, changed);
+        }
+        for (File file : _removed)
+        {
+            if (SegmentedRecording.isManifest(file)) changed.add(readManifest(file, false, removedFiles));
+            else if (isMetrics(file)) addMetricsOwner(file, changed);
+        }
+
+        // A change to a segment is a change to its recording
+        for (File file : _removed)
+        {
+            if (isBookkeeping(file)) continue;
+            String owner = mSegmentOwners.get(file.getAbsolutePath());
+            if (owner != null) changed.add(new File(owner));
+            else removedFiles.add(file);
+        }
+        for (File file : _changed)
+        {
+            if (isBookkeeping(file)) continue;
+            String owner = mSegmentOwners.get(file.getAbsolutePath());
+            changed.add(owner != null ? new File(owner) : file);
+        }
+        changed.removeAll(removedFiles);
+
+        ArrayList<VideoItem> added = new ArrayList<>();
+        for (File file : changed)
+        {
+            try
+            {
+                added.add(lookupOrProbe(file));
+            }
+            catch (Exception ex)
+            {
+                System.out.println("Invalid File! " + file);
+            }
+        }
+
+        ArrayList<String> removed = new ArrayList<>();
+        for (File file : removedFiles)
+        {
+            removed.add(file.getAbsolutePath());
+            mIndex.remove(file.getAbsolutePath());
+            removeSegments(file.getAbsolutePath());
+        }
+
+        notifyListeners(mVideos.update(added, removed));
+        saveIndex();
+    }
+
+    /** clear()
+     *
+     * Removes all recordings from the list, for example when the recordings folder has been deleted.
+     * The index is kept, it is cleaned up by the next 'load()'.
+     */
+    public void clear()
+    {
+        notifyListeners(mVideos.clear());
+    }
+
+    /** cancel()
+     *
+     * Cancels the load in progress, if any. The recordings it published so far are kept.
+     */
+    public synchronized void cancel()
+    {
+        if (mPool != null)
+        {
+            mPool.cancel();
+            mPool = null;
+        }
+    }
+
+    /** destroy()
+     *
+     * Cancels any load in progress, empties the list of recordings and removes all listeners.
+     * Snapshots handed out earlier are left intact.
+     * The store can be loaded again afterwards.
+     */
+    public void destroy()
+    {
+        cancel();
+        notifyListeners(mVideos.clear());
+        mListeners.clear();
+    }
+
+    /** getLoadFailures()
+     *
+     * @return Files which could not be loaded as videos by the last 'load()' call.
+     */
+    public List<ProbePool.Failure> getLoadFailures()
+    {
+        return mLoadFailures;
+    }
+
+    /** Getter methods **/
+    public StorageLocation getStorage() { return this.mStorage; }
+
+    /* ~~~ PACKAGE-PRIVATE METHODS ~~~ */
+
+    /** saveIndexNow()
+     *
+     * Writes the index if it has changed, after any background write which is already queued, and waits for it.
+     * Used by tests which need the index on disk before they continue.
+     *
+     * @throws Exception If the index could not be written.
+     */
+    void saveIndexNow() throws Exception
+    {
+        mIndexWriter.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws IOException
+            {
+                mIndex.save();
+                return null;
+            }
+        }).get();
+    }
+
+    /** getIndex()
+     *
+     * @return The index of this store, for tests.
+     */
+    VideoIndex getIndex()
+    {
+        return mIndex;
+    }
+
+    /* ~~~ PRIVATE METHODS ~~~ */
+
+    /** lookupOrProbe()
+     *
+     * @param _file File pointing to a video.
+     * @return The indexed 'VideoItem' for the file, or a newly probed one which is then indexed.
+     * @throws Exception If the file is not a valid video. Failures are indexed too, so the file is not probed
+     *                   again until it changes.
+     */
+    private VideoItem lookupOrProbe(File _file) throws Exception
+    {
+        long[] key = indexKey(_file);
+        VideoItem video = mIndex.lookup(_file, key[0], key[1]);
+        if (video != null) return video;
+        if (mIndex.isFailed(_file, key[0], key[1])) throw new IOException("Invalid video, unchanged since it was probed: " + _file);
+
+        try
+        {
+            video = probeFile(_file, mStorage.lastModified(_file));
+        }
+        catch (Exception ex)
+        {
+            mIndex.putFailed(_file, key[0], key[1]);
+            throw ex;
+        }
+        mIndex.put(_file, key[0], key[1], video);
+        return video;
+    }
+
+    /** indexKey()
+     *
+     * The index entry of a segmented recording has to change whenever any of its segments change,
+     * so it is keyed by the latest last modified time and the total size of all segments.
+     *
+     * @param _file File of a recording.
+     * @return Last modified time and size the recording is indexed by.
+     */
+    private long[] indexKey(File _file)
+    {
+        long lastModified = mStorage.lastModified(_file);
+        long size = mStorage.length(_file);
+        List<File> segments = mSegments.get(_file.getAbsolutePath());
+        if (segments != null)
+        {
+            for (int i = 1; i < segments.size(); i++)
+            {
+                lastModified = Math.max(lastModified, mStorage.lastModified(segments.get(i)));
+                size += mStorage.length(segments.get(i));
+            }
+        }
+        return new long[] {lastModified, size};
+    }
+
+    /** probeFile()
+     *
+     * @param _file File pointing to a video.
+     * @param _lastModified Last modified time of the file, used as the recording's timestamp.
+     * @return A 'VideoItem' object which represents the provided video file.
+     * @throws Exception If the given file is not a valid video, exception will be thrown.
+     */
+    private VideoItem probeFile(File _file, long _lastModified) throws Exception
+    {
+        int duration = mProbe.getDuration(_file);
+
+        // Add up the segments of a segmented recording. A segment which can not be read, such as the
+        // last one of an interrupted recording, does not make the whole recording invalid.
+        List<File> segments = mSegments.get(_file.getAbsolutePath());
+        if (segments != null)
+        {
+            for (int i = 1; i < segments.size(); i++)
+            {
+                try { duration += mProbe.getDuration(segments.get(i)); }
+                catch (Exception ex) { System.out.println("Invalid segment! " + segments.get(i)); }
+            }
+        }
+        return new VideoItem(_file.getAbsolutePath(), Filenames.stripFiletype(_file.getName()), duration, new Date(_lastModified),
+                mStorage.readMetrics(_file));
+    }
+
+    /** isBookkeeping()
+     *
+     * @param _file Any file in the recordings folder.
+     * @return Whether the file is not a recording, but a manifest, a metrics sidecar or a file set aside by 'RecordingRecovery'.
+     */
+    private static boolean isBookkeeping(File _file)
+    {
+        return SegmentedRecording.isManifest(_file) || SegmentedRecording.isTemporaryManifest(_file)
+                || RecordingMetrics.isSidecar(_file) || RecordingRecovery.isPartial(_file);
+    }
+
+    /** isMetrics()
+     *
+     * @param _file Any file in the recordings folder.
+     * @return Whether the file is a complete metrics sidecar, not one which is being written.
+     */
+    private static boolean isMetrics(File _file)
+    {
+        return _file.getName().endsWith(RecordingMetrics.SIDECAR_EXTENSION);
+    }
+
+    /** addMetricsOwner()
+     *
+     * The sidecar is written after its recording has been indexed, so the metrics in the recording's index entry
+     * are replaced with those of the sidecar. The recording itself is only probed if it is not indexed yet.
+     *
+     * @param _sidecar A metrics sidecar which changed or was removed.
+     * @param _changed Recordings to update, which the sidecar's recording is added to if it still exists.
+     */
+    private void addMetricsOwner(File _sidecar, Set<File> _changed)
+    {
+        File recording = RecordingMetrics.recordingFor(_sidecar);
+        if (mStorage.length(recording) <= 0) return;
+        mIndex.setMetrics(recording.getAbsolutePath(), mStorage.readMetrics(recording));
+        _changed.add(recording);
+    }
+
+    /** groupSegments()
+     *
+     * Reads the manifests among the files and remembers the segments of each segmented recording.
+     *
+     * @param _files All files in the recordings folder.
+     * @return The files of the recordings, without manifests and without segments other than first segments.
+     */
+    private List<File> groupSegments(List<File> _files)
+    {
+        mSegments.clear();
+        mSegmentOwners.clear();
+        for (File file : _files)
+        {
+            if (!SegmentedRecording.isManifest(file)) continue;
+            File recording = SegmentedRecording.recordingFor(file);
+            List<File> segments = mStorage.readSegments(recording);
+            if (segments != null) putSegments(recording, segments);
+        }
+
+        List<File> recordings = new ArrayList<>(_files.size());
+        for (File file : _files)
+        {
+            if (isBookkeeping(file)) continue;
+            if (!mSegmentOwners.containsKey(file.getAbsolutePath())) recordings.add(file);
+        }
+        return recordings;
+    }
+
+    /** readManifest()
+     *
+     * Updates the segments of a recording whose manifest changed or was removed.
+     *
+     * @param _manifest The manifest.
+     * @param _changed Whether the manifest was changed, rather than removed.
+     * @param _segments Receives the segments of the recording, other than its own file.
+     * @return File of the recording the manifest belongs to.
+     */
+    private File readManifest(File _manifest, boolean _changed, Set<File> _segments)
+    {
+        File recording = SegmentedRecording.recordingFor(_manifest);
+        List<File> segments = _changed ? mStorage.readSegments(recording) : null;
+        removeSegments(recording.getAbsolutePath());
+        if (segments != null)
+        {
+            putSegments(recording, segments);
+            _segments.addAll(segments.subList(1, segments.size()));
+        }
+        return recording;
+    }
+
+    /** putSegments()
+     *
+     * @param _file File of a recording.
+     * @param _segments Files of its segments, the first being the recording's own file.
+     */
+    private void putSegments(File _file, List<File> _segments)
+    {
+        mSegments.put(_file.getAbsolutePath(), _segments);
+        for (int i = 1; i < _segments.size(); i++) mSegmentOwners.put(_segments.get(i).getAbsolutePath(), _file.getAbsolutePath());
+    }
+
+    /** removeSegments()
+     *
+     * @param _path Path of a recording which is no longer segmented, or no longer exists.
+     */
+    private void removeSegments(String _path)
+    {
+        List<File> segments = mSegments.remove(_path);
+        if (segments == null) return;
+        for (int i = 1; i < segments.size(); i++) mSegmentOwners.remove(segments.get(i).getAbsolutePath());
+    }
+
+    /** startPool()
+     *
+     * Cancels the previous probe pool, if any, and starts a new one.
+     *
+     * @return Probe pool to be used by a new load.
+     */
+    private synchronized ProbePool startPool()
+    {
+        cancel();
+        mPool = new ProbePool();
+        return mPool;
+    }
+
+    /** saveIndex()
+     *
+     * Writes the index to disk in the background if it has changed.
+     */
+    private void saveIndex()
+    {
+        if (!mIndex.isDirty()) return;
+        mIndexWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try { mIndex.save(); }
+                catch (IOException ex) { ex.printStackTrace(); }
+            }
+        });
+    }
+
+    /** notifyListeners()
+     *
+     * Notifies all listeners of a change to the list of recordings.
+     *
+     * @param _version Version of the list after the change.
+     */
+    private void notifyListeners(long _version)
+    {
+        for (Listener listener : mListeners) listener.onVideosChanged(_version);
+    }
+
+    /* ~~~ INTERFACES ~~~ */
+
+    /** Listener
+     *
+     * Interface which provides callbacks for changes to the list of recordings.
+     * Callbacks may be called from any thread.
+     */
+    public interface Listener
+    {
+        /** onVideosChanged()
+         *
+         * Called when the list of recordings has changed.
+         *
+         * @param _version Version of the list after the change, higher versions are newer.
+         */
+        void onVideosChanged(long _version);
+    }
+}
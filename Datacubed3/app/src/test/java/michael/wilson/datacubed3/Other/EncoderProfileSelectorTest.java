@@ -0,0 +1,163 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'EncoderProfileSelector', with faked encoder capabilities.
+ */
+public class EncoderProfileSelectorTest
+{
+    /** Sizes a typical front camera lists, not in order **/
+    private static final int[] WIDTHS = {1920, 640, 1440, 1080, 960, 320};
+    private static final int[] HEIGHTS = {1080, 480, 1080, 810, 720, 240};
+
+    @Test
+    public void select_fastEncoder_takesLargestSizeAt30fps()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+        capabilities.measured(1080, 810, 120);
+
+        EncoderSettings settings = new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings();
+
+        assertEquals(1080, settings.getWidth());
+        assertEquals(810, settings.getHeight());
+        assertEquals(30, settings.getFrameRate());
+    }
+
+    @Test
+    public void select_slowEncoder_takesSmallerSize()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+        capabilities.measured(1080, 810, 20);
+        capabilities.measured(960, 720, 45);
+
+        EncoderProfileSelector.Choice choice = new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS);
+
+        assertEquals(960, choice.getSettings().getWidth());
+        assertEquals(30, choice.getSettings().getFrameRate());
+        assertTrue(choice.getReason().contains("measured 45fps"));
+    }
+
+    @Test
+    public void select_nothingSustains30fps_fallsBackTo24fps()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+        capabilities.measured(1080, 810, 26);
+        capabilities.measured(960, 720, 27);
+        capabilities.measured(640, 480, 28);
+        capabilities.measured(320, 240, 29);
+
+        EncoderSettings settings = new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings();
+
+        assertEquals(1080, settings.getWidth());
+        assertEquals(24, settings.getFrameRate());
+    }
+
+    @Test
+    public void select_withoutMeasurements_usesDeclaredRates()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+        capabilities.declaredMaxPixels = 960 * 720;
+
+        EncoderProfileSelector.Choice choice = new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS);
+
+        assertEquals(960, choice.getSettings().getWidth());
+        assertTrue(choice.getReason().startsWith("declared"));
+    }
+
+    @Test
+    public void select_bitRate_followsReferenceAndIsClamped()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+        capabilities.measured(1080, 810, 60);
+        capabilities.referenceBitRate = 6000000;
+        assertEquals(6000000, new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings().getBitRate());
+
+        capabilities.referenceBitRate = 40000000;
+        assertEquals(10000000, new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings().getBitRate());
+
+        capabilities.referenceBitRate = 40000000;
+        capabilities.maxBitRate = 8000000;
+        assertEquals(8000000, new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings().getBitRate());
+    }
+
+    @Test
+    public void select_withoutReference_scalesBitRateWithPixels()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+        capabilities.declaredMaxPixels = 640 * 480;
+
+        EncoderSettings settings = new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings();
+
+        assertEquals(640, settings.getWidth());
+        assertEquals((int) (0.15 * 640 * 480 * 30), settings.getBitRate());
+    }
+
+    @Test
+    public void select_nothingSustainable_fallsBackToLastSize()
+    {
+        FakeCapabilities capabilities = new FakeCapabilities(200000000);
+
+        EncoderSettings settings = new EncoderProfileSelector(capabilities).select(WIDTHS, HEIGHTS).getSettings();
+
+        assertEquals(320, settings.getWidth());
+        assertEquals(240, settings.getHeight());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** Capabilities with measured frame rates per size and a declared pixel limit **/
+    private static class FakeCapabilities implements EncoderCapabilities
+    {
+        final Map<String, Double> measured = new HashMap<>();
+        long declaredMaxPixels = 0;
+        int maxBitRate;
+        int referenceBitRate = -1;
+
+        FakeCapabilities(int _maxBitRate)
+        {
+            this.maxBitRate = _maxBitRate;
+        }
+
+        void measured(int _width, int _height, double _frameRate)
+        {
+            measured.put(_width + "x" + _height, _frameRate);
+        }
+
+        @Override
+        public boolean isSizeSupported(int _width, int _height)
+        {
+            return true;
+        }
+
+        @Override
+        public double getMeasuredFrameRate(int _width, int _height)
+        {
+            Double rate = measured.get(_width + "x" + _height);
+            return rate == null ? -1 : rate;
+        }
+
+        @Override
+        public boolean isRateSupported(int _width, int _height, int _frameRate)
+        {
+            return (long) _width * _height <= declaredMaxPixels;
+        }
+
+        @Override
+        public int getMaxBitRate()
+        {
+            return maxBitRate;
+        }
+
+        @Override
+        public int getReferenceBitRate(int _width, int _height, int _frameRate)
+        {
+            return referenceBitRate;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 'MetadataProbe' for tests which never reads the file. Every video is 'DURATION' seconds long,
+ * unless its name has been marked as invalid, and every call is counted.
+ */
+class FakeMetadataProbe implements MetadataProbe
+{
+    static final int DURATION = 30;
+
+    private final Set<String> mInvalid = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger mCalls = new AtomicInteger();
+
+    @Override
+    public int getDuration(File _file) throws Exception
+    {
+        mCalls.incrementAndGet();
+        if (mInvalid.contains(_file.getName())) throw new IOException("Not a video: " + _file.getName());
+        return DURATION;
+    }
+
+    void markInvalid(String _name)
+    {
+        mInvalid.add(_name);
+    }
+
+    int getCalls()
+    {
+        return mCalls.get();
+    }
+
+    void resetCalls()
+    {
+        mCalls.set(0);
+    }
+}
@@ -0,0 +1,114 @@
+package michael.wilson.datacubed3.Other;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 'StorageLocation' for tests which keeps the recordings in memory, so huge folders cost no disk access.
+ * Only the index is a real file, in the given directory.
+ */
+class FakeStorageLocation implements StorageLocation
+{
+    private final File mFolder;
+    private final File mIndexFile;
+
+    /** Last modified time and size of every recording, keyed by name **/
+    private final Map<String, long[]> mFiles = new ConcurrentHashMap<>();
+
+    /** Segment names of every segmented recording, keyed by the recording's name **/
+    private final Map<String, List<String>> mManifests = new ConcurrentHashMap<>();
+
+    /** Metrics of every recording which has a sidecar, keyed by the recording's name **/
+    private final Map<String, RecordingMetrics> mMetrics = new ConcurrentHashMap<>();
+
+    FakeStorageLocation(File _directory)
+    {
+        this.mFolder = new File(_directory, "Movies");
+        this.mIndexFile = new File(_directory, "videos.idx");
+    }
+
+    /** Adds or rewrites a recording and returns its file **/
+    File put(String _name, long _lastModified, long _size)
+    {
+        mFiles.put(_name, new long[] { _lastModified, _size });
+        return file(_name);
+    }
+
+    /** Deletes a recording and returns its file **/
+    File delete(String _name)
+    {
+        mFiles.remove(_name);
+        return file(_name);
+    }
+
+    /** Writes the manifest of a segmented recording, listing the recording itself first, and returns its file **/
+    File putManifest(String _name, String... _segments)
+    {
+        List<String> names = new ArrayList<>();
+        names.add(_name);
+        names.addAll(Arrays.asList(_segments));
+        mManifests.put(_name, names);
+        return put(SegmentedRecording.manifestFor(file(_name)).getName(), 0, 0);
+    }
+
+    /** Writes the metrics sidecar of a recording and returns its file **/
+    File putMetrics(String _name, RecordingMetrics _metrics)
+    {
+        mMetrics.put(_name, _metrics);
+        return put(RecordingMetrics.sidecarFor(file(_name)).getName(), 0, 0);
+    }
+
+    File file(String _name)
+    {
+        return new File(mFolder, _name);
+    }
+
+    @Override
+    public File getVideoFolder() { return mFolder; }
+
+    @Override
+    public File getIndexFile() { return mIndexFile; }
+
+    @Override
+    public List<File> listVideos()
+    {
+        List<File> files = new ArrayList<>(mFiles.size());
+        for (String name : mFiles.keySet()) files.add(file(name));
+        return files;
+    }
+
+    @Override
+    public long lastModified(File _file)
+    {
+        long[] attributes = mFiles.get(_file.getName());
+        return attributes != null ? attributes[0] : 0;
+    }
+
+    @Override
+    public long length(File _file)
+    {
+        long[] attributes = mFiles.get(_file.getName());
+        return attributes != null ? attributes[1] : 0;
+    }
+
+    @Override
+    public List<File> readSegments(File _file)
+    {
+        List<String> names = mManifests.get(_file.getName());
+        if (names == null || !mFiles.containsKey(SegmentedRecording.manifestFor(_file).getName())) return null;
+        List<File> files = new ArrayList<>(names.size());
+        for (String name : names) files.add(file(name));
+        return files;
+    }
+
+    @Override
+    public RecordingMetrics readMetrics(File _file)
+    {
+        if (!mFiles.containsKey(RecordingMetrics.sidecarFor(_file).getName())) return null;
+        return mMetrics.get(_file.getName());
+    }
+}
@@ -0,0 +1,141 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'FilenameAllocator' in a temporary folder.
+ */
+public class FilenameAllocatorTest
+{
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mFolder = Files.createTempDirectory("filenames").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = mFolder.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mFolder.delete();
+    }
+
+    @Test
+    public void allocate_followsUniqueFilePattern() throws Exception
+    {
+        FilenameAllocator allocator = new FilenameAllocator(mFolder);
+        assertEquals("Untitled.mp4", allocator.allocate("Untitled", ".mp4").getName());
+        assertEquals("Untitled0.mp4", allocator.allocate("Untitled", ".mp4").getName());
+        assertEquals("Untitled1.mp4", allocator.allocate("Untitled", ".mp4").getName());
+        assertEquals("Walk.mp4", allocator.allocate("Walk", ".mp4").getName());
+        assertTrue(new File(mFolder, "Untitled1.mp4").exists());
+    }
+
+    @Test
+    public void allocate_skipsRecordedAndUnknownFiles() throws Exception
+    {
+        // 'Untitled' and 'Untitled0' are in the list, 'Untitled1' exists on disk only
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        List<VideoItem> videos = new ArrayList<>();
+        videos.add(new VideoItem(new File(mFolder, "Untitled.mp4").getPath(), "Untitled", 5, new Date()));
+        videos.add(new VideoItem(new File(mFolder, "Untitled0.mp4").getPath(), "Untitled0", 5, new Date()));
+        store.addAll(videos);
+        assertTrue(new File(mFolder, "Untitled1.mp4").createNewFile());
+
+        FilenameAllocator allocator = new FilenameAllocator(mFolder, store.getCatalog());
+        assertEquals("Untitled2.mp4", allocator.allocate("Untitled", ".mp4").getName());
+        assertEquals("Untitled3.mp4", allocator.allocate("Untitled", ".mp4").getName());
+    }
+
+    @Test
+    public void release_deletesEmptyFileAndReusesName() throws Exception
+    {
+        FilenameAllocator allocator = new FilenameAllocator(mFolder);
+        allocator.allocate("Untitled", ".mp4");
+        File unused = allocator.allocate("Untitled", ".mp4");
+
+        allocator.release(unused);
+        assertFalse(unused.exists());
+        assertEquals(unused, allocator.allocate("Untitled", ".mp4"));
+    }
+
+    @Test
+    public void isReserved_untilReleased() throws Exception
+    {
+        FilenameAllocator allocator = new FilenameAllocator(mFolder);
+        File recording = allocator.allocate("Untitled", ".mp4");
+        assertTrue(allocator.isReserved(recording));
+        assertTrue(allocator.isReserved(new File(mFolder, "Untitled.mp4")));
+        assertFalse(allocator.isReserved(new File(mFolder, "Untitled0.mp4")));
+        assertFalse(allocator.isReserved(new File(new File(mFolder, "other"), "Untitled.mp4")));
+
+        Files.write(recording.toPath(), new byte[] { 1 });
+        allocator.release(recording);
+        assertFalse(allocator.isReserved(recording));
+    }
+
+    @Test
+    public void release_keepsRecordedFile() throws Exception
+    {
+        FilenameAllocator allocator = new FilenameAllocator(mFolder);
+        File recorded = allocator.allocate("Untitled", ".mp4");
+        Files.write(recorded.toPath(), new byte[] { 1, 2, 3 });
+
+        allocator.release(recorded);
+        assertTrue(recorded.exists());
+        assertEquals("Untitled0.mp4", allocator.allocate("Untitled", ".mp4").getName());
+    }
+
+    @Test
+    public void allocate_fromManyThreads_neverReturnsTheSameFile() throws Exception
+    {
+        // Two allocators for the same folder, as two processes would have
+        final FilenameAllocator[] allocators = { new FilenameAllocator(mFolder), new FilenameAllocator(mFolder) };
+        final Set<String> names = Collections.synchronizedSet(new HashSet<String>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            final FilenameAllocator allocator = allocators[t % 2];
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 50; i++)
+                        {
+                            if (!names.add(allocator.allocate("Untitled", ".mp4").getName())) errors.add(new AssertionError("Duplicate"));
+                        }
+                    }
+                    catch (Throwable ex) { errors.add(ex); }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(400, names.size());
+        assertEquals(400, mFolder.listFiles().length);
+    }
+}
@@ -0,0 +1,113 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'FolderChanges', the event coalescing of 'VideoFolderWatcher'.
+ */
+public class FolderChangesTest
+{
+    private final File mFolder = new File("/Movies");
+    private final ManualClock mClock = new ManualClock();
+    private final FolderChanges mChanges = new FolderChanges(mFolder, mClock);
+
+    private final List<File> mChanged = new ArrayList<>();
+    private final List<File> mRemoved = new ArrayList<>();
+
+    @Test
+    public void openFile_isHeldBackUntilClosed()
+    {
+        assertEquals(FolderChanges.NO_DRAIN, mChanges.add(FolderChanges.OPENED, "a.mp4"));
+        assertFalse(mChanges.drain(mChanged, mRemoved));
+
+        assertEquals(FolderChanges.QUIET_MILLIS, mChanges.add(FolderChanges.CHANGED, "a.mp4"));
+        assertTrue(mChanges.drain(mChanged, mRemoved));
+        assertEquals(Collections.singletonList(new File(mFolder, "a.mp4")), mChanged);
+        assertTrue(mRemoved.isEmpty());
+    }
+
+    @Test
+    public void reopenedFile_isNotReportedWhileWritten()
+    {
+        mChanges.add(FolderChanges.CHANGED, "a.mp4");
+        mChanges.add(FolderChanges.OPENED, "a.mp4");
+        mChanges.add(FolderChanges.CHANGED, "b.mp4");
+
+        assertTrue(mChanges.drain(mChanged, mRemoved));
+        assertEquals(Collections.singletonList(new File(mFolder, "b.mp4")), mChanged);
+    }
+
+    @Test
+    public void drain_keepsLatestChangePerFile()
+    {
+        mChanges.add(FolderChanges.CHANGED, "a.mp4");
+        mChanges.add(FolderChanges.CHANGED, "b.mp4");
+        mChanges.add(FolderChanges.REMOVED, "a.mp4");
+        mChanges.add(FolderChanges.CHANGED, "c.mp4");
+        mChanges.add(FolderChanges.CHANGED, "b.mp4");
+
+        assertTrue(mChanges.drain(mChanged, mRemoved));
+        assertEquals(Arrays.asList(new File(mFolder, "c.mp4"), new File(mFolder, "b.mp4")), mChanged);
+        assertEquals(Collections.singletonList(new File(mFolder, "a.mp4")), mRemoved);
+
+        // Drained changes are not reported again
+        mChanged.clear();
+        mRemoved.clear();
+        assertFalse(mChanges.drain(mChanged, mRemoved));
+        assertTrue(mChanged.isEmpty());
+    }
+
+    @Test
+    public void steadyStream_isDrainedWithinMaxDelay()
+    {
+        long delay = mChanges.add(FolderChanges.CHANGED, "0.mp4");
+        assertEquals(FolderChanges.QUIET_MILLIS, delay);
+
+        // Events keep arriving just before the folder goes quiet
+        long waited = 0;
+        for (int i = 1; waited + delay < FolderChanges.MAX_DELAY_MILLIS; i++)
+        {
+            mClock.advance(FolderChanges.QUIET_MILLIS - 1);
+            waited += FolderChanges.QUIET_MILLIS - 1;
+            delay = mChanges.add(FolderChanges.CHANGED, i + ".mp4");
+            assertTrue(delay <= FolderChanges.QUIET_MILLIS);
+        }
+        assertEquals(FolderChanges.MAX_DELAY_MILLIS, waited + delay);
+
+        // Once overdue, every event asks for the changes to be drained at once
+        mClock.advance(delay + 10);
+        assertEquals(0, mChanges.add(FolderChanges.CHANGED, "late.mp4"));
+
+        // After draining, the delay starts over
+        mChanges.drain(mChanged, mRemoved);
+        assertEquals(FolderChanges.QUIET_MILLIS, mChanges.add(FolderChanges.REMOVED, "0.mp4"));
+    }
+
+    @Test
+    public void clear_forgetsPendingAndOpenFiles()
+    {
+        mChanges.add(FolderChanges.OPENED, "a.mp4");
+        mChanges.add(FolderChanges.CHANGED, "b.mp4");
+        mChanges.clear();
+        assertFalse(mChanges.drain(mChanged, mRemoved));
+
+        // 'a.mp4' is no longer known to be open, so a later change is reported
+        mChanges.add(FolderChanges.REMOVED, "a.mp4");
+        assertTrue(mChanges.drain(mChanged, mRemoved));
+        assertEquals(Collections.singletonList(new File(mFolder, "a.mp4")), mRemoved);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsUnknownKind()
+    {
+        mChanges.add(42, "a.mp4");
+    }
+}
@@ -0,0 +1,177 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'FrameAnalysisPipeline', its 'FrameHandoff' and the frame analyzers.
+ */
+public class FrameAnalysisPipelineTest
+{
+    @Test
+    public void handoff_publishWhileWaiting_dropsOlderFrame() throws InterruptedException
+    {
+        FrameHandoff handoff = new FrameHandoff();
+        LumaFrame first = handoff.acquire();
+        handoff.publish(first);
+        LumaFrame second = handoff.acquire();
+        handoff.publish(second);
+
+        assertSame(second, handoff.take());
+        assertEquals(1, handoff.getDropped());
+    }
+
+    @Test
+    public void handoff_neverRunsOutOfFrames() throws InterruptedException
+    {
+        FrameHandoff handoff = new FrameHandoff();
+        LumaFrame analysing = null;
+        for (int i = 0; i < 100; i++)
+        {
+            LumaFrame frame = handoff.acquire();
+            assertNotNull(frame);
+            handoff.publish(frame);
+            if (analysing == null) analysing = handoff.take();
+        }
+        handoff.release(analysing);
+
+        assertEquals(98, handoff.getDropped());
+        handoff.close();
+        assertNull(handoff.take());
+    }
+
+    @Test
+    public void lumaFrame_dropsRowPadding()
+    {
+        ByteBuffer plane = ByteBuffer.allocate(3 * 6);
+        for (int i = 0; i < plane.capacity(); i++) plane.put(i, (byte) i);
+
+        LumaFrame frame = new LumaFrame();
+        frame.set(plane, 4, 3, 6, 42, -1);
+
+        assertEquals(4, frame.getWidth());
+        assertEquals(3, frame.getHeight());
+        assertEquals(6 + 3, frame.luma(3, 1));
+        assertEquals(12, frame.luma(0, 2));
+        assertEquals(0, plane.position());
+    }
+
+    @Test
+    public void brightness_isMeanLuma()
+    {
+        assertEquals(0, new BrightnessAnalyzer().analyze(frame(64, 48, 0)), 1e-9);
+        assertEquals(1, new BrightnessAnalyzer().analyze(frame(64, 48, 255)), 1e-9);
+        assertEquals(0.5, new BrightnessAnalyzer().analyze(frame(64, 48, 255 / 2.0)), 0.01);
+    }
+
+    @Test
+    public void motion_comparesWithPreviousFrame()
+    {
+        MotionAnalyzer motion = new MotionAnalyzer();
+
+        assertTrue(Double.isNaN(motion.analyze(frame(64, 48, 100))));
+        assertEquals(0, motion.analyze(frame(64, 48, 100)), 1e-9);
+        assertEquals(51 / 255.0, motion.analyze(frame(64, 48, 151)), 1e-9);
+    }
+
+    @Test
+    public void facePresence_followsFaceCount()
+    {
+        FacePresenceAnalyzer face = new FacePresenceAnalyzer();
+        LumaFrame frame = new LumaFrame();
+
+        frame.set(ByteBuffer.allocate(4), 2, 2, 2, 0, -1);
+        assertTrue(Double.isNaN(face.analyze(frame)));
+        frame.set(ByteBuffer.allocate(4), 2, 2, 2, 0, 2);
+        assertEquals(1, face.analyze(frame), 0);
+        frame.set(ByteBuffer.allocate(4), 2, 2, 2, 0, 0);
+        assertEquals(0, face.analyze(frame), 0);
+    }
+
+    @Test
+    public void pipeline_slowAnalyzer_dropsFramesWithoutBlocking() throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        FrameAnalyzer slow = new FrameAnalyzer()
+        {
+            @Override
+            public String getName() { return "slow"; }
+
+            @Override
+            public double analyze(LumaFrame _frame)
+            {
+                started.countDown();
+                try { proceed.await(); }
+                catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+                return 1;
+            }
+        };
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(slow, new BrightnessAnalyzer());
+        pipeline.start();
+
+        ByteBuffer plane = ByteBuffer.allocate(64 * 48);
+        assertTrue(pipeline.offer(plane, 64, 48, 64, 0));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // While the first frame is being analysed, every new frame replaces the waiting one
+        for (int i = 1; i <= 10; i++) assertTrue(pipeline.offer(plane, 64, 48, 64, i));
+        proceed.countDown();
+        while (pipeline.getAnalyzed() < 2) Thread.sleep(1);
+        pipeline.stop();
+
+        assertEquals(2, pipeline.getAnalyzed());
+        assertEquals(9, pipeline.getDropped());
+        assertEquals(1, pipeline.getMean(0), 0);
+        assertEquals(0, pipeline.getMax(1), 0);
+        assertTrue(pipeline.getSummary().startsWith("slow 1.00 (1.00-1.00), brightness 0.00"));
+    }
+
+    @Test
+    public void pipeline_takesFaceCountOfCaptureWithSameTimestamp() throws InterruptedException
+    {
+        FrameAnalysisPipeline pipeline = new FrameAnalysisPipeline(new FacePresenceAnalyzer());
+        pipeline.start();
+        ByteBuffer plane = ByteBuffer.allocate(4);
+
+        // Results may arrive before or after their frame, and out of step with the frames
+        pipeline.setFaceCount(100, 2);
+        pipeline.setFaceCount(200, 0);
+        pipeline.setFaceCount(300, 1);
+        assertTrue(pipeline.offer(plane, 2, 2, 2, 100));
+        while (pipeline.getAnalyzed() < 1) Thread.sleep(1);
+        assertTrue(pipeline.offer(plane, 2, 2, 2, 200));
+        while (pipeline.getAnalyzed() < 2) Thread.sleep(1);
+
+        // A frame without a result of its own has no face count, even if newer results arrived
+        pipeline.setFaceCount(500, 3);
+        assertTrue(pipeline.offer(plane, 2, 2, 2, 400));
+        while (pipeline.getAnalyzed() < 3) Thread.sleep(1);
+        pipeline.stop();
+
+        assertEquals(2, pipeline.getCount(0));
+        assertEquals(0.5, pipeline.getMean(FacePresenceAnalyzer.NAME), 0);
+        assertTrue(Double.isNaN(pipeline.getMean("unknown")));
+
+        pipeline.reset();
+        assertEquals(0, pipeline.getAnalyzed());
+        assertTrue(Double.isNaN(pipeline.getMean(0)));
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** A frame of the given size with the same luma everywhere **/
+    private static LumaFrame frame(int _width, int _height, double _luma)
+    {
+        ByteBuffer plane = ByteBuffer.allocate(_width * _height);
+        for (int i = 0; i < plane.capacity(); i++) plane.put(i, (byte) Math.round(_luma));
+        LumaFrame frame = new LumaFrame();
+        frame.set(plane, _width, _height, _width, 0, -1);
+        return frame;
+    }
+}
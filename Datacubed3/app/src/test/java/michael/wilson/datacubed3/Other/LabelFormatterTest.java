@@ -0,0 +1,95 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for 'LabelFormatter', including a benchmark of the allocations on the steady-state path.
+ */
+public class LabelFormatterTest
+{
+    /** Calls measured by the allocation benchmark **/
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void formatClock_matchesStringFormat()
+    {
+        LabelFormatter formatter = new LabelFormatter();
+        for (int duration = 0; duration < 100000; duration += 7)
+        {
+            String expected = (duration / 60) + ":" + String.format(Locale.US, "%02d", duration % 60);
+            int length = formatter.formatClock(duration);
+            assertEquals(expected, new String(formatter.getChars(), 0, length));
+            assertEquals(expected, LabelFormatter.appendClock(new StringBuilder(), duration).toString());
+        }
+    }
+
+    @Test
+    public void formatName_appendsClock()
+    {
+        LabelFormatter formatter = new LabelFormatter();
+        int length = formatter.formatName("A rather long recording name", 125);
+        assertEquals("A rather long recording name (2:05)", new String(formatter.getChars(), 0, length));
+
+        length = formatter.formatName("Short", 9);
+        assertEquals("Short (0:09)", new String(formatter.getChars(), 0, length));
+    }
+
+    @Test
+    public void formatTimestamp_matchesDateFormatAndIsCached()
+    {
+        Date timestamp = new Date(1577880000000L);
+        VideoItem video = new VideoItem("/videos/a.mp4", "a", 10, timestamp);
+        LabelFormatter formatter = new LabelFormatter();
+
+        String label = formatter.formatTimestamp(video);
+        assertEquals(new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault()).format(timestamp), label);
+        assertSame(label, formatter.formatTimestamp(video));
+        assertSame(label, new LabelFormatter().formatTimestamp(video));
+    }
+
+    @Test
+    public void steadyState_doesNotAllocate()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        LabelFormatter formatter = new LabelFormatter();
+        VideoItem video = new VideoItem("/videos/a.mp4", "Recording 12", 95, new Date());
+        long thread = Thread.currentThread().getId();
+
+        // Warm up, so the buffer has grown, the timestamp is cached and the loop is compiled
+        int sink = run(formatter, video, ITERATIONS);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        sink += run(formatter, video, ITERATIONS);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(sink > 0);
+        // Allow for the measurement itself, which is a few hundred bytes at most
+        assertTrue("Allocated " + allocated + " bytes for " + ITERATIONS + " iterations", allocated < 1024);
+    }
+
+    /** Formats every kind of label '_iterations' times, returning a value derived from the results **/
+    private static int run(LabelFormatter _formatter, VideoItem _video, int _iterations)
+    {
+        int sink = 0;
+        for (int i = 0; i < _iterations; i++)
+        {
+            sink += _formatter.formatClock(i % 600);
+            sink += _formatter.formatName(_video.getName(), i % 600);
+            sink += _formatter.formatTimestamp(_video).length();
+        }
+        return sink;
+    }
+}
@@ -0,0 +1,22 @@
+package michael.wilson.datacubed3.Other;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 'Clock' for tests which only moves when told to.
+ */
+class ManualClock implements Clock
+{
+    private final AtomicLong mMillis = new AtomicLong();
+
+    @Override
+    public long uptimeMillis()
+    {
+        return mMillis.get();
+    }
+
+    void advance(long _millis)
+    {
+        mMillis.addAndGet(_millis);
+    }
+}
@@ -0,0 +1,184 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'Mp4MetadataReader', on hand-made mp4 files in a temporary directory.
+ */
+public class Mp4MetadataReaderTest
+{
+    /** 2020-01-01 00:00:00 UTC, in seconds since the mp4 epoch and in microseconds since the Unix epoch **/
+    private static final long CREATED_MP4 = 3660681600L, CREATED_US = 1577836800000000L;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mDirectory = Files.createTempDirectory("mp4metadata").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void read_moovAtStart() throws IOException
+    {
+        File file = write("Walk.mp4", concat(box("ftyp", new byte[12]), moov(false, 90000, 90000 * 125L), box("mdat", new byte[256])));
+
+        Mp4MetadataReader.Metadata metadata = Mp4MetadataReader.read(file);
+        assertEquals(125000000L, metadata.getDurationUs());
+        assertEquals(1920, metadata.getWidth());
+        assertEquals(1080, metadata.getHeight());
+        assertEquals("avc1", metadata.getVideoCodec());
+        assertEquals("mp4a", metadata.getAudioCodec());
+        assertEquals(CREATED_US, metadata.getCreationTimeUs());
+    }
+
+    @Test
+    public void read_moovAtEnd_skipsLargeMdat() throws IOException
+    {
+        // The 'mdat' box has a 64-bit size and is far larger than anything the reader could afford to scan
+        File file = new File(mDirectory, "Walk.mp4");
+        byte[] ftyp = box("ftyp", new byte[12]);
+        byte[] moov = moov(true, 1000, 61500);
+        long mdatSize = 64L * 1024 * 1024;
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try
+        {
+            out.write(ftyp);
+            out.writeInt(1);
+            out.write("mdat".getBytes("US-ASCII"));
+            out.writeLong(mdatSize);
+            out.seek(ftyp.length + mdatSize);
+            out.write(moov);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        Mp4MetadataReader.Metadata metadata = Mp4MetadataReader.read(file);
+        assertEquals(61500000L, metadata.getDurationUs());
+        assertEquals(1920, metadata.getWidth());
+        assertEquals("avc1", metadata.getVideoCodec());
+        assertEquals(CREATED_US, metadata.getCreationTimeUs());
+    }
+
+    @Test
+    public void read_noMovieDuration_usesLongestTrack() throws IOException
+    {
+        File file = write("Walk.mp4", concat(box("ftyp", new byte[12]), moov(false, 1000, 0)));
+
+        // Both tracks are 10 seconds in 'moov()', in their own time scales
+        assertEquals(10000000L, Mp4MetadataReader.read(file).getDurationUs());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_noMoov_throws() throws IOException
+    {
+        Mp4MetadataReader.read(write("Walk.mp4", concat(box("ftyp", new byte[12]), box("mdat", new byte[64]))));
+    }
+
+    @Test
+    public void getDuration_roundsDownToSeconds() throws Exception
+    {
+        File file = write("Walk.mp4", concat(box("ftyp", new byte[12]), moov(false, 600, 600 * 42 + 599)));
+        assertEquals(42, new Mp4MetadataReader(null).getDuration(file));
+    }
+
+    @Test
+    public void getDuration_unreadableFile_usesFallback() throws Exception
+    {
+        File file = write("Walk.mp4", new byte[] {1, 2, 3});
+        FakeMetadataProbe fallback = new FakeMetadataProbe();
+
+        assertEquals(FakeMetadataProbe.DURATION, new Mp4MetadataReader(fallback).getDuration(file));
+        assertEquals(1, fallback.getCalls());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** A 'moov' box with a 1920x1080 avc1 video track and an mp4a audio track, each 10 seconds long **/
+    private static byte[] moov(boolean _wide, int _timescale, long _duration) throws IOException
+    {
+        ByteBuffer mvhd = ByteBuffer.allocate(_wide ? 108 : 96);
+        if (_wide)
+        {
+            mvhd.putInt(1 << 24).putLong(CREATED_MP4).putLong(CREATED_MP4).putInt(_timescale).putLong(_duration);
+        }
+        else
+        {
+            mvhd.putInt(0).putInt((int) CREATED_MP4).putInt((int) CREATED_MP4).putInt(_timescale).putInt((int) _duration);
+        }
+        return box("moov", concat(box("mvhd", mvhd.array()),
+                trak(_wide, "vide", "avc1", 1920, 1080, 90000, 900000),
+                trak(_wide, "soun", "mp4a", 0, 0, 48000, 480000)));
+    }
+
+    private static byte[] trak(boolean _wide, String _handler, String _codec, int _width, int _height, int _timescale, long _duration) throws IOException
+    {
+        ByteBuffer tkhd = ByteBuffer.allocate(_wide ? 96 : 84);
+        tkhd.putInt(_wide ? 1 << 24 : 0);
+        tkhd.position(tkhd.capacity() - 8);
+        tkhd.putInt(_width << 16).putInt(_height << 16);
+
+        ByteBuffer mdhd = ByteBuffer.allocate(_wide ? 36 : 24);
+        if (_wide) mdhd.putInt(1 << 24).putLong(0).putLong(0).putInt(_timescale).putLong(_duration);
+        else mdhd.putInt(0).putInt(0).putInt(0).putInt(_timescale).putInt((int) _duration);
+
+        ByteBuffer hdlr = ByteBuffer.allocate(25);
+        hdlr.position(8);
+        hdlr.put(_handler.getBytes("US-ASCII"));
+
+        ByteBuffer stsd = ByteBuffer.allocate(8);
+        stsd.putInt(0).putInt(1);
+        byte[] entry = box(_codec, new byte[78]);
+
+        // Large sample tables, which the reader must not need to read
+        byte[] stbl = box("stbl", concat(box("stsd", concat(stsd.array(), entry)), box("stsz", new byte[4096]), box("stco", new byte[2048])));
+        return box("trak", concat(box("tkhd", tkhd.array()),
+                box("mdia", concat(box("mdhd", mdhd.array()), box("hdlr", hdlr.array()), box("minf", stbl)))));
+    }
+
+    private static byte[] box(String _type, byte[] _payload) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(8 + _payload.length);
+        header.put(_type.getBytes("US-ASCII"));
+        return concat(header.array(), _payload);
+    }
+
+    private static byte[] concat(byte[]... _parts) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : _parts) out.write(part);
+        return out.toByteArray();
+    }
+
+    private File write(String _name, byte[] _bytes) throws IOException
+    {
+        File file = new File(mDirectory, _name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(_bytes);
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,333 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'PagedVideoSource'.
+ */
+public class PagedVideoSourceTest
+{
+    private static final int PAGE_SIZE = 10, MAX_PAGES = 3, COUNT = 100;
+
+    private VideoCatalog mCatalog;
+
+    /** Loads waiting to run, so tests decide when the loader gets to them **/
+    private final Queue<Runnable> mLoads = new ArrayDeque<>();
+
+    /** Ranges reported by the listener, as { start, count } **/
+    private final List<int[]> mLoaded = new ArrayList<>();
+    private final List<int[]> mInserted = new ArrayList<>();
+    private final List<int[]> mRemoved = new ArrayList<>();
+    private final List<int[]> mMoved = new ArrayList<>();
+
+    private PagedVideoSource mSource;
+
+    @Before
+    public void setUp()
+    {
+        // Recording i was made at second i, so the newest first order puts it at position COUNT - 1 - i
+        mCatalog = new VideoCatalog();
+        for (int i = 0; i < COUNT; i++) mCatalog.put("/Movies/" + i + ".mp4", Integer.toString(i), i, i * 1000L, null);
+
+        Executor queued = new Executor()
+        {
+            @Override
+            public void execute(Runnable _runnable)
+            {
+                mLoads.add(_runnable);
+            }
+        };
+        Executor direct = new Executor()
+        {
+            @Override
+            public void execute(Runnable _runnable)
+            {
+                _runnable.run();
+            }
+        };
+        mSource = new PagedVideoSource(mCatalog, PAGE_SIZE, MAX_PAGES, queued, direct, new PagedVideoSource.Listener()
+        {
+            @Override
+            public void onItemsChanged(int _start, int _count)
+            {
+                mLoaded.add(new int[] { _start, _count });
+            }
+
+            @Override
+            public void onItemsInserted(int _start, int _count)
+            {
+                mInserted.add(new int[] { _start, _count });
+            }
+
+            @Override
+            public void onItemsRemoved(int _start, int _count)
+            {
+                mRemoved.add(new int[] { _start, _count });
+            }
+
+            @Override
+            public void onItemMoved(int _from, int _to)
+            {
+                mMoved.add(new int[] { _from, _to });
+            }
+        });
+
+        // Empty until the ids are read
+        assertEquals(0, mSource.size());
+        mSource.invalidate();
+        runLoads();
+        assertEquals(1, mInserted.size());
+        assertArrayEquals(new int[] { 0, COUNT }, mInserted.get(0));
+        mInserted.clear();
+    }
+
+    @Test
+    public void get_returnsPlaceholderUntilPageIsLoaded()
+    {
+        assertEquals(COUNT, mSource.size());
+        assertNull(mSource.get(5));
+        assertEquals(1, mLoads.size());
+
+        runLoads();
+        assertEquals(1, mLoaded.size());
+        assertArrayEquals(new int[] { 0, PAGE_SIZE }, mLoaded.get(0));
+        VideoItem item = mSource.get(5);
+        assertNotNull(item);
+        assertEquals("/Movies/94.mp4", item.getFilepath());
+        assertEquals(94, item.getDuration());
+        assertTrue(mLoads.isEmpty());
+    }
+
+    @Test
+    public void get_nearPageEdge_prefetchesNeighbour()
+    {
+        mSource.get(25);
+        runLoads();
+        mSource.get(28);
+        assertEquals(1, mLoads.size());
+        runLoads();
+
+        // Page 3 is in place before the list reaches it
+        assertEquals("/Movies/69.mp4", mSource.get(30).getFilepath());
+    }
+
+    @Test
+    public void scrolling_keepsWindowBounded()
+    {
+        for (int position = 0; position < COUNT; position++)
+        {
+            mSource.get(position);
+            runLoads();
+            assertNotNull(mSource.get(position));
+            assertTrue(mSource.getLoadedPageCount() <= MAX_PAGES);
+        }
+
+        // Pages far behind were evicted and read as placeholders again
+        assertNull(mSource.get(0));
+    }
+
+    @Test
+    public void pagesScrolledPast_areNotRead()
+    {
+        mSource.get(0);
+        mSource.get(55);
+        mSource.get(95);
+        runLoads();
+
+        // Only the last page is close enough to the window to be kept
+        assertEquals(1, mLoaded.size());
+        assertArrayEquals(new int[] { 90, PAGE_SIZE }, mLoaded.get(0));
+        assertEquals(1, mSource.getLoadedPageCount());
+    }
+
+    @Test
+    public void invalidate_dropsItemsLoadedForOldContents()
+    {
+        // The page queued before the change reads the new contents, but the ids shown are still the old ones
+        mSource.get(0);
+        mCatalog.remove("/Movies/99.mp4");
+        mSource.invalidate();
+        assertEquals(COUNT, mSource.size());
+        mLoads.poll().run();
+        assertNull(mSource.get(0));
+        assertNull(mSource.get(1));
+
+        // Once the ids arrive the first position is removed, and the page is read again
+        runLoads();
+        assertEquals(1, mRemoved.size());
+        assertArrayEquals(new int[] { 0, 1 }, mRemoved.get(0));
+        assertEquals(COUNT - 1, mSource.size());
+        assertEquals("/Movies/98.mp4", mSource.get(0).getFilepath());
+        assertEquals(mCatalog.getStableId(mCatalog.find("/Movies/98.mp4")), mSource.getStableId(0));
+    }
+
+    @Test
+    public void invalidate_reportsOnlyChangedPositions()
+    {
+        mSource.get(15);
+        runLoads();
+        assertNotNull(mSource.get(15));
+        mLoaded.clear();
+
+        // Recording 84 sits at position 15, recording 150 is added after the held pages in the newest first order
+        mCatalog.put("/Movies/84.mp4", "renamed", 84, 84000L, null);
+        mCatalog.put("/Movies/150.mp4", "150", 1, -1000L, null);
+        mSource.invalidate();
+        assertTrue(mInserted.isEmpty());
+        assertEquals("84", mSource.get(15).getName());
+
+        runLoads();
+        assertEquals(1, mInserted.size());
+        assertArrayEquals(new int[] { COUNT, 1 }, mInserted.get(0));
+        assertEquals(1, mLoaded.size());
+        assertArrayEquals(new int[] { 15, 1 }, mLoaded.get(0));
+        assertEquals("renamed", mSource.get(15).getName());
+    }
+
+    @Test
+    public void invalidate_insertInTheMiddle_rebindsOneCell()
+    {
+        mSource.setOrder(CatalogQuery.BY_NAME, false);
+        runLoads();
+        mSource.get(0);
+        runLoads();
+        assertEquals("11", mSource.get(3).getName());
+        mLoaded.clear();
+        mInserted.clear();
+        mRemoved.clear();
+
+        // Sorted by name, "105" goes between "10" and "11" at position 3
+        mCatalog.put("/Movies/105.mp4", "105", 105, 105000L, null);
+        mSource.invalidate();
+        runLoads();
+        assertEquals(1, mInserted.size());
+        assertArrayEquals(new int[] { 3, 1 }, mInserted.get(0));
+        assertTrue(mRemoved.isEmpty());
+        assertTrue(mMoved.isEmpty());
+
+        // The cells after it moved along with their items, only the new one is bound once its page arrives
+        assertEquals(1, mLoaded.size());
+        assertArrayEquals(new int[] { 3, 1 }, mLoaded.get(0));
+        assertEquals("105", mSource.get(3).getName());
+        assertEquals("11", mSource.get(4).getName());
+    }
+
+    @Test
+    public void invalidate_reportsMovedItems()
+    {
+        mSource.setOrder(CatalogQuery.BY_DURATION, false);
+        runLoads();
+        mSource.get(0);
+        runLoads();
+        mLoaded.clear();
+        mInserted.clear();
+        mRemoved.clear();
+
+        // Recording 5 gets the longest duration and moves from position 5 to the end, recording 90 to the front
+        mCatalog.put("/Movies/5.mp4", "5", 150, 5000L, null);
+        mCatalog.put("/Movies/90.mp4", "90", -1, 90000L, null);
+        mSource.invalidate();
+        runLoads();
+        assertTrue(mInserted.isEmpty());
+        assertTrue(mRemoved.isEmpty());
+        assertEquals(2, mMoved.size());
+        assertArrayEquals(new int[] { 90, 0 }, mMoved.get(0));
+        assertArrayEquals(new int[] { 6, COUNT - 1 }, mMoved.get(1));
+
+        // Page 0 gained recording 90, which it did not hold
+        assertEquals(1, mLoaded.size());
+        assertArrayEquals(new int[] { 0, 1 }, mLoaded.get(0));
+        assertEquals("90", mSource.get(0).getName());
+        assertEquals("4", mSource.get(5).getName());
+        assertEquals("6", mSource.get(6).getName());
+    }
+
+    @Test
+    public void invalidate_stepsTurnShownIdsIntoNewOnes()
+    {
+        mSource.setOrder(CatalogQuery.BY_DURATION, false);
+        runLoads();
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++)
+        {
+            List<Long> shown = new ArrayList<>();
+            for (int i = 0; i < mSource.size(); i++) shown.add(mSource.getStableId(i));
+            mInserted.clear();
+            mRemoved.clear();
+            mMoved.clear();
+
+            // Remove some recordings, change the duration of others and add new ones
+            for (int i = 0; i < 10; i++)
+            {
+                String path = "/Movies/" + random.nextInt(2 * COUNT) + ".mp4";
+                if (random.nextInt(3) == 0) mCatalog.remove(path);
+                else mCatalog.put(path, "x", random.nextInt(1000), 0L, null);
+            }
+            mSource.invalidate();
+            runLoads();
+
+            // Replay the steps in the order they were reported, as the list does
+            for (int[] step : mRemoved) shown.subList(step[0], step[0] + step[1]).clear();
+            for (int[] step : mMoved) shown.add(step[1], shown.remove(step[0]));
+            for (int[] step : mInserted)
+            {
+                for (int i = 0; i < step[1]; i++) shown.add(step[0] + i, mSource.getStableId(step[0] + i));
+            }
+            assertEquals(mSource.size(), shown.size());
+            for (int i = 0; i < shown.size(); i++) assertEquals(mSource.getStableId(i), (long) shown.get(i));
+        }
+    }
+
+    @Test
+    public void invalidate_withoutChanges_rebindsNothingHeld()
+    {
+        mSource.get(0);
+        runLoads();
+        mLoaded.clear();
+
+        mSource.invalidate();
+        runLoads();
+        assertTrue(mLoaded.isEmpty());
+        assertTrue(mInserted.isEmpty());
+        assertTrue(mRemoved.isEmpty());
+        assertTrue(mMoved.isEmpty());
+    }
+
+    @Test
+    public void setOrder_reloadsInNewOrder()
+    {
+        mSource.get(0);
+        runLoads();
+        mSource.setOrder(CatalogQuery.BY_DURATION, false);
+        runLoads();
+
+        // Every position is replaced rather than moved one at a time
+        assertEquals(1, mRemoved.size());
+        assertArrayEquals(new int[] { 0, COUNT }, mRemoved.get(0));
+        assertEquals(1, mInserted.size());
+        assertArrayEquals(new int[] { 0, COUNT }, mInserted.get(0));
+        assertTrue(mMoved.isEmpty());
+        assertNull(mSource.get(0));
+        runLoads();
+        assertEquals(0, mSource.get(0).getDuration());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** Runs the queued loads, and any they queue in turn **/
+    private void runLoads()
+    {
+        Runnable load;
+        while ((load = mLoads.poll()) != null) load.run();
+    }
+}
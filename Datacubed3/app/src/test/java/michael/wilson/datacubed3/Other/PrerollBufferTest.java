@@ -0,0 +1,148 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'PrerollBuffer'.
+ */
+public class PrerollBufferTest
+{
+    @Test
+    public void add_beforeFirstKeyframe_isDropped()
+    {
+        PrerollBuffer buffer = new PrerollBuffer(1000, 100);
+
+        assertFalse(buffer.add(sample(10, 1), 0, 0, true));
+        assertFalse(buffer.add(sample(10, 2), 1, 0, false));
+        assertTrue(buffer.add(sample(10, 3), 2, PrerollBuffer.FLAG_KEY_FRAME, true));
+        assertTrue(buffer.add(sample(10, 4), 3, 0, false));
+
+        assertEquals(2, buffer.getSampleCount());
+        assertEquals(20, buffer.getBytes());
+    }
+
+    @Test
+    public void add_whenFull_dropsWholeGroupsOfPictures()
+    {
+        PrerollBuffer buffer = new PrerollBuffer(100, 100);
+
+        // Three groups of 30 bytes, a keyframe and two frames each
+        for (int group = 0; group < 3; group++)
+        {
+            buffer.add(sample(10, group), group * 3, PrerollBuffer.FLAG_KEY_FRAME, true);
+            buffer.add(sample(10, group), group * 3 + 1, 0, true);
+            buffer.add(sample(10, group), group * 3 + 2, 0, true);
+        }
+        assertEquals(90, buffer.getBytes());
+
+        // The next keyframe does not fit, so the first group goes
+        assertTrue(buffer.add(sample(20, 3), 9, PrerollBuffer.FLAG_KEY_FRAME, true));
+
+        List<Long> times = flush(buffer).times;
+        assertEquals(Long.valueOf(3), times.get(0));
+        assertEquals(7, times.size());
+        assertEquals(0, buffer.getSampleCount());
+    }
+
+    @Test
+    public void add_sampleCountLimit_dropsWholeGroupsOfPictures()
+    {
+        PrerollBuffer buffer = new PrerollBuffer(1000, 4);
+        buffer.add(sample(1, 0), 0, PrerollBuffer.FLAG_KEY_FRAME, true);
+        buffer.add(sample(1, 0), 1, 0, false);
+        buffer.add(sample(1, 0), 2, PrerollBuffer.FLAG_KEY_FRAME, true);
+        buffer.add(sample(1, 0), 3, 0, true);
+        buffer.add(sample(1, 0), 4, 0, true);
+
+        assertEquals(3, buffer.getSampleCount());
+        assertEquals(Long.valueOf(2), flush(buffer).times.get(0));
+    }
+
+    @Test
+    public void add_groupLargerThanBuffer_waitsForNextKeyframe()
+    {
+        PrerollBuffer buffer = new PrerollBuffer(25, 100);
+        buffer.add(sample(10, 0), 0, PrerollBuffer.FLAG_KEY_FRAME, true);
+        buffer.add(sample(10, 0), 1, 0, true);
+
+        // Making room drops the only group, and a frame can not start a new one
+        assertFalse(buffer.add(sample(10, 0), 2, 0, true));
+        assertEquals(0, buffer.getSampleCount());
+        assertTrue(buffer.add(sample(10, 0), 3, PrerollBuffer.FLAG_KEY_FRAME, true));
+    }
+
+    @Test
+    public void flush_wrappedAround_keepsDataAndOrder()
+    {
+        PrerollBuffer buffer = new PrerollBuffer(64, 100);
+        for (int i = 0; i < 40; i++)
+        {
+            boolean key = i % 4 == 0;
+            buffer.add(sample(7, i), i, key ? PrerollBuffer.FLAG_KEY_FRAME : 0, i % 2 == 0 || key);
+        }
+
+        Flushed flushed = flush(buffer);
+        assertTrue(flushed.times.size() > 0);
+        assertTrue(flushed.videoKeyFirst);
+        for (int i = 0; i < flushed.times.size(); i++)
+        {
+            long time = flushed.times.get(i);
+            if (i > 0) assertEquals(flushed.times.get(i - 1) + 1, time);
+            for (byte b : flushed.data.get(i)) assertEquals((byte) time, b);
+        }
+    }
+
+    @Test
+    public void getDurationUs_spansVideoSamples()
+    {
+        PrerollBuffer buffer = new PrerollBuffer(1000, 100);
+        buffer.add(sample(10, 0), 1000, PrerollBuffer.FLAG_KEY_FRAME, true);
+        buffer.add(sample(10, 0), 1500, 0, true);
+        buffer.add(sample(10, 0), 9000, 0, false);
+
+        assertEquals(500, buffer.getDurationUs());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** A sample of the given size filled with the given value, not starting at position 0 **/
+    private static ByteBuffer sample(int _size, int _value)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(_size + 3);
+        buffer.position(3);
+        for (int i = 0; i < _size; i++) buffer.put(3 + i, (byte) _value);
+        return buffer;
+    }
+
+    private static class Flushed
+    {
+        final List<Long> times = new ArrayList<>();
+        final List<byte[]> data = new ArrayList<>();
+        boolean videoKeyFirst;
+    }
+
+    private static Flushed flush(PrerollBuffer _buffer)
+    {
+        final Flushed flushed = new Flushed();
+        _buffer.flush(new PrerollBuffer.Sink()
+        {
+            @Override
+            public void write(ByteBuffer _data, int _offset, int _size, long _timeUs, int _flags, boolean _video)
+            {
+                if (flushed.times.isEmpty()) flushed.videoKeyFirst = _video && (_flags & PrerollBuffer.FLAG_KEY_FRAME) != 0;
+                byte[] bytes = new byte[_size];
+                _data.position(_offset);
+                _data.get(bytes);
+                flushed.times.add(_timeUs);
+                flushed.data.add(bytes);
+            }
+        });
+        return flushed;
+    }
+}
@@ -0,0 +1,142 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'ProbePool' using a fake probe which sleeps instead of reading files.
+ */
+public class ProbePoolTest
+{
+    /** Time each fake probe takes **/
+    private static final int PROBE_MILLIS = 40;
+
+    @Test
+    public void probeAll_isFasterThanSerial()
+    {
+        List<File> files = files(32);
+        ProbePool pool = new ProbePool(4);
+
+        long start = System.nanoTime();
+        ProbePool.Result result = pool.probeAll(files, new SleepingProbe(PROBE_MILLIS));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        pool.cancel();
+
+        long serialMillis = (long) files.size() * PROBE_MILLIS;
+        assertEquals(files.size(), result.getVideos().size());
+        assertTrue("Took " + elapsedMillis + "ms, serial would take " + serialMillis + "ms", elapsedMillis < serialMillis / 2);
+    }
+
+    @Test
+    public void probeAll_keepsFileOrder()
+    {
+        // Earlier files sleep longer, so they finish last
+        List<File> files = files(20);
+        ProbePool pool = new ProbePool(4);
+        ProbePool.Result result = pool.probeAll(files, new ProbePool.Probe()
+        {
+            @Override
+            public VideoItem probe(File _file) throws Exception
+            {
+                int index = Integer.parseInt(_file.getName().substring(5, 9));
+                Thread.sleep(2 * (20 - index));
+                return video(_file);
+            }
+        });
+        pool.cancel();
+
+        assertEquals(files.size(), result.getVideos().size());
+        for (int i = 0; i < files.size(); i++)
+        {
+            assertEquals(files.get(i).getAbsolutePath(), result.getVideos().get(i).getFilepath());
+        }
+    }
+
+    @Test
+    public void probeAll_collectsFailures()
+    {
+        List<File> files = files(10);
+        ProbePool pool = new ProbePool(3);
+        ProbePool.Result result = pool.probeAll(files, new ProbePool.Probe()
+        {
+            @Override
+            public VideoItem probe(File _file) throws Exception
+            {
+                if (_file.getName().startsWith("video0003") || _file.getName().startsWith("video0007"))
+                {
+                    throw new IOException("not a video");
+                }
+                return video(_file);
+            }
+        });
+        pool.cancel();
+
+        assertEquals(8, result.getVideos().size());
+        assertEquals(2, result.getFailures().size());
+        assertEquals(files.get(3), result.getFailures().get(0).getFile());
+        assertEquals(files.get(7), result.getFailures().get(1).getFile());
+        assertTrue(result.getFailures().get(0).getError() instanceof IOException);
+    }
+
+    @Test
+    public void cancel_stopsProbeAll() throws Exception
+    {
+        final ProbePool pool = new ProbePool(2);
+        Thread canceller = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try { Thread.sleep(100); }
+                catch (InterruptedException ex) { return; }
+                pool.cancel();
+            }
+        };
+        canceller.start();
+
+        long start = System.nanoTime();
+        ProbePool.Result result = pool.probeAll(files(1000), new SleepingProbe(PROBE_MILLIS));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        canceller.join();
+
+        assertTrue(result.isCancelled());
+        assertTrue(result.getVideos().size() < 1000);
+        assertTrue("Took " + elapsedMillis + "ms to cancel", elapsedMillis < 2000);
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    private static List<File> files(int _count)
+    {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < _count; i++) files.add(new File(String.format("/videos/video%04d.mp4", i)));
+        return files;
+    }
+
+    private static VideoItem video(File _file)
+    {
+        return new VideoItem(_file.getAbsolutePath(), _file.getName(), 15, new Date(0));
+    }
+
+    /** Fake probe which takes a fixed amount of time, like a real metadata probe would **/
+    private static class SleepingProbe implements ProbePool.Probe
+    {
+        private final int mMillis;
+
+        SleepingProbe(int _millis) { this.mMillis = _millis; }
+
+        @Override
+        public VideoItem probe(File _file) throws Exception
+        {
+            Thread.sleep(mMillis);
+            return video(_file);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'RecordingJournal', in a temporary directory.
+ */
+public class RecordingJournalTest
+{
+    private File mDirectory, mJournal;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mDirectory = Files.createTempDirectory("journal").toFile();
+        mJournal = new File(mDirectory, "recordings.journal");
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void interrupted_missingJournal_isEmpty() throws IOException
+    {
+        assertEquals(Collections.<File>emptyList(), new RecordingJournal(mJournal).interrupted());
+    }
+
+    @Test
+    public void interrupted_listsRecordingsBegunButNotEnded() throws IOException
+    {
+        File walk = new File(mDirectory, "Walk.mp4"), run = new File(mDirectory, "Run.mp4");
+        RecordingJournal crashed = new RecordingJournal(mJournal);
+        crashed.begin(walk);
+        crashed.begin(run);
+        crashed.end(walk);
+
+        // A new process reads what the crashed one left behind
+        assertEquals(Collections.singletonList(run.getAbsoluteFile()), new RecordingJournal(mJournal).interrupted());
+    }
+
+    @Test
+    public void interrupted_skipsRecordingsInProgress() throws IOException
+    {
+        RecordingJournal journal = new RecordingJournal(mJournal);
+        journal.begin(new File(mDirectory, "Walk.mp4"));
+
+        assertTrue(journal.interrupted().isEmpty());
+    }
+
+    @Test
+    public void interrupted_ignoresLineCutOff() throws IOException
+    {
+        File walk = new File(mDirectory, "Walk.mp4");
+        new RecordingJournal(mJournal).begin(walk);
+        FileOutputStream out = new FileOutputStream(mJournal, true);
+        out.write("en".getBytes("UTF-8"));
+        out.close();
+
+        assertEquals(Collections.singletonList(walk.getAbsoluteFile()), new RecordingJournal(mJournal).interrupted());
+    }
+
+    @Test
+    public void compact_keepsOnlyRecordingsInProgress() throws IOException
+    {
+        File walk = new File(mDirectory, "Walk.mp4"), run = new File(mDirectory, "Run.mp4");
+        new RecordingJournal(mJournal).begin(walk);
+
+        RecordingJournal journal = new RecordingJournal(mJournal);
+        journal.begin(run);
+        assertEquals(Collections.singletonList(walk.getAbsoluteFile()), journal.interrupted());
+        journal.compact();
+
+        assertEquals(Arrays.asList("begin " + run.getAbsolutePath()), Files.readAllLines(mJournal.toPath()));
+        assertEquals(Collections.singletonList(run.getAbsoluteFile()), new RecordingJournal(mJournal).interrupted());
+    }
+}
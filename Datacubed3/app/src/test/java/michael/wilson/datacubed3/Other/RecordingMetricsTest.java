@@ -0,0 +1,179 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'RecordingMetrics' and its collector, with the sidecar in a temporary directory.
+ */
+public class RecordingMetricsTest
+{
+    private static final long FRAME_NS = 1000000000L / 30;
+
+    private File mDirectory, mRecording;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mDirectory = Files.createTempDirectory("metrics").toFile();
+        mRecording = new File(mDirectory, "Walk.mp4");
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void collector_steadyFrames_haveNoJitterOrDrops()
+    {
+        RecordingMetrics.Collector collector = new RecordingMetrics.Collector(30);
+        for (int i = 0; i < 301; i++) collector.onFrame(5000000000L + i * FRAME_NS);
+
+        RecordingMetrics metrics = collector.toMetrics(120);
+        assertEquals(301, metrics.getFrameCount());
+        assertEquals(0, metrics.getDroppedFrames());
+        assertEquals(30, metrics.getTargetFrameRate());
+        assertEquals(30f, metrics.getFrameRate(), 0.01f);
+        assertEquals(0f, metrics.getJitterMillis(), 0.01f);
+        assertEquals(33.33f, metrics.getMaxIntervalMillis(), 0.01f);
+        assertEquals(120, metrics.getFirstFrameDelayMillis());
+    }
+
+    @Test
+    public void collector_gap_countsDroppedFramesAndJitter()
+    {
+        RecordingMetrics.Collector collector = new RecordingMetrics.Collector(30);
+        long time = 0;
+        for (int i = 0; i < 100; i++)
+        {
+            collector.onFrame(time);
+
+            // Three frames go missing after the 50th
+            time += i == 49 ? 4 * FRAME_NS : FRAME_NS;
+        }
+
+        RecordingMetrics metrics = collector.toMetrics(-1);
+        assertEquals(3, metrics.getDroppedFrames());
+        assertEquals(133.33f, metrics.getMaxIntervalMillis(), 0.01f);
+        assertTrue(metrics.getJitterMillis() > 5);
+        assertTrue(metrics.getFrameRate() < 30);
+    }
+
+    @Test
+    public void collector_ignoresOutOfOrderFrames()
+    {
+        RecordingMetrics.Collector collector = new RecordingMetrics.Collector(30);
+        collector.onFrame(FRAME_NS);
+        collector.onFrame(0);
+        collector.onFrame(2 * FRAME_NS);
+
+        assertEquals(2, collector.toMetrics(-1).getFrameCount());
+    }
+
+    @Test
+    public void collector_noFrames_isEmpty()
+    {
+        RecordingMetrics metrics = new RecordingMetrics.Collector(30).toMetrics(-1);
+        assertEquals(0, metrics.getFrameCount());
+        assertEquals(0f, metrics.getFrameRate(), 0);
+    }
+
+    @Test
+    public void sidecar_roundTrips() throws IOException
+    {
+        RecordingMetrics metrics = new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140);
+        metrics.write(mRecording);
+
+        assertTrue(RecordingMetrics.isSidecar(RecordingMetrics.sidecarFor(mRecording)));
+        assertEquals(mRecording, RecordingMetrics.recordingFor(RecordingMetrics.sidecarFor(mRecording)));
+        assertEquals(metrics, RecordingMetrics.read(mRecording));
+        assertFalse(new File(mDirectory, "Walk.mp4.metrics.tmp").exists());
+    }
+
+    @Test
+    public void sidecar_roundTripsFrameAnalysis() throws IOException
+    {
+        RecordingMetrics metrics = new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140, 0.1f, 0.02f, Float.NaN);
+        metrics.write(mRecording);
+
+        RecordingMetrics read = RecordingMetrics.read(mRecording);
+        assertEquals(metrics, read);
+        assertEquals(0.1f, read.getBrightness(), 0);
+        assertTrue(Float.isNaN(read.getFacePresence()));
+        assertEquals(RecordingMetrics.FLAG_DARK, read.getQualityFlags());
+    }
+
+    @Test
+    public void qualityFlags_onlyForAnalysesWhichRan()
+    {
+        assertEquals(0, new RecordingMetrics(300, 0, 30, 30f, 0f, 33.3f, 100).getQualityFlags());
+        assertEquals(0, new RecordingMetrics(300, 0, 30, 30f, 0f, 33.3f, 100, 0.5f, 0.02f, 0.9f).getQualityFlags());
+        assertEquals(RecordingMetrics.FLAG_SHAKY | RecordingMetrics.FLAG_NO_FACE,
+                new RecordingMetrics(300, 0, 30, 30f, 0f, 33.3f, 100, 0.5f, 0.3f, 0.2f).getQualityFlags());
+    }
+
+    @Test
+    public void withAnalysis_keepsTimingMetrics()
+    {
+        RecordingMetrics metrics = new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140);
+        RecordingMetrics analysed = metrics.withAnalysis(0.4, 0.01, 0.1);
+
+        assertEquals(new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140, 0.4f, 0.01f, 0.1f), analysed);
+        assertNotEquals(metrics, analysed);
+        assertEquals(RecordingMetrics.FLAG_NO_FACE, analysed.getQualityFlags());
+    }
+
+    @Test
+    public void withStartup_isKeptInTheSidecar() throws IOException
+    {
+        RecordingMetrics metrics = new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140).withStartup(850).withAnalysis(0.4, 0.01, 0.1);
+        metrics.write(mRecording);
+
+        RecordingMetrics read = RecordingMetrics.read(mRecording);
+        assertEquals(metrics, read);
+        assertEquals(850, read.getStartupMillis());
+        assertEquals(140, read.getFirstFrameDelayMillis());
+        assertEquals(-1, new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140).getStartupMillis());
+    }
+
+    @Test
+    public void read_noSidecar_isNull() throws IOException
+    {
+        assertNull(RecordingMetrics.read(mRecording));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_corruptSidecar_throws() throws IOException
+    {
+        new RecordingMetrics(300, 2, 30, 29.5f, 1.25f, 66.7f, 140).write(mRecording);
+        RandomAccessFile file = new RandomAccessFile(RecordingMetrics.sidecarFor(mRecording), "rw");
+        file.seek(12);
+        file.write(0xff);
+        file.close();
+
+        RecordingMetrics.read(mRecording);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncatedSidecar_throws() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(RecordingMetrics.sidecarFor(mRecording));
+        out.write(new byte[] { 0x44, 0x43 });
+        out.close();
+
+        RecordingMetrics.read(mRecording);
+    }
+}
@@ -0,0 +1,195 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'RecordingRecovery' and 'Mp4Boxes', on hand-made mp4 files in a temporary directory.
+ */
+public class RecordingRecoveryTest
+{
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mDirectory = Files.createTempDirectory("recovery").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void scan_readsBoxesWithAllSizeForms() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 12);
+        largeBox(out, "mdat", 100);
+        box(out, "moov", 40);
+        File file = write("Walk.mp4", out.toByteArray());
+
+        Mp4Boxes.Scan scan = scan(file);
+
+        assertEquals(3, scan.getBoxes().size());
+        assertEquals("mdat", scan.getBoxes().get(1).getType());
+        assertEquals(116, scan.getBoxes().get(1).getSize());
+        assertEquals(file.length(), scan.getCompleteEnd());
+        assertFalse(scan.hasTrailingData());
+    }
+
+    @Test
+    public void scan_boxToEndOfFile_isComplete() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 12);
+        out.write(new byte[] {0, 0, 0, 0, 'm', 'd', 'a', 't', 1, 2, 3});
+        File file = write("Walk.mp4", out.toByteArray());
+
+        Mp4Boxes.Scan scan = scan(file);
+
+        assertTrue(scan.hasBox("mdat"));
+        assertEquals(file.length(), scan.getCompleteEnd());
+    }
+
+    @Test
+    public void recoverFile_finishedFile_isIntact() throws IOException
+    {
+        File file = write("Walk.mp4", finished());
+
+        assertEquals(RecordingRecovery.INTACT, RecordingRecovery.recoverFile(file));
+        assertArrayEquals(finished(), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void recoverFile_cutOffAfterMoov_isTruncated() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(finished());
+        out.write(new byte[] {0, 0, 1, 0, 'f', 'r', 'e', 'e', 9, 9});
+        File file = write("Walk.mp4", out.toByteArray());
+
+        assertEquals(RecordingRecovery.TRUNCATED, RecordingRecovery.recoverFile(file));
+        assertArrayEquals(finished(), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void recoverFile_withoutMoov_isSetAside() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 12);
+        out.write(new byte[] {0, 0, 4, 0, 'm', 'd', 'a', 't', 1, 2, 3});
+        File file = write("Walk.mp4", out.toByteArray());
+
+        assertEquals(RecordingRecovery.SET_ASIDE, RecordingRecovery.recoverFile(file));
+        assertFalse(file.exists());
+        File partial = new File(mDirectory, "Walk.mp4.partial");
+        assertTrue(partial.exists());
+        assertTrue(RecordingRecovery.isPartial(partial));
+    }
+
+    @Test
+    public void recoverFile_emptyFile_isDeleted() throws IOException
+    {
+        File file = write("Walk.mp4", new byte[0]);
+
+        assertEquals(RecordingRecovery.DELETED, RecordingRecovery.recoverFile(file));
+        assertFalse(file.exists());
+        assertEquals(RecordingRecovery.MISSING, RecordingRecovery.recoverFile(file));
+    }
+
+    @Test
+    public void recover_segmentedRecording_dropsLostSegmentsFromManifest() throws IOException
+    {
+        File first = write("Walk.mp4", finished());
+        File second = write("Walk.part1.mp4", finished());
+        File third = write("Walk.part2.mp4", new byte[] {0, 0, 0, 16, 'f', 't', 'y', 'p'});
+        File fourth = write("Walk.part3.mp4", new byte[0]);
+        SegmentedRecording.writeManifest(Arrays.asList(first, second, third, fourth));
+
+        assertEquals(2, RecordingRecovery.recover(first));
+
+        assertEquals(Arrays.asList(first, second), SegmentedRecording.readManifest(SegmentedRecording.manifestFor(first)));
+        assertTrue(new File(mDirectory, "Walk.part2.mp4.partial").exists());
+        assertFalse(fourth.exists());
+    }
+
+    @Test
+    public void recover_onlyFirstSegmentLeft_deletesManifest() throws IOException
+    {
+        File first = write("Walk.mp4", finished());
+        File second = write("Walk.part1.mp4", new byte[0]);
+        SegmentedRecording.writeManifest(Arrays.asList(first, second));
+
+        assertEquals(1, RecordingRecovery.recover(first));
+
+        assertFalse(SegmentedRecording.manifestFor(first).exists());
+        assertTrue(first.exists());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** A file as the encoder leaves it once stopped **/
+    private static byte[] finished() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", 12);
+        box(out, "mdat", 64);
+        box(out, "moov", 24);
+        return out.toByteArray();
+    }
+
+    private static void box(ByteArrayOutputStream _out, String _type, int _payload) throws IOException
+    {
+        int size = 8 + _payload;
+        _out.write(new byte[] {(byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size});
+        _out.write(_type.getBytes("US-ASCII"));
+        _out.write(new byte[_payload]);
+    }
+
+    private static void largeBox(ByteArrayOutputStream _out, String _type, int _payload) throws IOException
+    {
+        long size = 16 + _payload;
+        _out.write(new byte[] {0, 0, 0, 1});
+        _out.write(_type.getBytes("US-ASCII"));
+        for (int shift = 56; shift >= 0; shift -= 8) _out.write((int) (size >>> shift));
+        _out.write(new byte[_payload]);
+    }
+
+    private File write(String _name, byte[] _bytes) throws IOException
+    {
+        File file = new File(mDirectory, _name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(_bytes);
+        out.close();
+        return file;
+    }
+
+    private static Mp4Boxes.Scan scan(File _file) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(_file, "r");
+        try
+        {
+            return Mp4Boxes.scan(file.getChannel());
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'SegmentedRecording', in a temporary directory.
+ */
+public class SegmentedRecordingTest
+{
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mDirectory = Files.createTempDirectory("segments").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void nextSegment_namesSegmentsAndWritesManifest() throws IOException
+    {
+        File first = new File(mDirectory, "Walk.mp4");
+        SegmentedRecording recording = new SegmentedRecording(first, 30000, 1 << 20);
+        assertFalse(SegmentedRecording.manifestFor(first).exists());
+
+        assertEquals("Walk.part1.mp4", recording.nextSegment().getName());
+        assertEquals("Walk.part2.mp4", recording.nextSegment().getName());
+
+        File manifest = SegmentedRecording.manifestFor(first);
+        assertEquals("Walk.mp4.segments", manifest.getName());
+        assertTrue(SegmentedRecording.isManifest(manifest));
+        assertEquals(first, SegmentedRecording.recordingFor(manifest));
+        assertEquals(recording.getSegments(), SegmentedRecording.readManifest(manifest));
+        assertEquals(3, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void nextSegment_skipsTakenNames() throws IOException
+    {
+        new File(mDirectory, "Walk.part1.mp4").createNewFile();
+        SegmentedRecording recording = new SegmentedRecording(new File(mDirectory, "Walk.mp4"), 30000, 1 << 20);
+
+        assertEquals("Walk.part2.mp4", recording.nextSegment().getName());
+    }
+
+    @Test
+    public void finish_removesUnwrittenSegments() throws IOException
+    {
+        File first = new File(mDirectory, "Walk.mp4");
+        write(first);
+        SegmentedRecording recording = new SegmentedRecording(first, 30000, 1 << 20);
+        write(recording.nextSegment());
+        File unwritten = recording.nextSegment();
+
+        recording.finish();
+
+        assertFalse(unwritten.exists());
+        List<File> segments = SegmentedRecording.readManifest(SegmentedRecording.manifestFor(first));
+        assertEquals(2, segments.size());
+        assertEquals(recording.getSegments(), segments);
+    }
+
+    @Test
+    public void finish_singleSegmentLeft_deletesManifest() throws IOException
+    {
+        File first = new File(mDirectory, "Walk.mp4");
+        write(first);
+        SegmentedRecording recording = new SegmentedRecording(first, 30000, 1 << 20);
+        recording.nextSegment();
+
+        recording.finish();
+
+        assertFalse(SegmentedRecording.manifestFor(first).exists());
+        assertEquals(1, mDirectory.listFiles().length);
+    }
+
+    private static void write(File _file) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(_file);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+    }
+}
@@ -0,0 +1,63 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'StartupTrace'.
+ */
+public class StartupTraceTest
+{
+    @Test
+    public void toString_listsPhaseDurationsAndTotal()
+    {
+        ManualClock clock = new ManualClock();
+        StartupTrace trace = new StartupTrace(clock);
+        clock.advance(5);
+        trace.mark("permissions");
+        clock.advance(12);
+        trace.mark("camera opened");
+        clock.advance(3);
+        trace.mark("session configured");
+
+        assertEquals("permissions 5ms, camera opened 12ms, session configured 3ms, total 20ms", trace.toString());
+    }
+
+    @Test
+    public void elapsed_isMeasuredFromStart()
+    {
+        ManualClock clock = new ManualClock();
+        clock.advance(1000);
+        StartupTrace trace = new StartupTrace(clock);
+        clock.advance(7);
+        trace.mark("a");
+        clock.advance(8);
+        trace.mark("b");
+
+        assertEquals(7, trace.elapsed("a"));
+        assertEquals(15, trace.elapsed("b"));
+        assertEquals(-1, trace.elapsed("c"));
+    }
+
+    @Test
+    public void elapsed_fromEarlierStart_includesTimeBeforeTheTrace()
+    {
+        ManualClock clock = new ManualClock();
+        clock.advance(1000);
+        long pressed = clock.uptimeMillis();
+        clock.advance(300);
+        StartupTrace trace = new StartupTrace(clock, pressed);
+        clock.advance(200);
+        trace.mark("first frame");
+
+        assertEquals(500, trace.elapsed("first frame"));
+        assertEquals("first frame 500ms, total 500ms", trace.toString());
+    }
+
+    @Test
+    public void toString_withoutPhases_isZeroTotal()
+    {
+        assertEquals("total 0ms", new StartupTrace(new ManualClock()).toString());
+    }
+}
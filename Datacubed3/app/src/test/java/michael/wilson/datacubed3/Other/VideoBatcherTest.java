@@ -0,0 +1,136 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'VideoBatcher'.
+ */
+public class VideoBatcherTest
+{
+    private static final int MAX_SIZE = 3;
+    private static final long MAX_DELAY_MILLIS = 100;
+
+    private final ManualClock mClock = new ManualClock();
+
+    /** Batches handed to the listener, in order **/
+    private final List<List<VideoItem>> mBatches = new ArrayList<>();
+
+    private VideoBatcher mBatcher;
+
+    @Before
+    public void setUp()
+    {
+        mBatcher = new VideoBatcher(MAX_SIZE, MAX_DELAY_MILLIS, mClock, new VideoBatcher.Listener()
+        {
+            @Override
+            public void onBatch(List<VideoItem> _batch)
+            {
+                mBatches.add(_batch);
+            }
+        });
+    }
+
+    @Test
+    public void add_handsOutFullBatchInOrder()
+    {
+        VideoItem first = video(0), second = video(1), third = video(2);
+        mBatcher.add(first);
+        mBatcher.add(second);
+        assertTrue(mBatches.isEmpty());
+
+        mBatcher.add(third);
+        assertEquals(1, mBatches.size());
+        assertEquals(3, mBatches.get(0).size());
+        assertSame(first, mBatches.get(0).get(0));
+        assertSame(second, mBatches.get(0).get(1));
+        assertSame(third, mBatches.get(0).get(2));
+        assertEquals(Long.MAX_VALUE, mBatcher.millisUntilDue());
+    }
+
+    @Test
+    public void add_handsOutOverdueBatch()
+    {
+        mBatcher.add(video(0));
+        mClock.advance(MAX_DELAY_MILLIS - 1);
+        assertEquals(1, mBatcher.millisUntilDue());
+        assertTrue(mBatches.isEmpty());
+
+        // The delay counts from the oldest item, not the newest
+        mClock.advance(1);
+        mBatcher.add(video(1));
+        assertEquals(1, mBatches.size());
+        assertEquals(2, mBatches.get(0).size());
+    }
+
+    @Test
+    public void millisUntilDue_countsFromOldestPendingItem()
+    {
+        assertEquals(Long.MAX_VALUE, mBatcher.millisUntilDue());
+        mBatcher.add(video(0));
+        assertEquals(MAX_DELAY_MILLIS, mBatcher.millisUntilDue());
+
+        mClock.advance(40);
+        mBatcher.add(video(1));
+        assertEquals(MAX_DELAY_MILLIS - 40, mBatcher.millisUntilDue());
+
+        // Never negative, however late the batch is
+        mClock.advance(1000);
+        assertEquals(0, mBatcher.millisUntilDue());
+    }
+
+    @Test
+    public void flush_handsOutPendingItemsOnce()
+    {
+        mBatcher.flush();
+        assertTrue(mBatches.isEmpty());
+
+        mBatcher.add(video(0));
+        mBatcher.flush();
+        mBatcher.flush();
+        assertEquals(1, mBatches.size());
+        assertEquals(1, mBatches.get(0).size());
+
+        // The next item starts a new batch with its own delay
+        mClock.advance(500);
+        mBatcher.add(video(1));
+        assertEquals(MAX_DELAY_MILLIS, mBatcher.millisUntilDue());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void batches_areNotModifiable()
+    {
+        mBatcher.add(video(0));
+        mBatcher.flush();
+        mBatches.get(0).add(video(1));
+    }
+
+    @Test
+    public void maxSizeBelowOne_handsOutEveryItem()
+    {
+        VideoBatcher batcher = new VideoBatcher(0, MAX_DELAY_MILLIS, mClock, new VideoBatcher.Listener()
+        {
+            @Override
+            public void onBatch(List<VideoItem> _batch)
+            {
+                mBatches.add(_batch);
+            }
+        });
+        batcher.add(video(0));
+        batcher.add(video(1));
+        assertEquals(2, mBatches.size());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    private static VideoItem video(int _index)
+    {
+        return new VideoItem("/Movies/" + _index + ".mp4", Integer.toString(_index), _index, new Date(_index * 1000L));
+    }
+}
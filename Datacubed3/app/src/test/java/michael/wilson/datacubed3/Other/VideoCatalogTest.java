@@ -0,0 +1,363 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'VideoCatalog'.
+ */
+public class VideoCatalogTest
+{
+    @Test
+    public void put_findsRecordingByPath()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        RecordingMetrics metrics = new RecordingMetrics(300, 0, 30, 30f, 0.4f, 34f, 120);
+        int walk = catalog.put("/Movies/Walk.mp4", "Walk", 12, 1000L, metrics);
+        int run = catalog.put("/Movies/Run.mp4", "Run", 34, 2000L, null);
+
+        assertEquals(2, catalog.size());
+        assertEquals(walk, catalog.find("/Movies/Walk.mp4"));
+        assertEquals(run, catalog.find("/Movies/Run.mp4"));
+        assertEquals(VideoCatalog.NO_ROW, catalog.find("/Movies/Swim.mp4"));
+
+        VideoCatalog.View view = catalog.view().moveTo(walk);
+        assertEquals("/Movies/Walk.mp4", view.getFilepath());
+        assertEquals("Walk", view.getName());
+        assertEquals(12, view.getDuration());
+        assertEquals(1000L, view.getTimestamp());
+        assertEquals(metrics, view.getMetrics());
+        assertNull(view.moveTo(run).getMetrics());
+    }
+
+    @Test
+    public void put_nameInPath_sharesBytes()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        catalog.put("/Movies/Walk.mp4", "Walk", 12, 1000L, null);
+        assertEquals("/Movies/Walk.mp4".length(), catalog.getByteCount());
+
+        // A name which is not part of the path is stored after it
+        int row = catalog.put("/Movies/Run.mp4", "Evening run", 34, 2000L, null);
+        assertEquals("/Movies/Walk.mp4/Movies/Run.mp4Evening run".length(), catalog.getByteCount());
+        assertEquals("Evening run", catalog.getName(row));
+        assertEquals("/Movies/Run.mp4", catalog.getFilepath(row));
+    }
+
+    @Test
+    public void put_samePath_replacesInItsRow()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        int row = catalog.put("/Movies/Walk.mp4", "Walk", 12, 1000L, null);
+        assertEquals(row, catalog.put("/Movies/Walk.mp4", "Walk again", 13, 3000L, null));
+
+        assertEquals(1, catalog.size());
+        assertEquals("Walk again", catalog.getName(row));
+        assertEquals(13, catalog.getDuration(row));
+        assertEquals(3000L, catalog.getTimestamp(row));
+    }
+
+    @Test
+    public void remove_freesRowForReuse()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        int walk = catalog.put("/Movies/Walk.mp4", "Walk", 12, 1000L, null);
+        catalog.put("/Movies/Run.mp4", "Run", 34, 2000L, null);
+
+        assertEquals(walk, catalog.remove("/Movies/Walk.mp4"));
+        assertEquals(VideoCatalog.NO_ROW, catalog.remove("/Movies/Walk.mp4"));
+        assertFalse(catalog.isLive(walk));
+        assertEquals(1, catalog.size());
+        assertEquals(VideoCatalog.NO_ROW, catalog.find("/Movies/Walk.mp4"));
+
+        assertEquals(walk, catalog.put("/Movies/Swim.mp4", "Swim", 56, 3000L, null));
+        assertTrue(catalog.isLive(walk));
+    }
+
+    @Test
+    public void nextRow_visitsLiveRowsOnly()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        for (int i = 0; i < 5; i++) catalog.put("/Movies/" + i + ".mp4", "" + i, i, i, null);
+        catalog.remove("/Movies/0.mp4");
+        catalog.remove("/Movies/3.mp4");
+
+        List<String> names = new ArrayList<>();
+        for (int row = catalog.nextRow(VideoCatalog.NO_ROW); row != VideoCatalog.NO_ROW; row = catalog.nextRow(row))
+        {
+            names.add(catalog.getName(row));
+        }
+        assertEquals(Arrays.asList("1", "2", "4"), names);
+    }
+
+    @Test
+    public void randomChanges_matchMap()
+    {
+        // Enough changes to grow the columns, rehash the table and compact the buffer several times
+        VideoCatalog catalog = new VideoCatalog(4);
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++)
+        {
+            String path = "/storage/emulated/0/Movies/Recording " + random.nextInt(5000) + ".mp4";
+            if (random.nextInt(3) == 0)
+            {
+                assertEquals(expected.remove(path) != null, catalog.remove(path) != VideoCatalog.NO_ROW);
+            }
+            else
+            {
+                int duration = random.nextInt(600);
+                catalog.put(path, path.substring(27, path.length() - 4), duration, i, null);
+                expected.put(path, duration);
+            }
+        }
+
+        assertEquals(expected.size(), catalog.size());
+        VideoCatalog.View view = catalog.view();
+        for (Map.Entry<String, Integer> entry : expected.entrySet())
+        {
+            view.moveTo(catalog.find(entry.getKey()));
+            assertEquals(entry.getKey(), view.getFilepath());
+            assertEquals(entry.getKey().substring(27, entry.getKey().length() - 4), view.getName());
+            assertEquals((int) entry.getValue(), view.getDuration());
+        }
+        assertTrue(catalog.getByteCount() < 4 * expected.size() * 50);
+    }
+
+    @Test
+    public void toVideoItem_matchesOriginal()
+    {
+        VideoItem video = new VideoItem("/Movies/Walk.mp4", "Walk", 12, new Date(1000L));
+        VideoCatalog catalog = VideoCatalog.of(Arrays.asList(video));
+        int row = catalog.find(video.getFilepath());
+
+        VideoItem copy = catalog.toVideoItem(row);
+        assertTrue(video.sameContents(copy));
+        assertEquals(video.getFilepath(), copy.getFilepath());
+        assertEquals(video.getStableId(), catalog.getStableId(row));
+    }
+
+    @Test
+    public void nonAsciiNames_roundTripAsUtf8()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        String path = "/Movies/Caf\u00e9 \ud83c\udfa5.mp4";
+        int inPath = catalog.put(path, "Caf\u00e9 \ud83c\udfa5", 5, 1, null);
+        int separate = catalog.put("/Movies/a.mp4", "\u00c9T\u00c9", 5, 1, null);
+
+        assertEquals(path, catalog.getFilepath(inPath));
+        assertEquals("Caf\u00e9 \ud83c\udfa5", catalog.getName(inPath));
+        assertEquals("\u00c9T\u00c9", catalog.getName(separate));
+        assertEquals(new VideoItem(path, "x", 0, new Date(0)).getStableId(), catalog.getStableId(inPath));
+        assertTrue(catalog.nameStartsWith(inPath, "CAF\u00c9"));
+        assertTrue(catalog.nameStartsWith(separate, "\u00e9t"));
+        assertEquals(inPath, catalog.find(path));
+    }
+
+    @Test
+    public void names_compareAndMatchIgnoringCase()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        int lower = catalog.put("/a.mp4", "p017 walk", 1, 1, null);
+        int upper = catalog.put("/b.mp4", "P017 Walk", 1, 1, null);
+        int other = catalog.put("/c.mp4", "P018", 1, 1, null);
+
+        assertEquals(0, catalog.compareNames(lower, upper));
+        assertEquals(Integer.signum(String.CASE_INSENSITIVE_ORDER.compare("p017 walk", "P018")), Integer.signum(catalog.compareNames(lower, other)));
+        assertTrue(catalog.nameStartsWith(upper, "p017"));
+        assertFalse(catalog.nameStartsWith(other, "P017"));
+        assertFalse(catalog.nameStartsWith(other, "P0189"));
+    }
+
+    @Test
+    public void query_matchesBruteForceForEveryPlan()
+    {
+        long now = 1600000000000L, day = 24 * 60 * 60 * 1000L;
+        VideoCatalog catalog = new VideoCatalog();
+        Random random = new Random(3);
+        for (int i = 0; i < 3000; i++)
+        {
+            String name = String.format("%s%03d %d", random.nextBoolean() ? "P" : "p", random.nextInt(40), i);
+            catalog.put("/Movies/" + name + ".mp4", name, random.nextInt(300), now - random.nextInt(30) * day, null);
+        }
+
+        // The indexes are kept up to date after the first query
+        catalog.query(new CatalogQuery());
+        for (int i = 0; i < 500; i++)
+        {
+            String name = String.format("P%03d %d", random.nextInt(40), random.nextInt(3000));
+            String path = "/Movies/" + name + ".mp4";
+            if (random.nextBoolean()) catalog.remove(path);
+            else catalog.put(path, name, random.nextInt(300), now - random.nextInt(30) * day, null);
+        }
+
+        List<CatalogQuery> queries = new ArrayList<>();
+        for (int order = CatalogQuery.BY_TIMESTAMP; order <= CatalogQuery.BY_NAME; order++)
+        {
+            for (boolean descending : new boolean[] {false, true})
+            {
+                queries.add(new CatalogQuery().orderBy(order, descending).page(10, 25));
+                queries.add(new CatalogQuery().orderBy(order, descending).timestampBetween(now - 7 * day, now));
+                queries.add(new CatalogQuery().orderBy(order, descending).durationBetween(60, 120).page(5, 10));
+                queries.add(new CatalogQuery().orderBy(order, descending).nameStartsWith("p017"));
+                queries.add(new CatalogQuery().orderBy(order, descending).timestampBetween(now - 7 * day, now)
+                        .durationBetween(61, Integer.MAX_VALUE).nameStartsWith("P017").page(1, 3));
+                queries.add(new CatalogQuery().orderBy(order, descending).durationBetween(100, 50));
+            }
+        }
+        for (CatalogQuery query : queries)
+        {
+            List<Integer> expected = bruteForce(catalog, query);
+            VideoCatalog.Page page = catalog.query(query);
+            List<Integer> actual = new ArrayList<>();
+            for (int i = 0; i < page.size(); i++) actual.add(page.getRow(i));
+
+            int from = Math.min(query.getOffset(), expected.size());
+            int to = (int) Math.min((long) from + query.getLimit(), expected.size());
+            assertEquals(expected.subList(from, to), actual);
+            assertEquals(to < expected.size(), page.hasMore());
+        }
+    }
+
+    @Test
+    public void query_replacedRecording_movesInIndex()
+    {
+        VideoCatalog catalog = new VideoCatalog();
+        int walk = catalog.put("/Movies/Walk.mp4", "Walk", 10, 1000L, null);
+        int run = catalog.put("/Movies/Run.mp4", "Run", 20, 2000L, null);
+        assertEquals(walk, catalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_DURATION, false)).getRow(0));
+
+        catalog.put("/Movies/Walk.mp4", "Walk", 30, 1000L, null);
+        VideoCatalog.Page page = catalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_DURATION, false));
+        assertEquals(2, page.size());
+        assertEquals(run, page.getRow(0));
+        assertEquals(walk, page.getRow(1));
+
+        catalog.remove("/Movies/Run.mp4");
+        assertEquals(1, catalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_NAME, false)).size());
+    }
+
+    @Test
+    public void query_afterEachRoundOfChanges_matchesBruteForce()
+    {
+        // Rows are removed, reused and replaced between queries, so every round updates the indexes in place
+        VideoCatalog catalog = new VideoCatalog();
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++)
+        {
+            for (int i = 0; i < 20; i++)
+            {
+                String name = "P" + random.nextInt(300);
+                String path = "/Movies/" + name + ".mp4";
+                if (random.nextInt(3) == 0) catalog.remove(path);
+                else catalog.put(path, name, random.nextInt(100), random.nextInt(1000), null);
+            }
+
+            CatalogQuery query = new CatalogQuery().orderBy(round % 3, round % 2 == 0).page(round % 40, 15);
+            List<Integer> expected = bruteForce(catalog, query);
+            VideoCatalog.Page page = catalog.query(query);
+            int from = Math.min(query.getOffset(), expected.size());
+            assertEquals(Math.min(15, expected.size() - from), page.size());
+            for (int i = 0; i < page.size(); i++) assertEquals((int) expected.get(from + i), page.getRow(i));
+        }
+    }
+
+    @Test
+    public void query_afterPutsInOrder_readsDeepPages()
+    {
+        // Recordings arriving in timestamp order would make an unbalanced tree as deep as the catalog
+        VideoCatalog catalog = new VideoCatalog();
+        catalog.query(new CatalogQuery());
+        int count = 200000;
+        for (int i = 0; i < count; i++) catalog.put("/Movies/" + i + ".mp4", Integer.toString(i), i, i, null);
+        for (int i = 0; i < count; i += 2) catalog.remove("/Movies/" + i + ".mp4");
+
+        VideoCatalog.Page page = catalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_TIMESTAMP, false).page(count / 4, 3));
+        assertEquals(3, page.size());
+        assertEquals(count / 2 + 1, catalog.getTimestamp(page.getRow(0)));
+        assertEquals(count / 2 + 5, catalog.getTimestamp(page.getRow(2)));
+
+        VideoCatalog.Page longest = catalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_DURATION, true).page(0, 1));
+        assertEquals(count - 1, catalog.getDuration(longest.getRow(0)));
+    }
+
+    @Test
+    public void query_fromSeveralThreads_readsOwnRanges() throws Exception
+    {
+        final VideoCatalog catalog = new VideoCatalog();
+        for (int i = 0; i < 2000; i++) catalog.put("/Movies/" + i + ".mp4", Integer.toString(i), i % 500, i, null);
+        catalog.query(new CatalogQuery());
+
+        // Each thread asks for a different range, which must not leak into the others' results
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int low = t * 100;
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 500; i++)
+                        {
+                            VideoCatalog.Page page = catalog.query(new CatalogQuery().durationBetween(low, low + 9));
+                            assertEquals(40, page.size());
+                            for (int j = 0; j < page.size(); j++)
+                            {
+                                int duration = catalog.getDuration(page.getRow(j));
+                                assertTrue(duration >= low && duration <= low + 9);
+                            }
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        errors.add(ex);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    /** Every row matching the query, sorted the same way as the indexes **/
+    private static List<Integer> bruteForce(final VideoCatalog _catalog, final CatalogQuery _query)
+    {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = _catalog.nextRow(VideoCatalog.NO_ROW); row != VideoCatalog.NO_ROW; row = _catalog.nextRow(row))
+        {
+            if (_query.matches(_catalog, row)) rows.add(row);
+        }
+        Comparator<Integer> order = new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer _lhs, Integer _rhs)
+            {
+                int result;
+                if (_query.getOrder() == CatalogQuery.BY_TIMESTAMP) result = Long.compare(_catalog.getTimestamp(_lhs), _catalog.getTimestamp(_rhs));
+                else if (_query.getOrder() == CatalogQuery.BY_DURATION) result = Integer.compare(_catalog.getDuration(_lhs), _catalog.getDuration(_rhs));
+                else result = String.CASE_INSENSITIVE_ORDER.compare(_catalog.getName(_lhs), _catalog.getName(_rhs));
+                return result != 0 ? result : Integer.compare(_lhs, _rhs);
+            }
+        };
+        Collections.sort(rows, _query.isDescending() ? Collections.reverseOrder(order) : order);
+        return rows;
+    }
+}
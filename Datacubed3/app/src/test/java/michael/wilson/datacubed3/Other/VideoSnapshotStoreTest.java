@@ -0,0 +1,135 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'VideoSnapshotStore'.
+ */
+public class VideoSnapshotStoreTest
+{
+    @Test
+    public void newStore_isEmpty()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        assertEquals(0, store.getVersion());
+        assertTrue(store.get().isEmpty());
+        assertEquals(0, store.get().getVersion());
+        assertEquals(0, store.getCatalog().size());
+    }
+
+    @Test
+    public void addAll_bumpsVersionOncePerChange()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        assertEquals(1, store.addAll(Arrays.asList(video(0), video(1), video(2))));
+        assertEquals(1, store.getVersion());
+        assertEquals(3, store.getCatalog().size());
+
+        // Nothing to add, nothing changed
+        assertEquals(1, store.addAll(Collections.<VideoItem>emptyList()));
+        assertEquals(1, store.addAll(Collections.<VideoItem>singletonList(null)));
+    }
+
+    @Test
+    public void get_materializesInListOrder()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Arrays.asList(video(2), video(0), video(1)));
+
+        VideoSnapshot snapshot = store.get();
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(Arrays.asList("/Movies/2.mp4", "/Movies/0.mp4", "/Movies/1.mp4"), paths(snapshot));
+        assertTrue(snapshot.get(0).sameContents(video(2)));
+    }
+
+    @Test
+    public void get_isNotAffectedByLaterChanges()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Arrays.asList(video(0), video(1)));
+        VideoSnapshot before = store.get();
+
+        store.remove("/Movies/0.mp4");
+        VideoSnapshot after = store.get();
+        assertEquals(2, before.size());
+        assertEquals(1, after.size());
+        assertTrue(after.getVersion() > before.getVersion());
+    }
+
+    @Test
+    public void addAll_replacesSamePathInPlace()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Arrays.asList(video(0), video(1), video(2)));
+
+        VideoItem renamed = new VideoItem("/Movies/1.mp4", "renamed", 7, new Date(1000L));
+        assertEquals(2, store.addAll(Collections.singletonList(renamed)));
+
+        VideoSnapshot snapshot = store.get();
+        assertEquals(3, snapshot.size());
+        assertEquals("/Movies/1.mp4", snapshot.get(1).getFilepath());
+        assertEquals("renamed", snapshot.get(1).getName());
+        assertEquals(7, snapshot.get(1).getDuration());
+    }
+
+    @Test
+    public void remove_leavesPlaceForNextRecording()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Arrays.asList(video(0), video(1), video(2)));
+
+        assertEquals(2, store.remove("/Movies/1.mp4"));
+        assertEquals(2, store.remove("/Movies/1.mp4"));
+        assertEquals(Arrays.asList("/Movies/0.mp4", "/Movies/2.mp4"), paths(store.get()));
+
+        store.addAll(Arrays.asList(video(3), video(4)));
+        assertEquals(Arrays.asList("/Movies/0.mp4", "/Movies/3.mp4", "/Movies/2.mp4", "/Movies/4.mp4"), paths(store.get()));
+    }
+
+    @Test
+    public void update_addsBeforeRemovingAsOneVersion()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Arrays.asList(video(0), video(1)));
+
+        // The recording added does not take the place of the one removed in the same change
+        assertEquals(2, store.update(Collections.singletonList(video(2)), Collections.singletonList("/Movies/0.mp4")));
+        assertEquals(Arrays.asList("/Movies/1.mp4", "/Movies/2.mp4"), paths(store.get()));
+
+        // Removing paths which are not in the store is no change
+        assertEquals(2, store.update(Collections.<VideoItem>emptyList(), Arrays.asList("/Movies/0.mp4", "/Movies/9.mp4")));
+    }
+
+    @Test
+    public void clear_removesEverythingAsNewVersion()
+    {
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Arrays.asList(video(0), video(1)));
+        assertEquals(2, store.clear());
+        assertTrue(store.get().isEmpty());
+        assertEquals(0, store.getCatalog().size());
+        assertEquals(VideoCatalog.NO_ROW, store.getCatalog().find("/Movies/0.mp4"));
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    private static VideoItem video(int _index)
+    {
+        return new VideoItem("/Movies/" + _index + ".mp4", Integer.toString(_index), _index, new Date(_index * 1000L));
+    }
+
+    private static List<String> paths(VideoSnapshot _snapshot)
+    {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < _snapshot.size(); i++) paths.add(_snapshot.get(i).getFilepath());
+        return paths;
+    }
+}
@@ -0,0 +1,429 @@
+package michael.wilson.datacubed3.Other;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for 'VideoStore', using an in-memory storage location and a fake metadata probe,
+ * so loading, concurrency and index behaviour can be tested at JVM speed without a device.
+ */
+public class VideoStoreTest
+{
+    private File mDirectory;
+    private FakeStorageLocation mStorage;
+    private FakeMetadataProbe mProbe;
+    private ManualClock mClock;
+    private final List<VideoStore> mStores = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mDirectory = Files.createTempDirectory("videostore").toFile();
+        mStorage = new FakeStorageLocation(mDirectory);
+        mProbe = new FakeMetadataProbe();
+        mClock = new ManualClock();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Let background index writes finish before the directory is deleted
+        for (VideoStore store : mStores)
+        {
+            store.destroy();
+            store.saveIndexNow();
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        mDirectory.delete();
+    }
+
+    @Test
+    public void load_100kEntries_probesOnceThenUsesIndex() throws Exception
+    {
+        int count = 100000;
+        putFiles(count);
+
+        VideoStore store = newStore();
+        store.load();
+        store.saveIndexNow();
+
+        VideoSnapshot snapshot = store.getSnapshot();
+        assertEquals(count, snapshot.size());
+        assertEquals(count, mProbe.getCalls());
+        for (int i = 1; i < snapshot.size(); i++)
+        {
+            assertTrue(snapshot.get(i - 1).getFilepath().compareTo(snapshot.get(i).getFilepath()) < 0);
+        }
+
+        // A fresh store, as after a restart, finds every recording in the index
+        mProbe.resetCalls();
+        VideoStore restarted = newStore();
+        restarted.load();
+
+        assertEquals(count, restarted.getSnapshot().size());
+        assertEquals(0, mProbe.getCalls());
+    }
+
+    @Test
+    public void load_reprobesOnlyChangedFiles() throws Exception
+    {
+        putFiles(1000);
+        VideoStore store = newStore();
+        store.load();
+        store.saveIndexNow();
+
+        // Rewrite 10 recordings, delete 5 and add 3
+        for (int i = 0; i < 10; i++) mStorage.put(name(i), 99999, 2048);
+        for (int i = 10; i < 15; i++) mStorage.delete(name(i));
+        for (int i = 1000; i < 1003; i++) mStorage.put(name(i), i, 1024);
+
+        mProbe.resetCalls();
+        VideoStore restarted = newStore();
+        restarted.load();
+        restarted.saveIndexNow();
+
+        assertEquals(13, mProbe.getCalls());
+        assertEquals(998, restarted.getSnapshot().size());
+        assertEquals(998, restarted.getIndex().size());
+        assertEquals(99999, restarted.getSnapshot().get(0).getTimestamp().getTime());
+    }
+
+    @Test
+    public void load_collectsFailures()
+    {
+        putFiles(100);
+        mProbe.markInvalid(name(3));
+        mProbe.markInvalid(name(50));
+
+        VideoStore store = newStore();
+        store.load();
+
+        assertEquals(98, store.getSnapshot().size());
+        assertEquals(2, store.getLoadFailures().size());
+        assertEquals(name(3), store.getLoadFailures().get(0).getFile().getName());
+        assertEquals(100, store.getIndex().size());
+    }
+
+    @Test
+    public void load_doesNotReprobeUnchangedInvalidFiles() throws Exception
+    {
+        putFiles(100);
+        mProbe.markInvalid(name(3));
+        VideoStore store = newStore();
+        store.load();
+        store.saveIndexNow();
+
+        // After a restart the invalid file is still reported, but only probed again once it changes
+        mProbe.resetCalls();
+        VideoStore restarted = newStore();
+        restarted.load();
+        assertEquals(0, mProbe.getCalls());
+        assertEquals(1, restarted.getLoadFailures().size());
+
+        mStorage.put(name(3), 99999, 2048);
+        restarted.load();
+        assertEquals(1, mProbe.getCalls());
+    }
+
+    @Test
+    public void load_publishesBoundedBatchesInOrder()
+    {
+        putFiles(1000);
+        final VideoStore store = newStore();
+        final List<long[]> changes = Collections.synchronizedList(new ArrayList<long[]>());
+        store.subscribe(new VideoStore.Listener()
+        {
+            @Override
+            public void onVideosChanged(long _version)
+            {
+                changes.add(new long[] { _version, store.getCatalog().size() });
+            }
+        });
+        store.load();
+
+        // The clock never moves, so batches are only handed out when they are full or the load ends
+        assertEquals(0, changes.get(0)[1]);
+        for (int i = 1; i < changes.size(); i++)
+        {
+            assertTrue(changes.get(i)[0] > changes.get(i - 1)[0]);
+            assertTrue(changes.get(i)[1] - changes.get(i - 1)[1] <= 16);
+        }
+        assertEquals(1000, changes.get(changes.size() - 1)[1]);
+        assertTrue("Only " + changes.size() + " notifications", changes.size() < 1000 / 8);
+    }
+
+    @Test
+    public void addAndRemove_whileLoading_keepsEveryChange() throws Exception
+    {
+        putFiles(20000);
+        final VideoStore store = newStore();
+
+        // Start changing the list once the load has published its first batch
+        final CountDownLatch firstBatch = new CountDownLatch(1);
+        store.subscribe(new VideoStore.Listener()
+        {
+            @Override
+            public void onVideosChanged(long _version)
+            {
+                if (!store.getCatalog().isEmpty()) firstBatch.countDown();
+            }
+        });
+        Thread loader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                store.load();
+            }
+        });
+        loader.start();
+        assertTrue(firstBatch.await(10, TimeUnit.SECONDS));
+
+        // Each writer adds 500 new recordings and removes every other one again
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++)
+        {
+            final int writer = w;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 500; i++)
+                    {
+                        String path = mStorage.file("new_" + writer + "_" + i + ".mp4").getAbsolutePath();
+                        store.add(new VideoItem(path, "new", 5, new Date(i)));
+                        if (i % 2 == 1) store.remove(path);
+                    }
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : writers) thread.join();
+        loader.join();
+
+        VideoSnapshot snapshot = store.getSnapshot();
+        Set<String> paths = new HashSet<>();
+        for (VideoItem video : snapshot.asList()) assertTrue(paths.add(video.getFilepath()));
+        assertEquals(20000 + 4 * 250, snapshot.size());
+    }
+
+    @Test
+    public void applyChanges_publishesOneSnapshotAndUpdatesIndex()
+    {
+        putFiles(100);
+        VideoStore store = newStore();
+        store.load();
+        VideoSnapshot before = store.getSnapshot();
+
+        List<File> changed = new ArrayList<>();
+        changed.add(mStorage.put(name(100), 100, 1024));
+        changed.add(mStorage.put(name(0), 12345, 4096));
+        List<File> removed = new ArrayList<>();
+        removed.add(mStorage.delete(name(1)));
+
+        mProbe.resetCalls();
+        store.applyChanges(changed, removed);
+        VideoSnapshot after = store.getSnapshot();
+
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertEquals(100, after.size());
+        assertEquals(2, mProbe.getCalls());
+        assertEquals(12345, after.get(0).getTimestamp().getTime());
+        assertEquals(name(100), new File(after.get(after.size() - 1).getFilepath()).getName());
+        assertEquals(100, store.getIndex().size());
+    }
+
+    @Test
+    public void load_segmentedRecording_isListedOnceWithTotalDuration() throws Exception
+    {
+        putFiles(3);
+        mStorage.put("Long.mp4", 1000, 4096);
+        mStorage.put("Long.part1.mp4", 2000, 4096);
+        mStorage.put("Long.part2.mp4", 3000, 4096);
+        mStorage.putManifest("Long.mp4", "Long.part1.mp4", "Long.part2.mp4");
+
+        VideoStore store = newStore();
+        store.load();
+        store.saveIndexNow();
+
+        VideoSnapshot snapshot = store.getSnapshot();
+        assertEquals(4, snapshot.size());
+        assertEquals(0, store.getLoadFailures().size());
+        VideoItem recording = snapshot.get(0);
+        assertEquals("Long", recording.getName());
+        assertEquals(3 * FakeMetadataProbe.DURATION, recording.getDuration());
+        assertEquals(1000, recording.getTimestamp().getTime());
+
+        // The total is indexed, until another segment is written
+        mProbe.resetCalls();
+        VideoStore restarted = newStore();
+        restarted.load();
+        assertEquals(0, mProbe.getCalls());
+
+        mStorage.put("Long.part2.mp4", 4000, 8192);
+        VideoStore rewritten = newStore();
+        rewritten.load();
+        assertEquals(3, mProbe.getCalls());
+    }
+
+    @Test
+    public void load_unreadableSegment_isSkipped()
+    {
+        mStorage.put("Long.mp4", 1000, 4096);
+        mStorage.put("Long.part1.mp4", 2000, 4096);
+        mStorage.put("Long.part2.mp4", 3000, 100);
+        mStorage.putManifest("Long.mp4", "Long.part1.mp4", "Long.part2.mp4");
+        mProbe.markInvalid("Long.part2.mp4");
+
+        VideoStore store = newStore();
+        store.load();
+
+        assertEquals(1, store.getSnapshot().size());
+        assertEquals(2 * FakeMetadataProbe.DURATION, store.getSnapshot().get(0).getDuration());
+    }
+
+    @Test
+    public void applyChanges_newSegment_updatesRecording()
+    {
+        mStorage.put("Long.mp4", 1000, 4096);
+        VideoStore store = newStore();
+        store.load();
+        assertEquals(FakeMetadataProbe.DURATION, store.getSnapshot().get(0).getDuration());
+
+        // The recorder rolls over to a second segment
+        List<File> changed = new ArrayList<>();
+        changed.add(mStorage.put("Long.part1.mp4", 2000, 4096));
+        changed.add(mStorage.putManifest("Long.mp4", "Long.part1.mp4"));
+        store.applyChanges(changed, Collections.<File>emptyList());
+
+        assertEquals(1, store.getSnapshot().size());
+        assertEquals(2 * FakeMetadataProbe.DURATION, store.getSnapshot().get(0).getDuration());
+
+        // Deleting the recording removes it, whatever order the watcher reports its files in
+        List<File> removed = new ArrayList<>();
+        removed.add(mStorage.delete("Long.part1.mp4"));
+        removed.add(mStorage.delete("Long.mp4"));
+        removed.add(mStorage.delete(SegmentedRecording.manifestFor(mStorage.file("Long.mp4")).getName()));
+        store.applyChanges(Collections.<File>emptyList(), removed);
+
+        assertTrue(store.getSnapshot().isEmpty());
+    }
+
+    @Test
+    public void metrics_areLoadedWithRecordingAndIndexed() throws Exception
+    {
+        RecordingMetrics metrics = new RecordingMetrics(900, 1, 30, 29.9f, 0.8f, 66.7f, 150);
+        mStorage.put("Walk.mp4", 1000, 4096);
+        mStorage.putMetrics("Walk.mp4", metrics);
+        mStorage.put("Run.mp4", 2000, 4096);
+
+        VideoStore store = newStore();
+        store.load();
+        store.saveIndexNow();
+
+        // The sidecar is not listed as a recording of its own
+        VideoSnapshot snapshot = store.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertNull(snapshot.get(0).getMetrics());
+        assertEquals(metrics, snapshot.get(1).getMetrics());
+
+        // The metrics are kept in the index, so a restart does not read the sidecar again
+        mProbe.resetCalls();
+        VideoStore restarted = newStore();
+        restarted.load();
+        assertEquals(0, mProbe.getCalls());
+        assertEquals(metrics, restarted.getSnapshot().get(1).getMetrics());
+    }
+
+    @Test
+    public void applyChanges_sidecarWrittenAfterRecording_updatesMetrics()
+    {
+        mStorage.put("Walk.mp4", 1000, 4096);
+        VideoStore store = newStore();
+        store.load();
+        assertNull(store.getSnapshot().get(0).getMetrics());
+
+        // The recorder writes the sidecar once the recording has been saved and indexed.
+        // Only the metrics of the index entry are replaced, the recording is not probed again.
+        RecordingMetrics metrics = new RecordingMetrics(900, 0, 30, 30f, 0.5f, 34f, 150);
+        mProbe.resetCalls();
+        store.applyChanges(Collections.singletonList(mStorage.putMetrics("Walk.mp4", metrics)), Collections.<File>emptyList());
+
+        assertEquals(0, mProbe.getCalls());
+        assertEquals(1, store.getSnapshot().size());
+        assertEquals(metrics, store.getSnapshot().get(0).getMetrics());
+        assertEquals(metrics, store.getIndex().lookup(mStorage.file("Walk.mp4"), 1000, 4096).getMetrics());
+
+        // A sidecar left behind by a deleted recording is ignored
+        List<File> removed = new ArrayList<>();
+        removed.add(mStorage.delete("Walk.mp4"));
+        store.applyChanges(Collections.<File>emptyList(), removed);
+        store.applyChanges(Collections.<File>emptyList(),
+                Collections.singletonList(mStorage.delete(RecordingMetrics.sidecarFor(mStorage.file("Walk.mp4")).getName())));
+        assertTrue(store.getSnapshot().isEmpty());
+    }
+
+    @Test
+    public void addRecorded_usesRecorderValuesWithoutProbing() throws Exception
+    {
+        VideoStore store = newStore();
+        store.load();
+        File file = mStorage.put("Long.mp4", 1000, 4096);
+        mStorage.put("Long.part1.mp4", 2000, 4096);
+        mStorage.putManifest("Long.mp4", "Long.part1.mp4");
+        RecordingMetrics metrics = new RecordingMetrics(1800, 0, 30, 30f, 0.5f, 34f, 150);
+
+        mProbe.resetCalls();
+        VideoItem video = store.addRecorded(file, 61, metrics);
+        store.saveIndexNow();
+        assertEquals(0, mProbe.getCalls());
+        assertEquals("Long", video.getName());
+        assertEquals(61, video.getDuration());
+        assertEquals(1000, video.getTimestamp().getTime());
+        assertEquals(1, store.getSnapshot().size());
+        assertEquals(metrics, store.getSnapshot().get(0).getMetrics());
+
+        // It is indexed with its segments, so neither a restart nor the folder watcher probes it
+        store.applyChanges(Collections.singletonList(mStorage.file("Long.part1.mp4")), Collections.<File>emptyList());
+        VideoStore restarted = newStore();
+        restarted.load();
+        assertEquals(0, mProbe.getCalls());
+        assertEquals(61, restarted.getSnapshot().get(0).getDuration());
+    }
+
+    /* ~~~ HELPERS ~~~ */
+
+    private VideoStore newStore()
+    {
+        VideoStore store = new VideoStore(mProbe, mStorage, mClock);
+        mStores.add(store);
+        return store;
+    }
+
+    private void putFiles(int _count)
+    {
+        for (int i = 0; i < _count; i++) mStorage.put(name(i), i, 1024);
+    }
+
+    private static String name(int _index)
+    {
+        return String.format("Recording %06d.mp4", _index);
+    }
+}
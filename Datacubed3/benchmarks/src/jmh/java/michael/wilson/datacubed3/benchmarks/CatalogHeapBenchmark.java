@@ -0,0 +1,93 @@
+package michael.wilson.datacubed3.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import michael.wilson.datacubed3.Other.CatalogQuery;
+import michael.wilson.datacubed3.Other.VideoCatalog;
+import michael.wilson.datacubed3.Other.VideoItem;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** CatalogHeapBenchmark
+ *
+ * Measures the heap kept per recording by an 'ArrayList' of 'VideoItem' objects and by a 'VideoCatalog' of the
+ * same recordings, without and with its sorted indexes. The retained heap is read after a full garbage collection and reported as the secondary
+ * result 'bytesPerEntry'; the primary result is the time taken to build the collection.
+ * Run with a fixed heap size, such as '-Xms1g -Xmx1g', so the collector does not resize it between readings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CatalogHeapBenchmark
+{
+    /** Number of recordings **/
+    @Param({"10000", "50000"})
+    public int size;
+
+    /** Heap retained per recording, reported next to the timing **/
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap
+    {
+        public long bytesPerEntry;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            bytesPerEntry = 0;
+        }
+    }
+
+    @Benchmark
+    public Object videoItemList(Heap _heap)
+    {
+        long before = usedHeap();
+        List<VideoItem> videos = new ArrayList<>(Fixtures.randomVideos(size, 42));
+        _heap.bytesPerEntry = (usedHeap() - before) / size;
+        return videos;
+    }
+
+    @Benchmark
+    public Object videoCatalog(Heap _heap)
+    {
+        long before = usedHeap();
+        VideoCatalog catalog = VideoCatalog.of(Fixtures.randomVideos(size, 42));
+        _heap.bytesPerEntry = (usedHeap() - before) / size;
+        return catalog;
+    }
+
+    @Benchmark
+    public Object videoCatalogIndexed(Heap _heap)
+    {
+        long before = usedHeap();
+        VideoCatalog catalog = VideoCatalog.of(Fixtures.randomVideos(size, 42));
+        catalog.query(new CatalogQuery());
+        _heap.bytesPerEntry = (usedHeap() - before) / size;
+        return catalog;
+    }
+
+    /** usedHeap()
+     *
+     * @return Bytes of heap in use after collecting garbage, so only reachable objects are counted.
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++)
+        {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,73 @@
+package michael.wilson.datacubed3.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import michael.wilson.datacubed3.Other.FilenameAllocator;
+import michael.wilson.datacubed3.Other.Filenames;
+import michael.wilson.datacubed3.Other.VideoSnapshotStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** FilenameBenchmark
+ *
+ * Measures finding a unique file name for a new recording, as 'CameraActivity.onCreate()' does,
+ * when a number of recordings with the same name already exist. 'uniqueFile' is the original loop of
+ * 'exists()' calls, 'allocate' is the 'FilenameAllocator' which knows the existing recordings from the list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilenameBenchmark
+{
+    /** Number of existing recordings with the same name **/
+    @Param({"0", "10", "100", "1000"})
+    public int collisions;
+
+    /** Folder holding the existing recordings **/
+    private File mFolder;
+
+    /** Allocator which knows the existing recordings **/
+    private FilenameAllocator mAllocator;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        mFolder = Fixtures.createTempFolder("filenames");
+        if (collisions > 0) new File(mFolder, "Untitled.mp4").createNewFile();
+        for (int k = 0; k < collisions - 1; k++) new File(mFolder, "Untitled" + k + ".mp4").createNewFile();
+
+        VideoSnapshotStore store = new VideoSnapshotStore();
+        store.addAll(Fixtures.videosIn(mFolder));
+        mAllocator = new FilenameAllocator(mFolder, store.getCatalog());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Fixtures.deleteFolder(mFolder);
+    }
+
+    @Benchmark
+    public File uniqueFile()
+    {
+        return Filenames.uniqueFile(mFolder, "Untitled", ".mp4");
+    }
+
+    @Benchmark
+    public File allocate() throws IOException
+    {
+        // Released straight away, so every call allocates the same name again
+        File file = mAllocator.allocate("Untitled", ".mp4");
+        mAllocator.release(file);
+        return file;
+    }
+}
@@ -0,0 +1,129 @@
+package michael.wilson.datacubed3.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import michael.wilson.datacubed3.Other.Filenames;
+import michael.wilson.datacubed3.Other.MetadataProbe;
+import michael.wilson.datacubed3.Other.ProbePool;
+import michael.wilson.datacubed3.Other.VideoItem;
+
+/** Fixtures
+ *
+ * Synthetic folders, recordings and a stubbed metadata probe shared by the benchmarks.
+ */
+final class Fixtures
+{
+    /** Duration reported by the stubbed probe, in seconds **/
+    static final int STUB_DURATION = 30;
+
+    /** Probe which builds a 'VideoItem' from the file alone, without reading any video metadata **/
+    static final ProbePool.Probe STUB_PROBE = new ProbePool.Probe()
+    {
+        @Override
+        public VideoItem probe(File _file)
+        {
+            return stubVideo(_file);
+        }
+    };
+
+    /** Metadata probe which reports the same duration for every file, for benchmarking 'VideoStore' **/
+    static final MetadataProbe STUB_METADATA = new MetadataProbe()
+    {
+        @Override
+        public int getDuration(File _file)
+        {
+            return STUB_DURATION;
+        }
+    };
+
+    private Fixtures() { }
+
+    /** createTempFolder()
+     *
+     * @param _prefix Prefix of the folder name.
+     * @return A new, empty folder in the temporary directory.
+     */
+    static File createTempFolder(String _prefix) throws IOException
+    {
+        return Files.createTempDirectory("datacubed3-" + _prefix).toFile();
+    }
+
+    /** createVideoFiles()
+     *
+     * @param _folder Folder to create the files in.
+     * @param _count Number of files to create.
+     * @return The created, empty '.mp4' files, in name order.
+     */
+    static List<File> createVideoFiles(File _folder, int _count) throws IOException
+    {
+        List<File> files = new ArrayList<>(_count);
+        for (int i = 0; i < _count; i++)
+        {
+            File file = new File(_folder, String.format("Recording %05d.mp4", i));
+            file.createNewFile();
+            files.add(file);
+        }
+        return files;
+    }
+
+    /** stubVideo()
+     *
+     * @param _file A file.
+     * @return A recording for the file, built from its name and last modified time only.
+     */
+    static VideoItem stubVideo(File _file)
+    {
+        return new VideoItem(_file.getAbsolutePath(), Filenames.stripFiletype(_file.getName()),
+                STUB_DURATION, new Date(_file.lastModified()));
+    }
+
+    /** videosIn()
+     *
+     * @param _folder A folder.
+     * @return A recording for every file in the folder, as 'stubVideo()' creates them.
+     */
+    static List<VideoItem> videosIn(File _folder)
+    {
+        List<VideoItem> videos = new ArrayList<>();
+        File[] files = _folder.listFiles();
+        if (files != null) for (File file : files) videos.add(stubVideo(file));
+        return videos;
+    }
+
+    /** deleteFolder()
+     *
+     * @param _folder Folder to delete, with the files in it. May be null.
+     */
+    static void deleteFolder(File _folder)
+    {
+        if (_folder == null) return;
+        File[] files = _folder.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        _folder.delete();
+    }
+
+    /** randomVideos()
+     *
+     * @param _count Number of recordings.
+     * @param _seed Seed of the random generator, so every run gets the same recordings.
+     * @return Recordings with random names, durations and timestamps from the last year.
+     */
+    static List<VideoItem> randomVideos(int _count, long _seed)
+    {
+        Random random = new Random(_seed);
+        long now = System.currentTimeMillis();
+        List<VideoItem> videos = new ArrayList<>(_count);
+        for (int i = 0; i < _count; i++)
+        {
+            String name = "Recording " + Integer.toString(random.nextInt(1 << 20), 36);
+            long timestamp = now - (long) (random.nextDouble() * 365L * 24 * 60 * 60 * 1000);
+            videos.add(new VideoItem("/storage/Movies/" + name + i + ".mp4", name, 1 + random.nextInt(600), new Date(timestamp)));
+        }
+        return videos;
+    }
+}
@@ -0,0 +1,92 @@
+package michael.wilson.datacubed3.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import michael.wilson.datacubed3.Other.Filenames;
+import michael.wilson.datacubed3.Other.LabelFormatter;
+import michael.wilson.datacubed3.Other.VideoItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** LabelBenchmark
+ *
+ * Measures the formatting of the clock, name and timestamp labels, and 'Filenames.stripFiletype()'.
+ * 'legacyFormatClock' is the original 'Database.FORMAT_CLOCK()' implementation, kept as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LabelBenchmark
+{
+    /** Formatter reused by every call, as the labels in the app do **/
+    private LabelFormatter mFormatter;
+
+    /** Recording with a cached timestamp label **/
+    private VideoItem mVideo;
+
+    /** Duration formatted by the next call, cycles through ten minutes **/
+    private int mDuration;
+
+    @Setup
+    public void setup()
+    {
+        mFormatter = new LabelFormatter();
+        mVideo = new VideoItem("/storage/Movies/Recording 12.mp4", "Recording 12", 95, new Date());
+        mFormatter.formatTimestamp(mVideo);
+    }
+
+    /** nextDuration()
+     *
+     * @return A different duration on every call, so the results cannot be constant folded.
+     */
+    private int nextDuration()
+    {
+        mDuration = (mDuration + 1) % 600;
+        return mDuration;
+    }
+
+    @Benchmark
+    public String legacyFormatClock()
+    {
+        int duration = nextDuration();
+        int minutes = duration / 60;
+        int seconds = duration - (minutes * 60);
+        return minutes+":"+String.format("%02d", seconds);
+    }
+
+    @Benchmark
+    public String formatClockString()
+    {
+        // What 'Database.FORMAT_CLOCK()' does now
+        return LabelFormatter.appendClock(new StringBuilder(8), nextDuration()).toString();
+    }
+
+    @Benchmark
+    public int formatClockBuffer()
+    {
+        return mFormatter.formatClock(nextDuration());
+    }
+
+    @Benchmark
+    public int formatName()
+    {
+        return mFormatter.formatName(mVideo.getName(), nextDuration());
+    }
+
+    @Benchmark
+    public String formatTimestampCached()
+    {
+        return mFormatter.formatTimestamp(mVideo);
+    }
+
+    @Benchmark
+    public String stripFiletype()
+    {
+        return Filenames.stripFiletype("Recording 12.mp4");
+    }
+}
@@ -0,0 +1,134 @@
+package michael.wilson.datacubed3.benchmarks;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import michael.wilson.datacubed3.Other.Clock;
+import michael.wilson.datacubed3.Other.FolderStorageLocation;
+import michael.wilson.datacubed3.Other.ProbePool;
+import michael.wilson.datacubed3.Other.VideoBatcher;
+import michael.wilson.datacubed3.Other.VideoIndex;
+import michael.wilson.datacubed3.Other.VideoItem;
+import michael.wilson.datacubed3.Other.VideoSnapshot;
+import michael.wilson.datacubed3.Other.VideoSnapshotStore;
+import michael.wilson.datacubed3.Other.VideoStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** LoadBenchmark
+ *
+ * Measures loading the list of recordings from a synthetic folder, the same way 'Database.LOAD_VIDEOS()' does:
+ * list and sort the folder, probe the files on the 'ProbePool' and publish them in batches to a 'VideoSnapshotStore'.
+ * The metadata probe is stubbed, so this measures the loading pipeline rather than the video decoder.
+ * 'loadVideoStore' runs the real 'VideoStore.load()' against the same folder, with every file already indexed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadBenchmark
+{
+    /** Number of files in the synthetic folder **/
+    @Param({"10000"})
+    public int fileCount;
+
+    /** Folder holding the synthetic recordings **/
+    private File mFolder;
+
+    /** Index of every file in the folder, as it is after the first load **/
+    private VideoIndex mIndex;
+
+    /** Pool which probes the files **/
+    private ProbePool mPool;
+
+    /** Store loading the folder, its index file holds every file **/
+    private VideoStore mStore;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        mFolder = Fixtures.createTempFolder("load");
+        List<File> files = Fixtures.createVideoFiles(mFolder, fileCount);
+
+        mIndex = new VideoIndex(new File(mFolder.getParentFile(), mFolder.getName() + ".idx"));
+        for (File file : files) mIndex.put(file, Fixtures.STUB_PROBE.probe(file));
+
+        mPool = new ProbePool();
+
+        File storeIndex = new File(mFolder.getParentFile(), mFolder.getName() + "-store.idx");
+        VideoIndex index = new VideoIndex(storeIndex);
+        for (File file : files) index.put(file, Fixtures.STUB_PROBE.probe(file));
+        index.save();
+        mStore = new VideoStore(Fixtures.STUB_METADATA, new FolderStorageLocation(mFolder, storeIndex), Clock.SYSTEM);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        mPool.cancel();
+        mStore.destroy();
+        Fixtures.deleteFolder(mFolder);
+        new File(mFolder.getParentFile(), mFolder.getName() + "-store.idx").delete();
+    }
+
+    @Benchmark
+    public VideoSnapshot loadProbed()
+    {
+        return load(Fixtures.STUB_PROBE);
+    }
+
+    @Benchmark
+    public VideoSnapshot loadIndexed()
+    {
+        // Every file is already in the index, so nothing needs probing
+        return load(new ProbePool.Probe()
+        {
+            @Override
+            public VideoItem probe(File _file) throws Exception
+            {
+                VideoItem video = mIndex.lookup(_file);
+                return video != null ? video : Fixtures.STUB_PROBE.probe(_file);
+            }
+        });
+    }
+
+    @Benchmark
+    public VideoSnapshot loadVideoStore()
+    {
+        mStore.load();
+        return mStore.getSnapshot();
+    }
+
+    /** load()
+     *
+     * @param _probe Probe for the files which are not indexed.
+     * @return Snapshot of all recordings in the folder.
+     */
+    private VideoSnapshot load(ProbePool.Probe _probe)
+    {
+        final VideoSnapshotStore store = new VideoSnapshotStore();
+
+        File[] files = mFolder.listFiles();
+        if (files == null) files = new File[0];
+        Arrays.sort(files);
+
+        VideoBatcher batcher = new VideoBatcher(16, 50, new VideoBatcher.Listener()
+        {
+            @Override
+            public void onBatch(List<VideoItem> _batch)
+            {
+                store.addAll(_batch);
+            }
+        });
+        mPool.probeAll(Arrays.asList(files), _probe, batcher);
+        return store.get();
+    }
+}
@@ -0,0 +1,155 @@
+package michael.wilson.datacubed3.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import michael.wilson.datacubed3.Other.CatalogQuery;
+import michael.wilson.datacubed3.Other.VideoCatalog;
+import michael.wilson.datacubed3.Other.VideoItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** VideoListBenchmark
+ *
+ * Measures sorting and filtering collections of 'VideoItem' objects, as the gallery would when the
+ * recordings are ordered by date, name or duration, or searched by name.
+ * The 'query' benchmarks answer the same questions for one page from the sorted indexes of a 'VideoCatalog'.
+ * 'queryOldestPage' reads the last page of the newest first order, which should cost no more than the first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VideoListBenchmark
+{
+    /** Number of recordings **/
+    @Param({"1000", "10000"})
+    public int size;
+
+    /** Recordings in random order **/
+    private List<VideoItem> mVideos;
+
+    /** The same recordings in a catalog, with its indexes built **/
+    private VideoCatalog mCatalog;
+
+    /** Newest recordings first **/
+    private static final Comparator<VideoItem> BY_TIMESTAMP = new Comparator<VideoItem>()
+    {
+        @Override
+        public int compare(VideoItem _lhs, VideoItem _rhs)
+        {
+            return _rhs.getTimestamp().compareTo(_lhs.getTimestamp());
+        }
+    };
+
+    /** Alphabetical, ignoring case **/
+    private static final Comparator<VideoItem> BY_NAME = new Comparator<VideoItem>()
+    {
+        @Override
+        public int compare(VideoItem _lhs, VideoItem _rhs)
+        {
+            return String.CASE_INSENSITIVE_ORDER.compare(_lhs.getName(), _rhs.getName());
+        }
+    };
+
+    /** Shortest recordings first **/
+    private static final Comparator<VideoItem> BY_DURATION = new Comparator<VideoItem>()
+    {
+        @Override
+        public int compare(VideoItem _lhs, VideoItem _rhs)
+        {
+            return Integer.compare(_lhs.getDuration(), _rhs.getDuration());
+        }
+    };
+
+    @Setup
+    public void setup()
+    {
+        mVideos = Fixtures.randomVideos(size, 42);
+        mCatalog = VideoCatalog.of(mVideos);
+        mCatalog.query(new CatalogQuery());
+    }
+
+    @Benchmark
+    public List<VideoItem> sortByTimestamp()
+    {
+        return sorted(BY_TIMESTAMP);
+    }
+
+    @Benchmark
+    public List<VideoItem> sortByName()
+    {
+        return sorted(BY_NAME);
+    }
+
+    @Benchmark
+    public List<VideoItem> sortByDuration()
+    {
+        return sorted(BY_DURATION);
+    }
+
+    @Benchmark
+    public List<VideoItem> filterByName()
+    {
+        List<VideoItem> result = new ArrayList<>();
+        for (VideoItem video : mVideos)
+        {
+            if (video.getName().regionMatches(true, 10, "a", 0, 1)) result.add(video);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<VideoItem> filterByDuration()
+    {
+        List<VideoItem> result = new ArrayList<>();
+        for (VideoItem video : mVideos)
+        {
+            if (video.getDuration() >= 60 && video.getDuration() < 300) result.add(video);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public VideoCatalog.Page queryNewestPage()
+    {
+        return mCatalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_TIMESTAMP, true).page(0, 50));
+    }
+
+    @Benchmark
+    public VideoCatalog.Page queryOldestPage()
+    {
+        return mCatalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_TIMESTAMP, true).page(size - 50, 50));
+    }
+
+    @Benchmark
+    public VideoCatalog.Page queryByNamePrefix()
+    {
+        return mCatalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_NAME, false).nameStartsWith("Recording a").page(0, 50));
+    }
+
+    @Benchmark
+    public VideoCatalog.Page queryByDurationRange()
+    {
+        return mCatalog.query(new CatalogQuery().orderBy(CatalogQuery.BY_DURATION, false).durationBetween(60, 299).page(0, 50));
+    }
+
+    /** sorted()
+     *
+     * @param _comparator Order of the recordings.
+     * @return A sorted copy of the recordings.
+     */
+    private List<VideoItem> sorted(Comparator<VideoItem> _comparator)
+    {
+        List<VideoItem> copy = new ArrayList<>(mVideos);
+        Collections.sort(copy, _comparator);
+        return copy;
+    }
+}